@@ -135,6 +135,7 @@ public static CLIText get() {
 	/***/ public String remoteRefObjectChangedIsNotExpectedOne;
 	/***/ public String remoteSideDoesNotSupportDeletingRefs;
 	/***/ public String repaint;
+	/***/ public String repositoryStatistics;
 	/***/ public String serviceNotSupported;
 	/***/ public String skippingObject;
 	/***/ public String timeInMilliSeconds;
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.pgm;
+
+import java.text.MessageFormat;
+
+import org.kohsuke.args4j.Option;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.storage.file.GC;
+
+@Command(common = true, usage = "usage_CleanupUnnecessaryFilesAndOptimizeRepository")
+class Gc extends TextBuiltin {
+	@Option(name = "--expire", metaVar = "metaVar_seconds", usage = "usage_pruneUnreachableObjectsOlderThan")
+	private int expire = (int) (GC.DEFAULT_EXPIRE_AGE / 1000);
+
+	@Option(name = "--geometric", metaVar = "metaVar_n", usage = "usage_mergeSmallestPacksGeometrically")
+	private int geometric;
+
+	@Override
+	protected void run() throws Exception {
+		final GC.RepoStatistics s = new Git(db).gc()
+				.setProgressMonitor(new TextProgressMonitor())
+				.setExpireAge(expire * 1000L)
+				.setGeometricFactor(geometric).call();
+		out.println(MessageFormat.format(CLIText.get().repositoryStatistics,
+				String.valueOf(s.getLooseObjectCount()), String.valueOf(s
+						.getLooseSize()), String.valueOf(s.getPackCount()),
+				String.valueOf(s.getPackedObjectCount()), String.valueOf(s
+						.getPackedSize()), String.valueOf(s.getLooseRefCount()),
+				String.valueOf(s.getPackedRefCount())));
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.events.ConfigChangedEvent;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+
+public class AbbreviationTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private ObjectReader reader;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		reader = db.newObjectReader();
+	}
+
+	protected void tearDown() throws Exception {
+		if (reader != null)
+			reader.release();
+		super.tearDown();
+	}
+
+	public void testAbbreviateOnEmptyRepository() throws Exception {
+		final ObjectId id = id("9d5b926ed164e8ee88d3b8b1e525d699adda01ba");
+
+		assertEquals(id.abbreviate(2), reader.abbreviate(id, 2));
+		assertEquals(id.abbreviate(7), reader.abbreviate(id));
+		assertEquals(id.abbreviate(8), id.abbreviate(db));
+
+		final AbbreviatedObjectId full = AbbreviatedObjectId.fromObjectId(id);
+		assertEquals(full, reader.abbreviate(id, 40));
+
+		assertTrue(reader.resolve(id.abbreviate(2)).isEmpty());
+		assertTrue(reader.resolve(full).isEmpty());
+	}
+
+	public void testAbbreviateLooseBlob() throws Exception {
+		final ObjectId id = insert("test");
+
+		assertEquals(id.abbreviate(2), reader.abbreviate(id, 2));
+		assertEquals(id.abbreviate(7), reader.abbreviate(id));
+
+		final Collection<ObjectId> matches = reader.resolve(reader
+				.abbreviate(id));
+		assertEquals(1, matches.size());
+		assertEquals(id, matches.iterator().next());
+
+		assertEquals(Collections.singleton(id), reader
+				.resolve(AbbreviatedObjectId.fromObjectId(id)));
+	}
+
+	public void testAbbreviateLooseBlobWithCache() throws Exception {
+		db.getConfig().setBoolean("core", null, "looseobjectcache", true);
+		db.getObjectDatabase().onConfigChanged(new ConfigChangedEvent());
+		final ObjectId id = insert("test");
+
+		final Collection<ObjectId> matches = reader.resolve(id.abbreviate(4));
+		assertEquals(1, matches.size());
+		assertEquals(id, matches.iterator().next());
+	}
+
+	public void testAbbreviatePackedBlob() throws Exception {
+		final ObjectId id = id("9d5b926ed164e8ee88d3b8b1e525d699adda01ba");
+		writeIdx(id);
+
+		assertEquals(id.abbreviate(2), reader.abbreviate(id, 2));
+		assertEquals(id.abbreviate(7), reader.abbreviate(id));
+
+		final Collection<ObjectId> matches = reader.resolve(id.abbreviate(8));
+		assertEquals(1, matches.size());
+		assertEquals(id, matches.iterator().next());
+		assertTrue(reader.resolve(id("9d5b927").abbreviate(7)).isEmpty());
+	}
+
+	public void testAbbreviateIsActuallyUnique() throws Exception {
+		// This test is far more difficult. We have to manually craft
+		// an input that contains collisions at a particular prefix,
+		// but this is computationally difficult. Instead we force an
+		// index file to have what we want.
+		//
+		final ObjectId id = id("9d5b926ed164e8ee88d3b8b1e525d699adda01ba");
+		final byte[] idBuf = toByteArray(id);
+		final List<PackedObjectInfo> objects = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < 256; i++) {
+			idBuf[9] = (byte) i;
+			objects.add(new PackedObjectInfo(ObjectId.fromRaw(idBuf)));
+		}
+		writeIdx(objects);
+
+		assertEquals(id.abbreviate(20), reader.abbreviate(id, 2));
+
+		final AbbreviatedObjectId abbrev8 = id.abbreviate(8);
+		final Collection<ObjectId> matches = reader.resolve(abbrev8);
+		assertEquals(objects.size(), matches.size());
+		for (PackedObjectInfo info : objects)
+			assertTrue("contains " + info.name(), matches.contains(info));
+	}
+
+	public void testAbbreviateLooseAndPacked() throws Exception {
+		final ObjectId packed = id("9d5b926ed164e8ee88d3b8b1e525d699adda01ba");
+		final ObjectId loose = id("9d5b926ed164e8ee88d3b8b1e525d699adda02ba");
+		writeIdx(packed);
+		writeLoose(loose);
+
+		assertEquals(packed.abbreviate(38), reader.abbreviate(packed, 2));
+		assertEquals(loose.abbreviate(38), reader.abbreviate(loose, 2));
+
+		final Collection<ObjectId> matches = reader.resolve(packed
+				.abbreviate(37));
+		assertEquals(2, matches.size());
+		assertTrue(matches.contains(packed));
+		assertTrue(matches.contains(loose));
+	}
+
+	public void testAbbreviateUsesAlternates() throws Exception {
+		final FileRepository alt = createBareRepository();
+		final ObjectId id = id("9d5b926ed164e8ee88d3b8b1e525d699adda01ba");
+		final ObjectId local = id("9d5b926ed164e8ee88d3b8b1e525d699adda02ba");
+		writeIdx(alt, list(id));
+		writeLoose(local);
+
+		final File info = new File(db.getObjectsDirectory(), "info");
+		info.mkdirs();
+		write(new File(info, "alternates"), alt.getObjectsDirectory()
+				.getAbsolutePath()
+				+ "\n");
+
+		final Collection<ObjectId> matches = reader.resolve(id.abbreviate(8));
+		assertEquals(2, matches.size());
+		assertTrue(matches.contains(id));
+		assertTrue(matches.contains(local));
+	}
+
+	public void testResolveStopsAtLimit() throws Exception {
+		final byte[] idBuf = new byte[Constants.OBJECT_ID_LENGTH];
+		final List<PackedObjectInfo> objects = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < 2 * FileObjectDatabase.RESOLVE_ABBREV_LIMIT; i++) {
+			idBuf[0] = (byte) 0x12;
+			idBuf[1] = (byte) (i >>> 8);
+			idBuf[2] = (byte) i;
+			objects.add(new PackedObjectInfo(ObjectId.fromRaw(idBuf)));
+		}
+		writeIdx(objects);
+
+		final AbbreviatedObjectId abbrev = AbbreviatedObjectId.fromString("1");
+		final Collection<ObjectId> matches = reader.resolve(abbrev);
+		assertTrue(FileObjectDatabase.RESOLVE_ABBREV_LIMIT < matches.size());
+		assertTrue(matches.size() < objects.size());
+		for (ObjectId m : matches)
+			assertEquals(0, abbrev.prefixCompare(m));
+	}
+
+	public void testAbbreviateBeyondResolveLimit() throws Exception {
+		final byte[] idBuf = new byte[Constants.OBJECT_ID_LENGTH];
+		final List<PackedObjectInfo> objects = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < 2 * FileObjectDatabase.RESOLVE_ABBREV_LIMIT; i++) {
+			idBuf[0] = (byte) 0x12;
+			idBuf[1] = (byte) (i >>> 8);
+			idBuf[2] = (byte) i;
+			objects.add(new PackedObjectInfo(ObjectId.fromRaw(idBuf)));
+		}
+
+		// Both sort after every candidate "12" finds before it stops.
+		final ObjectId id = id("12ff00");
+		final ObjectId other = id("12ff01");
+		objects.add(new PackedObjectInfo(id));
+		objects.add(new PackedObjectInfo(other));
+		writeIdx(objects);
+
+		assertEquals(id.abbreviate(6), reader.abbreviate(id, 2));
+		assertEquals(other.abbreviate(6), reader.abbreviate(other, 2));
+	}
+
+	private static ObjectId id(String name) {
+		while (name.length() < Constants.OBJECT_ID_STRING_LENGTH)
+			name += "0";
+		return ObjectId.fromString(name);
+	}
+
+	private static List<PackedObjectInfo> list(final ObjectId id) {
+		final List<PackedObjectInfo> objects = new ArrayList<PackedObjectInfo>();
+		objects.add(new PackedObjectInfo(id));
+		return objects;
+	}
+
+	private static byte[] toByteArray(final ObjectId id) {
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+		id.copyRawTo(buf, 0);
+		return buf;
+	}
+
+	private ObjectId insert(final String content) throws IOException {
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			final ObjectId id = ins.insert(Constants.OBJ_BLOB, Constants
+					.encode(content));
+			ins.flush();
+			return id;
+		} finally {
+			ins.release();
+		}
+	}
+
+	private void writeLoose(final ObjectId id) throws IOException {
+		final File path = db.getObjectDatabase().fileFor(id);
+		path.getParentFile().mkdirs();
+		write(path, "");
+	}
+
+	private void writeIdx(final ObjectId id) throws IOException {
+		writeIdx(list(id));
+	}
+
+	private void writeIdx(final List<PackedObjectInfo> objects)
+			throws IOException {
+		writeIdx(db, objects);
+	}
+
+	private static void writeIdx(final FileRepository repo,
+			final List<PackedObjectInfo> objects) throws IOException {
+		Collections.sort(objects);
+		final File packDir = new File(repo.getObjectsDirectory(), "pack");
+		packDir.mkdirs();
+		final String name = "pack-" + objects.get(0).name();
+		final File packFile = new File(packDir, name + ".pack");
+		final File idxFile = new File(packDir, name + ".idx");
+
+		new FileOutputStream(packFile).close();
+		final FileOutputStream dst = new FileOutputStream(idxFile);
+		try {
+			PackIndexWriter.createVersion(dst, 2).write(objects,
+					new byte[Constants.OBJECT_ID_LENGTH]);
+		} finally {
+			dst.close();
+		}
+		repo.getObjectDatabase().openPack(packFile, idxFile);
+	}
+}
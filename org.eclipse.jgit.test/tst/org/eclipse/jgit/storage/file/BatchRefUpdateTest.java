@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+public class BatchRefUpdateTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private TestRepository<FileRepository> repo;
+
+	private RevCommit A;
+
+	private RevCommit B;
+
+	private RevTag v1_0;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = createBareRepository();
+		repo = new TestRepository<FileRepository>(db);
+		A = repo.commit().create();
+		B = repo.commit(A);
+		v1_0 = repo.tag("v1_0", B);
+	}
+
+	public void testCreateManyWritesOnlyPackedRefs() throws Exception {
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		for (int i = 0; i < 200; i++)
+			batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), A,
+					"refs/heads/b" + i));
+		batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), v1_0,
+				"refs/tags/v1_0"));
+		batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), B,
+				"refs/heads/dir/b"));
+		execute(batch);
+
+		for (final ReceiveCommand cmd : batch.getCommands())
+			assertEquals(ReceiveCommand.Result.OK, cmd.getResult());
+		assertEquals(0, new File(db.getDirectory(), "refs/heads").list().length);
+		assertTrue(new File(db.getDirectory(), "packed-refs").isFile());
+
+		assertEquals(A, db.resolve("refs/heads/b0"));
+		assertEquals(A, db.resolve("refs/heads/b199"));
+		assertEquals(B, db.resolve("refs/heads/dir/b"));
+		final Ref tag = db.getRef("refs/tags/v1_0");
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(B, tag.getPeeledObjectId());
+		assertEquals(202, db.getRefDatabase().getRefs("refs/").size());
+	}
+
+	public void testSmallBatchUsesLooseRefs() throws Exception {
+		final LockFile packedLock = new LockFile(new File(db.getDirectory(),
+				"packed-refs"), db.getFS());
+		assertTrue(packedLock.lock());
+		try {
+			final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+			batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), A,
+					"refs/heads/topic"));
+			execute(batch);
+			assertEquals(ReceiveCommand.Result.OK, batch.getCommands().get(0)
+					.getResult());
+		} finally {
+			packedLock.unlock();
+		}
+		assertTrue(new File(db.getDirectory(), "refs/heads/topic").isFile());
+		assertFalse(new File(db.getDirectory(), "packed-refs").exists());
+		assertEquals(A, db.resolve("refs/heads/topic"));
+	}
+
+	public void testLooseRefIsReplaced() throws Exception {
+		repo.update("refs/heads/master", A);
+		final File loose = new File(db.getDirectory(), "refs/heads/master");
+		assertTrue(loose.isFile());
+
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.addCommand(new ReceiveCommand(A, B, "refs/heads/master"));
+		addFiller(batch);
+		execute(batch);
+
+		assertEquals(ReceiveCommand.Result.OK, batch.getCommands().get(0)
+				.getResult());
+		assertFalse(loose.exists());
+		assertEquals(B, db.resolve("refs/heads/master"));
+		assertEquals(B, db.resolve(HEAD));
+	}
+
+	public void testPackedRefLockedWhileUpdated() throws Exception {
+		repo.update("refs/heads/p", A);
+		((RefDirectory) db.getRefDatabase()).pack(Collections
+				.singleton("refs/heads/p"));
+		final File loose = new File(db.getDirectory(), "refs/heads/p");
+		assertFalse(loose.exists());
+
+		// A RefUpdate of the packed reference holds only this lock.
+		final LockFile looseLock = new LockFile(loose, db.getFS());
+		assertTrue(looseLock.lock());
+		final ReceiveCommand p = new ReceiveCommand(A, B, "refs/heads/p");
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.addCommand(p);
+		addFiller(batch);
+		try {
+			execute(batch);
+		} finally {
+			looseLock.unlock();
+		}
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, p.getResult());
+		assertEquals(A, db.resolve("refs/heads/p"));
+		assertEquals(A, db.resolve("refs/heads/f0"));
+	}
+
+	public void testUnpeeledPackedRefsStayUnpeeled() throws Exception {
+		// Peeling this entry would fail, as its object does not exist.
+		final String missing = "0123456789012345678901234567890123456789";
+		write(new File(db.getDirectory(), "packed-refs"), missing
+				+ " refs/heads/missing\n");
+
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), v1_0,
+				"refs/tags/v1_0"));
+		addFiller(batch);
+		execute(batch);
+
+		for (final ReceiveCommand cmd : batch.getCommands())
+			assertEquals(ReceiveCommand.Result.OK, cmd.getResult());
+		final String packed = read(new File(db.getDirectory(), "packed-refs"));
+		assertTrue(packed.contains(missing + " refs/heads/missing\n"));
+		assertFalse(packed.contains(" peeled"));
+		assertEquals(B, db.peel(db.getRef("refs/tags/v1_0"))
+				.getPeeledObjectId());
+	}
+
+	public void testCommandsFailIndividually() throws Exception {
+		repo.update("refs/heads/a", A);
+		repo.update("refs/heads/b", B);
+
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		final ReceiveCommand wrongOld = new ReceiveCommand(B, A,
+				"refs/heads/a");
+		final ReceiveCommand exists = new ReceiveCommand(ObjectId.zeroId(),
+				A, "refs/heads/b");
+		final ReceiveCommand notFastForward = new ReceiveCommand(B, A,
+				"refs/heads/b");
+		final ReceiveCommand ok = new ReceiveCommand(ObjectId.zeroId(), B,
+				"refs/heads/c");
+		batch.addCommand(wrongOld, exists, ok);
+		execute(batch);
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, wrongOld.getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, exists.getResult());
+		assertEquals(ReceiveCommand.Result.OK, ok.getResult());
+		assertEquals(A, db.resolve("refs/heads/a"));
+		assertEquals(B, db.resolve("refs/heads/b"));
+		assertEquals(B, db.resolve("refs/heads/c"));
+
+		final BatchRefUpdate ff = db.getRefDatabase().newBatchUpdate();
+		ff.addCommand(notFastForward);
+		execute(ff);
+		assertEquals(ReceiveCommand.Result.REJECTED_NONFASTFORWARD,
+				notFastForward.getResult());
+		assertEquals(B, db.resolve("refs/heads/b"));
+
+		final ReceiveCommand forced = new ReceiveCommand(B, A, "refs/heads/b");
+		execute(db.getRefDatabase().newBatchUpdate()
+				.setAllowNonFastForwards(true).addCommand(forced));
+		assertEquals(ReceiveCommand.Result.OK, forced.getResult());
+		assertEquals(A, db.resolve("refs/heads/b"));
+	}
+
+	public void testNameConflictWithinBatchRejected() throws Exception {
+		repo.update("refs/heads/c", A);
+		assertNameConflictWithinBatchRejected(db, A);
+	}
+
+	public void testDeleteCurrentBranchRejected() throws Exception {
+		final RefUpdate u = db.updateRef(HEAD);
+		u.link("refs/heads/master");
+		repo.update("refs/heads/master", A);
+		repo.update("refs/heads/other", A);
+
+		final ReceiveCommand master = new ReceiveCommand(A, ObjectId.zeroId(),
+				"refs/heads/master");
+		final ReceiveCommand other = new ReceiveCommand(A, ObjectId.zeroId(),
+				"refs/heads/other");
+		execute(db.getRefDatabase().newBatchUpdate().addCommand(master, other));
+		assertEquals(ReceiveCommand.Result.REJECTED_CURRENT_BRANCH, master
+				.getResult());
+		assertEquals(ReceiveCommand.Result.OK, other.getResult());
+		assertNull(db.getRef("refs/heads/other"));
+		assertEquals(A, db.resolve("refs/heads/master"));
+	}
+
+	public void testReflogWritten() throws Exception {
+		db.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_LOGALLREFUPDATES, true);
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.setRefLogIdent(author).setRefLogMessage("push", true);
+		batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), A,
+				"refs/heads/topic"));
+		execute(batch);
+
+		final List<ReflogReader.Entry> log = db.getReflogReader("topic")
+				.getReverseEntries();
+		assertEquals(1, log.size());
+		assertEquals(ObjectId.zeroId(), log.get(0).getOldId());
+		assertEquals(A, log.get(0).getNewId());
+		assertEquals("push: created", log.get(0).getComment());
+
+		execute(db.getRefDatabase().newBatchUpdate().addCommand(
+				new ReceiveCommand(A, ObjectId.zeroId(), "refs/heads/topic")));
+		assertFalse(new File(db.getDirectory(), "logs/refs/heads/topic")
+				.exists());
+	}
+
+	public void testReftableBatchWritesOneTable() throws Exception {
+		db.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		db.getConfig().setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE,
+				ReftableDatabase.REFTABLE);
+		db.getConfig().save();
+		final FileRepository rt = new FileRepository(db.getDirectory());
+		try {
+			final ReftableDatabase refdb = (ReftableDatabase) rt
+					.getRefDatabase();
+			refdb.newTransaction().update("refs/heads/a", null, A).commit();
+			assertEquals(1, refdb.getTableCount());
+
+			final BatchRefUpdate batch = refdb.newBatchUpdate();
+			for (int i = 0; i < 100; i++)
+				batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), B,
+						"refs/tags/t" + i));
+			final ReceiveCommand wrongOld = new ReceiveCommand(B, A,
+					"refs/heads/a");
+			batch.addCommand(wrongOld);
+			final RevWalk rw = new RevWalk(rt);
+			try {
+				batch.execute(rw, NullProgressMonitor.INSTANCE);
+			} finally {
+				rw.release();
+			}
+
+			assertEquals(ReceiveCommand.Result.LOCK_FAILURE, wrongOld
+					.getResult());
+			assertTrue(refdb.getTableCount() <= 2);
+			assertEquals(100, refdb.getRefs("refs/tags/").size());
+			assertEquals(B, rt.resolve("refs/tags/t42"));
+			assertEquals(A, rt.resolve("refs/heads/a"));
+		} finally {
+			rt.close();
+		}
+	}
+
+	public void testReftableNameConflictWithinBatchRejected()
+			throws Exception {
+		db.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		db.getConfig().setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE,
+				ReftableDatabase.REFTABLE);
+		db.getConfig().save();
+		final FileRepository rt = new FileRepository(db.getDirectory());
+		try {
+			((ReftableDatabase) rt.getRefDatabase()).newTransaction().update(
+					"refs/heads/c", null, A).commit();
+			assertNameConflictWithinBatchRejected(rt, A);
+		} finally {
+			rt.close();
+		}
+	}
+
+	private static void assertNameConflictWithinBatchRejected(
+			final FileRepository r, final ObjectId A) throws Exception {
+		final BatchRefUpdate batch = r.getRefDatabase().newBatchUpdate();
+		final ReceiveCommand dir = new ReceiveCommand(ObjectId.zeroId(), A,
+				"refs/heads/a");
+		final ReceiveCommand nested = new ReceiveCommand(ObjectId.zeroId(), A,
+				"refs/heads/a/b");
+		final ReceiveCommand ok = new ReceiveCommand(ObjectId.zeroId(), A,
+				"refs/heads/ab");
+		final ReceiveCommand deleted = new ReceiveCommand(A, ObjectId
+				.zeroId(), "refs/heads/c");
+		batch.addCommand(dir, nested, ok, deleted);
+		final RevWalk rw = new RevWalk(r);
+		try {
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+		} finally {
+			rw.release();
+		}
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, dir.getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE, nested.getResult());
+		assertEquals(ReceiveCommand.Result.OK, ok.getResult());
+		assertEquals(ReceiveCommand.Result.OK, deleted.getResult());
+		assertNull(r.getRef("refs/heads/a"));
+		assertNull(r.getRef("refs/heads/a/b"));
+		assertEquals(A, r.resolve("refs/heads/ab"));
+		assertNull(r.getRef("refs/heads/c"));
+	}
+
+	private void addFiller(final BatchRefUpdate batch) {
+		for (int i = 0; i < PackedBatchRefUpdate.MIN_BATCH_SIZE; i++)
+			batch.addCommand(new ReceiveCommand(ObjectId.zeroId(), A,
+					"refs/heads/f" + i));
+	}
+
+	private void execute(final BatchRefUpdate batch) throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		try {
+			batch.execute(rw, NullProgressMonitor.INSTANCE);
+		} finally {
+			rw.release();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.revwalk.CommitGraph;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+public class CommitGraphTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private WindowCursor wc;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		wc = (WindowCursor) repo.newObjectReader();
+	}
+
+	protected void tearDown() throws Exception {
+		if (wc != null)
+			wc.release();
+		super.tearDown();
+	}
+
+	public void testNoCommitGraph() throws Exception {
+		assertNull(wc.getCommitGraph());
+	}
+
+	public void testWriteAndRead() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		final RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		final RevCommit c = tr.commit().parent(a).add("c", "c").create();
+		final RevCommit d = tr.commit().parent(b).add("d", "d").create();
+		final RevCommit m = tr.commit().parent(d).parent(c).create();
+		final RevCommit o = tr.commit().parent(m).parent(b).parent(c)
+				.parent(a).create();
+		final RevCommit t = tr.commit().parent(o).create();
+		final RevCommit s = tr.commit().noParents().add("s", "s").create();
+		writeGraph(t, s);
+
+		final CommitGraph g = wc.getCommitGraph();
+		assertNotNull(g);
+		assertEquals(8, g.getCommitCount());
+		assertEquals(-1, g.findCommit(a.getTree()));
+
+		final MutableObjectId id = new MutableObjectId();
+		for (final RevCommit exp : Arrays.asList(a, b, c, d, m, o, t, s)) {
+			tr.parseBody(exp);
+			final int pos = g.findCommit(exp);
+			assertTrue(0 <= pos);
+			g.getObjectId(pos, id);
+			assertEquals(exp, id);
+			g.getTree(pos, id);
+			assertEquals(exp.getTree(), id);
+			assertEquals(exp.getCommitTime(), g.getCommitTime(pos));
+			assertEquals(exp.getParentCount(), g.getParentCount(pos));
+			for (int i = 0; i < exp.getParentCount(); i++) {
+				g.getObjectId(g.getParent(pos, i), id);
+				assertEquals(exp.getParent(i), id);
+			}
+		}
+
+		assertEquals(1, g.getGeneration(g.findCommit(a)));
+		assertEquals(2, g.getGeneration(g.findCommit(c)));
+		assertEquals(3, g.getGeneration(g.findCommit(d)));
+		assertEquals(4, g.getGeneration(g.findCommit(m)));
+		assertEquals(5, g.getGeneration(g.findCommit(o)));
+		assertEquals(6, g.getGeneration(g.findCommit(t)));
+		assertEquals(1, g.getGeneration(g.findCommit(s)));
+	}
+
+	public void testRevWalkParsesFromGraph() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		final RevCommit b = tr.commit().parent(a).message("b").create();
+		writeGraph(b);
+		tr.parseBody(b);
+		damage(b);
+
+		final RevWalk rw = new RevWalk(wc);
+		rw.setRetainBody(false);
+		final RevCommit c = rw.parseCommit(b);
+		assertEquals(b.getTree(), c.getTree());
+		assertEquals(b.getCommitTime(), c.getCommitTime());
+		assertEquals(1, c.getParentCount());
+		assertEquals(a, c.getParent(0));
+		assertNull(c.getRawBuffer());
+		try {
+			rw.parseBody(c);
+			fail("body parsed from a damaged commit object");
+		} catch (IOException damaged) {
+			// expected
+		}
+
+		final RevCommit p = rw.parseCommit(a);
+		rw.parseBody(p);
+		assertEquals(a.getFullMessage(), p.getFullMessage());
+
+		final RevWalk full = new RevWalk(wc);
+		final RevCommit f = full.parseCommit(b);
+		assertEquals(b.getTree(), f.getTree());
+		assertEquals(a, f.getParent(0));
+		try {
+			f.getFullMessage();
+			fail("body loaded from a damaged commit object");
+		} catch (RevWalkException damaged) {
+			assertTrue(damaged.getCause() instanceof IOException);
+		}
+	}
+
+	public void testPrunedCommitNotParsedFromGraph() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		writeGraph(a);
+		assertTrue(repo.getObjectDatabase().fileFor(a).delete());
+
+		final RevWalk rw = new RevWalk(wc);
+		rw.setRetainBody(false);
+		try {
+			rw.parseCommit(a);
+			fail("parsed a pruned commit from the graph");
+		} catch (MissingObjectException notFound) {
+			// expected
+		}
+		try {
+			rw.parseAny(a);
+			fail("parsed a pruned commit from the graph");
+		} catch (MissingObjectException notFound) {
+			// expected
+		}
+	}
+
+	public void testForeignGraphIgnored() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		final File foreign = new File(repo.getObjectDatabase().getDirectory(),
+				"info/commit-graph");
+		foreign.getParentFile().mkdirs();
+		write(foreign, "CGPH\1\1\3\0");
+		assertNull(wc.getCommitGraph());
+
+		writeGraph(a);
+		assertEquals("CGPH\1\1\3\0", read(foreign));
+		assertNotNull(wc.getCommitGraph());
+	}
+
+	public void testDamagedGraphIgnored() throws Exception {
+		final File file = repo.getObjectDatabase().getCommitGraphFile();
+		file.getParentFile().mkdirs();
+		write(file, "damaged");
+		assertNull(wc.getCommitGraph());
+		assertNull(wc.getCommitGraph());
+
+		final RevCommit a = tr.commit().add("a", "a").create();
+		writeGraph(a);
+		assertNotNull(wc.getCommitGraph());
+	}
+
+	private void damage(final RevCommit c) throws IOException {
+		// Keep the object present, but unreadable, so only the graph can
+		// supply its headers.
+		//
+		final File path = repo.getObjectDatabase().fileFor(c);
+		assertTrue(path.delete());
+		write(path, "damaged");
+	}
+
+	public void testRetainedBodyLoadedOnDemand() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		final RevCommit b = tr.commit().parent(a).message("b\n\nbody")
+				.create();
+		writeGraph(b);
+		tr.parseBody(b);
+
+		final RevWalk rw = new RevWalk(wc);
+		assertTrue(rw.isRetainBody());
+		rw.markStart(rw.parseCommit(b));
+		final RevCommit c = rw.next();
+		assertEquals(b, c);
+		assertEquals(a, c.getParent(0));
+		assertEquals("b", c.getShortMessage());
+		assertEquals(b.getFullMessage(), c.getFullMessage());
+		assertEquals(b.getAuthorIdent(), c.getAuthorIdent());
+		assertEquals(b.getCommitterIdent(), c.getCommitterIdent());
+		assertTrue(Arrays.equals(b.getRawBuffer(), c.getRawBuffer()));
+
+		final RevCommit p = rw.next();
+		assertEquals(a, p);
+		assertNotNull(p.getRawBuffer());
+		assertNull(rw.next());
+	}
+
+	public void testNewCommitsNotInGraph() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		writeGraph(a);
+		final RevCommit b = tr.commit().parent(a).create();
+
+		final RevWalk rw = new RevWalk(wc);
+		rw.setRetainBody(false);
+		rw.markStart(rw.parseCommit(b));
+		assertEquals(b, rw.next());
+		assertEquals(a, rw.next());
+		assertNull(rw.next());
+		assertEquals(-1, wc.getCommitGraph().findCommit(b));
+	}
+
+	public void testIsMergedInto() throws Exception {
+		final RevCommit a = tr.commit().add("a", "a").create();
+		final RevCommit b = tr.commit().parent(a).create();
+		final RevCommit c = tr.commit().parent(a).create();
+		writeGraph(b, c);
+
+		final RevWalk rw = new RevWalk(wc);
+		rw.setRetainBody(false);
+		assertTrue(rw.isMergedInto(rw.parseCommit(a), rw.parseCommit(b)));
+		assertTrue(rw.isMergedInto(rw.parseCommit(b), rw.parseCommit(b)));
+		assertFalse(rw.isMergedInto(rw.parseCommit(b), rw.parseCommit(a)));
+		assertFalse(rw.isMergedInto(rw.parseCommit(b), rw.parseCommit(c)));
+	}
+
+	private void writeGraph(RevCommit... tips) throws Exception {
+		new CommitGraphWriter(repo).write(NullProgressMonitor.INSTANCE,
+				Collections.unmodifiableList(Arrays.asList(tips)));
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jgit.lib.Constants;
+
+public class DeltaBaseCacheTest extends TestCase {
+	private DeltaBaseCache cache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		setLimit(1024);
+		cache = new DeltaBaseCache();
+	}
+
+	protected void tearDown() throws Exception {
+		cache.clear();
+		DeltaBaseCache.reconfigure(new WindowCacheConfig());
+		super.tearDown();
+	}
+
+	public void testStoreAndGet() {
+		final byte[] data = new byte[100];
+		assertNull(cache.get(12));
+		cache.store(12, data, Constants.OBJ_BLOB);
+
+		final DeltaBaseCache.Entry e = cache.get(12);
+		assertNotNull(e);
+		assertSame(data, e.data);
+		assertEquals(Constants.OBJ_BLOB, e.type);
+		assertNull(cache.get(13));
+
+		final DeltaBaseCacheStats s = cache.getStats();
+		assertEquals(1, s.getHitCount());
+		assertEquals(2, s.getMissCount());
+		assertEquals(0, s.getEvictionCount());
+		assertEquals(100, s.getOpenByteCount());
+	}
+
+	public void testTooLarge() {
+		cache.store(12, new byte[1025], Constants.OBJ_BLOB);
+		assertNull(cache.get(12));
+		assertEquals(0, cache.getStats().getOpenByteCount());
+	}
+
+	public void testByteLimit() {
+		for (int pos = 0; pos < 100; pos++)
+			cache.store(pos, new byte[100], Constants.OBJ_BLOB);
+
+		final DeltaBaseCacheStats s = cache.getStats();
+		assertTrue(s.getOpenByteCount() <= 1024);
+		assertEquals(100 - s.getOpenByteCount() / 100, s.getEvictionCount());
+		assertNotNull(cache.get(99));
+	}
+
+	public void testLimitIsSharedByAllPacks() {
+		final DeltaBaseCache other = new DeltaBaseCache();
+		try {
+			for (int pos = 0; pos < 8; pos++)
+				cache.store(pos, new byte[100], Constants.OBJ_BLOB);
+			for (int pos = 0; pos < 8; pos++)
+				other.store(pos, new byte[100], Constants.OBJ_BLOB);
+
+			final long open = cache.getStats().getOpenByteCount();
+			final long otherOpen = other.getStats().getOpenByteCount();
+			assertTrue(open + otherOpen <= 1024);
+			assertTrue(DeltaBaseCache.getTotalByteCount() <= 1024);
+			assertTrue(open < 800);
+			assertTrue(0 < cache.getStats().getEvictionCount());
+		} finally {
+			other.clear();
+		}
+	}
+
+	public void testClear() {
+		cache.store(12, new byte[100], Constants.OBJ_BLOB);
+		cache.store(28, new byte[100], Constants.OBJ_TREE);
+		cache.clear();
+		assertNull(cache.get(12));
+		assertNull(cache.get(28));
+		assertEquals(0, cache.getStats().getOpenByteCount());
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		setLimit(64 * 1024);
+		cache = new DeltaBaseCache();
+		final Thread[] threads = new Thread[8];
+		final Throwable[] errors = new Throwable[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int n = 0; n < 10000; n++) {
+							final long pos = (n * 31 + id) % 5000;
+							final DeltaBaseCache.Entry e = cache.get(pos);
+							if (e == null)
+								cache.store(pos, new byte[(int) pos % 300],
+										Constants.OBJ_BLOB);
+							else
+								assertEquals(pos % 300, e.data.length);
+						}
+					} catch (Throwable err) {
+						errors[id] = err;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			if (errors[i] != null)
+				throw new Exception(errors[i]);
+		}
+
+		final DeltaBaseCacheStats s = cache.getStats();
+		assertEquals(threads.length * 10000, s.getHitCount()
+				+ s.getMissCount());
+		assertTrue(s.getOpenByteCount() <= 64 * 1024);
+		cache.clear();
+		assertEquals(0, cache.getStats().getOpenByteCount());
+	}
+
+	private static void setLimit(final int limit) {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setDeltaBaseCacheLimit(limit);
+		DeltaBaseCache.reconfigure(cfg);
+	}
+}
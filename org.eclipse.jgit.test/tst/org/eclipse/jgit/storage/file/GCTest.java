@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+
+public class GCTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private GC gc;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		gc = new GC(repo);
+	}
+
+	public void testPackRefs() throws Exception {
+		final RevCommit a = tr.branch("refs/heads/a").commit().create();
+		final RevCommit b = tr.branch("refs/heads/b").commit().create();
+		final RevTag t = tr.tag("t", a);
+		tr.update("refs/tags/t", t);
+		assertEquals(3, gc.getStatistics().getLooseRefCount());
+
+		gc.packRefs();
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(0, s.getLooseRefCount());
+		assertEquals(3, s.getPackedRefCount());
+		assertFalse(new File(repo.getDirectory(), "refs/heads/a").exists());
+
+		assertEquals(a, repo.resolve("refs/heads/a"));
+		assertEquals(b, repo.resolve("refs/heads/b"));
+		final Ref tag = repo.getRef("refs/tags/t");
+		assertEquals(t, tag.getObjectId());
+		assertEquals(a, repo.peel(tag).getPeeledObjectId());
+	}
+
+	public void testPackRefsKeepsSymbolicRefs() throws Exception {
+		final RevCommit a = tr.branch("refs/heads/master").commit().create();
+		gc.packRefs();
+		final Ref head = repo.getRef(Constants.HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals(a, head.getObjectId());
+	}
+
+	public void testGcPacksReachableAndPrunesUnreachable() throws Exception {
+		final RevBlob a = tr.blob("a");
+		final RevCommit c1 = tr.branch("master").commit().add("a", a).create();
+		final RevBlob garbage = tr.blob("garbage");
+		tr.packAndPrune();
+		final RevCommit c2 = tr.branch("master").commit().add("b", "b")
+				.create();
+		assertEquals(1, gc.getStatistics().getPackCount());
+
+		gc.setExpireAge(0).gc();
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(1, s.getPackCount());
+		assertEquals(0, s.getLooseObjectCount());
+		assertEquals(0, s.getLooseRefCount());
+
+		assertTrue(repo.hasObject(a));
+		assertTrue(repo.hasObject(c1));
+		assertTrue(repo.hasObject(c2));
+		assertFalse(repo.hasObject(garbage));
+		tr.fsck(c2);
+	}
+
+	public void testRecentUnreachableObjectsKept() throws Exception {
+		final RevCommit c = tr.branch("master").commit().add("a", "a")
+				.create();
+		final RevBlob garbage = tr.blob("garbage");
+
+		gc.gc();
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(1, s.getPackCount());
+		assertEquals(1, s.getLooseObjectCount());
+		assertTrue(repo.hasObject(garbage));
+		assertTrue(repo.hasObject(c));
+	}
+
+	public void testObjectsOfRecentUnreachableObjectsKept() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		final long old = System.currentTimeMillis() - 2
+				* GC.DEFAULT_EXPIRE_AGE;
+		final RevBlob garbage = tr.blob("garbage");
+		final RevBlob looseBase = tr.blob("loose base");
+		age(garbage, old);
+		age(looseBase, old);
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		assertTrue(insertPack(1, ids).setLastModified(old));
+		final RevBlob packedBase = tr.getRevWalk().lookupBlob(ids.get(0));
+
+		// As if just pushed, with the references not updated yet.
+		final RevCommit pushed = tr.commit(tr.tree(tr.file("l", looseBase),
+				tr.file("p", packedBase)));
+
+		gc.gc();
+		assertTrue(repo.hasObject(pushed));
+		assertTrue(repo.hasObject(looseBase));
+		assertTrue(repo.hasObject(packedBase));
+		assertFalse(repo.hasObject(garbage));
+	}
+
+	public void testSupersededPacksDeleted() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		tr.packAndPrune();
+		final RevCommit c = tr.branch("master").commit().add("b", "b")
+				.create();
+		tr.packAndPrune();
+		assertEquals(2, gc.getStatistics().getPackCount());
+
+		final PackFile pack = gc.gc();
+		assertEquals(1, gc.getStatistics().getPackCount());
+		assertEquals(pack.getPackFile(), repo.getObjectDatabase()
+				.getPacks().iterator().next().getPackFile());
+		tr.fsck(c);
+	}
+
+	public void testReverseIndexWrittenAndDeleted() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		final PackFile first = gc.setExpireAge(0).gc();
+		final File rev = first.getReverseIndexFile();
+		assertTrue(rev.isFile());
+
+		final PackReverseIndex r = PackReverseIndex.open(rev, first.idx());
+		for (final PackIndex.MutableEntry e : first)
+			assertEquals(e.toObjectId(), r.findObject(e.getOffset()));
+
+		final RevCommit c = tr.branch("master").commit().add("b", "b")
+				.create();
+		final PackFile second = gc.gc();
+		assertTrue(second.getReverseIndexFile().isFile());
+		assertFalse(rev.exists());
+		tr.fsck(c);
+	}
+
+	public void testKeptPackNotDeleted() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		tr.packAndPrune();
+		final File old = repo.getObjectDatabase().getPacks().iterator()
+				.next().getPackFile();
+		final String name = old.getName();
+		final File keep = new File(old.getParentFile(), name.substring(0,
+				name.length() - 5)
+				+ ".keep");
+		assertTrue(keep.createNewFile());
+		tr.branch("master").commit().add("b", "b").create();
+
+		gc.setExpireAge(0).gc();
+		assertTrue(old.exists());
+		assertEquals(2, gc.getStatistics().getPackCount());
+	}
+
+	public void testEmptyRepository() throws Exception {
+		assertNull(gc.setExpireAge(0).gc());
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(0, s.getPackCount());
+		assertEquals(0, s.getLooseObjectCount());
+	}
+
+	public void testRepackGeometricMergesSmallestPacks() throws Exception {
+		final List<ObjectId> all = new ArrayList<ObjectId>();
+		final File big = insertPack(20, all);
+		insertPack(3, all);
+		insertPack(2, all);
+		insertPack(1, all);
+		assertEquals(4, gc.getStatistics().getPackCount());
+
+		final PackFile pack = gc.repackGeometric();
+		assertNotNull(pack);
+		assertEquals(6, pack.getObjectCount());
+		final GC.RepoStatistics s = gc.getStatistics();
+		assertEquals(2, s.getPackCount());
+		assertEquals(26, s.getPackedObjectCount());
+		assertTrue(big.exists());
+		for (final ObjectId id : all)
+			assertTrue(repo.hasObject(id));
+	}
+
+	public void testRepackGeometricRollsUpLargerPacks() throws Exception {
+		final List<ObjectId> all = new ArrayList<ObjectId>();
+		insertPack(14, all);
+		insertPack(7, all);
+		insertPack(3, all);
+		insertPack(2, all);
+
+		final PackFile pack = gc.repackGeometric();
+		assertNotNull(pack);
+		assertEquals(26, pack.getObjectCount());
+		assertEquals(1, gc.getStatistics().getPackCount());
+		for (final ObjectId id : all)
+			assertTrue(repo.hasObject(id));
+	}
+
+	public void testRepackGeometricKeepsProgression() throws Exception {
+		final List<ObjectId> all = new ArrayList<ObjectId>();
+		insertPack(8, all);
+		insertPack(4, all);
+		insertPack(2, all);
+		insertPack(1, all);
+
+		assertNull(gc.repackGeometric());
+		assertEquals(4, gc.getStatistics().getPackCount());
+
+		assertNotNull(gc.setGeometricFactor(3).repackGeometric());
+		assertEquals(1, gc.getStatistics().getPackCount());
+		for (final ObjectId id : all)
+			assertTrue(repo.hasObject(id));
+	}
+
+	public void testRepackGeometricReusesDeltas() throws Exception {
+		final RevCommit c1 = tr.branch("master").commit().add("a", "a")
+				.create();
+		tr.packAndPrune();
+		tr.branch("master").commit().add("b", "b").create();
+		tr.packAndPrune();
+		final RevCommit c3 = tr.branch("master").commit().add("c", "c")
+				.create();
+		tr.packAndPrune();
+		assertEquals(3, gc.getStatistics().getPackCount());
+
+		assertNotNull(gc.repackGeometric());
+		assertTrue(gc.getStatistics().getPackCount() < 3);
+		assertTrue(repo.hasObject(c1));
+		tr.fsck(c3);
+	}
+
+	private void age(final ObjectId id, final long modified) {
+		assertTrue(repo.getObjectDatabase().fileFor(id).setLastModified(
+				modified));
+	}
+
+	private File insertPack(final int cnt, final List<ObjectId> ids)
+			throws Exception {
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		try {
+			for (int i = 0; i < cnt; i++) {
+				final byte[] data = Constants.encode("blob " + ids.size());
+				ids.add(ins.insert(Constants.OBJ_BLOB, data));
+			}
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		File newest = null;
+		for (final PackFile p : repo.getObjectDatabase().getPacks()) {
+			if (p.getObjectCount() == cnt)
+				newest = p.getPackFile();
+		}
+		return newest;
+	}
+}
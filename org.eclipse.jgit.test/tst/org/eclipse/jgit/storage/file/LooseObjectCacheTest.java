@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import org.eclipse.jgit.events.ConfigChangedEvent;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+public class LooseObjectCacheTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		repo.getConfig().setBoolean("core", null, "looseobjectcache", true);
+		repo.getObjectDatabase().onConfigChanged(new ConfigChangedEvent());
+	}
+
+	public void testInsertedObjectVisible() throws Exception {
+		final ObjectId id = blobId("a");
+		assertFalse(repo.hasObject(id));
+
+		assertEquals(id, insert(repo, "a"));
+		assertTrue(repo.hasObject(id));
+		assertFalse(repo.hasObject(blobId("b")));
+	}
+
+	public void testObjectWrittenElsewhereVisibleAfterRecheck()
+			throws Exception {
+		final ObjectId id = blobId("a");
+		assertFalse(repo.hasObject(id));
+
+		final FileRepository other = new FileRepository(repo.getDirectory());
+		try {
+			insert(other, "a");
+		} finally {
+			other.close();
+		}
+
+		Thread.sleep(LooseObjectCache.RECHECK_INTERVAL + 100);
+		assertTrue(repo.hasObject(id));
+	}
+
+	public void testCacheDisabled() throws Exception {
+		repo.getConfig().setBoolean("core", null, "looseobjectcache", false);
+		repo.getObjectDatabase().onConfigChanged(new ConfigChangedEvent());
+		final ObjectId id = blobId("a");
+		assertFalse(repo.hasObject(id));
+
+		final FileRepository other = new FileRepository(repo.getDirectory());
+		try {
+			insert(other, "a");
+		} finally {
+			other.close();
+		}
+		assertTrue(repo.hasObject(id));
+	}
+
+	private static ObjectId blobId(final String content) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB,
+				Constants.encode(content));
+	}
+
+	private static ObjectId insert(final FileRepository db,
+			final String content) throws Exception {
+		final ObjectInserter ins = db.newObjectInserter();
+		try {
+			final ObjectId id = ins.insert(Constants.OBJ_BLOB, Constants
+					.encode(content));
+			ins.flush();
+			return id;
+		} finally {
+			ins.release();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+
+public class MappedPackIndexV2Test extends PackIndexV2Test {
+	public void setUp() throws Exception {
+		super.setUp();
+		smallIdx = PackIndex.open(getFileForPack34be9032(), 1);
+		denseIdx = PackIndex.open(getFileForPackdf2982f28(), 1);
+	}
+
+	public void testIsMapped() throws Exception {
+		assertTrue(smallIdx instanceof MappedPackIndexV2);
+		assertTrue(denseIdx instanceof MappedPackIndexV2);
+		assertTrue(PackIndex.open(getFileForPack34be9032(), 0)
+				instanceof PackIndexV2);
+	}
+
+	public void testSameAsHeapIndex() throws Exception {
+		final PackIndex heap = PackIndex.open(getFileForPackdf2982f28(), 0);
+		assertEquals(heap.getObjectCount(), denseIdx.getObjectCount());
+		assertEquals(0, denseIdx.getOffset64Count());
+		final Iterator<MutableEntry> itr = denseIdx.iterator();
+		for (final MutableEntry e : heap) {
+			final MutableEntry m = itr.next();
+			assertEquals(e.toObjectId(), m.toObjectId());
+			assertEquals(e.getOffset(), m.getOffset());
+			assertEquals(heap.findCRC32(e.toObjectId()), denseIdx
+					.findCRC32(m.toObjectId()));
+		}
+		assertFalse(itr.hasNext());
+		assertTrue(Arrays.equals(heap.packChecksum,
+				denseIdx.packChecksum));
+	}
+
+	public void testMissingObject() throws Exception {
+		final ObjectId id = ObjectId
+				.fromString("ffffffffffffffffffffffffffffffffffffffff");
+		assertFalse(denseIdx.hasObject(id));
+		assertEquals(-1, denseIdx.findOffset(id));
+		try {
+			denseIdx.findCRC32(id);
+			fail("found CRC of a missing object");
+		} catch (MissingObjectException e) {
+			// expected
+		}
+	}
+
+	public void test64BitOffsets() throws Exception {
+		final List<PackedObjectInfo> objs = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < 100; i++) {
+			final PackedObjectInfo o = new PackedObjectInfo(ObjectId
+					.fromString(String.format("%02x%038x", Integer
+							.valueOf(i * 7 % 256), Integer.valueOf(i))));
+			o.setOffset(i % 2 == 0 ? 12 + i : (1L << 32) + i);
+			o.setCRC(i);
+			objs.add(o);
+		}
+		Collections.sort(objs);
+
+		final File idxFile = new File(trash, "large.idx");
+		final FileOutputStream out = new FileOutputStream(idxFile);
+		try {
+			PackIndexWriter.createVersion(out, 2).write(objs, new byte[20]);
+		} finally {
+			out.close();
+		}
+
+		final PackIndex idx = PackIndex.open(idxFile, 1);
+		assertTrue(idx instanceof MappedPackIndexV2);
+		assertEquals(100, idx.getObjectCount());
+		assertEquals(50, idx.getOffset64Count());
+		for (int i = 0; i < objs.size(); i++) {
+			final PackedObjectInfo o = objs.get(i);
+			assertEquals(o.getOffset(), idx.findOffset(o));
+			assertEquals(i, idx.findPosition(o));
+			assertEquals(o.getCRC(), idx.findCRC32(o));
+			assertEquals(o, idx.getObjectId(i));
+		}
+	}
+}
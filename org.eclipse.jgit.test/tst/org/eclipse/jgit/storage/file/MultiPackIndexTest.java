@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+public class MultiPackIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private ObjectDirectory odb;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		odb = repo.getObjectDatabase();
+	}
+
+	public void testWriteAndRead() throws Exception {
+		final RevBlob a = tr.blob("a");
+		tr.branch("master").commit().add("a", a).create();
+		tr.packAndPrune();
+		final RevBlob b = tr.blob("b");
+		tr.branch("master").commit().add("b", b).create();
+		tr.packAndPrune();
+		writeIndex();
+
+		final MultiPackIndex midx = open();
+		assertEquals(2, midx.getPackCount());
+		assertIndexMatchesPacks(midx);
+		assertEquals(countDistinct(), midx.getObjectCount());
+		assertTrue(0 <= midx.findPosition(a));
+		assertTrue(0 <= midx.findPosition(b));
+		assertEquals(-1, midx.findPosition(ObjectId.zeroId()));
+
+		assertTrue(repo.hasObject(a));
+		assertTrue(repo.hasObject(b));
+		assertEquals("b", new String(repo.open(b).getCachedBytes(), "UTF-8"));
+		assertFalse(repo.hasObject(ObjectId.zeroId()));
+	}
+
+	public void testNewPackNotInIndex() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		tr.packAndPrune();
+		writeIndex();
+
+		final RevBlob c = tr.blob("c");
+		final RevCommit cc = tr.branch("master").commit().add("c", c).create();
+		tr.packAndPrune();
+		assertEquals(-1, open().findPosition(c));
+		assertTrue(repo.hasObject(c));
+		assertEquals("c", new String(repo.open(c).getCachedBytes(), "UTF-8"));
+		assertTrue(0 < repo.open(cc).getSize());
+	}
+
+	public void testIncrementalUpdate() throws Exception {
+		tr.branch("master").commit().add("a", "a").create();
+		tr.packAndPrune();
+		writeIndex();
+		final File file = odb.getMultiPackIndexFile();
+		final long before = file.length();
+
+		final RevBlob c = tr.blob("c");
+		tr.branch("master").commit().add("c", c).create();
+		tr.packAndPrune();
+		writeIndex();
+
+		final MultiPackIndex midx = open();
+		assertTrue(before < file.length());
+		assertEquals(2, midx.getPackCount());
+		assertIndexMatchesPacks(midx);
+		assertEquals(countDistinct(), midx.getObjectCount());
+		assertTrue(0 <= midx.findPosition(c));
+	}
+
+	public void testDeletedPackRebuildsIndex() throws Exception {
+		final RevBlob a = tr.blob("a");
+		tr.branch("master").commit().add("a", a).create();
+		tr.packAndPrune();
+		tr.branch("master").commit().add("b", "b").create();
+		tr.packAndPrune();
+		writeIndex();
+
+		final PackFile oldest = odb.listPacks()[1];
+		oldest.close();
+		assertTrue(oldest.getPackFile().delete());
+		assertTrue(new File(oldest.getPackFile().getPath().replaceAll(
+				"\\.pack$", ".idx")).delete());
+		assertTrue(odb.tryAgain1());
+
+		writeIndex();
+		final MultiPackIndex midx = open();
+		assertEquals(1, midx.getPackCount());
+		assertIndexMatchesPacks(midx);
+		assertTrue(repo.hasObject(a));
+	}
+
+	public void testDamagedIndexIgnored() throws Exception {
+		final RevBlob a = tr.blob("a");
+		tr.branch("master").commit().add("a", a).create();
+		tr.packAndPrune();
+		writeIndex();
+
+		final FileOutputStream out = new FileOutputStream(odb
+				.getMultiPackIndexFile());
+		try {
+			out.write(new byte[] { 'J', 'M', 'I', 'X', 0, 0, 0, 1 });
+		} finally {
+			out.close();
+		}
+		odb.resetMultiPackIndex();
+		assertTrue(repo.hasObject(a));
+		assertEquals("a", new String(repo.open(a).getCachedBytes(), "UTF-8"));
+
+		writeIndex();
+		assertEquals(1, open().getPackCount());
+	}
+
+	public void testForeignIndexLeftAlone() throws Exception {
+		final RevBlob a = tr.blob("a");
+		tr.branch("master").commit().add("a", a).create();
+		tr.packAndPrune();
+
+		final File foreign = new File(odb.getDirectory(),
+				"pack/multi-pack-index");
+		write(foreign, "MIDX\1\1\1\0");
+		assertFalse(odb.getMultiPackIndexFile().exists());
+		assertTrue(repo.hasObject(a));
+
+		writeIndex();
+		assertEquals("MIDX\1\1\1\0", read(foreign));
+		assertEquals(1, open().getPackCount());
+	}
+
+	private void writeIndex() throws Exception {
+		new MultiPackIndexWriter(repo).write(NullProgressMonitor.INSTANCE);
+	}
+
+	private MultiPackIndex open() throws Exception {
+		return MultiPackIndex.open(odb.getMultiPackIndexFile());
+	}
+
+	private int countDistinct() throws Exception {
+		final Map<ObjectId, Boolean> all = new HashMap<ObjectId, Boolean>();
+		for (final PackFile p : odb.listPacks())
+			for (final PackIndex.MutableEntry e : p)
+				all.put(e.toObjectId(), Boolean.TRUE);
+		return all.size();
+	}
+
+	private void assertIndexMatchesPacks(final MultiPackIndex midx)
+			throws Exception {
+		final Map<String, PackFile> byName = new HashMap<String, PackFile>();
+		for (final PackFile p : odb.listPacks())
+			byName.put(p.getPackFile().getName(), p);
+
+		final MutableObjectId id = new MutableObjectId();
+		for (int pos = 0; pos < midx.getObjectCount(); pos++) {
+			midx.getObjectId(pos, id);
+			if (0 < pos) {
+				final MutableObjectId prev = new MutableObjectId();
+				midx.getObjectId(pos - 1, prev);
+				assertTrue(prev.compareTo(id) < 0);
+			}
+			assertEquals(pos, midx.findPosition(id));
+			final PackFile p = byName.get(midx.getPackName(midx.getPack(pos)));
+			assertNotNull(p);
+			assertEquals(p.idx().findOffset(id), midx.getOffset(pos));
+		}
+	}
+}
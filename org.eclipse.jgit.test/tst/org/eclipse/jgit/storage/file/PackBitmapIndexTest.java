@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+
+public class PackBitmapIndexTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private TestRepository<FileRepository> tr;
+
+	private WindowCursor wc;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		tr = new TestRepository<FileRepository>(repo);
+		wc = (WindowCursor) repo.newObjectReader();
+	}
+
+	protected void tearDown() throws Exception {
+		if (wc != null)
+			wc.release();
+		super.tearDown();
+	}
+
+	public void testCompressedBitmap() {
+		final int bits = 64 * 200 + 17;
+		final long[] a = CompressedBitmap.newBitmap(bits);
+		for (int i = 0; i < 64 * 50; i++)
+			CompressedBitmap.set(a, i);
+		CompressedBitmap.set(a, 64 * 100 + 3);
+		CompressedBitmap.set(a, 64 * 101 + 63);
+		CompressedBitmap.set(a, bits - 1);
+
+		final CompressedBitmap c = CompressedBitmap.compress(a);
+		assertTrue(c.getSerializedSize() < 8 * a.length);
+		assertTrue(Arrays.equals(a, c.toBitmap(bits)));
+
+		final long[] b = CompressedBitmap.newBitmap(bits);
+		Arrays.fill(b, ~0L);
+		c.andNotInto(b);
+		for (int i = 0; i < bits; i++)
+			assertEquals(!CompressedBitmap.isSet(a, i), CompressedBitmap
+					.isSet(b, i));
+	}
+
+	public void testNoBitmapIndex() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a")
+				.create();
+		tr.packAndPrune();
+
+		assertNull(getPack().getBitmapIndex());
+		assertNull(wc.findReachableObjects(new RevWalk(wc), Collections
+				.singleton(a), Collections.<ObjectId> emptySet(),
+				NullProgressMonitor.INSTANCE));
+	}
+
+	public void testWriteAndRead() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a")
+				.create();
+		final RevCommit b = tr.branch("master").commit().add("b", "b")
+				.create();
+		final RevCommit c = tr.branch("master").commit().add("c", "c")
+				.create();
+		tr.packAndPrune();
+
+		final PackFile pack = getPack();
+		final PackBitmapIndexWriter w = new PackBitmapIndexWriter(repo, pack);
+		w.setCommitSpacing(2);
+		w.write(NullProgressMonitor.INSTANCE, Collections.singleton(c));
+
+		final PackBitmapIndex idx = pack.getBitmapIndex();
+		assertNotNull(idx);
+		assertEquals(pack.getObjectCount(), idx.getObjectCount());
+		assertEquals(2, idx.getBitmapCount());
+		assertNull(idx.getBitmap(a));
+		assertNotNull(idx.getBitmap(b));
+		assertNotNull(idx.getBitmap(c));
+
+		final long[] all = idx.getBitmap(c).toBitmap(idx.getObjectCount());
+		for (int pos = 0; pos < idx.getObjectCount(); pos++)
+			assertTrue(CompressedBitmap.isSet(all, pos));
+
+		final int posA = idx.findPosition(a);
+		assertEquals(a, idx.getObject(posA));
+		assertEquals(Constants.OBJ_COMMIT, idx.getObjectType(posA));
+		assertEquals(Constants.OBJ_TREE, idx.getObjectType(idx
+				.findPosition(a.getTree())));
+	}
+
+	public void testPathHashesStored() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a").add(
+				"dir/b", "b").create();
+		tr.packAndPrune();
+		final PackFile pack = getPack();
+		new PackBitmapIndexWriter(repo, pack).write(
+				NullProgressMonitor.INSTANCE, Collections.singleton(a));
+
+		final PackBitmapIndex idx = pack.getBitmapIndex();
+		final ObjectWalk ow = new ObjectWalk(repo);
+		ow.markStart(ow.parseCommit(a));
+		assertEquals(a, ow.next());
+		assertEquals(0, idx.getPathHashCode(idx.findPosition(a)));
+		int cnt = 0;
+		RevObject o;
+		while ((o = ow.nextObject()) != null) {
+			assertEquals(o.name(), ow.getPathHashCode(), idx
+					.getPathHashCode(idx.findPosition(o)));
+			assertEquals(ow.getPathHashCode(), wc.getPathHashCode(o));
+			cnt++;
+		}
+		assertEquals(4, cnt);
+		assertTrue(idx.getPathHashCode(idx.findPosition(tr.blob("b"))) != 0);
+	}
+
+	public void testFindReachableObjects() throws Exception {
+		final RevCommit a = tr.branch("master").commit().add("a", "a")
+				.create();
+		final RevCommit b = tr.branch("master").commit().add("b", "b")
+				.create();
+		tr.packAndPrune();
+		new PackBitmapIndexWriter(repo, getPack()).write(
+				NullProgressMonitor.INSTANCE, Collections.singleton(b));
+
+		final RevCommit c = tr.branch("master").commit().add("c", "c")
+				.create();
+		final RevCommit d = tr.branch("side").commit().parent(a).add("d",
+				"d").create();
+
+		assertSameObjects(Collections.singleton(c), Collections
+				.<ObjectId> emptySet());
+		assertSameObjects(Collections.singleton(c), Collections.singleton(a));
+		assertSameObjects(Arrays.asList(c, d), Collections.singleton(b));
+		assertSameObjects(Collections.singleton(d), Collections.singleton(c));
+		assertSameObjects(Collections.singleton(b), Collections.singleton(c));
+	}
+
+	public void testIncrementalThinPackUsesEdgeObjects() throws Exception {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			text.append("line ").append(i).append('\n');
+		// The unchanged files sort between the trees and "f", pushing the
+		// trees out of the small delta search window used below.
+		//
+		final RevCommit a = tr.branch("master").commit().add("a",
+				"unchanged content of a\n").add("b",
+				"unchanged content of b\n").add("c",
+				"unchanged content of c\n").add("f", text + "last line\n")
+				.create();
+		tr.packAndPrune();
+		new PackBitmapIndexWriter(repo, getPack()).write(
+				NullProgressMonitor.INSTANCE, Collections.singleton(a));
+
+		final RevCommit b = tr.branch("master").commit().add("f",
+				text.toString()).create();
+
+		final long full = writePack(b, a, false);
+		final long thin = writePack(b, a, true);
+		assertTrue("thin " + thin + " full " + full, thin * 4 < full);
+	}
+
+	private long writePack(ObjectId want, ObjectId have, boolean thin)
+			throws Exception {
+		final PackConfig config = new PackConfig(repo);
+		config.setUseBitmaps(true);
+		config.setDeltaSearchWindowSize(3);
+		final PackWriter pw = new PackWriter(config, wc);
+		try {
+			pw.setThin(thin);
+			pw.preparePack(NullProgressMonitor.INSTANCE, Collections
+					.singleton(want), Collections.singleton(have));
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, out);
+			return out.size();
+		} finally {
+			pw.release();
+		}
+	}
+
+	private void assertSameObjects(Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have) throws Exception {
+		final Set<ObjectId> expect = reachable(want);
+		expect.removeAll(reachable(have));
+
+		final Set<ObjectId> actual = new HashSet<ObjectId>();
+		for (RevObject r : wc.findReachableObjects(new RevWalk(wc), want,
+				have, NullProgressMonitor.INSTANCE))
+			assertTrue(actual.add(r.copy()));
+		assertEquals(expect, actual);
+	}
+
+	private Set<ObjectId> reachable(Collection<? extends ObjectId> from)
+			throws Exception {
+		final Set<ObjectId> r = new HashSet<ObjectId>();
+		final ObjectWalk ow = new ObjectWalk(repo);
+		for (ObjectId id : from)
+			ow.markStart(ow.parseAny(id));
+		RevObject o;
+		while ((o = ow.next()) != null)
+			r.add(o.copy());
+		while ((o = ow.nextObject()) != null)
+			r.add(o.copy());
+		return r;
+	}
+
+	private PackFile getPack() {
+		return repo.getObjectDatabase().getPacks().iterator().next();
+	}
+}
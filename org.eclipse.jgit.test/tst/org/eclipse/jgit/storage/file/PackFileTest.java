@@ -326,6 +326,96 @@ public void testDelta_LargeInstructionStream() throws Exception {
 		in.close();
 	}
 
+	public void testConcurrentWindowLoads() throws Exception {
+		final RevBlob[] blobs = new RevBlob[16];
+		final byte[][] data = new byte[blobs.length][];
+		for (int i = 0; i < blobs.length; i++) {
+			data[i] = rng.nextBytes(64 * 1024);
+			blobs[i] = tr.blob(data[i]);
+		}
+		tr.packAndPrune();
+
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(4 * 4096);
+		WindowCache.reconfigure(cfg);
+		try {
+			final long t1 = readConcurrently(1, blobs, data);
+			final long t4 = readConcurrently(4, blobs, data);
+			assertTrue(0 < t1 && 0 < t4);
+		} finally {
+			WindowCache.reconfigure(new WindowCacheConfig());
+		}
+	}
+
+	public void testReadWhileInterrupted() throws Exception {
+		final byte[] data = rng.nextBytes(300);
+		final RevBlob id = tr.blob(data);
+		tr.packAndPrune();
+
+		final PackFile pack = repo.getObjectDatabase().getPacks().iterator()
+				.next();
+		WindowCache.purge(pack);
+		Thread.currentThread().interrupt();
+		try {
+			assertTrue(Arrays.equals(data, wc.open(id).getCachedBytes()));
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+
+		WindowCache.purge(pack);
+		assertTrue(Arrays.equals(data, wc.open(id).getCachedBytes()));
+	}
+
+	/**
+	 * Read every blob from a number of threads, with a window cache too small
+	 * to hold them, so most reads must load windows from the pack.
+	 *
+	 * @return number of blobs read per second, by all threads together.
+	 */
+	private long readConcurrently(final int threadCnt, final RevBlob[] blobs,
+			final byte[][] data) throws Exception {
+		final int rounds = 8;
+		final Thread[] threads = new Thread[threadCnt];
+		final Throwable[] errors = new Throwable[threadCnt];
+		for (int t = 0; t < threadCnt; t++) {
+			final int id = t;
+			threads[t] = new Thread() {
+				public void run() {
+					final WindowCursor curs = (WindowCursor) repo
+							.newObjectReader();
+					try {
+						for (int r = 0; r < rounds; r++) {
+							for (int i = 0; i < blobs.length; i++) {
+								final int n = (i + id * 5) % blobs.length;
+								final byte[] act = curs.open(blobs[n])
+										.getCachedBytes();
+								if (!Arrays.equals(data[n], act))
+									throw new AssertionError("blob " + n);
+							}
+						}
+					} catch (Throwable err) {
+						errors[id] = err;
+					} finally {
+						curs.release();
+					}
+				}
+			};
+		}
+
+		final long start = System.nanoTime();
+		for (final Thread t : threads)
+			t.start();
+		for (int t = 0; t < threadCnt; t++) {
+			threads[t].join();
+			if (errors[t] != null)
+				throw new Exception(errors[t]);
+		}
+		final long time = Math.max(1, System.nanoTime() - start);
+		return threadCnt * rounds * blobs.length * 1000000000L / time;
+	}
+
 	private byte[] clone(int first, byte[] base) {
 		byte[] r = new byte[base.length];
 		System.arraycopy(base, 1, r, 1, r.length - 1);
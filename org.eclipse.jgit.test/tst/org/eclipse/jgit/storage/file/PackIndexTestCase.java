@@ -48,6 +48,7 @@
 import java.util.NoSuchElementException;
 
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
 
@@ -148,6 +149,22 @@ public void testCompareEntriesOffsetsWithFindOffsets() {
 		}
 	}
 
+	/**
+	 * Compare position of iterator entries with output of findPosition()
+	 * and getOffset().
+	 */
+	public void testCompareEntriesPositionsWithFindPosition() {
+		long pos = 0;
+		for (MutableEntry me : denseIdx) {
+			assertEquals(pos, denseIdx.findPosition(me.toObjectId()));
+			assertEquals(me.toObjectId(), denseIdx.getObjectId(pos));
+			assertEquals(me.getOffset(), denseIdx.getOffset(pos));
+			pos++;
+		}
+		assertEquals(-1, smallIdx.findPosition(ObjectId
+				.fromString("0000000000000000000000000000000000000001")));
+	}
+
 	/**
 	 * Test partial results of iterator comparing to content of well-known
 	 * (prepared) dense index, that may need multi-level indexing.
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.util.IO;
+
+public class PackInserterTest extends LocalDiskRepositoryTestCase {
+	private FileRepository repo;
+
+	private File packDir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repo = createBareRepository();
+		packDir = new File(repo.getObjectsDirectory(), "pack");
+	}
+
+	public void testReadBeforeFlush() throws Exception {
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		final ObjectReader reader = ins.newReader();
+		try {
+			final List<ObjectId> ids = new ArrayList<ObjectId>();
+			for (int i = 0; i < 100; i++)
+				ids.add(ins.insert(Constants.OBJ_BLOB, content(i)));
+
+			assertFalse(repo.hasObject(ids.get(0)));
+			for (int i = 0; i < ids.size(); i++) {
+				assertTrue(reader.has(ids.get(i)));
+				final ObjectLoader ldr = reader.open(ids.get(i));
+				assertEquals(Constants.OBJ_BLOB, ldr.getType());
+				assertTrue(Arrays.equals(content(i), ldr
+						.getCachedBytes()));
+			}
+
+			ins.flush();
+			assertEquals(1, listPacks().length);
+			for (int i = 0; i < ids.size(); i++) {
+				assertTrue(repo.hasObject(ids.get(i)));
+				assertTrue(Arrays.equals(content(i), repo.open(
+						ids.get(i)).getCachedBytes()));
+				assertTrue(Arrays.equals(content(i), reader.open(
+						ids.get(i)).getCachedBytes()));
+			}
+		} finally {
+			reader.release();
+			ins.release();
+		}
+		assertNoLooseObjects();
+	}
+
+	public void testDuplicatesStoredOnce() throws Exception {
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		try {
+			final ObjectId a = ins.insert(Constants.OBJ_BLOB, content(1));
+			assertEquals(a, ins.insert(Constants.OBJ_BLOB, content(1)));
+			final byte[] big = largeContent();
+			final ObjectId b = ins.insert(Constants.OBJ_BLOB, big.length,
+					new ByteArrayInputStream(big));
+			assertEquals(b, ins.insert(Constants.OBJ_BLOB, big.length,
+					new ByteArrayInputStream(big)));
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+
+		final File[] packs = listPacks();
+		assertEquals(1, packs.length);
+		final PackFile pack = new PackFile(new File(packDir, packs[0]
+				.getName().replace(".pack", ".idx")), packs[0]);
+		try {
+			assertEquals(2, pack.getObjectCount());
+		} finally {
+			pack.close();
+		}
+	}
+
+	public void testStreamedLargeObject() throws Exception {
+		final byte[] big = largeContent();
+		repo.getConfig().setInt("core", null, "streamfilethreshold", 1024);
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		final ObjectReader reader = ins.newReader();
+		try {
+			final ObjectId id = ins.insert(Constants.OBJ_BLOB, big.length,
+					new ByteArrayInputStream(big));
+			assertEquals(new ObjectInserter.Formatter().idFor(
+					Constants.OBJ_BLOB, big), id);
+
+			final ObjectLoader ldr = reader.open(id, Constants.OBJ_BLOB);
+			assertEquals(big.length, ldr.getSize());
+			assertTrue(ldr.isLarge());
+			final ObjectStream in = ldr.openStream();
+			final byte[] act = new byte[big.length];
+			try {
+				IO.readFully(in, act, 0, act.length);
+				assertEquals(-1, in.read());
+			} finally {
+				in.close();
+			}
+			assertTrue(Arrays.equals(big, act));
+
+			ins.flush();
+		} finally {
+			reader.release();
+			ins.release();
+		}
+		assertEquals(big.length, repo.open(id(big)).getSize());
+	}
+
+	public void testReleaseWithoutFlush() throws Exception {
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		final ObjectId id;
+		try {
+			id = ins.insert(Constants.OBJ_BLOB, content(1));
+			assertEquals(1, packDir.list().length);
+		} finally {
+			ins.release();
+		}
+		assertEquals(0, packDir.list().length);
+		assertFalse(repo.hasObject(id));
+	}
+
+	public void testFlushEmpty() throws Exception {
+		final PackInserter ins = repo.getObjectDatabase().newPackInserter();
+		try {
+			ins.flush();
+		} finally {
+			ins.release();
+		}
+		assertEquals(0, packDir.list().length);
+	}
+
+	private File[] listPacks() {
+		final List<File> r = new ArrayList<File>();
+		for (final String n : packDir.list()) {
+			if (n.endsWith(".pack"))
+				r.add(new File(packDir, n));
+		}
+		return r.toArray(new File[r.size()]);
+	}
+
+	private void assertNoLooseObjects() {
+		for (final String n : repo.getObjectsDirectory().list())
+			assertTrue(n, n.equals("pack") || n.equals("info"));
+	}
+
+	private static byte[] content(final int i) {
+		return Constants.encode("blob " + i + "\n");
+	}
+
+	private static byte[] largeContent() {
+		final byte[] big = new byte[256 * 1024];
+		for (int i = 0; i < big.length; i++)
+			big[i] = (byte) ((i * 31) ^ (i >>> 7));
+		return big;
+	}
+
+	private static ObjectId id(final byte[] data) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+	}
+}
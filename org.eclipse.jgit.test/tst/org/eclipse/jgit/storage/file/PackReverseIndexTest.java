@@ -51,7 +51,7 @@
 
 public class PackReverseIndexTest extends RepositoryTestCase {
 
-	private PackIndex idx;
+	PackIndex idx;
 
 	private PackReverseIndex reverseIdx;
 
@@ -63,7 +63,11 @@ public void setUp() throws Exception {
 		// index with both small (< 2^31) and big offsets
 		idx = PackIndex.open(JGitTestUtil.getTestResourceFile(
 				"pack-huge.idx"));
-		reverseIdx = new PackReverseIndex(idx);
+		reverseIdx = createReverseIndex();
+	}
+
+	PackReverseIndex createReverseIndex() throws Exception {
+		return PackReverseIndex.computeFromIndex(idx);
 	}
 
 	/**
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+
+public class PackReverseIndexV1Test extends PackReverseIndexTest {
+	@Override
+	PackReverseIndex createReverseIndex() throws Exception {
+		final File rev = new File(trash, "pack-huge.rev");
+		write(rev, idx.packChecksum);
+		final PackReverseIndex r = PackReverseIndex.open(rev, idx);
+		assertTrue(r instanceof PackReverseIndexV1);
+		return r;
+	}
+
+	public void testOtherPackRejected() throws Exception {
+		final File rev = new File(trash, "other.rev");
+		write(rev, new byte[20]);
+		try {
+			PackReverseIndex.open(rev, idx);
+			fail("reverse index of another pack was accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void write(final File rev, final byte[] packChecksum)
+			throws IOException {
+		final List<PackedObjectInfo> list = new ArrayList<PackedObjectInfo>();
+		for (final MutableEntry me : idx) {
+			final PackedObjectInfo o = new PackedObjectInfo(me.toObjectId());
+			o.setOffset(me.getOffset());
+			list.add(o);
+		}
+		final FileOutputStream out = new FileOutputStream(rev);
+		try {
+			new PackReverseIndexWriter(out).write(list, packChecksum);
+		} finally {
+			out.close();
+		}
+	}
+}
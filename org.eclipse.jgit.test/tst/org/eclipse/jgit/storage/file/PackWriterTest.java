@@ -49,6 +49,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -57,18 +58,24 @@
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.SampleDataRepositoryTestCase;
 import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.transport.IndexPack;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.JGitTestUtil;
 
 public class PackWriterTest extends SampleDataRepositoryTestCase {
@@ -407,9 +414,140 @@ public void testWriteIndex() throws Exception {
 		}
 	}
 
+	public void testWritePackCopiesStoredPackVerbatim() throws Exception {
+		config.setIndexVersion(2);
+		final List<ObjectId> wants = allRefs();
+		final FileRepository dst = createStoredPack(wants);
+		final PackFile stored = dst.getObjectDatabase().getPacks()
+				.iterator().next();
+
+		config.setDeltaBaseAsOffset(true);
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, dst.newObjectReader());
+		writer.preparePack(m, wants, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, os);
+		assertEquals(writer.getObjectsNumber(), writer
+				.getObjectsCopiedVerbatim());
+		assertTrue(Arrays.equals(IO.readFully(stored.getPackFile()), os
+				.toByteArray()));
+
+		final ByteArrayOutputStream idx = new ByteArrayOutputStream();
+		writer.writeIndex(idx);
+		assertTrue(Arrays.equals(IO.readFully(new File(stored.getPackFile()
+				.getPath().replaceAll("\\.pack$", ".idx"))), idx.toByteArray()));
+	}
+
+	public void testWritePackCopiesStoredPrefix() throws Exception {
+		config.setIndexVersion(2);
+		final ObjectId head = ObjectId
+				.fromString("82c6b885ff600be425b4ea96dee75dca255b69e7");
+		final FileRepository dst = createStoredPack(Collections
+				.singletonList(head));
+		final PackIndex storedIdx = dst.getObjectDatabase().getPacks()
+				.iterator().next().idx();
+
+		// The stored pack starts with 82c6b8 and c59759, followed by the
+		// uninteresting 540a36.
+		//
+		config.setDeltaBaseAsOffset(true);
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, dst.newObjectReader());
+		writer.preparePack(m, Collections.singletonList(head), Collections
+				.singletonList(ObjectId
+						.fromString("540a36d136cf413e4b064c2b0e0a4db60f77feab")));
+		writer.writePack(m, m, os);
+		assertEquals(2, writer.getObjectsCopiedVerbatim());
+		assertEquals("ed3f96b8327c7c66b0f8f70056129f0769323d86", writer
+				.computeName().name());
+
+		verifyOpenPack(false);
+		final ObjectId second = ObjectId
+				.fromString("c59759f143fb1fe21c197981df75a7ee00290799");
+		assertEquals(storedIdx.findOffset(head), pack.idx().findOffset(
+				head));
+		assertEquals(storedIdx.findOffset(second), pack.idx()
+				.findOffset(second));
+		assertEquals(storedIdx.findCRC32(second), pack.idx().findCRC32(
+				second));
+	}
+
+	public void testWritePackNoVerbatimCopyWithoutOffsetDeltas()
+			throws Exception {
+		config.setIndexVersion(2);
+		final List<ObjectId> wants = allRefs();
+		final FileRepository dst = createStoredPack(wants);
+
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		writer = new PackWriter(config, dst.newObjectReader());
+		writer.preparePack(m, wants, EMPTY_LIST_OBJECT);
+		writer.writePack(m, m, os);
+		assertEquals(0, writer.getObjectsCopiedVerbatim());
+		verifyOpenPack(false);
+		assertEquals(writer.getObjectsNumber(), pack.getObjectCount());
+	}
+
 	// TODO: testWritePackDeltasCycle()
 	// TODO: testWritePackDeltasDepth()
 
+	public void testWritePackThreadedDeltaSearch() throws Exception {
+		final List<ObjectId> wants = createHistory();
+		final long withoutDeltas = writeHistory(wants, false, null);
+
+		config.setThreads(4);
+		final long withDeltas = writeHistory(wants, true, null);
+		assertTrue(withDeltas * 3 < withoutDeltas);
+	}
+
+	public void testWritePackThreadedDeltaSearchOnExecutor() throws Exception {
+		final List<ObjectId> wants = createHistory();
+		final long withoutDeltas = writeHistory(wants, false, null);
+
+		config.setThreads(3);
+		final long withDeltas = writeHistory(wants, true, new Executor() {
+			public void execute(Runnable command) {
+				new Thread(command).start();
+			}
+		});
+		assertTrue(withDeltas * 3 < withoutDeltas);
+	}
+
+	private List<ObjectId> createHistory() throws Exception {
+		final TestRepository<FileRepository> util = new TestRepository<FileRepository>(
+				db);
+		final StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 400; i++)
+			content.append("line ").append(i).append('\n');
+
+		// One path changes far more often than the others, so a fixed
+		// partitioning of the sorted object list would be uneven.
+		//
+		RevCommit tip = null;
+		for (int v = 0; v < 60; v++) {
+			final String text = content.toString() + "version " + v + "\n";
+			final CommitBuilder c = util.commit();
+			if (tip != null)
+				c.parent(tip);
+			c.add("big", text);
+			c.add("small" + (v % 3), text.substring(0, 1000) + v);
+			tip = c.create();
+		}
+		return Collections.<ObjectId> singletonList(tip);
+	}
+
+	private long writeHistory(final List<ObjectId> wants,
+			final boolean deltaCompress, final Executor executor)
+			throws IOException {
+		config.setReuseDeltas(false);
+		config.setReuseObjects(false);
+		config.setDeltaCompress(deltaCompress);
+		config.setExecutor(executor);
+
+		os.reset();
+		createVerifyOpenPack(wants, EMPTY_LIST_OBJECT, false, false);
+		assertEquals(writer.getObjectsNumber(), pack.getObjectCount());
+		return os.size();
+	}
+
 	private void writeVerifyPack1() throws IOException {
 		final LinkedList<ObjectId> interestings = new LinkedList<ObjectId>();
 		interestings.add(ObjectId
@@ -535,6 +673,46 @@ private void verifyOpenPack(final boolean thin) throws IOException {
 		pack = new PackFile(indexFile, packFile);
 	}
 
+	private List<ObjectId> allRefs() {
+		final List<ObjectId> wants = new ArrayList<ObjectId>();
+		for (Ref r : db.getAllRefs().values())
+			wants.add(r.getObjectId());
+		return wants;
+	}
+
+	private FileRepository createStoredPack(final Collection<ObjectId> wants)
+			throws IOException {
+		final NullProgressMonitor m = NullProgressMonitor.INSTANCE;
+		final FileRepository dst = createBareRepository();
+		final PackWriter pw = new PackWriter(config, db.newObjectReader());
+		try {
+			pw.setDeltaBaseAsOffset(true);
+			pw.preparePack(m, wants, EMPTY_LIST_OBJECT);
+			final File packDir = new File(dst.getObjectsDirectory(), "pack");
+			packDir.mkdirs();
+			final String name = "pack-" + pw.computeName().name();
+			final File dstPack = new File(packDir, name + ".pack");
+			final File dstIdx = new File(packDir, name + ".idx");
+
+			OutputStream out = new FileOutputStream(dstPack);
+			try {
+				pw.writePack(m, m, out);
+			} finally {
+				out.close();
+			}
+			out = new FileOutputStream(dstIdx);
+			try {
+				pw.writeIndex(out);
+			} finally {
+				out.close();
+			}
+			dst.getObjectDatabase().openPack(dstPack, dstIdx);
+		} finally {
+			pw.release();
+		}
+		return dst;
+	}
+
 	private void verifyObjectsOrder(final ObjectId objectsOrder[]) {
 		final List<PackIndex.MutableEntry> entries = new ArrayList<PackIndex.MutableEntry>();
 
@@ -51,6 +51,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
@@ -58,6 +59,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTag;
@@ -913,6 +915,95 @@ public void testIsNameConflicting() throws IOException {
 		assertTrue(refdir.isNameConflicting("refs/heads/q/master"));
 	}
 
+	public void testGetRef_MappedPackedRefs() throws IOException {
+		enableMmapPackedRefs();
+		writePackedRefs("# pack-refs with: peeled sorted \n" + //
+				A.name() + " refs/heads/master\n" + //
+				B.name() + " refs/heads/other\n" + //
+				v1_0.name() + " refs/tags/v1.0\n" + //
+				"^" + v1_0.getObject().name() + "\n");
+
+		final Ref master = refdir.getRef("master");
+		assertEquals("refs/heads/master", master.getName());
+		assertEquals(A, master.getObjectId());
+		assertTrue(master.isPeeled());
+		assertNull(master.getPeeledObjectId());
+
+		final Ref tag = refdir.getRef("v1.0");
+		assertEquals("refs/tags/v1.0", tag.getName());
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(v1_0.getObject(), tag.getPeeledObjectId());
+
+		assertEquals(B, refdir.getRef("refs/heads/other").getObjectId());
+		assertNull(refdir.getRef("refs/heads/a"));
+		assertNull(refdir.getRef("refs/heads/p"));
+		assertNull(refdir.getRef("refs/tags/v2.0"));
+
+		Map<String, Ref> heads = refdir.getRefs(R_HEADS);
+		assertEquals(2, heads.size());
+		assertEquals(A, heads.get("master").getObjectId());
+		assertEquals(B, heads.get("other").getObjectId());
+
+		Map<String, Ref> all = refdir.getRefs(RefDatabase.ALL);
+		assertEquals(4, all.size());
+		assertSame(all.get("refs/heads/master"), all.get(HEAD).getTarget());
+
+		assertTrue(refdir.isNameConflicting("refs/tags"));
+		assertTrue(refdir.isNameConflicting("refs/heads/master/x"));
+		assertFalse(refdir.isNameConflicting("refs/heads/m"));
+	}
+
+	public void testGetRef_MappedPackedRefsManyRefs() throws IOException {
+		enableMmapPackedRefs();
+		StringBuilder b = new StringBuilder();
+		b.append("# pack-refs with: peeled sorted \n");
+		for (int i = 0; i < 1000; i++) {
+			b.append(i % 2 == 0 ? A.name() : v1_0.name());
+			b.append(String.format(" refs/changes/%03d\n", i));
+			if (i % 2 != 0)
+				b.append("^" + v1_0.getObject().name() + "\n");
+		}
+		writePackedRefs(b.toString());
+
+		for (int i = 0; i < 1000; i++) {
+			String name = String.format("refs/changes/%03d", i);
+			Ref r = refdir.getRef(name);
+			assertNotNull(name, r);
+			assertEquals(name, r.getName());
+			assertEquals(i % 2 == 0 ? A : v1_0, r.getObjectId());
+		}
+		assertNull(refdir.getRef("refs/changes/1000"));
+		assertNull(refdir.getRef("refs/changes/0"));
+		assertEquals(10, refdir.getRefs("refs/changes/01").size());
+		assertEquals(1000, refdir.getRefs("refs/changes/").size());
+	}
+
+	public void testGetRef_MappedPackedRefsUnsorted() throws IOException {
+		enableMmapPackedRefs();
+		writePackedRefs("# pack-refs with: peeled \n" + //
+				B.name() + " refs/heads/other\n" + //
+				A.name() + " refs/heads/master\n");
+
+		assertEquals(A, refdir.getRef("master").getObjectId());
+		assertEquals(B, refdir.getRef("other").getObjectId());
+		assertEquals(2, refdir.getRefs(R_HEADS).size());
+	}
+
+	public void testMappedPackedRefsUpdate() throws IOException {
+		enableMmapPackedRefs();
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/other", B);
+		refdir.pack(Arrays.asList("refs/heads/master",
+				"refs/heads/other"));
+		assertEquals(A, refdir.getRef("master").getObjectId());
+
+		RefUpdate u = refdir.newUpdate("refs/heads/other", false);
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+		assertNull(refdir.getRef("other"));
+		assertEquals(1, refdir.getRefs(R_HEADS).size());
+	}
+
 	public void testPeelLooseTag() throws IOException {
 		writeLooseRef("refs/tags/v1_0", v1_0);
 		writeLooseRef("refs/tags/current", "ref: refs/tags/v1_0\n");
@@ -985,6 +1076,10 @@ public void testPeelCommit() throws IOException {
 		assertSame(master_p2, refdir.peel(master_p2));
 	}
 
+	private void enableMmapPackedRefs() {
+		diskRepo.getConfig().setBoolean("core", null, "mmappackedrefs", true);
+	}
+
 	private void writeLooseRef(String name, AnyObjectId id) throws IOException {
 		writeLooseRef(name, id.name() + "\n");
 	}
@@ -181,6 +181,77 @@ public void testNoLog() throws Exception {
 		assertNull(db.getReflogReader("master").getLastEntry());
 	}
 
+	public void testReadManyBlocksBackwards() throws Exception {
+		final StringBuilder log = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			log.append(line(i));
+		setupReflog("logs/refs/heads/master", log.toString().getBytes());
+
+		ReflogReader reader = db.getReflogReader("master");
+		assertEquals("entry 1999", reader.getLastEntry().getComment());
+		assertEquals("entry 1989", reader.getReverseEntry(10).getComment());
+		assertEquals("entry 0", reader.getReverseEntry(1999).getComment());
+		assertNull(reader.getReverseEntry(2000));
+		assertEquals(3, reader.getReverseEntries(3).size());
+
+		ReflogReader.ReverseIterator itr = reader.getReverseIterator();
+		try {
+			for (int i = 1999; i >= 0; i--) {
+				Entry e = itr.next();
+				assertEquals("entry " + i, e.getComment());
+				assertEquals(id(i), e.getNewId());
+			}
+			assertNull(itr.next());
+		} finally {
+			itr.release();
+		}
+	}
+
+	public void testReadLongEntry() throws Exception {
+		final StringBuilder msg = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			msg.append("long ");
+		setupReflog("logs/refs/heads/master", (line(0) + oneLine(1, msg
+				.toString()) + line(2)).getBytes());
+
+		List<Entry> entries = db.getReflogReader("master").getReverseEntries();
+		assertEquals(3, entries.size());
+		assertEquals("entry 2", entries.get(0).getComment());
+		assertEquals(msg.toString(), entries.get(1).getComment());
+		assertEquals("entry 0", entries.get(2).getComment());
+	}
+
+	public void testResolveReflogNumber() throws Exception {
+		final String a = "49322bb17d3acc9146f98c97d078513228bbf3c0";
+		final String b = "6e1475206e57110fcef4b92320436c1e9872a322";
+		setupReflog("logs/refs/heads/master", (ObjectId.zeroId().name() + " "
+				+ b + " A U Thor <thor@committer.au> 1243028201 -0100\tone\n"
+				+ b + " " + a
+				+ " A U Thor <thor@committer.au> 1243028202 -0100\ttwo\n")
+				.getBytes());
+
+		assertEquals(a, db.resolve("master@{0}").name());
+		assertEquals(b, db.resolve("refs/heads/master@{1}").name());
+		assertEquals("1203b03dc816ccbb67773f28b3c19318654b0bc8", db.resolve(
+				"master@{0}~2").name());
+		assertNull(db.resolve("master@{2}"));
+	}
+
+	private static ObjectId id(int i) {
+		return ObjectId.fromString(String.format("%040x", Integer
+				.valueOf(i + 1)));
+	}
+
+	private static String line(int i) {
+		return oneLine(i, "entry " + i);
+	}
+
+	private static String oneLine(int i, String msg) {
+		return id(i - 1).name() + " " + id(i).name()
+				+ " A U Thor <thor@committer.au> " + (1243028201 + i)
+				+ " -0100\t" + msg + "\n";
+	}
+
 	private void setupReflog(String logName, byte[] data)
 			throws FileNotFoundException, IOException {
 				File logfile = new File(db.getDirectory(), logName);
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+
+public class ReftableDatabaseTest extends LocalDiskRepositoryTestCase {
+	private FileRepository db;
+
+	private ReftableDatabase refdb;
+
+	private RevCommit A;
+
+	private RevCommit B;
+
+	private RevTag v1_0;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		final FileRepository init = createBareRepository();
+		init.getConfig().setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+		init.getConfig().setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE,
+				ReftableDatabase.REFTABLE);
+		init.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_LOGALLREFUPDATES, true);
+		init.getConfig().save();
+
+		db = new FileRepository(init.getDirectory());
+		refdb = (ReftableDatabase) db.getRefDatabase();
+		refdb.create();
+		final RefUpdate u = db.updateRef(HEAD);
+		u.disableRefLog();
+		assertEquals(Result.NEW, u.link("refs/heads/master"));
+
+		final TestRepository<FileRepository> repo = new TestRepository<FileRepository>(
+				db);
+		A = repo.commit().create();
+		B = repo.commit(A);
+		v1_0 = repo.tag("v1_0", B);
+		repo.getRevWalk().parseBody(v1_0);
+	}
+
+	protected void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	public void testCreate() throws Exception {
+		final File d = db.getDirectory();
+		assertTrue(new File(d, "jgit-reftable/tables.list").isFile());
+		assertTrue(new File(d, "HEAD").isFile());
+		assertFalse(new File(d, "packed-refs").exists());
+		assertFalse(new File(d, "reftable").exists());
+
+		final Ref head = db.getRef(HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals("refs/heads/master", head.getTarget().getName());
+		assertNull(head.getObjectId());
+		assertTrue(refdb.getRefs("").isEmpty());
+	}
+
+	public void testRepositoryFormat() throws Exception {
+		final FileRepository plain = createBareRepository();
+		plain.getConfig().setString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE,
+				ReftableDatabase.REFTABLE);
+		plain.getConfig().save();
+		final FileRepository v0 = new FileRepository(plain.getDirectory());
+		try {
+			// Version 0 ignores all extensions.
+			assertTrue(v0.getRefDatabase() instanceof RefDirectory);
+		} finally {
+			v0.close();
+		}
+
+		db.getConfig().setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION,
+				null, "unknown", "true");
+		db.getConfig().save();
+		try {
+			new FileRepository(db.getDirectory());
+			fail("opened repository using an unknown extension");
+		} catch (IOException unknown) {
+			assertTrue(unknown.getMessage().indexOf("unknown") >= 0);
+		}
+	}
+
+	public void testUpdateThroughHead() throws Exception {
+		update("refs/heads/master", A);
+		final Ref head = db.getRef(HEAD);
+		assertTrue(head.isSymbolic());
+		assertEquals(A, head.getObjectId());
+		assertEquals(A, db.resolve("master"));
+
+		final Map<String, Ref> all = refdb.getRefs("");
+		assertEquals(2, all.size());
+		assertEquals(A, all.get(HEAD).getObjectId());
+		assertEquals(A, all.get("refs/heads/master").getObjectId());
+	}
+
+	public void testExactAndPrefixLookups() throws Exception {
+		final ReftableDatabase.Transaction t = refdb.newTransaction();
+		for (int i = 0; i < 1000; i++)
+			t.update(String.format("refs/heads/b%04d", Integer.valueOf(i)),
+					null, i % 2 == 0 ? A : B);
+		t.update("refs/tags/v1_0", null, v1_0);
+		assertTrue(t.commit());
+		assertEquals(1, refdb.getTableCount());
+
+		assertEquals(A, db.resolve("refs/heads/b0000"));
+		assertEquals(B, db.resolve("refs/heads/b0777"));
+		assertEquals(A, db.resolve("b0998"));
+		assertNull(refdb.getRef("refs/heads/b1000"));
+		assertNull(refdb.getRef("refs/heads/b"));
+
+		final Map<String, Ref> heads = refdb.getRefs("refs/heads/");
+		assertEquals(1000, heads.size());
+		assertEquals(B, heads.get("b0501").getObjectId());
+		assertEquals(10, refdb.getRefs("refs/heads/b012").size());
+		assertEquals(1, refdb.getRefs("refs/tags/").size());
+		assertTrue(refdb.getRefs("refs/remotes/").isEmpty());
+
+		assertTrue(refdb.isNameConflicting("refs/heads/b0001/x"));
+		assertTrue(refdb.isNameConflicting("refs/heads"));
+		assertFalse(refdb.isNameConflicting("refs/heads/b00011"));
+	}
+
+	public void testTagsStoredPeeled() throws Exception {
+		update("refs/tags/v1_0", v1_0);
+		final Ref tag = refdb.getRef("refs/tags/v1_0");
+		assertTrue(tag.isPeeled());
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(B, tag.getPeeledObjectId());
+
+		update("refs/heads/master", A);
+		final Ref head = refdb.getRef(HEAD);
+		assertTrue(head.getLeaf().isPeeled());
+		assertNull(head.getLeaf().getPeeledObjectId());
+	}
+
+	public void testNewerTablesShadowOlder() throws Exception {
+		update("refs/heads/a", A);
+		update("refs/heads/b", A);
+		update("refs/heads/a", B);
+		delete("refs/heads/b");
+
+		assertEquals(B, db.resolve("refs/heads/a"));
+		assertNull(refdb.getRef("refs/heads/b"));
+		final Map<String, Ref> heads = refdb.getRefs("refs/heads/");
+		assertEquals(1, heads.size());
+		assertTrue(heads.containsKey("a"));
+
+		update("refs/heads/b", B);
+		assertEquals(B, db.resolve("refs/heads/b"));
+	}
+
+	public void testTransactionIsAtomic() throws Exception {
+		update("refs/heads/a", A);
+		final int tables = refdb.getTableCount();
+
+		assertFalse(refdb.newTransaction()
+				.update("refs/heads/new", ObjectId.zeroId(), A)
+				.update("refs/heads/a", B, B).commit());
+		assertNull(refdb.getRef("refs/heads/new"));
+		assertEquals(A, db.resolve("refs/heads/a"));
+
+		assertFalse(refdb.newTransaction()
+				.update("refs/heads/a", ObjectId.zeroId(), B).commit());
+		assertEquals(tables, refdb.getTableCount());
+
+		assertTrue(refdb.newTransaction()
+				.update("refs/heads/new", ObjectId.zeroId(), A)
+				.update("refs/heads/a", A, B)
+				.delete("refs/heads/master", null)
+				.link("refs/heads/sym", "refs/heads/a").commit());
+		assertEquals(A, db.resolve("refs/heads/new"));
+		assertEquals(B, db.resolve("refs/heads/a"));
+		assertEquals(B, db.resolve("refs/heads/sym"));
+		assertTrue(refdb.getRef("refs/heads/sym").isSymbolic());
+	}
+
+	public void testLockedStackFailsUpdate() throws Exception {
+		final LockFile lck = refdb.lockStack();
+		assertNotNull(lck);
+		try {
+			final RefUpdate u = db.updateRef("refs/heads/a");
+			u.setNewObjectId(A);
+			assertEquals(Result.LOCK_FAILURE, u.update());
+			assertFalse(refdb.newTransaction().update("refs/heads/a", null,
+					A).commit());
+		} finally {
+			lck.unlock();
+		}
+		assertNull(refdb.getRef("refs/heads/a"));
+	}
+
+	public void testAutoCompactKeepsStackShort() throws Exception {
+		for (int i = 0; i < 64; i++)
+			update("refs/heads/b" + i, i % 2 == 0 ? A : B);
+		assertTrue(refdb.getTableCount() <= 7);
+
+		refdb.compact();
+		assertEquals(1, refdb.getTableCount());
+		assertEquals(1, new File(db.getDirectory(), "jgit-reftable").list(
+				new java.io.FilenameFilter() {
+					public boolean accept(File dir, String name) {
+						return name.endsWith(".ref");
+					}
+				}).length);
+		for (int i = 0; i < 64; i++)
+			assertEquals(i % 2 == 0 ? A : B, db.resolve("refs/heads/b" + i));
+	}
+
+	public void testCompactDropsDeletions() throws Exception {
+		update("refs/heads/a", A);
+		update("refs/heads/b", A);
+		delete("refs/heads/a");
+		refdb.compact();
+
+		assertNull(refdb.getRef("refs/heads/a"));
+		assertEquals(A, db.resolve("refs/heads/b"));
+		assertEquals(1, refdb.getRefs("refs/heads/").size());
+		assertTrue(db.getReflogReader("refs/heads/b").getReverseEntries()
+				.size() > 0);
+	}
+
+	public void testReflog() throws Exception {
+		update("refs/heads/master", A);
+		update(HEAD, B);
+		update("refs/tags/v1_0", v1_0);
+
+		final List<ReflogReader.Entry> log = db.getReflogReader("master")
+				.getReverseEntries();
+		assertEquals(2, log.size());
+		assertEquals(A, log.get(0).getOldId());
+		assertEquals(B, log.get(0).getNewId());
+		assertEquals("test: fast forward", log.get(0).getComment());
+		assertEquals(ObjectId.zeroId(), log.get(1).getOldId());
+		assertEquals(A, log.get(1).getNewId());
+		assertEquals("test: created", log.get(1).getComment());
+		assertEquals(author.getName(), log.get(1).getWho().getName());
+
+		assertEquals(1, db.getReflogReader(HEAD).getReverseEntries().size());
+		assertEquals(B, db.getReflogReader(HEAD).getLastEntry().getNewId());
+		assertTrue(db.getReflogReader("refs/tags/v1_0").getReverseEntries()
+				.isEmpty());
+
+		refdb.compact();
+		assertEquals(2, db.getReflogReader("master").getReverseEntries()
+				.size());
+	}
+
+	public void testDeleteRemovesLog() throws Exception {
+		update("refs/heads/a", A);
+		delete("refs/heads/a");
+		update("refs/heads/a", B);
+		final List<ReflogReader.Entry> log = db.getReflogReader("a")
+				.getReverseEntries();
+		assertEquals(1, log.size());
+		assertEquals(B, log.get(0).getNewId());
+	}
+
+	public void testRename() throws Exception {
+		update("refs/heads/master", A);
+		update("refs/heads/master", B);
+
+		final RefRename r = db.renameRef("refs/heads/master",
+				"refs/heads/main");
+		assertEquals(Result.RENAMED, r.rename());
+		assertNull(refdb.getRef("refs/heads/master"));
+		assertEquals(B, db.resolve("refs/heads/main"));
+
+		final Ref head = db.getRef(HEAD);
+		assertEquals("refs/heads/main", head.getTarget().getName());
+		assertEquals(B, head.getObjectId());
+
+		final List<ReflogReader.Entry> log = db.getReflogReader("main")
+				.getReverseEntries();
+		assertEquals(3, log.size());
+		assertEquals(B, log.get(1).getNewId());
+		assertEquals(A, log.get(2).getNewId());
+	}
+
+	public void testRenameOntoExistingFails() throws Exception {
+		update("refs/heads/a", A);
+		update("refs/heads/b", B);
+		assertEquals(Result.LOCK_FAILURE, db.renameRef("refs/heads/a",
+				"refs/heads/b").rename());
+		assertEquals(A, db.resolve("refs/heads/a"));
+		assertEquals(B, db.resolve("refs/heads/b"));
+	}
+
+	public void testReopen() throws Exception {
+		update("refs/heads/master", A);
+		final FileRepository other = new FileRepository(db.getDirectory());
+		try {
+			assertTrue(other.getRefDatabase() instanceof ReftableDatabase);
+			assertEquals(A, other.resolve(HEAD));
+			update("refs/heads/master", B);
+			assertEquals(B, other.resolve(HEAD));
+		} finally {
+			other.close();
+		}
+	}
+
+	private void update(final String name, final ObjectId id)
+			throws Exception {
+		final RefUpdate u = db.updateRef(name);
+		u.setNewObjectId(id);
+		u.setForceUpdate(true);
+		u.setRefLogIdent(author);
+		u.setRefLogMessage("test", true);
+		final Result r = u.update();
+		assertTrue(r.toString(), r == Result.NEW || r == Result.FORCED
+				|| r == Result.FAST_FORWARD || r == Result.NO_CHANGE);
+	}
+
+	private void delete(final String name) throws Exception {
+		final RefUpdate u = db.updateRef(name);
+		u.setForceUpdate(true);
+		assertEquals(Result.FORCED, u.delete());
+	}
+}
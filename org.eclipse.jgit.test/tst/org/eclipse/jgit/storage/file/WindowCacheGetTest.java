@@ -116,6 +116,91 @@ public void testCache_TooSmallLimit() throws IOException {
 		checkLimits(cfg);
 	}
 
+	public void testCache_ClockPolicy() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitEvictionPolicy(WindowCacheConfig.EvictionPolicy.CLOCK);
+		cfg.setPackedGitWindowSize(4096);
+		cfg.setPackedGitLimit(3 * 4096);
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+		checkLimits(cfg);
+		assertTrue(0 < WindowCache.getStats().getEvictionCount());
+	}
+
+	public void testCache_Stats() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+
+		final WindowCacheStats s = WindowCache.getStats();
+		final WindowCache cache = WindowCache.getInstance();
+		assertEquals(cache.getOpenFiles(), s.getOpenFileCount());
+		assertEquals(cache.getOpenBytes(), s.getOpenByteCount());
+		assertTrue(0 < s.getHitCount());
+		assertTrue(0 < s.getMissCount());
+		assertTrue(0 < s.getTotalLoadTime());
+		assertEquals(0, s.getEvictionCount());
+
+		long windows = 0;
+		long bytes = 0;
+		for (final WindowCacheStats.PackStats p : s.getPackStats()) {
+			assertTrue(p.getPackFile().getName().endsWith(".pack"));
+			assertTrue(0 < p.getMissCount());
+			windows += p.getWindowCount();
+			bytes += p.getOpenByteCount();
+		}
+		assertEquals(s.getMissCount(), windows);
+		assertEquals(s.getOpenByteCount(), bytes);
+		assertEquals(s.getOpenFileCount(), s.getPackStats().size());
+	}
+
+	public void testCache_ReconfigureKeepsWindows() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		WindowCache.reconfigure(cfg);
+		doCacheTests();
+		final long openBytes = WindowCache.getInstance().getOpenBytes();
+
+		cfg.setPackedGitLimit(2 * cfg.getPackedGitLimit());
+		WindowCache.reconfigure(cfg);
+		assertEquals(openBytes, WindowCache.getInstance().getOpenBytes());
+
+		doCacheTests();
+		assertEquals(0, WindowCache.getStats().getMissCount());
+	}
+
+	public void testCache_WholePackMapping() throws IOException {
+		final WindowCacheConfig cfg = new WindowCacheConfig();
+		cfg.setPackedGitMmapLimit(64 * WindowCacheConfig.MB);
+		WindowCache.reconfigure(cfg);
+		try {
+			final long openBytes = WindowCache.getInstance().getOpenBytes();
+			doCacheTests();
+
+			final WindowCacheStats s = WindowCache.getStats();
+			final long mapped = s.getMappedByteCount();
+			assertTrue(0 < mapped);
+			assertEquals(openBytes, s.getOpenByteCount());
+			assertEquals(0, s.getMissCount());
+
+			final WindowCursor curs = new WindowCursor(db.getObjectDatabase());
+			final PackFile p = db.getObjectDatabase().getPacks().iterator()
+					.next();
+			curs.pin(p, 0);
+			final long packBytes = p.getPackFile().length();
+			assertTrue(mapped <= PackMapping.getMappedByteCount());
+			final long all = PackMapping.getMappedByteCount();
+			p.close();
+			assertEquals(all, PackMapping.getMappedByteCount());
+			curs.release();
+			assertEquals(all - packBytes, PackMapping.getMappedByteCount());
+
+			db.getObjectDatabase().close();
+			assertEquals(0, PackMapping.getMappedByteCount());
+		} finally {
+			WindowCache.reconfigure(new WindowCacheConfig());
+		}
+	}
+
 	private void checkLimits(final WindowCacheConfig cfg) {
 		final WindowCache cache = WindowCache.getInstance();
 		assertTrue(cache.getOpenFiles() <= cfg.getPackedGitOpenFiles());
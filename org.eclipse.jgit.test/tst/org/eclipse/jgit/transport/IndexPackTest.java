@@ -47,21 +47,28 @@
 package org.eclipse.jgit.transport;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.RepositoryTestCase;
 import org.eclipse.jgit.lib.TextProgressMonitor;
 import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.storage.file.PackFile;
+import org.eclipse.jgit.storage.pack.DeltaEncoder;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.JGitTestUtil;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.TemporaryBuffer;
@@ -151,6 +158,222 @@ public void testTinyThinPack() throws Exception {
 		ip.renameAndOpenPack();
 	}
 
+	public void testThreadedIndexMatchesSingleThreaded() throws IOException {
+		final String name = "pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371";
+		final File single = indexWithThreads(name, "tmp_pack_st", 1);
+		final File threaded = indexWithThreads(name, "tmp_pack_mt", 4);
+		assertTrue(Arrays.equals(IO.readFully(single), IO.readFully(threaded)));
+	}
+
+	public void testThreadedThinPack() throws Exception {
+		TestRepository d = new TestRepository(db);
+		RevBlob a = d.blob("a");
+		RevBlob c = d.blob("c");
+
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+
+		packHeader(pack, 2);
+
+		pack.write((Constants.OBJ_REF_DELTA) << 4 | 4);
+		a.copyRawTo(pack);
+		deflate(pack, new byte[] { 0x1, 0x1, 0x1, 'b' });
+
+		pack.write((Constants.OBJ_REF_DELTA) << 4 | 4);
+		c.copyRawTo(pack);
+		deflate(pack, new byte[] { 0x1, 0x1, 0x1, 'd' });
+
+		digest(pack);
+
+		final byte[] raw = pack.toByteArray();
+		IndexPack ip = IndexPack.create(db, new ByteArrayInputStream(raw));
+		ip.setFixThin(true);
+		ip.setThreads(2);
+		ip.index(NullProgressMonitor.INSTANCE);
+		ip.renameAndOpenPack();
+
+		final ObjectInserter.Formatter fmt = new ObjectInserter.Formatter();
+		assertTrue(db.hasObject(fmt.idFor(Constants.OBJ_BLOB, Constants
+				.encode("b"))));
+		assertTrue(db.hasObject(fmt.idFor(Constants.OBJ_BLOB, Constants
+				.encode("d"))));
+	}
+
+	public void testStreamLargeObjects() throws Exception {
+		final byte[] raw = largeObjectPack();
+		final File inMemory = indexWithThreshold(raw, "tmp_pack_mem",
+				Integer.MAX_VALUE);
+		final File streamed = indexWithThreshold(raw, "tmp_pack_large", 1024);
+		assertTrue(Arrays.equals(IO.readFully(inMemory), IO.readFully(streamed)));
+
+		final PackFile file = new PackFile(streamed, new File(trash,
+				"tmp_pack_large.pack"));
+		for (final byte[] data : largeObjects)
+			assertTrue(file.hasObject(blobId(data)));
+	}
+
+	public void testStreamLargeObjectCollision() throws Exception {
+		final byte[] raw = largeObjectPack();
+
+		// Store a different blob under the name of the first object,
+		// as though it was an existing object colliding with it.
+		//
+		final ObjectId id = blobId(largeObjects[0]);
+		final byte[] other = new byte[largeObjects[0].length];
+		Arrays.fill(other, (byte) 'x');
+		final File path = db.getObjectDatabase().fileFor(id);
+		path.getParentFile().mkdirs();
+		final DeflaterOutputStream out = new DeflaterOutputStream(
+				new FileOutputStream(path));
+		try {
+			out.write(Constants.encodedTypeString(Constants.OBJ_BLOB));
+			out.write(' ');
+			out.write(Constants.encodeASCII(other.length));
+			out.write(0);
+			out.write(other);
+		} finally {
+			out.close();
+		}
+
+		try {
+			indexWithThreshold(raw, "tmp_pack_collide", 1024);
+			fail("indexer should detect the collision");
+		} catch (IOException err) {
+			assertEquals("Collision on " + id.name(), err.getMessage());
+		}
+	}
+
+	public void testStreamedBaseCache() throws Exception {
+		final byte[] raw = largeObjectPack();
+
+		IndexPack ip = new IndexPack(db, new ByteArrayInputStream(raw),
+				new File(trash, "tmp_pack_nocache"));
+		ip.setStreamFileThreshold(1024);
+		ip.setDeltaBaseCacheLimit(0);
+		ip.index(NullProgressMonitor.INSTANCE);
+		final IndexPackStats uncached = ip.getStats();
+		assertEquals(0, uncached.getBaseCacheHitCount());
+		assertTrue(0 < uncached.getBaseCacheMissCount());
+
+		ip = new IndexPack(db, new ByteArrayInputStream(raw), new File(trash,
+				"tmp_pack_cache"));
+		ip.setStreamFileThreshold(1024);
+		ip.index(NullProgressMonitor.INSTANCE);
+		final IndexPackStats cached = ip.getStats();
+		assertTrue(0 < cached.getBaseCacheHitCount());
+		assertTrue(0 < cached.getBaseCacheHitRatio());
+		assertEquals(0, cached.getBaseCacheEvictionCount());
+		assertTrue(cached.getInflatedByteCount() < uncached
+				.getInflatedByteCount());
+	}
+
+	private byte[][] largeObjects;
+
+	private byte[] largeObjectPack() throws IOException {
+		final byte[] data0 = new byte[3000];
+		for (int i = 0; i < data0.length; i++)
+			data0[i] = (byte) ('a' + i % 26);
+		final byte[] data1 = concat(data0, "one");
+		final byte[] data2 = concat(data1, "two");
+		final byte[] data3 = new byte[10];
+		System.arraycopy(data1, 0, data3, 0, data3.length);
+		final byte[] data4 = concat(data3, "four");
+		final byte[] data5 = Constants.encode("small base");
+		final byte[] data6 = new byte[2000];
+		for (int i = 0; i < data6.length; i++)
+			data6[i] = (byte) (i * 31);
+		largeObjects = new byte[][] { data0, data1, data2, data3, data4,
+				data5, data6 };
+
+		TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(64 * 1024);
+		packHeader(pack, largeObjects.length);
+		whole(pack, data0);
+		refDelta(pack, data0, data1);
+		refDelta(pack, data1, data2);
+		refDelta(pack, data1, data3);
+		refDelta(pack, data3, data4);
+		whole(pack, data5);
+		refDelta(pack, data5, data6);
+		digest(pack);
+		return pack.toByteArray();
+	}
+
+	private File indexWithThreshold(final byte[] raw, final String dst,
+			final int threshold) throws IOException {
+		IndexPack pack = new IndexPack(db, new ByteArrayInputStream(raw),
+				new File(trash, dst));
+		pack.setIndexVersion(2);
+		pack.setStreamFileThreshold(threshold);
+		pack.index(NullProgressMonitor.INSTANCE);
+		return new File(trash, dst + ".idx");
+	}
+
+	private static ObjectId blobId(final byte[] data) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+	}
+
+	private static byte[] concat(final byte[] a, final String b) {
+		final byte[] t = Constants.encode(b);
+		final byte[] r = new byte[a.length + t.length];
+		System.arraycopy(a, 0, r, 0, a.length);
+		System.arraycopy(t, 0, r, a.length, t.length);
+		return r;
+	}
+
+	private void whole(TemporaryBuffer.Heap pack, final byte[] data)
+			throws IOException {
+		objectHeader(pack, Constants.OBJ_BLOB, data.length);
+		deflate(pack, data);
+	}
+
+	private void refDelta(TemporaryBuffer.Heap pack, final byte[] base,
+			final byte[] data) throws IOException {
+		final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+		final DeltaEncoder de = new DeltaEncoder(tmp, base.length, data.length);
+		int common = 0;
+		while (common < base.length && common < data.length
+				&& base[common] == data[common])
+			common++;
+		if (0 < common)
+			de.copy(0, common);
+		if (common < data.length)
+			de.insert(data, common, data.length - common);
+		final byte[] delta = tmp.toByteArray();
+
+		objectHeader(pack, Constants.OBJ_REF_DELTA, delta.length);
+		blobId(base).copyRawTo(pack);
+		deflate(pack, delta);
+	}
+
+	private void objectHeader(TemporaryBuffer.Heap pack, int type, int sz)
+			throws IOException {
+		byte[] buf = new byte[8];
+		int nextLength = sz >>> 4;
+		buf[0] = (byte) ((nextLength > 0 ? 0x80 : 0x00) | (type << 4) | (sz & 0x0F));
+		sz = nextLength;
+		int n = 1;
+		while (sz > 0) {
+			nextLength >>>= 7;
+			buf[n++] = (byte) ((nextLength > 0 ? 0x80 : 0x00) | (sz & 0x7F));
+			sz = nextLength;
+		}
+		pack.write(buf, 0, n);
+	}
+
+	private File indexWithThreads(final String name, final String dst,
+			final int threads) throws IOException {
+		File packFile = JGitTestUtil.getTestResourceFile(name + ".pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			IndexPack pack = new IndexPack(db, is, new File(trash, dst));
+			pack.setIndexVersion(2);
+			pack.setThreads(threads);
+			pack.index(NullProgressMonitor.INSTANCE);
+		} finally {
+			is.close();
+		}
+		return new File(trash, dst + ".idx");
+	}
+
 	private void packHeader(TemporaryBuffer.Heap tinyPack, int cnt)
 			throws IOException {
 		final byte[] hdr = new byte[8];
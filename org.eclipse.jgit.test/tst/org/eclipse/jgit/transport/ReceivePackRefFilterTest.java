@@ -44,6 +44,7 @@
 package org.eclipse.jgit.transport;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.MessageDigest;
@@ -64,6 +65,7 @@
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.pack.DeltaEncoder;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
@@ -411,6 +413,153 @@ public void testUsingUnknownTreeFails() throws Exception {
 		assertSame(PacketLineIn.END, r.readString());
 	}
 
+	public void testNewObjectConnectivitySuccess() throws Exception {
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevBlob n = s.blob("n");
+		RevCommit N = s.commit().parent(B).add("q", n).create();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 3);
+		copy(pack, src.open(N));
+		copy(pack, src.open(s.parseBody(N).getTree()));
+		copy(pack, src.open(n));
+		digest(pack);
+
+		final PacketLineIn r = receiveByNewObjects(pack, N);
+		assertEquals("unpack ok", r.readString());
+		assertEquals("ok refs/heads/s", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+		assertEquals(N.copy(), dst.resolve("refs/heads/s"));
+	}
+
+	public void testNewObjectConnectivityUnknownBlobFails() throws Exception {
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevBlob n = s.blob("n");
+		RevCommit N = s.commit().parent(B).add("q", n).create();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 2);
+		copy(pack, src.open(N));
+		copy(pack, src.open(s.parseBody(N).getTree()));
+		digest(pack);
+
+		final PacketLineIn r = receiveByNewObjects(pack, N);
+		assertEquals("unpack error Missing blob " + n.name(), r.readString());
+		assertEquals("ng refs/heads/s n/a (unpacker error)", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+	}
+
+	public void testNewObjectConnectivityUnknownTreeFails() throws Exception {
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevCommit N = s.commit().parent(B).add("q", s.blob("a")).create();
+		RevTree t = s.parseBody(N).getTree();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 1);
+		copy(pack, src.open(N));
+		digest(pack);
+
+		final PacketLineIn r = receiveByNewObjects(pack, N);
+		assertEquals("unpack error Missing tree " + t.name(), r.readString());
+		assertEquals("ng refs/heads/s n/a (unpacker error)", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+	}
+
+	public void testNewObjectConnectivityUnknownParentFails()
+			throws Exception {
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevCommit X = s.commit().parent(B).create();
+		RevCommit N = s.commit().parent(X).create();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 1);
+		copy(pack, src.open(N));
+		digest(pack);
+
+		final PacketLineIn r = receiveByNewObjects(pack, N);
+		assertEquals("unpack error Missing commit " + X.name(), r.readString());
+		assertEquals("ng refs/heads/s n/a (unpacker error)", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+	}
+
+	public void testNewObjectConnectivityChecksReceivedDeltaBase()
+			throws Exception {
+		// T is sent as a delta on a tree the server has, and is itself
+		// the base of U. T refers to a blob nobody sent.
+		//
+		TestRepository<Repository> s = new TestRepository<Repository>(src);
+		RevBlob n = s.blob("n");
+		RevTree T = s.tree(s.file("q", n));
+		RevTree U = s.tree(s.file("a", a), s.file("sub/q", n));
+		RevCommit N = s.commit(U, B);
+		RevTree baseTree = s.parseBody(A).getTree();
+
+		final TemporaryBuffer.Heap pack = new TemporaryBuffer.Heap(1024);
+		packHeader(pack, 3);
+		copy(pack, src.open(N));
+		refDelta(pack, U, T, src.open(T).getCachedBytes().length, src
+				.open(U).getCachedBytes());
+		refDelta(pack, T, baseTree, src.open(baseTree).getCachedBytes().length,
+				src.open(T).getCachedBytes());
+		digest(pack);
+
+		final PacketLineIn r = receiveByNewObjects(pack, N);
+		assertEquals("unpack error Missing blob " + n.name(), r.readString());
+		assertEquals("ng refs/heads/s n/a (unpacker error)", r.readString());
+		assertSame(PacketLineIn.END, r.readString());
+	}
+
+	private PacketLineIn receiveByNewObjects(TemporaryBuffer.Heap pack,
+			RevCommit N) throws IOException {
+		final TemporaryBuffer.Heap inBuf = new TemporaryBuffer.Heap(1024);
+		final PacketLineOut inPckLine = new PacketLineOut(inBuf);
+		inPckLine.writeString(ObjectId.zeroId().name() + ' ' + N.name() + ' '
+				+ "refs/heads/s" + '\0'
+				+ BasePackPushConnection.CAPABILITY_REPORT_STATUS);
+		inPckLine.end();
+		pack.writeTo(inBuf, PM);
+
+		final TemporaryBuffer.Heap outBuf = new TemporaryBuffer.Heap(1024);
+		final ReceivePack rp = new ReceivePack(dst);
+		rp.setCheckReceivedObjects(true);
+		rp.setCheckConnectivityByNewObjects(true);
+		rp.setRefFilter(new HidePrivateFilter());
+		rp.receive(new ByteArrayInputStream(inBuf.toByteArray()), outBuf, null);
+
+		final PacketLineIn r = asPacketLineIn(outBuf);
+		String master = r.readString();
+		int nul = master.indexOf('\0');
+		assertTrue("has capability list", nul > 0);
+		assertEquals(B.name() + ' ' + R_MASTER, master.substring(0, nul));
+		assertSame(PacketLineIn.END, r.readString());
+		return r;
+	}
+
+	private void refDelta(TemporaryBuffer.Heap tinyPack, ObjectId id,
+			ObjectId base, int baseLength, byte[] content) throws IOException {
+		final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+		final DeltaEncoder de = new DeltaEncoder(tmp, baseLength,
+				content.length);
+		de.insert(content);
+		final byte[] delta = tmp.toByteArray();
+
+		final byte[] buf = new byte[64];
+		int dataLength = delta.length;
+		int nextLength = dataLength >>> 4;
+		int size = 0;
+		buf[size++] = (byte) ((nextLength > 0 ? 0x80 : 0x00)
+				| (Constants.OBJ_REF_DELTA << 4) | (dataLength & 0x0F));
+		dataLength = nextLength;
+		while (dataLength > 0) {
+			nextLength >>>= 7;
+			buf[size++] = (byte) ((nextLength > 0 ? 0x80 : 0x00) | (dataLength & 0x7F));
+			dataLength = nextLength;
+		}
+		tinyPack.write(buf, 0, size);
+		base.copyRawTo(tinyPack);
+		deflate(tinyPack, delta);
+	}
+
 	private void packHeader(TemporaryBuffer.Heap tinyPack, int cnt)
 			throws IOException {
 		final byte[] hdr = new byte[8];
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.TemporaryBuffer;
+
+public class UploadPackCacheTest extends LocalDiskRepositoryTestCase {
+	private Repository src;
+
+	private TestRepository<Repository> util;
+
+	private RevCommit A, B;
+
+	private File cacheDir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		src = createBareRepository();
+		util = new TestRepository<Repository>(src);
+
+		A = util.commit().add("a", "a").create();
+		B = util.commit().parent(A).add("b", "b").create();
+		util.update("master", B);
+		util.update("side", A);
+
+		cacheDir = new File(src.getDirectory(), "uploadpack-cache");
+	}
+
+	public void testIdenticalRequestIsReplayed() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(cacheDir, 1 << 20);
+
+		final byte[] first = upload(cache, B);
+		assertEquals(1, cachedPacks().length);
+		assertPackContains(first, B);
+		assertTrue(Arrays.equals(first, IO.readFully(cachedPacks()[0])));
+
+		// Replace the cached pack, so a replay can be told apart from
+		// a pack that was generated again.
+		//
+		final byte[] marker = Constants.encode("cached");
+		final FileOutputStream out = new FileOutputStream(cachedPacks()[0]);
+		try {
+			out.write(marker);
+		} finally {
+			out.close();
+		}
+		assertTrue(Arrays.equals(marker, upload(cache, B)));
+	}
+
+	public void testDifferentRequestIsNotReplayed() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(cacheDir, 1 << 20);
+
+		upload(cache, B);
+		assertPackContains(upload(cache, A), A);
+		assertEquals(2, cachedPacks().length);
+	}
+
+	public void testRefUpdateInvalidates() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(cacheDir, 1 << 20);
+
+		final byte[] first = upload(cache, B);
+		util.update("other", B);
+		final byte[] second = upload(cache, B);
+
+		assertEquals(2, cachedPacks().length);
+		assertTrue(Arrays.equals(first, second));
+	}
+
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		final UploadPackCache sizer = new UploadPackCache(cacheDir, 1 << 20);
+		final long size = upload(sizer, B).length;
+		assertTrue(cachedPacks()[0].delete());
+
+		// Room for the larger pack, but not for both.
+		//
+		final UploadPackCache cache = new UploadPackCache(cacheDir, size + 1);
+		upload(cache, B);
+		final File packB = cachedPacks()[0];
+		assertTrue(packB.setLastModified(packB.lastModified() - 60 * 1000));
+
+		upload(cache, A);
+		final File[] packs = cachedPacks();
+		assertEquals(1, packs.length);
+		assertFalse(packB.exists());
+	}
+
+	public void testPackLargerThanLimitIsNotCached() throws Exception {
+		final UploadPackCache cache = new UploadPackCache(cacheDir, 16);
+
+		assertPackContains(upload(cache, B), B);
+		assertEquals(0, cachedPacks().length);
+		assertEquals(0, cacheDir.list().length);
+	}
+
+	private byte[] upload(final UploadPackCache cache, final ObjectId want)
+			throws IOException {
+		final TemporaryBuffer.Heap inBuf = new TemporaryBuffer.Heap(1024);
+		final PacketLineOut inPckLine = new PacketLineOut(inBuf);
+		inPckLine.writeString("want " + want.name() + " "
+				+ UploadPack.OPTION_OFS_DELTA + "\n");
+		inPckLine.end();
+		inPckLine.writeString("done\n");
+
+		final TemporaryBuffer.Heap outBuf = new TemporaryBuffer.Heap(1 << 20);
+		final UploadPack up = new UploadPack(src);
+		up.setBiDirectionalPipe(false);
+		up.setPackCache(cache);
+		up.upload(new ByteArrayInputStream(inBuf.toByteArray()), outBuf, null);
+
+		final ByteArrayInputStream out = new ByteArrayInputStream(outBuf
+				.toByteArray());
+		assertEquals("NAK", new PacketLineIn(out).readString());
+		final byte[] pack = new byte[out.available()];
+		IO.readFully(out, pack, 0, pack.length);
+		return pack;
+	}
+
+	private void assertPackContains(final byte[] pack, final RevCommit tip)
+			throws Exception {
+		final Repository dst = createBareRepository();
+		final IndexPack ip = IndexPack.create(dst, new ByteArrayInputStream(
+				pack));
+		ip.index(NullProgressMonitor.INSTANCE);
+		ip.renameAndOpenPack();
+		assertTrue(dst.hasObject(tip));
+		assertTrue(dst.hasObject(util.parseBody(tip).getTree()));
+	}
+
+	private File[] cachedPacks() {
+		final File[] r = cacheDir.listFiles();
+		return r != null ? r : new File[0];
+	}
+}
@@ -88,6 +88,8 @@ public static JGitText get() {
 	/***/ public String bareRepositoryNoWorkdirAndIndex;
 	/***/ public String blobNotFound;
 	/***/ public String blobNotFoundForPath;
+	/***/ public String buildingBitmaps;
+	/***/ public String buildingMultiPackIndex;
 	/***/ public String cannotBeCombined;
 	/***/ public String cannotCombineTreeFilterWithRevFilter;
 	/***/ public String cannotCommitOnARepoWithState;
@@ -134,9 +136,11 @@ public static JGitText get() {
 	/***/ public String collisionOn;
 	/***/ public String commandWasCalledInTheWrongState;
 	/***/ public String commitAlreadyExists;
+	/***/ public String commitGraphChecksumMismatch;
 	/***/ public String commitMessageNotSpecified;
 	/***/ public String commitOnRepoWithoutHEADCurrentlyNotSupported;
 	/***/ public String compressingObjects;
+	/***/ public String computingCommitGraph;
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
 	/***/ public String contextMustBeNonNegative;
@@ -202,6 +206,7 @@ public static JGitText get() {
 	/***/ public String errorReadingInfoRefs;
 	/***/ public String exceptionCaughtDuringExecutionOfAddCommand;
 	/***/ public String exceptionCaughtDuringExecutionOfCommitCommand;
+	/***/ public String exceptionCaughtDuringExecutionOfGcCommand;
 	/***/ public String exceptionCaughtDuringExecutionOfMergeCommand;
 	/***/ public String exceptionOccuredDuringAddingOfOptionToALogCommand;
 	/***/ public String exceptionOccuredDuringReadingOfGIT_DIR;
@@ -226,6 +231,7 @@ public static JGitText get() {
 	/***/ public String flagNotFromThis;
 	/***/ public String flagsAlreadyCreated;
 	/***/ public String funnyRefname;
+	/***/ public String gcRequiresFileRepository;
 	/***/ public String hugeIndexesAreNotSupportedByJgitYet;
 	/***/ public String hunkBelongsToAnotherFile;
 	/***/ public String hunkDisconnectedFromFile;
@@ -240,6 +246,7 @@ public static JGitText get() {
 	/***/ public String indexFileIsInUse;
 	/***/ public String indexFileIsTooLargeForJgit;
 	/***/ public String indexSignatureIsInvalid;
+	/***/ public String inputDidNotMatchLength;
 	/***/ public String integerValueOutOfRange;
 	/***/ public String internalRevisionError;
 	/***/ public String interruptedWriting;
@@ -290,6 +297,7 @@ public static JGitText get() {
 	/***/ public String missingPrerequisiteCommits;
 	/***/ public String missingSecretkey;
 	/***/ public String mixedStagesNotAllowed;
+	/***/ public String multiPackIndexChecksumMismatch;
 	/***/ public String multipleMergeBasesFor;
 	/***/ public String need2Arguments;
 	/***/ public String needPackOut;
@@ -305,9 +313,13 @@ public static JGitText get() {
 	/***/ public String noXMLParserAvailable;
 	/***/ public String notABoolean;
 	/***/ public String notABundle;
+	/***/ public String notACommitGraph;
 	/***/ public String notADIRCFile;
 	/***/ public String notAGitDirectory;
+	/***/ public String notAMultiPackIndex;
 	/***/ public String notAPACKFile;
+	/***/ public String notAPackBitmap;
+	/***/ public String notAPackReverseIndex;
 	/***/ public String notARef;
 	/***/ public String notASCIIString;
 	/***/ public String notAValidPack;
@@ -327,12 +339,17 @@ public static JGitText get() {
 	/***/ public String openFilesMustBeAtLeast1;
 	/***/ public String openingConnection;
 	/***/ public String outputHasAlreadyBeenStarted;
+	/***/ public String packBitmapChecksumMismatch;
+	/***/ public String packBitmapDoesNotMatchPack;
 	/***/ public String packChecksumMismatch;
 	/***/ public String packCorruptedWhileWritingToFilesystem;
 	/***/ public String packDoesNotMatchIndex;
 	/***/ public String packFileInvalid;
 	/***/ public String packHasUnresolvedDeltas;
+	/***/ public String packIndexHasInvalidSize;
 	/***/ public String packObjectCountMismatch;
+	/***/ public String packReverseIndexDoesNotMatchPack;
+	/***/ public String packTooLargeForBitmaps;
 	/***/ public String packTooLargeForIndexVersion1;
 	/***/ public String packetSizeMustBeAtLeast;
 	/***/ public String packetSizeMustBeAtMost;
@@ -346,6 +363,7 @@ public static JGitText get() {
 	/***/ public String problemWithResolvingPushRefSpecsLocally;
 	/***/ public String progressMonUploading;
 	/***/ public String propertyIsAlreadyNonNull;
+	/***/ public String pruningLooseObjects;
 	/***/ public String pushCancelled;
 	/***/ public String pushIsNotSupportedForBundleTransport;
 	/***/ public String pushNotPermitted;
@@ -355,6 +373,7 @@ public static JGitText get() {
 	/***/ public String receivingObjects;
 	/***/ public String refUpdateReturnCodeWas;
 	/***/ public String reflogsNotYetSupportedByRevisionParser;
+	/***/ public String reftableBlockTooLarge;
 	/***/ public String remoteConfigHasNoURIAssociated;
 	/***/ public String remoteDoesNotHaveSpec;
 	/***/ public String remoteDoesNotSupportSmartHTTPPush;
@@ -380,6 +399,7 @@ public static JGitText get() {
 	/***/ public String repositoryState_rebaseWithMerge;
 	/***/ public String requiredHashFunctionNotAvailable;
 	/***/ public String resolvingDeltas;
+	/***/ public String selectingCommits;
 	/***/ public String serviceNotPermitted;
 	/***/ public String shortCompressedStreamAt;
 	/***/ public String shortReadOfBlock;
@@ -425,20 +445,31 @@ public static JGitText get() {
 	/***/ public String unknownHost;
 	/***/ public String unknownIndexVersionOrCorruptIndex;
 	/***/ public String unknownObjectType;
+	/***/ public String unknownRepositoryExtension;
 	/***/ public String unknownRepositoryFormat2;
 	/***/ public String unknownRepositoryFormat;
 	/***/ public String unknownZlibError;
 	/***/ public String unmergedPath;
 	/***/ public String unpackError;
+	/***/ public String unreadableCommitGraph;
+	/***/ public String unreadableMultiPackIndex;
+	/***/ public String unreadablePackBitmap;
 	/***/ public String unreadablePackIndex;
+	/***/ public String unreadablePackReverseIndex;
+	/***/ public String unreadableReftable;
 	/***/ public String unrecognizedRef;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
+	/***/ public String unsupportedMultiPackIndexVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
+	/***/ public String unsupportedPackBitmapVersion;
 	/***/ public String unsupportedPackIndexVersion;
+	/***/ public String unsupportedPackReverseIndexVersion;
 	/***/ public String unsupportedPackVersion;
 	/***/ public String updatingRefFailed;
+	/***/ public String updatingReferences;
 	/***/ public String userConfigFileInvalid;
 	/***/ public String walkFailure;
 	/***/ public String windowSizeMustBeLesserThanLimit;
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.api;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.storage.file.GC;
+
+/**
+ * A class used to execute a {@code gc} command. It has setters for all
+ * supported options and arguments of this command and a {@link #call()} method
+ * to finally execute the command. Each instance of this class should only be
+ * used for one invocation of the command (means: one call to {@link #call()})
+ * <p>
+ * The collection packs the loose references, writes all reachable objects into
+ * a single pack, deletes the packs and loose objects this pack supersedes, and
+ * prunes unreachable objects older than the expiration age. With a
+ * {@link #setGeometricFactor(int) geometric factor} only the smallest packs
+ * are merged instead.
+ *
+ * @see GC
+ * @see <a href="http://www.kernel.org/pub/software/scm/git/docs/git-gc.html"
+ *      >Git documentation about gc</a>
+ */
+public class GcCommand extends GitCommand<GC.RepoStatistics> {
+	private ProgressMonitor monitor = NullProgressMonitor.INSTANCE;
+
+	private long expireAge = GC.DEFAULT_EXPIRE_AGE;
+
+	private int geometricFactor;
+
+	/**
+	 * @param repo
+	 */
+	protected GcCommand(Repository repo) {
+		super(repo);
+	}
+
+	/**
+	 * Executes the {@code gc} command with all the options and parameters
+	 * collected by the setter methods of this class. Each instance of this
+	 * class should only be used for one invocation of the command. Don't call
+	 * this method twice on an instance.
+	 *
+	 * @return statistics of the repository after the collection.
+	 * @throws JGitInternalException
+	 *             the repository is not stored in the file system, or a
+	 *             low-level exception of JGit has occurred. The original
+	 *             exception can be retrieved by calling
+	 *             {@link Exception#getCause()}.
+	 */
+	public GC.RepoStatistics call() throws JGitInternalException {
+		checkCallable();
+		if (!(repo instanceof FileRepository))
+			throw new JGitInternalException(
+					JGitText.get().gcRequiresFileRepository);
+
+		final GC gc = new GC((FileRepository) repo);
+		gc.setProgressMonitor(monitor);
+		gc.setExpireAge(expireAge);
+		try {
+			if (0 < geometricFactor)
+				gc.setGeometricFactor(geometricFactor).repackGeometric();
+			else
+				gc.gc();
+			setCallable(false);
+			return gc.getStatistics();
+		} catch (IOException e) {
+			throw new JGitInternalException(
+					JGitText.get().exceptionCaughtDuringExecutionOfGcCommand, e);
+		}
+	}
+
+	/**
+	 * @param monitor
+	 *            the monitor to report progress to.
+	 * @return {@code this}
+	 */
+	public GcCommand setProgressMonitor(ProgressMonitor monitor) {
+		checkCallable();
+		this.monitor = monitor;
+		return this;
+	}
+
+	/**
+	 * @param millis
+	 *            minimum age of unreachable objects before they are deleted,
+	 *            in milliseconds. Defaults to {@link GC#DEFAULT_EXPIRE_AGE}.
+	 * @return {@code this}
+	 */
+	public GcCommand setExpireAge(long millis) {
+		checkCallable();
+		this.expireAge = millis;
+		return this;
+	}
+
+	/**
+	 * @param factor
+	 *            if positive, only merge the smallest packs so that each
+	 *            remaining pack holds at least this many times the objects of
+	 *            all smaller packs. See {@link GC#repackGeometric()}. Defaults
+	 *            to 0, a full collection.
+	 * @return {@code this}
+	 */
+	public GcCommand setGeometricFactor(int factor) {
+		checkCallable();
+		this.geometricFactor = factor;
+		return this;
+	}
+}
@@ -62,7 +62,9 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.patch.HunkHeader;
@@ -327,10 +329,19 @@ private void writeDiffHeader(OutputStream o, DiffEntry ent)
 		o.write(encode("+++ " + newName + '\n'));
 	}
 
-	private String format(AbbreviatedObjectId oldId) {
-		if (oldId.isComplete() && db != null)
-			oldId = oldId.toObjectId().abbreviate(db, abbreviationLength);
-		return oldId.name();
+	private String format(AbbreviatedObjectId id) {
+		if (id.isComplete() && db != null) {
+			final ObjectId objectId = id.toObjectId();
+			final ObjectReader reader = db.newObjectReader();
+			try {
+				id = reader.abbreviate(objectId, abbreviationLength);
+			} catch (IOException cannotCheck) {
+				id = objectId.abbreviate(abbreviationLength);
+			} finally {
+				reader.release();
+			}
+		}
+		return id.name();
 	}
 
 	private static String quotePath(String name) {
@@ -189,6 +189,14 @@ public boolean isComplete() {
 		return length() == Constants.OBJECT_ID_STRING_LENGTH;
 	}
 
+	/**
+	 * @return value for a fan-out style map, only valid if {@link #length()}
+	 *         is at least 2; shorter abbreviations leave the low bits zero.
+	 */
+	public int getFirstByte() {
+		return w1 >>> 24;
+	}
+
 	/** @return a complete ObjectId; null if {@link #isComplete()} is false */
 	public ObjectId toObjectId() {
 		return isComplete() ? new ObjectId(w1, w2, w3, w4, w5) : null;
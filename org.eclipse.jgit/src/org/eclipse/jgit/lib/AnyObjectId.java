@@ -452,17 +452,38 @@ public AbbreviatedObjectId abbreviate(final Repository repo) {
 	/**
 	 * Return unique abbreviation (prefix) of this object SHA-1.
 	 * <p>
-	 * Current implementation is not guaranteeing uniqueness, it just returns
-	 * fixed-length prefix of SHA-1 string.
+	 * The abbreviation is lengthened beyond <code>len</code> until no other
+	 * object of the repository shares it. If the repository cannot be read,
+	 * the fixed-length prefix is returned.
 	 *
 	 * @param repo
 	 *            repository for checking uniqueness within.
 	 * @param len
 	 *            minimum length of the abbreviated string.
 	 * @return SHA-1 abbreviation.
+	 * @see ObjectReader#abbreviate(AnyObjectId, int)
 	 */
 	public AbbreviatedObjectId abbreviate(final Repository repo, final int len) {
-		// TODO implement checking for uniqueness
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			return reader.abbreviate(this, len);
+		} catch (IOException cannotCheck) {
+			return abbreviate(len);
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Return an abbreviation (prefix) of this object SHA-1.
+	 * <p>
+	 * This method does not check for uniqueness.
+	 *
+	 * @param len
+	 *            length of the abbreviated string.
+	 * @return SHA-1 abbreviation.
+	 */
+	public AbbreviatedObjectId abbreviate(final int len) {
 		final int a = AbbreviatedObjectId.mask(len, 1, w1);
 		final int b = AbbreviatedObjectId.mask(len, 2, w2);
 		final int c = AbbreviatedObjectId.mask(len, 3, w3);
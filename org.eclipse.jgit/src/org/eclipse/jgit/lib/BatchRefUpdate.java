@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.CREATE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.DELETE;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * Batch of reference updates to be applied to a repository.
+ * <p>
+ * The batch is a list of {@link ReceiveCommand}s, each naming a reference, the
+ * value the caller expects it to have, and its new value. A command is only
+ * applied if the reference still has the expected value, so every command is a
+ * compare-and-swap; the result of each command is stored in the command.
+ * <p>
+ * This implementation applies the commands one at a time through
+ * {@link RefUpdate}. Databases able to apply many changes at once override
+ * {@link #execute(RevWalk, ProgressMonitor)} to store the entire batch under
+ * a single lock.
+ */
+public class BatchRefUpdate {
+	private final RefDatabase refdb;
+
+	private final List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+
+	private boolean allowNonFastForwards;
+
+	private PersonIdent refLogIdent;
+
+	private String refLogMessage;
+
+	private boolean refLogIncludeResult;
+
+	/**
+	 * Initialize a new batch update.
+	 *
+	 * @param refdb
+	 *            the reference database which will store the updates.
+	 */
+	protected BatchRefUpdate(final RefDatabase refdb) {
+		this.refdb = refdb;
+	}
+
+	/** @return the reference database this batch updates. */
+	protected RefDatabase getRefDatabase() {
+		return refdb;
+	}
+
+	/** @return true if the batch may discard commits from references. */
+	public boolean isAllowNonFastForwards() {
+		return allowNonFastForwards;
+	}
+
+	/**
+	 * Set if the batch may discard commits from references.
+	 * <p>
+	 * An update whose new value does not contain the old value is rejected,
+	 * unless this is set.
+	 *
+	 * @param allow
+	 *            true to permit updates that are not fast-forwards.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setAllowNonFastForwards(final boolean allow) {
+		allowNonFastForwards = allow;
+		return this;
+	}
+
+	/** @return identity of the user making the change in the reflog. */
+	public PersonIdent getRefLogIdent() {
+		return refLogIdent;
+	}
+
+	/**
+	 * Set the identity of the user appearing in the reflog.
+	 *
+	 * @param pi
+	 *            identity of the user. If null the identity will be
+	 *            automatically determined based on the repository
+	 *            configuration.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setRefLogIdent(final PersonIdent pi) {
+		refLogIdent = pi;
+		return this;
+	}
+
+	/**
+	 * Get the message to include in the reflog.
+	 *
+	 * @return message the caller wants to include in the reflog; null if the
+	 *         updates should not be logged.
+	 */
+	public String getRefLogMessage() {
+		return refLogMessage;
+	}
+
+	/** @return {@code true} if the ref log message should show the result. */
+	protected boolean isRefLogIncludingResult() {
+		return refLogIncludeResult;
+	}
+
+	/**
+	 * Set the message to include in the reflog.
+	 *
+	 * @param msg
+	 *            the message to describe the changes. It may be null if
+	 *            appendStatus is true in order to log only the status.
+	 * @param appendStatus
+	 *            true if the status of each change (fast-forward or
+	 *            forced-update) should be appended to the message.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate setRefLogMessage(final String msg,
+			final boolean appendStatus) {
+		if (msg == null && !appendStatus)
+			disableRefLog();
+		else if (msg == null && appendStatus) {
+			refLogMessage = "";
+			refLogIncludeResult = true;
+		} else {
+			refLogMessage = msg;
+			refLogIncludeResult = appendStatus;
+		}
+		return this;
+	}
+
+	/**
+	 * Don't record the updates in the references' logs.
+	 *
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate disableRefLog() {
+		refLogMessage = null;
+		refLogIncludeResult = false;
+		return this;
+	}
+
+	/** @return commands this batch will apply. */
+	public List<ReceiveCommand> getCommands() {
+		return Collections.unmodifiableList(commands);
+	}
+
+	/**
+	 * Add commands to the batch.
+	 *
+	 * @param cmd
+	 *            the commands to add.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate addCommand(final ReceiveCommand... cmd) {
+		return addCommand(Arrays.asList(cmd));
+	}
+
+	/**
+	 * Add commands to the batch.
+	 *
+	 * @param cmd
+	 *            the commands to add.
+	 * @return {@code this}.
+	 */
+	public BatchRefUpdate addCommand(final Collection<ReceiveCommand> cmd) {
+		commands.addAll(cmd);
+		return this;
+	}
+
+	/**
+	 * Apply every command whose result is still
+	 * {@link ReceiveCommand.Result#NOT_ATTEMPTED}.
+	 * <p>
+	 * A command that cannot be applied is marked with the reason, and does not
+	 * stop the other commands.
+	 *
+	 * @param walk
+	 *            a walk to parse the objects, to check for fast-forwards.
+	 * @param monitor
+	 *            progress of the updates.
+	 * @throws IOException
+	 *             the database cannot be accessed. Commands not yet applied
+	 *             are left as not attempted.
+	 */
+	public void execute(final RevWalk walk, final ProgressMonitor monitor)
+			throws IOException {
+		final List<ReceiveCommand> pending = new ArrayList<ReceiveCommand>();
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+				pending.add(cmd);
+		}
+		final Set<String> conflicts = getConflictingCreates(pending);
+
+		monitor.beginTask(JGitText.get().updatingReferences, commands.size());
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED) {
+				if (conflicts.contains(cmd.getRefName()))
+					cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+				else
+					apply(walk, cmd);
+			}
+			monitor.update(1);
+		}
+		monitor.endTask();
+	}
+
+	/**
+	 * Apply a single command through a {@link RefUpdate}.
+	 *
+	 * @param walk
+	 *            a walk to parse the objects, to check for fast-forwards.
+	 * @param cmd
+	 *            the command; its result is updated.
+	 */
+	protected void apply(final RevWalk walk, final ReceiveCommand cmd) {
+		try {
+			final RefUpdate ru = newUpdate(cmd);
+			if (cmd.getType() == DELETE)
+				cmd.setResult(ru.delete(walk));
+			else
+				cmd.setResult(ru.update(walk));
+		} catch (IOException err) {
+			cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+					MessageFormat.format(JGitText.get().lockError, err
+							.getMessage()));
+		}
+	}
+
+	/**
+	 * Create a {@link RefUpdate} applying a single command.
+	 *
+	 * @param cmd
+	 *            the command.
+	 * @return an update, configured with the settings of this batch.
+	 * @throws IOException
+	 *             the reference cannot be accessed.
+	 */
+	protected RefUpdate newUpdate(final ReceiveCommand cmd) throws IOException {
+		final RefUpdate ru = refdb.newUpdate(cmd.getRefName(), false);
+		ru.setRefLogIdent(refLogIdent);
+		if (refLogMessage == null)
+			ru.disableRefLog();
+		else
+			ru.setRefLogMessage(refLogMessage, refLogIncludeResult);
+
+		if (cmd.getType() == DELETE) {
+			// We can only do a CAS style delete if the caller knows the
+			// old value; a zero id means "whatever it currently is".
+			if (!ObjectId.zeroId().equals(cmd.getOldId()))
+				ru.setExpectedOldObjectId(cmd.getOldId());
+			ru.setForceUpdate(true);
+		} else {
+			ru.setForceUpdate(allowNonFastForwards);
+			ru.setExpectedOldObjectId(cmd.getOldId());
+			ru.setNewObjectId(cmd.getNewId());
+		}
+		return ru;
+	}
+
+	/**
+	 * Decide how a command changes its reference, without changing it.
+	 * <p>
+	 * This applies the same rules as {@link RefUpdate}: the reference must have
+	 * the expected old value, must fast-forward unless
+	 * {@link #isAllowNonFastForwards()}, and the branch checked out by
+	 * {@code HEAD} cannot be deleted. Implementations storing the whole batch
+	 * at once call it for each command while holding their lock.
+	 *
+	 * @param walk
+	 *            a walk to parse the objects.
+	 * @param cmd
+	 *            the command.
+	 * @param current
+	 *            the current value of the reference; null if it does not
+	 *            exist.
+	 * @return the result the command has if it is applied, one of
+	 *         {@link RefUpdate.Result#NEW}, {@link RefUpdate.Result#NO_CHANGE},
+	 *         {@link RefUpdate.Result#FAST_FORWARD} or
+	 *         {@link RefUpdate.Result#FORCED}; otherwise the reason it cannot
+	 *         be applied.
+	 * @throws IOException
+	 *             the objects or references cannot be read.
+	 */
+	protected RefUpdate.Result check(final RevWalk walk,
+			final ReceiveCommand cmd, final ObjectId current)
+			throws IOException {
+		final ObjectId expected = cmd.getOldId();
+		if (cmd.getType() == DELETE) {
+			if (!ObjectId.zeroId().equals(expected)
+					&& !AnyObjectId.equals(expected, current != null ? current
+							: ObjectId.zeroId()))
+				return RefUpdate.Result.LOCK_FAILURE;
+			if (isCurrentBranch(cmd.getRefName()))
+				return RefUpdate.Result.REJECTED_CURRENT_BRANCH;
+			return current != null ? RefUpdate.Result.FORCED
+					: RefUpdate.Result.NEW;
+		}
+
+		if (!AnyObjectId.equals(expected, current != null ? current
+				: ObjectId.zeroId()))
+			return RefUpdate.Result.LOCK_FAILURE;
+		if (current == null)
+			return RefUpdate.Result.NEW;
+		if (AnyObjectId.equals(current, cmd.getNewId()))
+			return RefUpdate.Result.NO_CHANGE;
+
+		final RevObject newObj = safeParse(walk, cmd.getNewId());
+		final RevObject oldObj = safeParse(walk, current);
+		if (newObj instanceof RevCommit && oldObj instanceof RevCommit) {
+			if (walk.isMergedInto((RevCommit) oldObj, (RevCommit) newObj))
+				return RefUpdate.Result.FAST_FORWARD;
+		}
+		if (allowNonFastForwards)
+			return RefUpdate.Result.FORCED;
+		return RefUpdate.Result.REJECTED;
+	}
+
+	/**
+	 * Find the references created by the batch that conflict with each other.
+	 * <p>
+	 * A name cannot be both a reference and a directory of references, so
+	 * {@code refs/heads/a} and {@code refs/heads/a/b} cannot be created by the
+	 * same batch. Checking each name against the stored references does not
+	 * catch this, so the batch rejects the commands creating these names,
+	 * whether it applies them one at a time or all at once. Deleted and updated
+	 * references are not considered; the former go away, the latter are
+	 * already stored.
+	 *
+	 * @param commands
+	 *            the commands of the batch still to be applied.
+	 * @return names of the created references that conflict with another
+	 *         reference created by the batch.
+	 */
+	protected Set<String> getConflictingCreates(
+			final Collection<ReceiveCommand> commands) {
+		final Set<String> created = new HashSet<String>();
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getType() == CREATE)
+				created.add(cmd.getRefName());
+		}
+
+		final Set<String> conflicts = new HashSet<String>();
+		for (final String name : created) {
+			int lastSlash = name.lastIndexOf('/');
+			while (0 < lastSlash) {
+				final String dir = name.substring(0, lastSlash);
+				if (created.contains(dir)) {
+					conflicts.add(dir);
+					conflicts.add(name);
+				}
+				lastSlash = name.lastIndexOf('/', lastSlash - 1);
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Get the message to log for a command.
+	 *
+	 * @param status
+	 *            the result of the command.
+	 * @return the message, including the result if requested; null if the
+	 *         command should not be logged.
+	 */
+	protected String getRefLogMessage(final RefUpdate.Result status) {
+		String msg = refLogMessage;
+		if (msg != null && refLogIncludeResult) {
+			String strResult = null;
+			switch (status) {
+			case FORCED:
+				strResult = "forced-update";
+				break;
+			case FAST_FORWARD:
+				strResult = "fast forward";
+				break;
+			case NEW:
+				strResult = "created";
+				break;
+			default:
+				break;
+			}
+			if (strResult != null) {
+				if (msg.length() > 0)
+					msg = msg + ": " + strResult;
+				else
+					msg = strResult;
+			}
+		}
+		return msg;
+	}
+
+	private boolean isCurrentBranch(final String name) throws IOException {
+		if (!name.startsWith(Constants.R_HEADS))
+			return false;
+		Ref head = refdb.getRef(Constants.HEAD);
+		while (head != null && head.isSymbolic()) {
+			head = head.getTarget();
+			if (name.equals(head.getName()))
+				return true;
+		}
+		return false;
+	}
+
+	private static RevObject safeParse(final RevWalk rw, final AnyObjectId id)
+			throws IOException {
+		try {
+			return id != null ? rw.parseAny(id) : null;
+		} catch (MissingObjectException e) {
+			// Treat a missing object as not being an ancestor, so only a
+			// forced update can replace it.
+			return null;
+		}
+	}
+}
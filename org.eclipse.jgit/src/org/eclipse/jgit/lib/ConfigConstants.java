@@ -50,6 +50,9 @@ public class ConfigConstants {
 	/** The "core" section */
 	public static final String CONFIG_CORE_SECTION = "core";
 
+	/** The "extensions" section */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
 	/** The "autocrlf" key */
 	public static final String CONFIG_KEY_AUTOCRLF = "autocrlf";
 
@@ -62,6 +65,9 @@ public class ConfigConstants {
 	/** The "logallrefupdates" key */
 	public static final String CONFIG_KEY_LOGALLREFUPDATES = "logallrefupdates";
 
+	/** The "jgitrefstorage" key */
+	public static final String CONFIG_KEY_JGIT_REFSTORAGE = "jgitrefstorage";
+
 	/** The "repositoryformatversion" key */
 	public static final String CONFIG_KEY_REPO_FORMAT_VERSION = "repositoryformatversion";
 
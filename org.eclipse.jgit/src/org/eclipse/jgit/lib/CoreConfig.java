@@ -66,13 +66,22 @@ public CoreConfig parse(final Config cfg) {
 
 	private final int packIndexVersion;
 
+	private final int packIndexThreads;
+
 	private final boolean logAllRefUpdates;
 
 	private final int streamFileThreshold;
 
+	private final boolean looseObjectCache;
+
+	private final boolean mmapPackedRefs;
+
+	private final boolean writeReverseIndex;
+
 	private CoreConfig(final Config rc) {
 		compression = rc.getInt("core", "compression", DEFAULT_COMPRESSION);
 		packIndexVersion = rc.getInt("pack", "indexversion", 2);
+		packIndexThreads = rc.getInt("pack", "indexthreads", 1);
 		logAllRefUpdates = rc.getBoolean("core", "logallrefupdates", true);
 
 		long maxMem = Runtime.getRuntime().maxMemory();
@@ -80,6 +89,10 @@ private CoreConfig(final Config rc) {
 		sft = Math.min(sft, maxMem / 4); // don't use more than 1/4 of the heap
 		sft = Math.min(sft, Integer.MAX_VALUE); // cannot exceed array length
 		streamFileThreshold = (int) sft;
+
+		looseObjectCache = rc.getBoolean("core", "looseobjectcache", false);
+		mmapPackedRefs = rc.getBoolean("core", "mmappackedrefs", false);
+		writeReverseIndex = rc.getBoolean("pack", "writereverseindex", true);
 	}
 
 	/**
@@ -97,6 +110,15 @@ public int getPackIndexVersion() {
 		return packIndexVersion;
 	}
 
+	/**
+	 * @return number of threads resolving deltas of received packs; 0 for
+	 *         one thread per available processor.
+	 * @see org.eclipse.jgit.transport.IndexPack#setThreads(int)
+	 */
+	public int getPackIndexThreads() {
+		return packIndexThreads;
+	}
+
 	/**
 	 * @return whether to log all refUpdates
 	 */
@@ -108,4 +130,31 @@ public boolean isLogAllRefUpdates() {
 	public int getStreamFileThreshold() {
 		return streamFileThreshold;
 	}
+
+	/**
+	 * @return whether the names of loose objects are cached in memory, so
+	 *         testing for an absent object does not query the file system.
+	 */
+	public boolean isLooseObjectCache() {
+		return looseObjectCache;
+	}
+
+	/**
+	 * @return whether the packed-refs file is mapped into memory and searched,
+	 *         instead of being parsed in full whenever it changes. Mapped
+	 *         files may not be replaced on some platforms, so this is off by
+	 *         default.
+	 */
+	public boolean isMmapPackedRefs() {
+		return mmapPackedRefs;
+	}
+
+	/**
+	 * @return whether a <code>.rev</code> reverse index is written next to
+	 *         the <code>.idx</code> of new packs, so they do not have to sort
+	 *         the offsets of their objects when first used.
+	 */
+	public boolean isWriteReverseIndex() {
+		return writeReverseIndex;
+	}
 }
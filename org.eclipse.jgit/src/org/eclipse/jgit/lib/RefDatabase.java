@@ -145,6 +145,18 @@ public abstract RefUpdate newUpdate(String name, boolean detach)
 	public abstract RefRename newRename(String fromName, String toName)
 			throws IOException;
 
+	/**
+	 * Create a new batch update to apply many reference changes at once.
+	 * <p>
+	 * The default implementation applies each command with its own
+	 * {@link RefUpdate}.
+	 *
+	 * @return a new, empty batch update.
+	 */
+	public BatchRefUpdate newBatchUpdate() {
+		return new BatchRefUpdate(this);
+	}
+
 	/**
 	 * Read a single reference.
 	 * <p>
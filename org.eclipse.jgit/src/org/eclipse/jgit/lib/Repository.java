@@ -661,10 +661,18 @@ private ObjectId resolve(final RevWalk rw, final String revstr) throws IOExcepti
 						break;
 					}
 				}
-				if (time != null)
-					throw new RevisionSyntaxException(
-							JGitText.get().reflogsNotYetSupportedByRevisionParser,
-							revstr);
+				if (time != null) {
+					if (ref != null || !isReflogNumber(time))
+						throw new RevisionSyntaxException(
+								JGitText.get().reflogsNotYetSupportedByRevisionParser,
+								revstr);
+					ref = resolveReflog(rw, new String(rev, 0, i), Integer
+							.parseInt(time));
+					if (ref == null)
+						return null;
+					i = m;
+					break;
+				}
 				i = m - 1;
 				break;
 			default:
@@ -675,6 +683,31 @@ private ObjectId resolve(final RevWalk rw, final String revstr) throws IOExcepti
 		return ref != null ? ref.copy() : resolveSimple(revstr);
 	}
 
+	private static boolean isReflogNumber(final String s) {
+		if (s.length() == 0 || 9 < s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private RevObject resolveReflog(RevWalk rw, String name, int number)
+			throws IOException {
+		Ref ref = getRef(name.length() == 0 ? Constants.HEAD : name);
+		if (ref == null)
+			return null;
+		if (name.length() == 0)
+			ref = ref.getLeaf();
+
+		final ReflogReader reader = getReflogReader(ref.getName());
+		if (reader == null)
+			return null;
+		final ReflogReader.Entry e = reader.getReverseEntry(number);
+		return e != null ? rw.parseAny(e.getNewId()) : null;
+	}
+
 	private RevObject parseSimple(RevWalk rw, String revstr) throws IOException {
 		ObjectId id = resolveSimple(revstr);
 		return id != null ? rw.parseAny(id) : null;
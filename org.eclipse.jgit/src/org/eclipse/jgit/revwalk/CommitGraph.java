@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.revwalk;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.MutableObjectId;
+
+/**
+ * Precomputed headers of the commits of a repository.
+ * <p>
+ * A commit graph stores the tree, parents and commit time of a set of commits
+ * in a form that can be read without locating and inflating the commit
+ * objects. {@link RevWalk} uses it to parse the headers of a commit; the
+ * body of the commit is only loaded once it is asked for.
+ * <p>
+ * Commits are identified by their position within the graph. Positions are
+ * in the range 0 through {@link #getCommitCount()}-1.
+ *
+ * @see CommitGraphSource
+ */
+public interface CommitGraph {
+	/** @return number of commits stored in the graph. */
+	public int getCommitCount();
+
+	/**
+	 * Locate a commit within the graph.
+	 *
+	 * @param id
+	 *            name of the commit to find.
+	 * @return position of the commit; -1 if the graph does not contain it.
+	 */
+	public int findCommit(AnyObjectId id);
+
+	/**
+	 * Obtain the name of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param dst
+	 *            buffer to receive the commit's name.
+	 */
+	public void getObjectId(int pos, MutableObjectId dst);
+
+	/**
+	 * Obtain the root tree of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param dst
+	 *            buffer to receive the name of the commit's tree.
+	 */
+	public void getTree(int pos, MutableObjectId dst);
+
+	/**
+	 * @param pos
+	 *            position of the commit.
+	 * @return number of parents of the commit; 0 for a root commit.
+	 */
+	public int getParentCount(int pos);
+
+	/**
+	 * @param pos
+	 *            position of the commit.
+	 * @param nth
+	 *            parent index to obtain. Must be in the range 0 through
+	 *            {@link #getParentCount(int)}-1.
+	 * @return position of the parent commit. Parents are always stored in
+	 *         the same graph as their children.
+	 */
+	public int getParent(int pos, int nth);
+
+	/**
+	 * @param pos
+	 *            position of the commit.
+	 * @return time from the "committer " line of the commit.
+	 */
+	public int getCommitTime(int pos);
+
+	/**
+	 * Obtain the generation number of a commit.
+	 * <p>
+	 * Root commits are at generation 1, every other commit is one more than
+	 * the highest generation of its parents. A commit can therefore only be
+	 * reachable from commits with a strictly higher generation.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return generation number of the commit.
+	 */
+	public int getGeneration(int pos);
+}
@@ -52,6 +52,7 @@
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Commit;
 import org.eclipse.jgit.lib.Constants;
@@ -73,6 +74,9 @@ public class RevCommit extends RevObject {
 
 	private byte[] buffer;
 
+	/** Walk to load {@link #buffer} from, if parsed from a commit graph. */
+	private RevWalk bodyWalk;
+
 	/**
 	 * Create a new commit reference.
 	 *
@@ -86,6 +90,14 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		final CommitGraph graph = walk.getCommitGraph();
+		if (graph != null) {
+			final int pos = graph.findCommit(this);
+			if (0 <= pos && walk.reader.has(this)) {
+				parseGraph(walk, graph, pos);
+				return;
+			}
+		}
 		parseCanonical(walk, loadCanonical(walk));
 	}
 
@@ -94,6 +106,7 @@ void parseBody(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		if (buffer == null) {
 			buffer = loadCanonical(walk);
+			bodyWalk = null;
 			if ((flags & PARSED) == 0)
 				parseCanonical(walk, buffer);
 		}
@@ -150,6 +163,43 @@ else if (nParents == 1) {
 		flags |= PARSED;
 	}
 
+	void parseGraph(final RevWalk walk, final CommitGraph graph, final int pos) {
+		final MutableObjectId idBuffer = walk.idBuffer;
+		graph.getTree(pos, idBuffer);
+		tree = walk.lookupTree(idBuffer);
+
+		if (parents == null) {
+			final int nParents = graph.getParentCount(pos);
+			if (nParents == 0)
+				parents = NO_PARENTS;
+			else {
+				final RevCommit[] pList = new RevCommit[nParents];
+				for (int i = 0; i < nParents; i++) {
+					graph.getObjectId(graph.getParent(pos, i), idBuffer);
+					pList[i] = walk.lookupCommit(idBuffer);
+				}
+				parents = pList;
+			}
+		}
+
+		commitTime = graph.getCommitTime(pos);
+		if (walk.isRetainBody())
+			bodyWalk = walk;
+		flags |= PARSED;
+	}
+
+	private byte[] body() {
+		if (buffer == null && bodyWalk != null) {
+			try {
+				buffer = loadCanonical(bodyWalk);
+			} catch (IOException err) {
+				throw new RevWalkException(err);
+			}
+			bodyWalk = null;
+		}
+		return buffer;
+	}
+
 	@Override
 	public final int getType() {
 		return Constants.OBJ_COMMIT;
@@ -215,7 +265,7 @@ public final int getCommitTime() {
 	 */
 	public final Commit asCommit(final RevWalk walk) {
 		// TODO(spearce) Remove repository when this method dies.
-		return new Commit(walk.repository, this, buffer);
+		return new Commit(walk.repository, this, body());
 	}
 
 	/**
@@ -277,7 +327,7 @@ public final RevCommit[] getParents() {
 	 *         knowledge of this commit, and the results it produces.
 	 */
 	public final byte[] getRawBuffer() {
-		return buffer;
+		return body();
 	}
 
 	/**
@@ -299,7 +349,7 @@ public final byte[] getRawBuffer() {
 	 *         made by the author; null if no author line was found.
 	 */
 	public final PersonIdent getAuthorIdent() {
-		final byte[] raw = buffer;
+		final byte[] raw = body();
 		final int nameB = RawParseUtils.author(raw, 0);
 		if (nameB < 0)
 			return null;
@@ -325,7 +375,7 @@ public final PersonIdent getAuthorIdent() {
 	 *         was made by the committer; null if no committer line was found.
 	 */
 	public final PersonIdent getCommitterIdent() {
-		final byte[] raw = buffer;
+		final byte[] raw = body();
 		final int nameB = RawParseUtils.committer(raw, 0);
 		if (nameB < 0)
 			return null;
@@ -343,7 +393,7 @@ public final PersonIdent getCommitterIdent() {
 	 * @return decoded commit message as a string. Never null.
 	 */
 	public final String getFullMessage() {
-		final byte[] raw = buffer;
+		final byte[] raw = body();
 		final int msgB = RawParseUtils.commitMessage(raw, 0);
 		if (msgB < 0)
 			return "";
@@ -367,7 +417,7 @@ public final String getFullMessage() {
 	 *         spanned multiple lines. Embedded LFs are converted to spaces.
 	 */
 	public final String getShortMessage() {
-		final byte[] raw = buffer;
+		final byte[] raw = body();
 		final int msgB = RawParseUtils.commitMessage(raw, 0);
 		if (msgB < 0)
 			return "";
@@ -399,7 +449,7 @@ static boolean hasLF(final byte[] r, int b, final int e) {
 	 * @return the preferred encoding of {@link #getRawBuffer()}.
 	 */
 	public final Charset getEncoding() {
-		return RawParseUtils.parseEncoding(buffer);
+		return RawParseUtils.parseEncoding(body());
 	}
 
 	/**
@@ -424,7 +474,7 @@ public final Charset getEncoding() {
 	 * @return ordered list of footer lines; empty list if no footers found.
 	 */
 	public final List<FooterLine> getFooterLines() {
-		final byte[] raw = buffer;
+		final byte[] raw = body();
 		int ptr = raw.length - 1;
 		while (raw[ptr] == '\n') // trim any trailing LFs, not interesting
 			ptr--;
@@ -513,6 +563,7 @@ public void reset() {
 
 	final void disposeBody() {
 		buffer = null;
+		bodyWalk = null;
 	}
 
 	@Override
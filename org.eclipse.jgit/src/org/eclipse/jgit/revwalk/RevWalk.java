@@ -186,6 +186,10 @@ public class RevWalk implements Iterable<RevCommit> {
 
 	private boolean retainBody;
 
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -239,6 +243,27 @@ public void release() {
 		reader.release();
 	}
 
+	/**
+	 * Get the commit graph of the reader, if it has one.
+	 * <p>
+	 * Parsing a commit from the graph leaves its body unloaded. If bodies are
+	 * retained, the commit loads its body the first time it is accessed. The
+	 * graph may still list commits pruned since it was written, so a commit
+	 * is only parsed from it if its object exists.
+	 *
+	 * @return the graph; null if the reader has none.
+	 * @throws IOException
+	 *             the graph cannot be read.
+	 */
+	CommitGraph getCommitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			if (reader instanceof CommitGraphSource)
+				commitGraph = ((CommitGraphSource) reader).getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
+	}
+
 	/**
 	 * Mark a commit to start graph traversal from.
 	 * <p>
@@ -382,6 +407,9 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		final RevFilter oldRF = filter;
 		final TreeFilter oldTF = treeFilter;
 		try {
+			if (base != tip && !mayReach(tip, base))
+				return false;
+
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
 			filter = RevFilter.MERGE_BASE;
@@ -395,6 +423,18 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		}
 	}
 
+	private boolean mayReach(final RevCommit tip, final RevCommit base)
+			throws IOException {
+		final CommitGraph graph = getCommitGraph();
+		if (graph == null)
+			return true;
+		final int t = graph.findCommit(tip);
+		final int b = graph.findCommit(base);
+		if (t < 0 || b < 0)
+			return true;
+		return graph.getGeneration(b) < graph.getGeneration(t);
+	}
+
 	/**
 	 * Pop the next most recent commit.
 	 *
@@ -790,6 +830,10 @@ public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
 		RevObject r = objects.get(id);
 		if (r == null) {
+			final RevCommit g = parseFromGraph(id);
+			if (g != null)
+				return g;
+
 			final ObjectLoader ldr = reader.open(id);
 			final int type = ldr.getType();
 			switch (type) {
@@ -824,6 +868,19 @@ public RevObject parseAny(final AnyObjectId id)
 		return r;
 	}
 
+	private RevCommit parseFromGraph(final AnyObjectId id) throws IOException {
+		final CommitGraph graph = getCommitGraph();
+		if (graph == null)
+			return null;
+		final int pos = graph.findCommit(id);
+		if (pos < 0 || !reader.has(id))
+			return null;
+		final RevCommit c = createCommit(id);
+		c.parseGraph(this, graph, pos);
+		objects.add(c);
+		return c;
+	}
+
 	/**
 	 * Ensure the object's critical headers have been parsed.
 	 * <p>
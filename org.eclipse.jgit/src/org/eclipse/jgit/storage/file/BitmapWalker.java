@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Computes reachability using the bitmaps of a {@link PackBitmapIndex}.
+ * <p>
+ * Objects of the bitmap's pack are recorded as bits, and never turned into
+ * {@link RevObject}s. Whenever the traversal reaches a commit which has a
+ * stored bitmap, the bitmap is merged into the result instead of walking the
+ * commit's history. Objects outside of the pack are walked like
+ * {@link org.eclipse.jgit.revwalk.ObjectWalk} would, and are marked with a
+ * {@link RevFlag}.
+ */
+class BitmapWalker {
+	private final RevWalk walk;
+
+	private final ObjectReader reader;
+
+	private final PackBitmapIndex bitmaps;
+
+	private final MutableObjectId idBuf = new MutableObjectId();
+
+	private final CanonicalTreeParser treeParser = new CanonicalTreeParser();
+
+	private ProgressMonitor monitor;
+
+	/** Objects outside of the pack, reached by the current traversal. */
+	private List<RevObject> outside;
+
+	/** If true objects outside of the pack are not walked. */
+	private boolean packOnly;
+
+	/** Commits and tags still to be visited. */
+	private final List<RevObject> commits = new ArrayList<RevObject>();
+
+	/** Trees and blobs still to be visited. */
+	private final List<ObjectId> trees = new ArrayList<ObjectId>();
+
+	BitmapWalker(final RevWalk walk, final PackBitmapIndex bitmaps) {
+		this.walk = walk;
+		this.reader = walk.getObjectReader();
+		this.bitmaps = bitmaps;
+	}
+
+	/**
+	 * Find all objects reachable from {@code want}, but not from {@code have}.
+	 *
+	 * @param want
+	 *            starting points of the objects to return.
+	 * @param have
+	 *            starting points of the objects to exclude. Objects that do not
+	 *            exist are silently ignored.
+	 * @param pm
+	 *            progress monitor, updated once per object found.
+	 * @return all objects reachable from {@code want} and not from
+	 *         {@code have}, in no particular order.
+	 * @throws MissingObjectException
+	 *             an object reachable from {@code want} does not exist.
+	 * @throws IOException
+	 *             the repository cannot be read.
+	 */
+	List<RevObject> findObjects(final Collection<? extends ObjectId> want,
+			final Collection<? extends ObjectId> have, final ProgressMonitor pm)
+			throws MissingObjectException, IOException {
+		final RevFlag seenHave = walk.newFlag("HAVE");
+		final RevFlag seenWant = walk.newFlag("WANT");
+		try {
+			final long[] haveBits = newBitmap();
+			outside = new ArrayList<RevObject>();
+			for (final ObjectId id : have) {
+				try {
+					push(walk.parseAny(id));
+				} catch (MissingObjectException notFound) {
+					continue;
+				}
+			}
+			markReachable(haveBits, seenHave, null, null);
+
+			final long[] wantBits = newBitmap();
+			final List<RevObject> result = new ArrayList<RevObject>();
+			outside = result;
+			monitor = pm;
+			for (final ObjectId id : want)
+				push(walk.parseAny(id));
+			markReachable(wantBits, seenWant, haveBits, seenHave);
+
+			for (int i = 0; i < wantBits.length; i++)
+				wantBits[i] &= ~haveBits[i];
+			final int cnt = bitmaps.getObjectCount();
+			for (int pos = 0; pos < cnt; pos++) {
+				if (CompressedBitmap.isSet(wantBits, pos)) {
+					result.add(walk.lookupAny(bitmaps.getObject(pos), bitmaps
+							.getObjectType(pos)));
+					pm.update(1);
+				}
+			}
+			return result;
+		} finally {
+			walk.disposeFlag(seenHave);
+			walk.disposeFlag(seenWant);
+			monitor = null;
+			outside = null;
+		}
+	}
+
+	/**
+	 * Compute the bitmap of a commit of the pack.
+	 *
+	 * @param commit
+	 *            the commit.
+	 * @return all objects reachable from {@code commit}; null if any of them
+	 *         is not in the pack.
+	 * @throws IOException
+	 *             the repository cannot be read.
+	 */
+	long[] computeBitmap(final RevCommit commit) throws IOException {
+		final RevFlag seen = walk.newFlag("SEEN");
+		try {
+			final long[] bits = newBitmap();
+			outside = new ArrayList<RevObject>();
+			packOnly = true;
+			push(commit);
+			markReachable(bits, seen, null, null);
+			return outside.isEmpty() ? bits : null;
+		} finally {
+			walk.disposeFlag(seen);
+			outside = null;
+			packOnly = false;
+			commits.clear();
+			trees.clear();
+		}
+	}
+
+	private long[] newBitmap() {
+		return CompressedBitmap.newBitmap(bitmaps.getObjectCount());
+	}
+
+	private void push(final RevObject o) {
+		if (o.getType() == Constants.OBJ_COMMIT
+				|| o.getType() == Constants.OBJ_TAG)
+			commits.add(o);
+		else
+			trees.add(o);
+	}
+
+	/**
+	 * Mark everything reachable from the pending objects.
+	 *
+	 * @param bits
+	 *            bitmap receiving the objects of the pack.
+	 * @param mark
+	 *            flag receiving the objects outside of the pack.
+	 * @param stopBits
+	 *            objects of the pack that are already known to be uninteresting;
+	 *            may be null.
+	 * @param stopFlag
+	 *            flag of objects outside of the pack that are already known to
+	 *            be uninteresting; may be null.
+	 * @throws IOException
+	 */
+	private void markReachable(final long[] bits, final RevFlag mark,
+			final long[] stopBits, final RevFlag stopFlag) throws IOException {
+		// Commits (and the tags pointing at them) first, so we use as many
+		// stored bitmaps as possible before having to walk any trees.
+		//
+		while (!commits.isEmpty()) {
+			final RevObject o = commits.remove(commits.size() - 1);
+			if (!mark(o, bits, mark, stopBits, stopFlag))
+				continue;
+			walk.parseHeaders(o);
+			if (o instanceof RevCommit) {
+				final RevCommit c = (RevCommit) o;
+				trees.add(c.getTree());
+				for (final RevCommit p : c.getParents())
+					commits.add(p);
+			} else {
+				final RevObject t = ((RevTag) o).getObject();
+				push(t);
+			}
+		}
+
+		while (!trees.isEmpty()) {
+			final ObjectId id = trees.remove(trees.size() - 1);
+			if (id instanceof RevObject) {
+				final RevObject o = (RevObject) id;
+				if (!mark(o, bits, mark, stopBits, stopFlag))
+					continue;
+				if (o.getType() == Constants.OBJ_BLOB) {
+					if (!reader.has(o))
+						throw new MissingObjectException(o, Constants.TYPE_BLOB);
+					continue;
+				}
+			}
+			markTree(id, bits, mark, stopBits, stopFlag);
+		}
+	}
+
+	private void markTree(final ObjectId tree, final long[] bits,
+			final RevFlag mark, final long[] stopBits, final RevFlag stopFlag)
+			throws IOException {
+		treeParser.reset(reader, tree);
+		for (; !treeParser.eof(); treeParser.next(1)) {
+			final FileMode mode = treeParser.getEntryFileMode();
+			final int type = mode.getObjectType();
+			if (type != Constants.OBJ_BLOB && type != Constants.OBJ_TREE) {
+				if (FileMode.GITLINK.equals(mode))
+					continue;
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().corruptObjectInvalidMode3, mode,
+						treeParser.getEntryObjectId().name(), treeParser
+								.getEntryPathString(), tree.name()));
+			}
+
+			treeParser.getEntryObjectId(idBuf);
+			final int pos = bitmaps.findPosition(idBuf);
+			if (0 <= pos) {
+				if (CompressedBitmap.isSet(bits, pos)
+						|| (stopBits != null && CompressedBitmap.isSet(
+								stopBits, pos)))
+					continue;
+				CompressedBitmap.set(bits, pos);
+				if (type == Constants.OBJ_TREE)
+					trees.add(idBuf.toObjectId());
+			} else if (type == Constants.OBJ_TREE)
+				trees.add(walk.lookupTree(idBuf));
+			else
+				trees.add(walk.lookupBlob(idBuf));
+		}
+	}
+
+	/**
+	 * Record an object as reachable.
+	 *
+	 * @return true if the object was not yet known, and has to be walked.
+	 */
+	private boolean mark(final RevObject o, final long[] bits,
+			final RevFlag mark, final long[] stopBits, final RevFlag stopFlag) {
+		final int pos = bitmaps.findPosition(o);
+		if (0 <= pos) {
+			if (CompressedBitmap.isSet(bits, pos)
+					|| (stopBits != null && CompressedBitmap.isSet(stopBits,
+							pos)))
+				return false;
+			if (o.getType() == Constants.OBJ_COMMIT) {
+				final CompressedBitmap b = bitmaps.getBitmap(o);
+				if (b != null) {
+					b.orInto(bits);
+					return false;
+				}
+			}
+			CompressedBitmap.set(bits, pos);
+			return true;
+		}
+
+		if (o.has(mark) || (stopFlag != null && o.has(stopFlag)))
+			return false;
+		o.add(mark);
+		outside.add(o);
+		if (monitor != null)
+			monitor.update(1);
+		return !packOnly;
+	}
+}
@@ -54,7 +54,7 @@
  *
  * @see ByteWindow
  */
-final class ByteBufferWindow extends ByteWindow {
+class ByteBufferWindow extends ByteWindow {
 	private final ByteBuffer buffer;
 
 	ByteBufferWindow(final PackFile pack, final long o, final ByteBuffer b) {
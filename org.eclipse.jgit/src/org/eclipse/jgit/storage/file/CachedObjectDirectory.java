@@ -46,7 +46,9 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Set;
 
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectDatabase;
@@ -54,6 +56,7 @@
 import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.revwalk.CommitGraph;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
 
@@ -173,6 +176,24 @@ ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 		return wrapped.openObject1(curs, objectId);
 	}
 
+	@Override
+	void resolve1(Set<ObjectId> matches, AbbreviatedObjectId id)
+			throws IOException {
+		for (ObjectId objectId : unpackedObjects) {
+			if (RESOLVE_ABBREV_LIMIT < matches.size())
+				return;
+			if (id.prefixCompare(objectId) == 0)
+				matches.add(objectId);
+		}
+		wrapped.resolve1(matches, id);
+	}
+
+	@Override
+	void resolve2(Set<ObjectId> matches, AbbreviatedObjectId id) {
+		// Loose objects were listed by the constructor, and are searched
+		// with the packed ones.
+	}
+
 	@Override
 	boolean hasObject2(String objectId) {
 		// This method should never be invoked.
@@ -206,6 +227,16 @@ void selectObjectRepresentation(PackWriter packer, ObjectToPack otp,
 		wrapped.selectObjectRepresentation(packer, otp, curs);
 	}
 
+	@Override
+	PackBitmapIndex getBitmapIndex() throws IOException {
+		return wrapped.getBitmapIndex();
+	}
+
+	@Override
+	CommitGraph getCommitGraph() {
+		return wrapped.getCommitGraph();
+	}
+
 	@Override
 	int getStreamFileThreshold() {
 		return wrapped.getStreamFileThreshold();
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.revwalk.CommitGraph;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * The <code>objects/info/jgit-commit-graph</code> file of a repository.
+ * <p>
+ * The format is JGit's own. It is kept apart from the commit-graph file of
+ * C Git, which uses a different, chunked layout.
+ * <p>
+ * The file starts with a header holding the signature, the version and the
+ * number of commits. It is followed by a 256 entry fan-out table, the sorted
+ * names of all commits, and then one fixed size record per commit, in the
+ * same order as the names. Each record holds the commit's tree, the positions
+ * of its first two parents, its commit time and its generation number. The
+ * remaining parents of octopus merges are listed in an extra edge table
+ * after the records. A SHA-1 of everything before it ends the file.
+ * <p>
+ * The whole file is held in memory; parents are stored as positions, so the
+ * history can be walked without searching for every parent.
+ *
+ * @see CommitGraphWriter
+ */
+class CommitGraphFile implements CommitGraph {
+	/** Name of the file, within the {@code objects/info} directory. */
+	static final String FILE_NAME = "jgit-commit-graph";
+
+	/** Magic constant at the start of every commit graph file. */
+	static final byte[] SIGNATURE = { 'J', 'C', 'G', 'R' };
+
+	/** Current (and only) version of the file format. */
+	static final int VERSION = 1;
+
+	/** Size of the header, before the fan-out table. */
+	static final int HEADER_SIZE = 12;
+
+	/** Size of the fan-out table. */
+	static final int FANOUT_SIZE = 256 * 4;
+
+	/** Size of the record of a single commit. */
+	static final int RECORD_SIZE = Constants.OBJECT_ID_LENGTH + 16;
+
+	/** Parent position of a commit which has fewer parents. */
+	static final int NO_PARENT = 0x70000000;
+
+	/**
+	 * Flag on the second parent of a commit with more than two parents.
+	 * <p>
+	 * The remaining bits are the index of the commit's second parent in the
+	 * extra edge table. The flag is set again on its last parent in the table.
+	 */
+	static final int EXTRA_EDGES = 0x80000000;
+
+	/**
+	 * Read an existing commit graph.
+	 *
+	 * @param file
+	 *            the commit-graph file.
+	 * @return the graph.
+	 * @throws IOException
+	 *             the file cannot be read or is corrupt.
+	 */
+	static CommitGraphFile open(final File file) throws IOException {
+		try {
+			final long modified = file.lastModified();
+			final CommitGraphFile g = new CommitGraphFile(IO.readFully(file));
+			g.lastModified = modified;
+			return g;
+		} catch (IOException ioe) {
+			final String path = file.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(
+					JGitText.get().unreadableCommitGraph, path));
+			err.initCause(ioe);
+			throw err;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final int commitCount;
+
+	private final int[] fanout;
+
+	private final int recordOffset;
+
+	private final int extraOffset;
+
+	private long lastModified;
+
+	private CommitGraphFile(final byte[] buf) throws IOException {
+		final int trailer = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (trailer < HEADER_SIZE + FANOUT_SIZE)
+			throw new IOException(JGitText.get().notACommitGraph);
+		for (int i = 0; i < SIGNATURE.length; i++)
+			if (buf[i] != SIGNATURE[i])
+				throw new IOException(JGitText.get().notACommitGraph);
+
+		final int version = NB.decodeInt32(buf, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion, version));
+
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(buf, 0, trailer);
+		final byte[] sum = md.digest();
+		for (int i = 0; i < sum.length; i++)
+			if (sum[i] != buf[trailer + i])
+				throw new IOException(JGitText.get().commitGraphChecksumMismatch);
+
+		commitCount = NB.decodeInt32(buf, 8);
+		fanout = new int[256];
+		for (int k = 0; k < 256; k++)
+			fanout[k] = NB.decodeInt32(buf, HEADER_SIZE + k * 4);
+
+		recordOffset = HEADER_SIZE + FANOUT_SIZE + commitCount
+				* Constants.OBJECT_ID_LENGTH;
+		extraOffset = recordOffset + commitCount * RECORD_SIZE;
+		if (commitCount < 0 || fanout[255] != commitCount
+				|| trailer < extraOffset || (trailer - extraOffset) % 4 != 0)
+			throw new IOException(JGitText.get().notACommitGraph);
+
+		this.buf = buf;
+	}
+
+	/**
+	 * Determine if the file was replaced since this graph was read.
+	 *
+	 * @param file
+	 *            location the graph was read from.
+	 * @return true if the file was modified or deleted.
+	 */
+	boolean isModified(final File file) {
+		return file.lastModified() != lastModified
+				|| file.length() != buf.length;
+	}
+
+	public int getCommitCount() {
+		return commitCount;
+	}
+
+	public int findCommit(final AnyObjectId id) {
+		final int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(buf, idOffset(mid));
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	public void getObjectId(final int pos, final MutableObjectId dst) {
+		dst.fromRaw(buf, idOffset(pos));
+	}
+
+	public void getTree(final int pos, final MutableObjectId dst) {
+		dst.fromRaw(buf, recordOffset + pos * RECORD_SIZE);
+	}
+
+	public int getParentCount(final int pos) {
+		final int ptr = recordOffset + pos * RECORD_SIZE
+				+ Constants.OBJECT_ID_LENGTH;
+		if (NB.decodeInt32(buf, ptr) == NO_PARENT)
+			return 0;
+		final int p2 = NB.decodeInt32(buf, ptr + 4);
+		if (p2 == NO_PARENT)
+			return 1;
+		if ((p2 & EXTRA_EDGES) == 0)
+			return 2;
+		int n = 2;
+		int e = extraOffset + (p2 & ~EXTRA_EDGES) * 4;
+		while ((NB.decodeInt32(buf, e) & EXTRA_EDGES) == 0) {
+			e += 4;
+			n++;
+		}
+		return n;
+	}
+
+	public int getParent(final int pos, final int nth) {
+		final int ptr = recordOffset + pos * RECORD_SIZE
+				+ Constants.OBJECT_ID_LENGTH;
+		if (nth == 0)
+			return NB.decodeInt32(buf, ptr);
+		final int p2 = NB.decodeInt32(buf, ptr + 4);
+		if ((p2 & EXTRA_EDGES) == 0)
+			return p2;
+		final int e = extraOffset + ((p2 & ~EXTRA_EDGES) + nth - 1) * 4;
+		return NB.decodeInt32(buf, e) & ~EXTRA_EDGES;
+	}
+
+	public int getCommitTime(final int pos) {
+		return NB.decodeInt32(buf, recordOffset + pos * RECORD_SIZE
+				+ Constants.OBJECT_ID_LENGTH + 8);
+	}
+
+	public int getGeneration(final int pos) {
+		return NB.decodeInt32(buf, recordOffset + pos * RECORD_SIZE
+				+ Constants.OBJECT_ID_LENGTH + 12);
+	}
+
+	private int idOffset(final int pos) {
+		return HEADER_SIZE + FANOUT_SIZE + pos * Constants.OBJECT_ID_LENGTH;
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the commit graph of a repository.
+ * <p>
+ * The graph holds every commit reachable from the tips given to
+ * {@link #write}, and is stored in <code>objects/info/jgit-commit-graph</code>,
+ * where {@link ObjectDirectory} will find it. Commits created after the graph
+ * was written are still parsed from their objects, so the graph only needs to
+ * be rewritten from time to time, for example after repacking.
+ */
+public class CommitGraphWriter {
+	private final FileRepository repo;
+
+	/**
+	 * Create a writer for the commit graph of a repository.
+	 *
+	 * @param repo
+	 *            the repository to compute the graph of.
+	 */
+	public CommitGraphWriter(final FileRepository repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Compute and store the commit graph of the repository.
+	 *
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @param tips
+	 *            the commits (or tags) whose history is stored, typically all
+	 *            references of the repository.
+	 * @throws IOException
+	 *             the repository cannot be read, or the graph cannot be
+	 *             written.
+	 */
+	public void write(final ProgressMonitor pm,
+			final Collection<? extends ObjectId> tips) throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final File file = odb.getCommitGraphFile();
+		final LockFile lf = new LockFile(file, repo.getFS());
+		if (!lf.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			final OutputStream out = lf.getOutputStream();
+			try {
+				writeTo(out, pm, tips);
+			} finally {
+				out.close();
+			}
+			if (!lf.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, file));
+		} finally {
+			lf.unlock();
+		}
+		odb.resetCommitGraph();
+	}
+
+	/**
+	 * Compute the commit graph and write it to a stream.
+	 * <p>
+	 * After writing the stream is flushed but remains open. Callers are always
+	 * responsible for closing the output stream.
+	 *
+	 * @param dst
+	 *            stream the commit graph is written to.
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @param tips
+	 *            the commits (or tags) whose history is stored, typically all
+	 *            references of the repository.
+	 * @throws IOException
+	 *             the repository cannot be read, or the stream cannot be
+	 *             written to.
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeTo(final OutputStream dst, final ProgressMonitor pm,
+			final Collection<? extends ObjectId> tips) throws IOException {
+		final WindowCursor curs = new WindowCursor(repo.getObjectDatabase());
+		final List<Node> commits;
+		try {
+			commits = findCommits(curs, pm, tips);
+		} finally {
+			curs.release();
+		}
+
+		final ObjectIdSubclassMap<Node> byId = new ObjectIdSubclassMap<Node>();
+		Collections.sort(commits);
+		for (int pos = 0; pos < commits.size(); pos++) {
+			final Node n = commits.get(pos);
+			n.position = pos;
+			byId.add(n);
+		}
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] tmp = new byte[CommitGraphFile.RECORD_SIZE];
+		out.write(CommitGraphFile.SIGNATURE);
+		NB.encodeInt32(tmp, 0, CommitGraphFile.VERSION);
+		NB.encodeInt32(tmp, 4, commits.size());
+		out.write(tmp, 0, 8);
+
+		final int[] fanout = new int[256];
+		for (final Node n : commits)
+			fanout[n.getFirstByte()]++;
+		for (int k = 0, cnt = 0; k < 256; k++) {
+			cnt += fanout[k];
+			NB.encodeInt32(tmp, 0, cnt);
+			out.write(tmp, 0, 4);
+		}
+
+		for (final Node n : commits)
+			n.copyRawTo(out);
+
+		final List<Integer> extra = new ArrayList<Integer>();
+		final int ptr = Constants.OBJECT_ID_LENGTH;
+		for (final Node n : commits) {
+			final RevCommit c = n.commit;
+			final int nParents = c.getParentCount();
+			c.getTree().copyRawTo(tmp, 0);
+			NB.encodeInt32(tmp, ptr, nParents < 1 ? CommitGraphFile.NO_PARENT
+					: position(byId, c.getParent(0)));
+			if (nParents < 2)
+				NB.encodeInt32(tmp, ptr + 4, CommitGraphFile.NO_PARENT);
+			else if (nParents == 2)
+				NB.encodeInt32(tmp, ptr + 4, position(byId, c.getParent(1)));
+			else {
+				NB.encodeInt32(tmp, ptr + 4, CommitGraphFile.EXTRA_EDGES
+						| extra.size());
+				for (int i = 1; i < nParents; i++) {
+					int p = position(byId, c.getParent(i));
+					if (i == nParents - 1)
+						p |= CommitGraphFile.EXTRA_EDGES;
+					extra.add(Integer.valueOf(p));
+				}
+			}
+			NB.encodeInt32(tmp, ptr + 8, c.getCommitTime());
+			NB.encodeInt32(tmp, ptr + 12, n.generation);
+			out.write(tmp, 0, CommitGraphFile.RECORD_SIZE);
+		}
+
+		for (final Integer p : extra) {
+			NB.encodeInt32(tmp, 0, p.intValue());
+			out.write(tmp, 0, 4);
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	private List<Node> findCommits(final WindowCursor curs,
+			final ProgressMonitor pm, final Collection<? extends ObjectId> tips)
+			throws IOException {
+		final RevWalk rw = new RevWalk(curs);
+		rw.setRetainBody(false);
+		rw.sort(RevSort.TOPO);
+		rw.sort(RevSort.REVERSE, true);
+		for (final ObjectId id : tips) {
+			final RevObject o;
+			try {
+				o = rw.peel(rw.parseAny(id));
+			} catch (MissingObjectException notFound) {
+				continue;
+			}
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+
+		// Parents are produced before their children, so the generation of
+		// every parent is known by the time a commit is reached.
+		//
+		pm.beginTask(JGitText.get().computingCommitGraph,
+				ProgressMonitor.UNKNOWN);
+		final ObjectIdSubclassMap<Node> seen = new ObjectIdSubclassMap<Node>();
+		final List<Node> commits = new ArrayList<Node>();
+		for (RevCommit c; (c = rw.next()) != null;) {
+			int generation = 1;
+			for (final RevCommit p : c.getParents())
+				generation = Math.max(generation, seen.get(p).generation + 1);
+			final Node n = new Node(c, generation);
+			seen.add(n);
+			commits.add(n);
+			pm.update(1);
+		}
+		pm.endTask();
+		return commits;
+	}
+
+	private static int position(final ObjectIdSubclassMap<Node> byId,
+			final AnyObjectId id) {
+		return byId.get(id).position;
+	}
+
+	private static class Node extends ObjectId {
+		private static final long serialVersionUID = 1L;
+
+		final RevCommit commit;
+
+		final int generation;
+
+		int position;
+
+		Node(final RevCommit commit, final int generation) {
+			super(commit);
+			this.commit = commit;
+			this.generation = generation;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.jgit.util.NB;
+
+/**
+ * A run-length compressed bitmap of object positions within a pack.
+ * <p>
+ * The uncompressed form is an array of 64 bit words, bit {@code n} of the
+ * bitmap being bit {@code n % 64} of word {@code n / 64}. The compressed form
+ * is a sequence of groups. Each group starts with a marker word describing a
+ * run of words that are either all clear or all set, followed by a number of
+ * literal words which are copied as-is. The most significant bit of the
+ * marker is the value of the run, the next 31 bits are the length of the run
+ * in words, and the lower 32 bits count the literal words after the marker.
+ * <p>
+ * Reachability bitmaps are dominated by long runs of set or clear words, so
+ * the compressed form is typically a small fraction of the uncompressed one,
+ * and can be merged into an uncompressed bitmap without expanding it first.
+ */
+final class CompressedBitmap {
+	private static final long ALL_SET = ~0L;
+
+	private static final int MAX_RUN = Integer.MAX_VALUE;
+
+	/**
+	 * Allocate an empty uncompressed bitmap able to hold {@code bits} bits.
+	 *
+	 * @param bits
+	 *            number of bits the bitmap must hold.
+	 * @return the new bitmap.
+	 */
+	static long[] newBitmap(final int bits) {
+		return new long[(bits + 63) >>> 6];
+	}
+
+	/**
+	 * Test a bit of an uncompressed bitmap.
+	 *
+	 * @param bitmap
+	 *            the uncompressed bitmap.
+	 * @param bit
+	 *            position of the bit to test.
+	 * @return true if the bit is set.
+	 */
+	static boolean isSet(final long[] bitmap, final int bit) {
+		return (bitmap[bit >>> 6] & (1L << (bit & 63))) != 0;
+	}
+
+	/**
+	 * Set a bit of an uncompressed bitmap.
+	 *
+	 * @param bitmap
+	 *            the uncompressed bitmap.
+	 * @param bit
+	 *            position of the bit to set.
+	 */
+	static void set(final long[] bitmap, final int bit) {
+		bitmap[bit >>> 6] |= 1L << (bit & 63);
+	}
+
+	/**
+	 * Compress an uncompressed bitmap.
+	 *
+	 * @param bitmap
+	 *            the uncompressed bitmap. The array is not modified.
+	 * @return the compressed form of {@code bitmap}.
+	 */
+	static CompressedBitmap compress(final long[] bitmap) {
+		long[] buf = new long[16];
+		int ptr = 0;
+		int i = 0;
+		while (i < bitmap.length) {
+			final long w = bitmap[i];
+			long runBit = 0;
+			int run = 0;
+			if (w == 0 || w == ALL_SET) {
+				runBit = w == ALL_SET ? 1 : 0;
+				while (i < bitmap.length && bitmap[i] == w && run < MAX_RUN) {
+					run++;
+					i++;
+				}
+			}
+
+			final int litStart = i;
+			while (i < bitmap.length && bitmap[i] != 0 && bitmap[i] != ALL_SET)
+				i++;
+			final int lits = i - litStart;
+
+			if (buf.length < ptr + 1 + lits) {
+				final long[] n = new long[Math.max(buf.length * 2, ptr + 1
+						+ lits)];
+				System.arraycopy(buf, 0, n, 0, ptr);
+				buf = n;
+			}
+			buf[ptr++] = (runBit << 63) | (((long) run) << 32) | lits;
+			System.arraycopy(bitmap, litStart, buf, ptr, lits);
+			ptr += lits;
+		}
+
+		final long[] data = new long[ptr];
+		System.arraycopy(buf, 0, data, 0, ptr);
+		return new CompressedBitmap(data);
+	}
+
+	/**
+	 * Read a bitmap previously written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param buf
+	 *            buffer holding the serialized bitmap.
+	 * @param ptr
+	 *            position of the bitmap's first byte within {@code buf}.
+	 * @return the bitmap.
+	 */
+	static CompressedBitmap read(final byte[] buf, int ptr) {
+		final long[] data = new long[NB.decodeInt32(buf, ptr)];
+		ptr += 4;
+		for (int i = 0; i < data.length; i++, ptr += 8)
+			data[i] = NB.decodeUInt64(buf, ptr);
+		return new CompressedBitmap(data);
+	}
+
+	private final long[] data;
+
+	private CompressedBitmap(final long[] data) {
+		this.data = data;
+	}
+
+	/** @return number of bytes {@link #writeTo(OutputStream)} produces. */
+	int getSerializedSize() {
+		return 4 + 8 * data.length;
+	}
+
+	/**
+	 * Set every bit of {@code dst} that is set in this bitmap.
+	 *
+	 * @param dst
+	 *            the uncompressed bitmap to update.
+	 */
+	void orInto(final long[] dst) {
+		int pos = 0;
+		int ptr = 0;
+		while (ptr < data.length) {
+			final long marker = data[ptr++];
+			final int run = runLength(marker);
+			if (marker < 0) {
+				for (int end = pos + run; pos < end; pos++)
+					dst[pos] = ALL_SET;
+			} else
+				pos += run;
+
+			for (int end = ptr + literalCount(marker); ptr < end; ptr++)
+				dst[pos++] |= data[ptr];
+		}
+	}
+
+	/**
+	 * Clear every bit of {@code dst} that is set in this bitmap.
+	 *
+	 * @param dst
+	 *            the uncompressed bitmap to update.
+	 */
+	void andNotInto(final long[] dst) {
+		int pos = 0;
+		int ptr = 0;
+		while (ptr < data.length) {
+			final long marker = data[ptr++];
+			final int run = runLength(marker);
+			if (marker < 0) {
+				for (int end = pos + run; pos < end; pos++)
+					dst[pos] = 0;
+			} else
+				pos += run;
+
+			for (int end = ptr + literalCount(marker); ptr < end; ptr++)
+				dst[pos++] &= ~data[ptr];
+		}
+	}
+
+	/**
+	 * Expand this bitmap.
+	 *
+	 * @param bits
+	 *            number of bits the uncompressed bitmap must hold.
+	 * @return the uncompressed bitmap.
+	 */
+	long[] toBitmap(final int bits) {
+		final long[] r = newBitmap(bits);
+		orInto(r);
+		return r;
+	}
+
+	/**
+	 * Serialize this bitmap.
+	 *
+	 * @param out
+	 *            stream to write the bitmap to.
+	 * @throws IOException
+	 *             the stream cannot be written to.
+	 */
+	void writeTo(final OutputStream out) throws IOException {
+		final byte[] tmp = new byte[8];
+		NB.encodeInt32(tmp, 0, data.length);
+		out.write(tmp, 0, 4);
+		for (final long w : data) {
+			NB.encodeInt64(tmp, 0, w);
+			out.write(tmp, 0, 8);
+		}
+	}
+
+	private static int runLength(final long marker) {
+		return (int) ((marker >>> 32) & MAX_RUN);
+	}
+
+	private static int literalCount(final long marker) {
+		return (int) marker;
+	}
+}
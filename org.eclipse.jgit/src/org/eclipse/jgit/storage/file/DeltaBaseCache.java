@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2008, Shawn O. Pearce <spearce@spearce.org>
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.storage.file;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches recently inflated delta bases of a single {@link PackFile}.
+ * <p>
+ * Every pack owns its own cache, but the caches of all packs together are
+ * limited to {@link WindowCacheConfig#getDeltaBaseCacheLimit()} bytes. Entries
+ * are spread over independently locked segments by their position within the
+ * pack, so threads resolving delta chains only contend with each other when
+ * they touch the same segment of the same pack. Each segment orders its
+ * entries by last use; when the caches exceed the limit the least recently
+ * used entry of each segment of each cache holding data is dropped in turn,
+ * until they fit again. A single busy pack may use the entire limit, while
+ * packs no longer read give their memory back.
+ * <p>
+ * Entries are held through soft references, so the garbage collector may
+ * still reclaim them under memory pressure.
+ */
+final class DeltaBaseCache {
+	private static final int SEGMENT_BITS = 4;
+
+	private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+	private static final int SLOTS_PER_SEGMENT = 64;
+
+	private static final SoftReference<Entry> DEAD = new SoftReference<Entry>(
+			null);
+
+	private static volatile int maxByteCount = new WindowCacheConfig()
+			.getDeltaBaseCacheLimit();
+
+	/** Bytes held by the caches of all packs together. */
+	private static final AtomicLong totalByteCount = new AtomicLong();
+
+	/** Caches holding data, which memory can be released from. */
+	private static final List<DeltaBaseCache> active = new CopyOnWriteArrayList<DeltaBaseCache>();
+
+	/** Rotates eviction over the {@link #active} caches. */
+	private static final AtomicInteger nextVictim = new AtomicInteger();
+
+	static void reconfigure(final WindowCacheConfig cfg) {
+		maxByteCount = cfg.getDeltaBaseCacheLimit();
+	}
+
+	/** @return bytes held by the caches of all packs together. */
+	static long getTotalByteCount() {
+		return totalByteCount.get();
+	}
+
+	private final Segment[] segments;
+
+	private final AtomicLong openByteCount = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private volatile boolean registered;
+
+	/** Segment the next eviction of this cache starts its search at. */
+	private int nextSegment;
+
+	DeltaBaseCache() {
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	Entry get(final long position) {
+		final Segment s = segments[segment(position)];
+		final Entry e;
+		synchronized (s) {
+			e = s.get(position);
+		}
+		if (e != null)
+			hitCount.incrementAndGet();
+		else
+			missCount.incrementAndGet();
+		return e;
+	}
+
+	void store(final long position, final byte[] data, final int objectType) {
+		final int max = maxByteCount;
+		if (data.length > max)
+			return; // Too large to cache.
+
+		if (!registered)
+			register();
+		final Segment s = segments[segment(position)];
+		synchronized (s) {
+			s.store(position, data, objectType);
+		}
+		releaseMemory(max);
+	}
+
+	void clear() {
+		for (final Segment s : segments) {
+			synchronized (s) {
+				s.clear();
+			}
+		}
+		synchronized (active) {
+			active.remove(this);
+			registered = false;
+		}
+	}
+
+	private void register() {
+		synchronized (active) {
+			if (!registered) {
+				active.add(this);
+				registered = true;
+			}
+		}
+	}
+
+	DeltaBaseCacheStats getStats() {
+		return new DeltaBaseCacheStats(hitCount.get(), missCount.get(),
+				evictionCount.get(), openByteCount.get());
+	}
+
+	private static void releaseMemory(final int max) {
+		if (totalByteCount.get() <= max)
+			return;
+
+		final DeltaBaseCache[] caches = active
+				.toArray(new DeltaBaseCache[active.size()]);
+		int empty = 0;
+		while (totalByteCount.get() > max && empty < caches.length) {
+			final int idx = (nextVictim.getAndIncrement() & Integer.MAX_VALUE)
+					% caches.length;
+			if (caches[idx].evictOne())
+				empty = 0;
+			else
+				empty++;
+		}
+	}
+
+	private boolean evictOne() {
+		for (int n = 0; n < SEGMENTS; n++) {
+			final Segment s = segments[nextSegment++ & (SEGMENTS - 1)];
+			synchronized (s) {
+				if (s.evictOldest())
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static int segment(final long position) {
+		return ((int) position) & (SEGMENTS - 1);
+	}
+
+	private static int slot(final long position) {
+		return (((int) position) >>> SEGMENT_BITS) & (SLOTS_PER_SEGMENT - 1);
+	}
+
+	static class Entry {
+		final byte[] data;
+
+		final int type;
+
+		Entry(final byte[] aData, final int aType) {
+			data = aData;
+			type = aType;
+		}
+	}
+
+	private final class Segment {
+		private final Slot[] table;
+
+		private Slot lruHead;
+
+		private Slot lruTail;
+
+		Segment() {
+			table = new Slot[SLOTS_PER_SEGMENT];
+			for (int i = 0; i < SLOTS_PER_SEGMENT; i++)
+				table[i] = new Slot();
+		}
+
+		Entry get(final long position) {
+			final Slot e = table[slot(position)];
+			if (e.position == position) {
+				final Entry buf = e.data.get();
+				if (buf != null) {
+					moveToHead(e);
+					return buf;
+				}
+			}
+			return null;
+		}
+
+		void store(final long position, final byte[] data, final int type) {
+			final Slot e = table[slot(position)];
+			if (e.sz != 0)
+				evictionCount.incrementAndGet();
+			clearEntry(e);
+
+			openByteCount.addAndGet(data.length);
+			totalByteCount.addAndGet(data.length);
+			e.position = position;
+			e.sz = data.length;
+			e.data = new SoftReference<Entry>(new Entry(data, type));
+			moveToHead(e);
+		}
+
+		boolean evictOldest() {
+			final Slot e = lruTail;
+			if (e == null)
+				return false;
+			clearEntry(e);
+			unlink(e);
+			evictionCount.incrementAndGet();
+			return true;
+		}
+
+		void clear() {
+			for (final Slot e : table) {
+				clearEntry(e);
+				e.lruPrev = null;
+				e.lruNext = null;
+			}
+			lruHead = null;
+			lruTail = null;
+		}
+
+		private void moveToHead(final Slot e) {
+			unlink(e);
+			e.lruNext = lruHead;
+			if (lruHead != null)
+				lruHead.lruPrev = e;
+			else
+				lruTail = e;
+			lruHead = e;
+		}
+
+		private void unlink(final Slot e) {
+			final Slot prev = e.lruPrev;
+			final Slot next = e.lruNext;
+			if (prev != null)
+				prev.lruNext = next;
+			else if (lruHead == e)
+				lruHead = next;
+			if (next != null)
+				next.lruPrev = prev;
+			else if (lruTail == e)
+				lruTail = prev;
+			e.lruPrev = null;
+			e.lruNext = null;
+		}
+
+		private void clearEntry(final Slot e) {
+			openByteCount.addAndGet(-e.sz);
+			totalByteCount.addAndGet(-e.sz);
+			e.position = -1;
+			e.data = DEAD;
+			e.sz = 0;
+		}
+	}
+
+	private static class Slot {
+		Slot lruPrev;
+
+		Slot lruNext;
+
+		long position = -1;
+
+		int sz;
+
+		SoftReference<Entry> data = DEAD;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+/**
+ * Snapshot of the usage of the delta base cache of a {@link PackFile}.
+ *
+ * @see PackFile#getDeltaBaseCacheStats()
+ */
+public class DeltaBaseCacheStats {
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long evictionCount;
+
+	private final long openByteCount;
+
+	DeltaBaseCacheStats(final long hits, final long misses,
+			final long evictions, final long openBytes) {
+		hitCount = hits;
+		missCount = misses;
+		evictionCount = evictions;
+		openByteCount = openBytes;
+	}
+
+	/** @return number of delta bases found in the cache. */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return number of delta bases that had to be read from the pack. */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return ratio of lookups found in the cache, between 0 and 1; 0 if the
+	 *         cache was never used.
+	 */
+	public double getHitRatio() {
+		final long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/** @return number of entries dropped to make room for other entries. */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** @return number of bytes currently held by the cache. */
+	public long getOpenByteCount() {
+		return openByteCount;
+	}
+
+	@Override
+	public String toString() {
+		return "DeltaBaseCacheStats[hits=" + hitCount + ", misses="
+				+ missCount + ", evictions=" + evictionCount + ", bytes="
+				+ openByteCount + "]";
+	}
+}
@@ -45,15 +45,22 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Set;
 
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.CommitGraph;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
 
 abstract class FileObjectDatabase extends ObjectDatabase {
+	/** Number of candidates after which an abbreviation stops being searched. */
+	static final int RESOLVE_ABBREV_LIMIT = 256;
+
 	@Override
 	public ObjectReader newReader() {
 		return new WindowCursor(this);
@@ -97,6 +104,34 @@ final boolean hasObjectImpl2(final String objectId) {
 		return false;
 	}
 
+	/**
+	 * Find objects matching the prefix abbreviation.
+	 * <p>
+	 * Alternates (if present) are searched automatically. The search stops
+	 * once more than {@link #RESOLVE_ABBREV_LIMIT} candidates were found.
+	 *
+	 * @param matches
+	 *            set to add the located ObjectIds to.
+	 * @param id
+	 *            prefix to search for.
+	 * @throws IOException
+	 *             the object store cannot be read.
+	 */
+	void resolve(final Set<ObjectId> matches, final AbbreviatedObjectId id)
+			throws IOException {
+		final int before = matches.size();
+		resolve1(matches, id);
+		resolve2(matches, id);
+		if (matches.size() == before && tryAgain1())
+			resolve1(matches, id);
+
+		for (final AlternateHandle alt : myAlternates()) {
+			if (RESOLVE_ABBREV_LIMIT < matches.size())
+				return;
+			alt.db.resolve(matches, id);
+		}
+	}
+
 	/**
 	 * Open an object from this database.
 	 * <p>
@@ -218,6 +253,23 @@ final long getObjectSizeImpl2(final WindowCursor curs,
 	abstract void selectObjectRepresentation(PackWriter packer,
 			ObjectToPack otp, WindowCursor curs) throws IOException;
 
+	/**
+	 * Find the reachability bitmaps best suited to walk this database.
+	 *
+	 * @return bitmap index of the largest pack that has one; null if no pack
+	 *         has a bitmap index.
+	 * @throws IOException
+	 *             the pack list cannot be read.
+	 */
+	abstract PackBitmapIndex getBitmapIndex() throws IOException;
+
+	/**
+	 * Get the commit graph of this database.
+	 *
+	 * @return the graph; null if the database has none, or it cannot be read.
+	 */
+	abstract CommitGraph getCommitGraph();
+
 	abstract File getDirectory();
 
 	abstract AlternateHandle[] myAlternates();
@@ -228,6 +280,11 @@ abstract void selectObjectRepresentation(PackWriter packer,
 
 	abstract boolean hasObject2(String objectId);
 
+	abstract void resolve1(Set<ObjectId> matches, AbbreviatedObjectId id)
+			throws IOException;
+
+	abstract void resolve2(Set<ObjectId> matches, AbbreviatedObjectId id);
+
 	abstract ObjectLoader openObject1(WindowCursor curs, AnyObjectId objectId)
 			throws IOException;
 
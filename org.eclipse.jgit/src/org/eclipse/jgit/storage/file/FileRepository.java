@@ -64,6 +64,7 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateHandle;
 import org.eclipse.jgit.storage.file.FileObjectDatabase.AlternateRepository;
+import org.eclipse.jgit.util.StringUtils;
 import org.eclipse.jgit.util.SystemReader;
 
 /**
@@ -143,22 +144,52 @@ public FileRepository(final BaseRepositoryBuilder options) throws IOException {
 		loadUserConfig();
 		loadRepoConfig();
 
-		refs = new RefDirectory(this);
+		if (isReftable())
+			refs = new ReftableDatabase(this);
+		else
+			refs = new RefDirectory(this);
 		objectDatabase = new ObjectDirectory(repoConfig, //
 				options.getObjectDirectory(), //
 				options.getAlternateObjectDirectories(), //
 				getFS());
 		getListenerList().addConfigChangedListener(objectDatabase);
 
-		if (objectDatabase.exists()) {
-			final String repositoryFormatVersion = getConfig().getString(
-					ConfigConstants.CONFIG_CORE_SECTION, null,
-					ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION);
-			if (!"0".equals(repositoryFormatVersion)) {
-				throw new IOException(MessageFormat.format(
-						JGitText.get().unknownRepositoryFormat2,
-						repositoryFormatVersion));
-			}
+		if (objectDatabase.exists())
+			checkRepositoryFormat();
+	}
+
+	private boolean isReftable() {
+		final FileBasedConfig cfg = getConfig();
+		return "1".equals(cfg.getString(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION))
+				&& ReftableDatabase.REFTABLE.equals(cfg.getString(
+						ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+						ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE));
+	}
+
+	private void checkRepositoryFormat() throws IOException {
+		final FileBasedConfig cfg = getConfig();
+		final String repositoryFormatVersion = cfg.getString(
+				ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION);
+		if ("0".equals(repositoryFormatVersion))
+			return;
+		if (!"1".equals(repositoryFormatVersion)) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unknownRepositoryFormat2,
+					repositoryFormatVersion));
+		}
+
+		// Version 1 requires understanding every extension in use.
+		//
+		for (final String name : cfg
+				.getNames(ConfigConstants.CONFIG_EXTENSIONS_SECTION)) {
+			if (StringUtils.equalsIgnoreCase(name,
+					ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE)
+					&& refs instanceof ReftableDatabase)
+				continue;
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unknownRepositoryExtension, name));
 		}
 	}
 
@@ -211,7 +242,8 @@ public void create(boolean bare) throws IOException {
 		head.link(Constants.R_HEADS + Constants.MASTER);
 
 		cfg.setInt(ConfigConstants.CONFIG_CORE_SECTION, null,
-				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION,
+				refs instanceof ReftableDatabase ? 1 : 0);
 		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
 				ConfigConstants.CONFIG_KEY_FILEMODE, true);
 		if (bare)
@@ -221,6 +253,10 @@ public void create(boolean bare) throws IOException {
 				ConfigConstants.CONFIG_KEY_LOGALLREFUPDATES, !bare);
 		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
 				ConfigConstants.CONFIG_KEY_AUTOCRLF, false);
+		if (refs instanceof ReftableDatabase)
+			cfg.setString(ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_JGIT_REFSTORAGE,
+					ReftableDatabase.REFTABLE);
 		cfg.save();
 	}
 
@@ -323,6 +359,8 @@ public void scanForRepoChanges() throws IOException {
 	 */
 	public ReflogReader getReflogReader(String refName) throws IOException {
 		Ref ref = getRef(refName);
+		if (ref != null && refs instanceof ReftableDatabase)
+			return ((ReftableDatabase) refs).getReflogReader(ref.getName());
 		if (ref != null)
 			return new ReflogReader(this, ref.getName());
 		return null;
@@ -0,0 +1,790 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.storage.pack.PackWriter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Garbage collector of a {@link FileRepository}.
+ * <p>
+ * A collection packs the loose references into <code>packed-refs</code>, then
+ * writes every object reachable from the references, their reflogs and the
+ * index into a single new pack. Packs made redundant by the new pack are
+ * deleted, as are loose objects stored in a pack. Objects not reachable at
+ * all are deleted once they are older than the expiration age, so objects
+ * just being written by a concurrent process survive. Like C Git's prune,
+ * the collection also keeps the older objects these recent objects
+ * reference. Packs with a <code>.keep</code> file are never deleted.
+ * <p>
+ * A multi-pack index, commit graph or reachability bitmaps present before the
+ * collection are written again for the new set of packs.
+ */
+public class GC {
+	/** Default age of unreachable objects before they are pruned: 2 weeks. */
+	public static final long DEFAULT_EXPIRE_AGE = 14L * 24 * 60 * 60 * 1000;
+
+	private final FileRepository repo;
+
+	private final ObjectDirectory odb;
+
+	private ProgressMonitor pm = NullProgressMonitor.INSTANCE;
+
+	private long expireAge = DEFAULT_EXPIRE_AGE;
+
+	private int geometricFactor = 2;
+
+	/** Modification time before which unreachable objects are pruned. */
+	private long expire;
+
+	/**
+	 * Create a garbage collector for a repository.
+	 *
+	 * @param repo
+	 *            the repository to collect.
+	 */
+	public GC(final FileRepository repo) {
+		this.repo = repo;
+		this.odb = repo.getObjectDatabase();
+	}
+
+	/**
+	 * @param pm
+	 *            the monitor to report progress to; null to report nothing.
+	 * @return {@code this}
+	 */
+	public GC setProgressMonitor(final ProgressMonitor pm) {
+		this.pm = pm != null ? pm : NullProgressMonitor.INSTANCE;
+		return this;
+	}
+
+	/**
+	 * Set how old an unreachable object must be before it is deleted.
+	 *
+	 * @param millis
+	 *            minimum age in milliseconds; 0 prunes all unreachable
+	 *            objects. Defaults to {@link #DEFAULT_EXPIRE_AGE}.
+	 * @return {@code this}
+	 */
+	public GC setExpireAge(final long millis) {
+		expireAge = Math.max(0, millis);
+		return this;
+	}
+
+	/**
+	 * Run the garbage collection.
+	 *
+	 * @return the pack holding all reachable objects; null if the repository
+	 *         has no reachable objects.
+	 * @throws IOException
+	 *             the repository cannot be read, or the new pack cannot be
+	 *             written. Nothing is deleted if the pack was not written.
+	 */
+	public PackFile gc() throws IOException {
+		expire = System.currentTimeMillis() - expireAge;
+
+		packRefs();
+
+		final PackFile[] oldPacks = odb.listPacks();
+		final Set<ObjectId> roots = listRoots();
+		final PackFile pack = repack(roots);
+
+		boolean hadBitmaps = false;
+		for (final PackFile p : oldPacks) {
+			if (p != pack && p.getBitmapIndexFile().exists())
+				hadBitmaps = true;
+		}
+
+		final Set<ObjectId> referenced = listRecentlyReferenced(oldPacks, pack);
+		deleteOldPacks(oldPacks, pack, referenced);
+		pruneLooseObjects(referenced);
+
+		if (odb.getMultiPackIndexFile().exists())
+			new MultiPackIndexWriter(repo).write(pm);
+		if (odb.getCommitGraphFile().exists())
+			new CommitGraphWriter(repo).write(pm, listTips());
+		if (hadBitmaps && pack != null)
+			new PackBitmapIndexWriter(repo, pack).write(pm, listTips());
+		return pack;
+	}
+
+	/**
+	 * Set the ratio kept between the object counts of consecutive packs by
+	 * {@link #repackGeometric()}.
+	 *
+	 * @param factor
+	 *            each pack must hold at least this many times the objects of
+	 *            all smaller packs together; at least 2. Defaults to 2.
+	 * @return {@code this}
+	 */
+	public GC setGeometricFactor(final int factor) {
+		geometricFactor = Math.max(2, factor);
+		return this;
+	}
+
+	/**
+	 * Merge the smallest packs, leaving pack sizes in a geometric progression.
+	 * <p>
+	 * Packs are ordered by object count. The largest packs are kept as long as
+	 * each holds at least {@link #setGeometricFactor(int) factor} times the
+	 * objects of the next smaller one; all packs below that point are
+	 * rewritten into a single new pack. The number of packs therefore grows
+	 * only logarithmically with the number of objects, while each repack
+	 * copies just the recently added objects. Deltas already stored in the
+	 * merged packs are copied as-is.
+	 * <p>
+	 * Loose objects and references are left alone, and no object is pruned.
+	 * Packs with a <code>.keep</code> file are never merged.
+	 *
+	 * @return the new pack; null if the packs already form a progression.
+	 * @throws IOException
+	 *             the packs cannot be read, or the new pack cannot be written.
+	 *             Nothing is deleted if the pack was not written.
+	 */
+	public PackFile repackGeometric() throws IOException {
+		final List<PackFile> packs = new ArrayList<PackFile>();
+		for (final PackFile p : odb.listPacks()) {
+			if (!isKept(p))
+				packs.add(p);
+		}
+
+		final int n = packs.size();
+		final PackFile[] sorted = packs.toArray(new PackFile[n]);
+		final long[] cnt = new long[n];
+		sortByObjectCount(sorted, cnt);
+
+		// Find the largest pack breaking the progression; it and all smaller
+		// packs are merged. The merged pack may itself be too large for the
+		// packs above it, in which case they are rolled in too.
+		//
+		int split = 0;
+		for (int i = n - 1; 0 < i; i--) {
+			if (cnt[i] < geometricFactor * cnt[i - 1]) {
+				split = i + 1;
+				break;
+			}
+		}
+		long rolled = 0;
+		for (int i = 0; i < split; i++)
+			rolled += cnt[i];
+		while (split < n && cnt[split] < geometricFactor * rolled)
+			rolled += cnt[split++];
+		if (split < 2)
+			return null;
+
+		final List<PackFile> merged = new ArrayList<PackFile>(split);
+		for (int i = 0; i < split; i++)
+			merged.add(sorted[i]);
+		final PackFile pack = merge(merged);
+		odb.replacePacks(pack, merged);
+
+		if (odb.getMultiPackIndexFile().exists())
+			new MultiPackIndexWriter(repo).write(pm);
+		return pack;
+	}
+
+	private static void sortByObjectCount(final PackFile[] packs,
+			final long[] cnt) throws IOException {
+		for (int i = 0; i < packs.length; i++)
+			cnt[i] = packs[i].getObjectCount();
+		for (int i = 1; i < packs.length; i++) {
+			final PackFile p = packs[i];
+			final long c = cnt[i];
+			int j = i - 1;
+			for (; 0 <= j && c < cnt[j]; j--) {
+				packs[j + 1] = packs[j];
+				cnt[j + 1] = cnt[j];
+			}
+			packs[j + 1] = p;
+			cnt[j + 1] = c;
+		}
+	}
+
+	private PackFile merge(final List<PackFile> packs) throws IOException {
+		final RevWalk rw = new RevWalk(repo);
+		final RevFlag added = rw.newFlag("added");
+		final List<RevObject> objects = new ArrayList<RevObject>();
+		final WindowCursor curs = new WindowCursor(odb);
+		try {
+			for (final PackFile p : packs) {
+				for (final PackIndex.MutableEntry e : p) {
+					final int type = p.getObjectType(curs, e.getOffset());
+					final RevObject o = rw.lookupAny(e.toObjectId(), type);
+					if (!o.has(added)) {
+						o.add(added);
+						objects.add(o);
+					}
+				}
+			}
+		} finally {
+			curs.release();
+		}
+
+		final PackConfig cfg = new PackConfig(repo);
+		cfg.setReuseDeltas(true);
+		cfg.setReuseObjects(true);
+		final PackWriter pw = new PackWriter(cfg, repo.newObjectReader());
+		try {
+			pw.setDeltaBaseAsOffset(true);
+			pw.preparePack(objects.iterator());
+
+			final File packFile = writePack(pw);
+			final PackFile pack = findPack(packFile);
+			if (pack != null)
+				return pack;
+			return new PackFile(idxFor(packFile), packFile);
+		} finally {
+			pw.release();
+			rw.release();
+		}
+	}
+
+	/**
+	 * Move all loose references into the <code>packed-refs</code> file.
+	 * <p>
+	 * If the references are stored in a {@link ReftableDatabase}, its tables
+	 * are merged into one instead.
+	 *
+	 * @throws IOException
+	 *             the references cannot be read, or the file cannot be
+	 *             written.
+	 */
+	public void packRefs() throws IOException {
+		if (repo.getRefDatabase() instanceof ReftableDatabase) {
+			((ReftableDatabase) repo.getRefDatabase()).compact();
+			return;
+		}
+
+		final Collection<Ref> refs = repo.getRefDatabase().getRefs(
+				Constants.R_REFS).values();
+		final List<String> names = new ArrayList<String>(refs.size());
+		for (final Ref ref : refs) {
+			if (!ref.isSymbolic() && ref.getStorage().isLoose())
+				names.add(ref.getName());
+		}
+		((RefDirectory) repo.getRefDatabase()).pack(names);
+	}
+
+	private Set<ObjectId> listRoots() throws IOException {
+		final Set<ObjectId> roots = new HashSet<ObjectId>();
+		final Set<String> logs = new HashSet<String>();
+		logs.add(Constants.HEAD);
+		final Map<String, Ref> refs = repo.getRefDatabase().getRefs(
+				RefDatabase.ALL);
+		for (final Ref ref : refs.values()) {
+			if (ref.getObjectId() != null)
+				roots.add(ref.getObjectId());
+			logs.add(ref.getName());
+		}
+
+		for (final String name : logs) {
+			final ReflogReader log = repo.getReflogReader(name);
+			if (log == null)
+				continue;
+			for (final ReflogReader.Entry e : log.getReverseEntries()) {
+				roots.add(e.getOldId());
+				roots.add(e.getNewId());
+			}
+		}
+
+		if (!repo.isBare()) {
+			final DirCache dc = repo.readDirCache();
+			for (int i = 0; i < dc.getEntryCount(); i++) {
+				final DirCacheEntry ent = dc.getEntry(i);
+				if (ent.getFileMode() != FileMode.GITLINK)
+					roots.add(ent.getObjectId());
+			}
+		}
+
+		// Reflogs may name objects C Git already pruned. Such objects
+		// cannot be packed, and are no reason to fail the collection.
+		//
+		roots.remove(ObjectId.zeroId());
+		final ObjectReader reader = repo.newObjectReader();
+		try {
+			final List<ObjectId> missing = new ArrayList<ObjectId>();
+			for (final ObjectId id : roots) {
+				if (!reader.has(id))
+					missing.add(id);
+			}
+			roots.removeAll(missing);
+		} finally {
+			reader.release();
+		}
+		return roots;
+	}
+
+	private Set<ObjectId> listTips() throws IOException {
+		final Set<ObjectId> tips = new HashSet<ObjectId>();
+		for (final Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values()) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+		}
+		return tips;
+	}
+
+	private PackFile repack(final Set<ObjectId> roots) throws IOException {
+		final PackWriter pw = new PackWriter(repo);
+		try {
+			pw.setDeltaBaseAsOffset(true);
+			pw.preparePack(pm, roots, Collections.<ObjectId> emptySet());
+			if (pw.getObjectsNumber() == 0)
+				return null;
+
+			final File packFile = writePack(pw);
+			PackFile pack = findPack(packFile);
+			if (pack == null) {
+				odb.openPack(packFile, idxFor(packFile));
+				pack = findPack(packFile);
+			}
+			if (pack == null)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().notAValidPack, packFile));
+			return pack;
+		} finally {
+			pw.release();
+		}
+	}
+
+	/**
+	 * Write a prepared pack and its index into the pack directory.
+	 *
+	 * @param pw
+	 *            writer with the objects of the pack already selected.
+	 * @return location of the pack. If a pack of the same name existed, it is
+	 *         kept and the new one discarded.
+	 * @throws IOException
+	 *             the pack could not be written or moved into place.
+	 */
+	private File writePack(final PackWriter pw) throws IOException {
+		final File packDir = new File(odb.getDirectory(), "pack");
+		final File tmpPack = File.createTempFile("gc_", ".pack_tmp", packDir);
+		final File tmpIdx = new File(packDir, tmpPack.getName().substring(0,
+				tmpPack.getName().length() - 9)
+				+ ".idx_tmp");
+		final File tmpRev = new File(packDir, tmpPack.getName().substring(0,
+				tmpPack.getName().length() - 9)
+				+ ".rev_tmp");
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(
+					tmpPack));
+			try {
+				pw.writePack(pm, pm, out);
+			} finally {
+				out.close();
+			}
+
+			out = new BufferedOutputStream(new FileOutputStream(tmpIdx));
+			try {
+				pw.writeIndex(out);
+			} finally {
+				out.close();
+			}
+
+			if (repo.getConfig().get(CoreConfig.KEY).isWriteReverseIndex()) {
+				out = new BufferedOutputStream(new FileOutputStream(tmpRev));
+				try {
+					pw.writeReverseIndex(out);
+				} finally {
+					out.close();
+				}
+			}
+
+			final String name = "pack-" + pw.computeName().name();
+			final File finalPack = new File(packDir, name + ".pack");
+			final File finalIdx = new File(packDir, name + ".idx");
+			final File finalRev = new File(packDir, name + ".rev");
+			if (finalPack.exists())
+				return finalPack;
+
+			tmpPack.setReadOnly();
+			tmpIdx.setReadOnly();
+			if (!tmpPack.renameTo(finalPack))
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotMovePackTo, finalPack));
+			if (tmpRev.exists()) {
+				// The reverse index is optional; without it the pack sorts
+				// its offsets when first needed.
+				tmpRev.setReadOnly();
+				tmpRev.renameTo(finalRev);
+			}
+			if (!tmpIdx.renameTo(finalIdx)) {
+				if (!finalPack.delete())
+					finalPack.deleteOnExit();
+				finalRev.delete();
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotMoveIndexTo, finalIdx));
+			}
+			return finalPack;
+		} finally {
+			if (tmpPack.exists())
+				tmpPack.delete();
+			if (tmpIdx.exists())
+				tmpIdx.delete();
+			if (tmpRev.exists())
+				tmpRev.delete();
+		}
+	}
+
+	private PackFile findPack(final File packFile) {
+		for (final PackFile p : odb.listPacks()) {
+			if (p.getPackFile().equals(packFile))
+				return p;
+		}
+		return null;
+	}
+
+	private static File idxFor(final File packFile) {
+		final String name = packFile.getName();
+		return new File(packFile.getParentFile(), name.substring(0, name
+				.length() - 5)
+				+ ".idx");
+	}
+
+	private static boolean isKept(final PackFile pack) {
+		final File file = pack.getPackFile();
+		final String name = file.getName();
+		return new File(file.getParentFile(), name.substring(0,
+				name.length() - 5)
+				+ ".keep").exists();
+	}
+
+	/**
+	 * Find the unreachable objects which recent objects still need.
+	 * <p>
+	 * Recent loose objects and the objects of recent packs are not deleted, as
+	 * a concurrent process may be about to reference them, e.g. a push which
+	 * did not update its refs yet. So they are roots too: the older objects
+	 * they reference must survive the collection as well.
+	 *
+	 * @param oldPacks
+	 *            the packs present before the collection.
+	 * @param pack
+	 *            the pack holding all reachable objects; null if there is
+	 *            none.
+	 * @return objects reachable from recent objects, but not from the
+	 *         references, reflogs or index. Objects the walk finds missing
+	 *         are skipped.
+	 * @throws IOException
+	 *             the objects cannot be read.
+	 */
+	private Set<ObjectId> listRecentlyReferenced(final PackFile[] oldPacks,
+			final PackFile pack) throws IOException {
+		final List<ObjectId> todo = new ArrayList<ObjectId>();
+		for (final PackFile p : oldPacks) {
+			if (p == pack || p.getPackFile().lastModified() < expire)
+				continue;
+			for (final PackIndex.MutableEntry e : p) {
+				final ObjectId id = e.toObjectId();
+				if (pack == null || !pack.hasObject(id))
+					todo.add(id);
+			}
+		}
+		final File objects = odb.getDirectory();
+		for (int i = 0; i < 256; i++) {
+			final String d = String.format("%02x", Integer.valueOf(i));
+			final File dir = new File(objects, d);
+			final String[] entries = dir.list();
+			if (entries == null)
+				continue;
+			for (final String e : entries) {
+				if (ObjectId.isId(d + e)
+						&& expire <= new File(dir, e).lastModified())
+					todo.add(ObjectId.fromString(d + e));
+			}
+		}
+
+		// Everything the new pack holds is reachable, and so is everything
+		// it references; the walk stops there.
+		//
+		final Set<ObjectId> referenced = new HashSet<ObjectId>();
+		final RevWalk rw = new RevWalk(repo);
+		final TreeWalk tw = new TreeWalk(rw.getObjectReader());
+		try {
+			while (!todo.isEmpty()) {
+				final ObjectId id = todo.remove(todo.size() - 1);
+				if (referenced.contains(id)
+						|| (pack != null && pack.hasObject(id)))
+					continue;
+
+				final RevObject obj;
+				try {
+					obj = rw.parseAny(id);
+				} catch (MissingObjectException gone) {
+					continue;
+				}
+				referenced.add(obj.copy());
+
+				if (obj instanceof RevCommit) {
+					final RevCommit c = (RevCommit) obj;
+					todo.add(c.getTree());
+					for (final RevCommit parent : c.getParents())
+						todo.add(parent);
+				} else if (obj instanceof RevTag) {
+					todo.add(((RevTag) obj).getObject());
+				} else if (obj instanceof RevTree) {
+					tw.reset(obj);
+					while (tw.next()) {
+						if (tw.getRawMode(0) != FileMode.GITLINK.getBits())
+							todo.add(tw.getObjectId(0));
+					}
+				}
+			}
+		} finally {
+			rw.release();
+		}
+		return referenced;
+	}
+
+	private void deleteOldPacks(final PackFile[] oldPacks,
+			final PackFile pack, final Set<ObjectId> referenced)
+			throws IOException {
+		for (final PackFile p : oldPacks) {
+			if (p == pack || isKept(p))
+				continue;
+
+			// A recent pack may hold objects which are not reachable yet,
+			// e.g. pushed by a client which did not update its refs yet.
+			//
+			if (expire <= p.getPackFile().lastModified()
+					&& !isSuperseded(p, pack))
+				continue;
+			if (holdsAny(p, referenced))
+				continue;
+			odb.deletePack(p);
+		}
+	}
+
+	private static boolean holdsAny(final PackFile p,
+			final Set<ObjectId> ids) throws IOException {
+		for (final ObjectId id : ids) {
+			if (p.hasObject(id))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isSuperseded(final PackFile old, final PackFile pack)
+			throws IOException {
+		if (pack == null)
+			return false;
+		for (final PackIndex.MutableEntry e : old) {
+			if (!pack.hasObject(e.toObjectId()))
+				return false;
+		}
+		return true;
+	}
+
+	private void pruneLooseObjects(final Set<ObjectId> referenced) {
+		final File objects = odb.getDirectory();
+		pm.beginTask(JGitText.get().pruningLooseObjects, 256);
+		for (int i = 0; i < 256; i++) {
+			final String d = String.format("%02x", Integer.valueOf(i));
+			final File dir = new File(objects, d);
+			final String[] entries = dir.list();
+			if (entries != null) {
+				for (final String e : entries) {
+					if (!ObjectId.isId(d + e))
+						continue;
+
+					// Everything reachable was written into a pack above, so
+					// an object not found in any pack is unreachable.
+					//
+					final File f = new File(dir, e);
+					final ObjectId id = ObjectId.fromString(d + e);
+					if (odb.hasObject1(id)
+							|| (f.lastModified() < expire && !referenced
+									.contains(id)))
+						f.delete();
+				}
+				dir.delete(); // Only succeeds if the directory is empty.
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+		odb.resetLooseObjectCache();
+	}
+
+	/**
+	 * Count the objects and references of the repository.
+	 *
+	 * @return current statistics of the repository.
+	 * @throws IOException
+	 *             the references or pack indexes cannot be read.
+	 */
+	public RepoStatistics getStatistics() throws IOException {
+		final RepoStatistics s = new RepoStatistics();
+		for (final PackFile p : odb.listPacks()) {
+			s.packCount++;
+			s.packedObjectCount += p.getObjectCount();
+			s.packedSize += p.getPackFile().length();
+		}
+
+		final File objects = odb.getDirectory();
+		for (int i = 0; i < 256; i++) {
+			final String d = String.format("%02x", Integer.valueOf(i));
+			final File dir = new File(objects, d);
+			final String[] entries = dir.list();
+			if (entries == null)
+				continue;
+			for (final String e : entries) {
+				if (ObjectId.isId(d + e)) {
+					s.looseObjectCount++;
+					s.looseSize += new File(dir, e).length();
+				}
+			}
+		}
+
+		for (final Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values()) {
+			if (ref.isSymbolic())
+				continue;
+			if (ref.getStorage().isLoose())
+				s.looseRefCount++;
+			else if (ref.getStorage().isPacked())
+				s.packedRefCount++;
+		}
+		return s;
+	}
+
+	/** Number and size of the objects and references of a repository. */
+	public static class RepoStatistics {
+		long packCount;
+
+		long packedObjectCount;
+
+		long packedSize;
+
+		long looseObjectCount;
+
+		long looseSize;
+
+		long looseRefCount;
+
+		long packedRefCount;
+
+		RepoStatistics() {
+			// Filled in by GC.getStatistics().
+		}
+
+		/** @return number of packs. */
+		public long getPackCount() {
+			return packCount;
+		}
+
+		/** @return number of objects in all packs, counting duplicates. */
+		public long getPackedObjectCount() {
+			return packedObjectCount;
+		}
+
+		/** @return total size of all packs, in bytes. */
+		public long getPackedSize() {
+			return packedSize;
+		}
+
+		/** @return number of loose objects. */
+		public long getLooseObjectCount() {
+			return looseObjectCount;
+		}
+
+		/** @return total size of all loose objects, in bytes. */
+		public long getLooseSize() {
+			return looseSize;
+		}
+
+		/** @return number of references stored as loose files. */
+		public long getLooseRefCount() {
+			return looseRefCount;
+		}
+
+		/** @return number of references stored only in packed-refs. */
+		public long getPackedRefCount() {
+			return packedRefCount;
+		}
+
+		@Override
+		public String toString() {
+			return "RepoStatistics[packs=" + packCount + ", packedObjects="
+					+ packedObjectCount + ", packedSize=" + packedSize
+					+ ", looseObjects=" + looseObjectCount + ", looseSize="
+					+ looseSize + ", looseRefs=" + looseRefCount
+					+ ", packedRefs=" + packedRefCount + "]";
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Cached listings of the loose object directories of an
+ * {@link ObjectDirectory}.
+ * <p>
+ * Testing for an object that is not stored loose normally costs a failing
+ * stat of its file. With this cache the names found in each of the 256
+ * <code>objects/xx</code> directories are kept in memory, and a lookup is a
+ * hash table probe. A listing is read again when the modification time of its
+ * directory changes. To avoid a stat per lookup, the modification time is
+ * checked at most once every {@link #RECHECK_INTERVAL} milliseconds, so an
+ * object written by another process may take that long to be seen. Objects
+ * written through this directory's inserter are added to the listing
+ * immediately.
+ */
+class LooseObjectCache {
+	/** Minimum time between two checks of a directory, in milliseconds. */
+	static final long RECHECK_INTERVAL = 1000;
+
+	/**
+	 * Time after which a modification of a directory changes its modification
+	 * time, on file systems with a coarse timestamp resolution.
+	 */
+	private static final long RACY_INTERVAL = 2000;
+
+	private final File objects;
+
+	private final AtomicReferenceArray<Listing> listings;
+
+	/**
+	 * Create an empty cache.
+	 *
+	 * @param objects
+	 *            the <code>objects</code> directory.
+	 */
+	LooseObjectCache(final File objects) {
+		this.objects = objects;
+		this.listings = new AtomicReferenceArray<Listing>(256);
+	}
+
+	/**
+	 * Determine if a loose object exists.
+	 *
+	 * @param objectName
+	 *            name of the object, in hex.
+	 * @return true if the object's file was found in its directory listing.
+	 */
+	boolean contains(final String objectName) {
+		final int idx = Integer.parseInt(objectName.substring(0, 2), 16);
+		return getListing(idx, objectName.substring(0, 2)).names
+				.containsKey(objectName.substring(2));
+	}
+
+	/**
+	 * List the loose objects of one directory.
+	 *
+	 * @param idx
+	 *            first byte of the object names, selecting the directory.
+	 * @param dirName
+	 *            name of the directory, the first byte in hex.
+	 * @return names of the object files, without the directory name.
+	 */
+	Set<String> list(final int idx, final String dirName) {
+		return getListing(idx, dirName).names.keySet();
+	}
+
+	/**
+	 * Record an object written into the directory.
+	 *
+	 * @param objectName
+	 *            name of the object, in hex.
+	 */
+	void add(final String objectName) {
+		final int idx = Integer.parseInt(objectName.substring(0, 2), 16);
+		final String name = objectName.substring(2);
+		Listing o;
+		do {
+			o = listings.get(idx);
+			if (o == null)
+				return; // The directory is listed on its first use.
+			o.names.put(name, Boolean.TRUE);
+		} while (listings.get(idx) != o);
+	}
+
+	private Listing getListing(final int idx, final String dirName) {
+		final Listing o = listings.get(idx);
+		final long now = System.currentTimeMillis();
+		if (o != null && now - o.lastChecked < RECHECK_INTERVAL)
+			return o;
+
+		final File dir = new File(objects, dirName);
+		final long modified = dir.lastModified();
+		if (o != null && o.lastModified == modified
+				&& RACY_INTERVAL < o.lastRead - modified) {
+			o.lastChecked = now;
+			return o;
+		}
+
+		final Listing n = new Listing(modified, now, now, list(dir));
+		listings.compareAndSet(idx, o, n);
+		return n;
+	}
+
+	private static ConcurrentHashMap<String, Boolean> list(final File dir) {
+		String[] entries = dir.list();
+		if (entries == null)
+			entries = new String[0];
+		final ConcurrentHashMap<String, Boolean> names;
+		names = new ConcurrentHashMap<String, Boolean>(entries.length << 1);
+		for (final String e : entries) {
+			if (e.length() == Constants.OBJECT_ID_STRING_LENGTH - 2)
+				names.put(e, Boolean.TRUE);
+		}
+		return names;
+	}
+
+	private static final class Listing {
+		/** Modification time of the directory when it was read. */
+		final long lastModified;
+
+		/** Wall-clock time the directory was read. */
+		final long lastRead;
+
+		/** Wall-clock time the modification time was last compared. */
+		volatile long lastChecked;
+
+		/** Names of the object files, without the directory name. */
+		final ConcurrentHashMap<String, Boolean> names;
+
+		Listing(final long lastModified, final long lastRead,
+				final long lastChecked,
+				final ConcurrentHashMap<String, Boolean> names) {
+			this.lastModified = lastModified;
+			this.lastRead = lastRead;
+			this.lastChecked = lastChecked;
+			this.names = names;
+		}
+	}
+}
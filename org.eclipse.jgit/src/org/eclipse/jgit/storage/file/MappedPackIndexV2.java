@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the pack index v2 format, searched in a memory mapped file.
+ * <p>
+ * Unlike {@link PackIndexV2} nothing but the pack checksum is copied onto the
+ * heap when the index is opened. The fan-out table, the object names, the
+ * CRC-32 and the offset tables are all read from the mapping as they are
+ * needed, so the cost of opening an index does not depend on the number of
+ * objects it holds, and the pages of an index that is rarely searched can be
+ * dropped by the operating system.
+ * <p>
+ * The buffer is only read through absolute positions, so an instance may be
+ * shared by concurrent readers.
+ */
+class MappedPackIndexV2 extends PackIndex {
+	private static final int IS_O64 = 1 << 31;
+
+	private static final int FANOUT = 256;
+
+	/** Position of the fan-out table, after the header. */
+	private static final int FANOUT_OFFSET = 8;
+
+	/** Position of the object name table. */
+	private static final int NAME_OFFSET = FANOUT_OFFSET + FANOUT * 4;
+
+	private final ByteBuffer buf;
+
+	private final int objectCnt;
+
+	private final int crc32;
+
+	private final int offset32;
+
+	private final int offset64;
+
+	private final int offset64Cnt;
+
+	MappedPackIndexV2(final ByteBuffer buf) throws IOException {
+		this.buf = buf;
+
+		final long cnt = fanout(FANOUT - 1) & 0xffffffffL;
+		final long tables = NAME_OFFSET + cnt
+				* (Constants.OBJECT_ID_LENGTH + 4 + 4);
+		final long trailer = buf.limit() - 2 * Constants.OBJECT_ID_LENGTH;
+		if (trailer < tables || (trailer - tables) % 8 != 0)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().packIndexHasInvalidSize, Long.valueOf(buf
+							.limit()), Long.valueOf(cnt)));
+
+		objectCnt = (int) cnt;
+		crc32 = NAME_OFFSET + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32 = crc32 + objectCnt * 4;
+		offset64 = offset32 + objectCnt * 4;
+		offset64Cnt = (int) ((trailer - tables) / 8);
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < packChecksum.length; i++)
+			packChecksum[i] = buf.get((int) trailer + i);
+	}
+
+	@Override
+	long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	long getFanout(final int levelOne) {
+		return fanout(levelOne) & 0xffffffffL;
+	}
+
+	@Override
+	long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	ObjectId getObjectId(final long nthPosition) {
+		final int p = NAME_OFFSET + (int) nthPosition
+				* Constants.OBJECT_ID_LENGTH;
+		return ObjectId.fromRaw(new int[] { buf.getInt(p), buf.getInt(p + 4),
+				buf.getInt(p + 8), buf.getInt(p + 12), buf.getInt(p + 16) });
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		return offsetAt((int) nthPosition);
+	}
+
+	@Override
+	long findOffset(final AnyObjectId objId) {
+		final int pos = search(objId);
+		if (pos < 0)
+			return -1;
+		return offsetAt(pos);
+	}
+
+	@Override
+	long findPosition(final AnyObjectId objId) {
+		return search(objId);
+	}
+
+	@Override
+	long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		final int pos = search(objId);
+		if (pos < 0)
+			throw new MissingObjectException(objId.copy(), "unknown");
+		return buf.getInt(crc32 + pos * 4) & 0xffffffffL;
+	}
+
+	@Override
+	boolean hasCRC32Support() {
+		return true;
+	}
+
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIterator() {
+			private int pos;
+
+			@Override
+			protected MutableEntry initEntry() {
+				return new MutableEntry() {
+					protected void ensureId() {
+						final int p = NAME_OFFSET + (pos - 1)
+								* Constants.OBJECT_ID_LENGTH;
+						idBuffer.fromRaw(new int[] { buf.getInt(p),
+								buf.getInt(p + 4), buf.getInt(p + 8),
+								buf.getInt(p + 12), buf.getInt(p + 16) });
+					}
+				};
+			}
+
+			public MutableEntry next() {
+				if (objectCnt <= pos)
+					throw new NoSuchElementException();
+				entry.offset = offsetAt(pos++);
+				returnedNumber++;
+				return entry;
+			}
+		};
+	}
+
+	private int fanout(final int levelOne) {
+		return buf.getInt(FANOUT_OFFSET + levelOne * 4);
+	}
+
+	private long offsetAt(final int pos) {
+		final int p = buf.getInt(offset32 + pos * 4);
+		if ((p & IS_O64) != 0)
+			return buf.getLong(offset64 + (p & ~IS_O64) * 8);
+		return p & 0xffffffffL;
+	}
+
+	/** @return position of the object in the name table; -1 if absent. */
+	private int search(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? fanout(levelOne - 1) : 0;
+		int high = fanout(levelOne);
+		if (low == high)
+			return -1;
+
+		final int[] w = new int[Constants.OBJECT_ID_LENGTH / 4];
+		objId.copyRawTo(w, 0);
+		do {
+			final int mid = (low + high) >>> 1;
+			final int p = NAME_OFFSET + mid * Constants.OBJECT_ID_LENGTH;
+			int cmp = NB.compareUInt32(w[0], buf.getInt(p));
+			if (cmp == 0) {
+				cmp = NB.compareUInt32(w[1], buf.getInt(p + 4));
+				if (cmp == 0) {
+					cmp = NB.compareUInt32(w[2], buf.getInt(p + 8));
+					if (cmp == 0) {
+						cmp = NB.compareUInt32(w[3], buf.getInt(p + 12));
+						if (cmp == 0)
+							cmp = NB.compareUInt32(w[4], buf.getInt(p + 16));
+					}
+				}
+			}
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+}
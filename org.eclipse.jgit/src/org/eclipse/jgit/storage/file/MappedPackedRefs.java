@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_STRING_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * A <code>packed-refs</code> file mapped into memory.
+ * <p>
+ * If the header of the file declares its records as sorted, a single
+ * reference, or all references below a prefix, are found by a binary search
+ * over the mapped bytes. Only the records returned are parsed, so a lookup in
+ * a file of several hundred thousand references costs a few dozen line
+ * comparisons instead of a parse of the entire file.
+ * <p>
+ * The buffer is only read through absolute positions, so an instance may be
+ * shared by concurrent readers.
+ */
+final class MappedPackedRefs {
+	/**
+	 * Map a packed-refs file.
+	 *
+	 * @param file
+	 *            the file to map.
+	 * @return the mapped file; null if it does not exist.
+	 * @throws IOException
+	 *             the file cannot be mapped.
+	 */
+	static MappedPackedRefs open(final File file) throws IOException {
+		final FileInputStream in;
+		try {
+			in = new FileInputStream(file);
+		} catch (FileNotFoundException noPackedRefs) {
+			return null;
+		}
+		try {
+			final long size = in.getChannel().size();
+			return new MappedPackedRefs(in.getChannel().map(MapMode.READ_ONLY,
+					0, size));
+		} finally {
+			in.close();
+		}
+	}
+
+	private final ByteBuffer buf;
+
+	private final int end;
+
+	/** Offset of the first record, after the header lines. */
+	private final int start;
+
+	private final boolean peeled;
+
+	private final boolean sorted;
+
+	MappedPackedRefs(final ByteBuffer buf) {
+		this.buf = buf;
+		this.end = buf.limit();
+
+		int ptr = 0;
+		boolean p = false;
+		boolean s = false;
+		while (ptr < end && buf.get(ptr) == '#') {
+			final int eol = nextLine(ptr);
+			final String line = decode(ptr, eol);
+			if (line.startsWith(RefDirectory.PACKED_REFS_HEADER)) {
+				final String traits = line.substring(
+						RefDirectory.PACKED_REFS_HEADER.length()) + ' ';
+				p = traits.contains(RefDirectory.PACKED_REFS_PEELED + ' ');
+				s = traits.contains(RefDirectory.PACKED_REFS_SORTED + ' ');
+			}
+			ptr = eol;
+		}
+		start = ptr;
+		peeled = p;
+		sorted = s;
+	}
+
+	/**
+	 * @return true if the records are declared to be sorted by name, so they
+	 *         can be searched without parsing the whole file.
+	 */
+	boolean isSorted() {
+		return sorted;
+	}
+
+	/**
+	 * Find a single reference.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return the reference; null if the file does not contain it.
+	 * @throws IOException
+	 *             the file is corrupt.
+	 */
+	Ref get(final String name) throws IOException {
+		final int ptr = lowerBound(name);
+		if (ptr < end && name.equals(nameAt(ptr)))
+			return parse(ptr, nextLine(ptr));
+		return null;
+	}
+
+	/**
+	 * Read all references whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *            the prefix, e.g. <code>refs/heads/</code>.
+	 * @return the references, sorted by name.
+	 * @throws IOException
+	 *             the file is corrupt.
+	 */
+	RefList<Ref> getPrefix(final String prefix) throws IOException {
+		final RefList.Builder<Ref> refs = new RefList.Builder<Ref>();
+		int ptr = lowerBound(prefix);
+		while (ptr < end) {
+			final int eol = nextLine(ptr);
+			if (!decode(ptr + OBJECT_ID_STRING_LENGTH + 1, eol).startsWith(
+					prefix))
+				break;
+			refs.add(parse(ptr, eol));
+			ptr = nextRecord(eol);
+		}
+		return refs.toRefList();
+	}
+
+	/**
+	 * Read every reference in the file.
+	 * <p>
+	 * If the file is not declared as sorted, the references are sorted after
+	 * reading them.
+	 *
+	 * @return all references, sorted by name.
+	 * @throws IOException
+	 *             the file is corrupt.
+	 */
+	RefList<Ref> getAll() throws IOException {
+		final RefList.Builder<Ref> refs = new RefList.Builder<Ref>();
+		Ref last = null;
+		boolean needSort = false;
+		int ptr = start;
+		while (ptr < end) {
+			if (buf.get(ptr) == '^')
+				throw new IOException(JGitText.get().peeledLineBeforeRef);
+			final int eol = nextLine(ptr);
+			if (buf.get(ptr) == '#') {
+				ptr = eol;
+				continue;
+			}
+			final Ref cur = parse(ptr, eol);
+			if (last != null && RefComparator.compareTo(last, cur) > 0)
+				needSort = true;
+			refs.add(cur);
+			last = cur;
+			ptr = nextRecord(eol);
+		}
+		if (needSort)
+			refs.sort();
+		return refs.toRefList();
+	}
+
+	/**
+	 * Find the first record whose name is not less than the given one.
+	 *
+	 * @return offset of the record; {@link #end} if all names are smaller.
+	 */
+	private int lowerBound(final String name) {
+		int lo = start;
+		int hi = end;
+		while (lo < hi) {
+			int mid = lineStart((lo + hi) >>> 1);
+			if (buf.get(mid) == '^')
+				mid = lineStart(mid - 1);
+
+			final int eol = nextLine(mid);
+			if (nameAt(mid, eol).compareTo(name) < 0)
+				lo = nextRecord(eol);
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private Ref parse(final int ptr, final int eol) throws IOException {
+		final ObjectId id = ObjectId.fromString(bytes(ptr,
+				OBJECT_ID_STRING_LENGTH), 0);
+		final String name = nameAt(ptr, eol);
+
+		if (eol < end && buf.get(eol) == '^') {
+			final ObjectId peeledId = ObjectId.fromString(bytes(eol + 1,
+					OBJECT_ID_STRING_LENGTH), 0);
+			return new ObjectIdRef.PeeledTag(PACKED, name, id, peeledId);
+		}
+		if (peeled)
+			return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+		return new ObjectIdRef.Unpeeled(PACKED, name, id);
+	}
+
+	private String nameAt(final int ptr) {
+		return nameAt(ptr, nextLine(ptr));
+	}
+
+	private String nameAt(final int ptr, final int eol) {
+		return decode(ptr + OBJECT_ID_STRING_LENGTH + 1, eol);
+	}
+
+	/** @return decoded text between the offsets, without a line feed. */
+	private String decode(final int ptr, int eol) {
+		if (ptr < eol && buf.get(eol - 1) == '\n')
+			eol--;
+		if (eol <= ptr)
+			return "";
+		return RawParseUtils.decode(Constants.CHARSET, bytes(ptr, eol - ptr),
+				0, eol - ptr);
+	}
+
+	private byte[] bytes(final int ptr, final int len) {
+		final byte[] b = new byte[len];
+		for (int i = 0; i < len; i++)
+			b[i] = buf.get(ptr + i);
+		return b;
+	}
+
+	/** @return offset of the line after the one holding ptr. */
+	private int nextLine(int ptr) {
+		while (ptr < end && buf.get(ptr++) != '\n') {
+			// Skip to the end of the line.
+		}
+		return ptr;
+	}
+
+	/** @return offset of the start of the line holding ptr. */
+	private int lineStart(int ptr) {
+		while (start < ptr && buf.get(ptr - 1) != '\n')
+			ptr--;
+		return ptr;
+	}
+
+	/** @return offset of the next record, skipping a peeled line at ptr. */
+	private int nextRecord(final int ptr) {
+		if (ptr < end && buf.get(ptr) == '^')
+			return nextLine(ptr);
+		return ptr;
+	}
+}
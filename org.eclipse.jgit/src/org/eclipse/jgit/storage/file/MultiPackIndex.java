@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * The <code>objects/pack/jgit-multi-pack-index</code> file of a repository.
+ * <p>
+ * The format is JGit's own. It is kept apart from the multi-pack-index file
+ * of C Git, which uses a different, chunked layout.
+ * <p>
+ * The file lists the objects of many packs in a single sorted table, so an
+ * object can be located with one binary search instead of one search in the
+ * index of every pack. It starts with a header holding the signature, the
+ * version, the number of packs and the number of objects, followed by the
+ * names of the covered packs (the SHA-1 in their file name). Then come a 256
+ * entry fan-out table, the sorted object names, the position of the pack
+ * holding each object in the pack name table, and the offset of each object
+ * in that pack. Offsets which do not fit in 31 bits have their most
+ * significant bit set, and the remaining bits index a table of 64 bit offsets
+ * following the 32 bit ones, as in a version 2 pack index. A SHA-1 of
+ * everything before it ends the file.
+ * <p>
+ * An object present in several packs is listed only once, in the most recent
+ * of these packs.
+ *
+ * @see MultiPackIndexWriter
+ */
+class MultiPackIndex {
+	/** Name of the file within the pack directory. */
+	static final String FILE_NAME = "jgit-multi-pack-index";
+
+	/** Magic constant at the start of every multi-pack index file. */
+	static final byte[] SIGNATURE = { 'J', 'M', 'I', 'X' };
+
+	/** Current (and only) version of the file format. */
+	static final int VERSION = 1;
+
+	/** Size of the header, before the pack names. */
+	static final int HEADER_SIZE = 16;
+
+	/** Size of the fan-out table. */
+	static final int FANOUT_SIZE = 256 * 4;
+
+	/** Flag of a 32 bit offset pointing into the 64 bit offset table. */
+	static final int IS_O64 = 0x80000000;
+
+	/**
+	 * Read an existing multi-pack index.
+	 *
+	 * @param file
+	 *            the multi-pack-index file.
+	 * @return the index.
+	 * @throws IOException
+	 *             the file cannot be read or is corrupt.
+	 */
+	static MultiPackIndex open(final File file) throws IOException {
+		try {
+			final long modified = file.lastModified();
+			final MultiPackIndex m = new MultiPackIndex(IO.readFully(file));
+			m.lastModified = modified;
+			return m;
+		} catch (IOException ioe) {
+			final String path = file.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(
+					JGitText.get().unreadableMultiPackIndex, path));
+			err.initCause(ioe);
+			throw err;
+		}
+	}
+
+	private final byte[] buf;
+
+	private final String[] packNames;
+
+	private final int objectCount;
+
+	private final int[] fanout;
+
+	private final int idOffset;
+
+	private final int packOffset;
+
+	private final int offset32;
+
+	private final int offset64;
+
+	private long lastModified;
+
+	private MultiPackIndex(final byte[] buf) throws IOException {
+		final int trailer = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (trailer < HEADER_SIZE)
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+		for (int i = 0; i < SIGNATURE.length; i++)
+			if (buf[i] != SIGNATURE[i])
+				throw new IOException(JGitText.get().notAMultiPackIndex);
+
+		final int version = NB.decodeInt32(buf, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion, version));
+
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(buf, 0, trailer);
+		final byte[] sum = md.digest();
+		for (int i = 0; i < sum.length; i++)
+			if (sum[i] != buf[trailer + i])
+				throw new IOException(
+						JGitText.get().multiPackIndexChecksumMismatch);
+
+		final int packCount = NB.decodeInt32(buf, 8);
+		objectCount = NB.decodeInt32(buf, 12);
+		if (packCount < 0 || objectCount < 0)
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+
+		final int fanoutOffset = HEADER_SIZE + packCount
+				* Constants.OBJECT_ID_LENGTH;
+		idOffset = fanoutOffset + FANOUT_SIZE;
+		packOffset = idOffset + objectCount * Constants.OBJECT_ID_LENGTH;
+		offset32 = packOffset + objectCount * 4;
+		offset64 = offset32 + objectCount * 4;
+		if (trailer < offset64 || (trailer - offset64) % 8 != 0)
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+
+		packNames = new String[packCount];
+		for (int i = 0; i < packCount; i++) {
+			final String n = ObjectId.fromRaw(buf,
+					HEADER_SIZE + i * Constants.OBJECT_ID_LENGTH).name();
+			packNames[i] = "pack-" + n + ".pack";
+		}
+
+		fanout = new int[256];
+		for (int k = 0; k < 256; k++)
+			fanout[k] = NB.decodeInt32(buf, fanoutOffset + k * 4);
+		if (fanout[255] != objectCount)
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+
+		this.buf = buf;
+	}
+
+	/**
+	 * Determine if the file was replaced since this index was read.
+	 *
+	 * @param file
+	 *            location the index was read from.
+	 * @return true if the file was modified or deleted.
+	 */
+	boolean isModified(final File file) {
+		return file.lastModified() != lastModified
+				|| file.length() != buf.length;
+	}
+
+	/** @return number of packs covered by the index. */
+	int getPackCount() {
+		return packNames.length;
+	}
+
+	/**
+	 * @param pack
+	 *            position of the pack in the index.
+	 * @return file name of the pack, within the pack directory.
+	 */
+	String getPackName(final int pack) {
+		return packNames[pack];
+	}
+
+	/** @return number of objects in the index. */
+	int getObjectCount() {
+		return objectCount;
+	}
+
+	/**
+	 * Locate an object in the index.
+	 *
+	 * @param id
+	 *            the object to find.
+	 * @return position of the object in the index; -1 if it is not in any
+	 *         of the covered packs.
+	 */
+	int findPosition(final AnyObjectId id) {
+		final int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanout[levelOne - 1];
+		int high = fanout[levelOne];
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(buf, idOffset + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the objects of the covered packs matching an abbreviation.
+	 *
+	 * @param matches
+	 *            set to add the located ObjectIds to.
+	 * @param id
+	 *            prefix to search for.
+	 * @param matchLimit
+	 *            stop adding once the set holds this many ObjectIds.
+	 */
+	void resolve(final Set<ObjectId> matches, final AbbreviatedObjectId id,
+			final int matchLimit) {
+		final int first = id.getFirstByte();
+		final int last = id.length() >= 2 ? first
+				: first | (0xff >>> (id.length() * 4));
+		int low = first == 0 ? 0 : fanout[first - 1];
+		final int high = fanout[last];
+		final MutableObjectId tmp = new MutableObjectId();
+
+		int end = high;
+		while (low < end) {
+			final int mid = (low + end) >>> 1;
+			getObjectId(mid, tmp);
+			if (id.prefixCompare(tmp) > 0)
+				low = mid + 1;
+			else
+				end = mid;
+		}
+
+		for (int p = low; p < high && matches.size() < matchLimit; p++) {
+			getObjectId(p, tmp);
+			if (id.prefixCompare(tmp) != 0)
+				break;
+			matches.add(tmp.toObjectId());
+		}
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object in the index.
+	 * @param dst
+	 *            receives the name of the object.
+	 */
+	void getObjectId(final int pos, final MutableObjectId dst) {
+		dst.fromRaw(buf, idOffset + pos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object in the index.
+	 * @return position of the pack holding the object.
+	 */
+	int getPack(final int pos) {
+		return NB.decodeInt32(buf, packOffset + pos * 4);
+	}
+
+	/**
+	 * @param pos
+	 *            position of the object in the index.
+	 * @return offset of the object in its pack.
+	 */
+	long getOffset(final int pos) {
+		final int o = NB.decodeInt32(buf, offset32 + pos * 4);
+		if ((o & IS_O64) == 0)
+			return o;
+		return NB.decodeUInt64(buf, offset64 + (o & ~IS_O64) * 8);
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the multi-pack index of a repository.
+ * <p>
+ * The index covers every pack of the repository's object directory, and is
+ * stored in <code>objects/pack/jgit-multi-pack-index</code>, where
+ * {@link ObjectDirectory} will find it. Packs created after the index was
+ * written are searched on their own, so the index only needs to be updated
+ * from time to time, for example after a few pushes were received.
+ * <p>
+ * Updates are incremental: if every pack covered by the existing index still
+ * exists, its table is merged with the indexes of the new packs only, instead
+ * of reading the index of every pack again.
+ */
+public class MultiPackIndexWriter {
+	private final FileRepository repo;
+
+	/**
+	 * Create a writer for the multi-pack index of a repository.
+	 *
+	 * @param repo
+	 *            repository whose packs are indexed.
+	 */
+	public MultiPackIndexWriter(final FileRepository repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Compute and store the multi-pack index of the repository.
+	 *
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @throws IOException
+	 *             a pack index cannot be read, or the multi-pack index cannot
+	 *             be written.
+	 */
+	public void write(final ProgressMonitor pm) throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final File file = odb.getMultiPackIndexFile();
+		final LockFile lf = new LockFile(file, repo.getFS());
+		if (!lf.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			final OutputStream out = lf.getOutputStream();
+			try {
+				writeTo(out, pm);
+			} finally {
+				out.close();
+			}
+			if (!lf.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, file));
+		} finally {
+			lf.unlock();
+		}
+		odb.resetMultiPackIndex();
+	}
+
+	/**
+	 * Compute the multi-pack index and write it to a stream.
+	 * <p>
+	 * After writing the stream is flushed but remains open. Callers are always
+	 * responsible for closing the output stream.
+	 *
+	 * @param dst
+	 *            stream the index is written to.
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @throws IOException
+	 *             a pack index cannot be read, or the stream cannot be written
+	 *             to.
+	 */
+	public void writeTo(final OutputStream dst, final ProgressMonitor pm)
+			throws IOException {
+		final ObjectDirectory odb = repo.getObjectDatabase();
+		final PackFile[] packs = odb.listPacks();
+		final Map<String, Integer> rank = new HashMap<String, Integer>();
+		for (int i = 0; i < packs.length; i++)
+			rank.put(packs[i].getPackFile().getName(), Integer.valueOf(i));
+
+		final List<Source> sources = new ArrayList<Source>();
+		final boolean[] covered = new boolean[packs.length];
+		final MultiPackIndex old = readOld(odb.getMultiPackIndexFile(), rank);
+		if (old != null) {
+			final int[] map = new int[old.getPackCount()];
+			for (int i = 0; i < map.length; i++) {
+				map[i] = rank.get(old.getPackName(i)).intValue();
+				covered[map[i]] = true;
+			}
+			sources.add(new OldIndexSource(old, map));
+		}
+		for (int i = 0; i < packs.length; i++) {
+			if (!covered[i])
+				sources.add(new PackSource(i, packs[i].idx()));
+		}
+
+		int max = 0;
+		for (final Source s : sources)
+			max += s.getObjectCount();
+		final Table table = merge(sources, max, pm);
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] tmp = new byte[16];
+		out.write(MultiPackIndex.SIGNATURE);
+		NB.encodeInt32(tmp, 0, MultiPackIndex.VERSION);
+		NB.encodeInt32(tmp, 4, packs.length);
+		NB.encodeInt32(tmp, 8, table.count);
+		out.write(tmp, 0, 12);
+		for (final PackFile p : packs) {
+			final String name = p.getPackFile().getName();
+			ObjectId.fromString(name.substring(5, 45)).copyRawTo(out);
+		}
+		table.writeTo(out);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	/**
+	 * Read the existing index, if it can be updated incrementally.
+	 * <p>
+	 * An object present in several packs is recorded only once, so once a
+	 * covered pack is deleted, the index no longer knows which other packs
+	 * hold its objects, and must be computed from scratch.
+	 */
+	private static MultiPackIndex readOld(final File file,
+			final Map<String, Integer> rank) {
+		if (!file.isFile())
+			return null;
+		final MultiPackIndex old;
+		try {
+			old = MultiPackIndex.open(file);
+		} catch (IOException damaged) {
+			return null;
+		}
+		for (int i = 0; i < old.getPackCount(); i++) {
+			if (!rank.containsKey(old.getPackName(i)))
+				return null;
+		}
+		return old;
+	}
+
+	private static Table merge(final List<Source> sources, final int max,
+			final ProgressMonitor pm) throws IOException {
+		pm.beginTask(JGitText.get().buildingMultiPackIndex, max);
+		final PriorityQueue<Source> queue = new PriorityQueue<Source>(Math
+				.max(1, sources.size()));
+		for (final Source s : sources) {
+			if (s.next())
+				queue.add(s);
+		}
+
+		// Sources are sorted by object name, and for the same name by the
+		// rank of their pack, so only the first, most recent, copy of an
+		// object is kept.
+		//
+		final Table table = new Table(max);
+		while (!queue.isEmpty()) {
+			final Source s = queue.poll();
+			if (!table.isLast(s.id))
+				table.add(s.id, s.pack, s.offset);
+			if (s.next())
+				queue.add(s);
+			pm.update(1);
+		}
+		pm.endTask();
+		return table;
+	}
+
+	private static class Table {
+		private final byte[] ids;
+
+		private final int[] packs;
+
+		private final long[] offsets;
+
+		int count;
+
+		Table(final int max) {
+			ids = new byte[max * Constants.OBJECT_ID_LENGTH];
+			packs = new int[max];
+			offsets = new long[max];
+		}
+
+		boolean isLast(final MutableObjectId id) {
+			return 0 < count
+					&& id.compareTo(ids, (count - 1)
+							* Constants.OBJECT_ID_LENGTH) == 0;
+		}
+
+		void add(final MutableObjectId id, final int pack, final long offset) {
+			id.copyRawTo(ids, count * Constants.OBJECT_ID_LENGTH);
+			packs[count] = pack;
+			offsets[count] = offset;
+			count++;
+		}
+
+		void writeTo(final OutputStream out) throws IOException {
+			final byte[] tmp = new byte[8];
+			final int[] fanout = new int[256];
+			for (int i = 0; i < count; i++)
+				fanout[ids[i * Constants.OBJECT_ID_LENGTH] & 0xff]++;
+			for (int k = 1; k < 256; k++)
+				fanout[k] += fanout[k - 1];
+			for (int k = 0; k < 256; k++) {
+				NB.encodeInt32(tmp, 0, fanout[k]);
+				out.write(tmp, 0, 4);
+			}
+
+			out.write(ids, 0, count * Constants.OBJECT_ID_LENGTH);
+			for (int i = 0; i < count; i++) {
+				NB.encodeInt32(tmp, 0, packs[i]);
+				out.write(tmp, 0, 4);
+			}
+
+			int o64 = 0;
+			for (int i = 0; i < count; i++) {
+				final long o = offsets[i];
+				if (o <= Integer.MAX_VALUE)
+					NB.encodeInt32(tmp, 0, (int) o);
+				else
+					NB.encodeInt32(tmp, 0, MultiPackIndex.IS_O64 | o64++);
+				out.write(tmp, 0, 4);
+			}
+			for (int i = 0; i < count; i++) {
+				final long o = offsets[i];
+				if (Integer.MAX_VALUE < o) {
+					NB.encodeInt64(tmp, 0, o);
+					out.write(tmp, 0, 8);
+				}
+			}
+		}
+	}
+
+	/** Sorted stream of the objects of one or more packs. */
+	private static abstract class Source implements Comparable<Source> {
+		final MutableObjectId id = new MutableObjectId();
+
+		int pack;
+
+		long offset;
+
+		abstract int getObjectCount();
+
+		/** @return true if the next object was loaded into the fields. */
+		abstract boolean next();
+
+		public int compareTo(final Source o) {
+			final int cmp = id.compareTo(o.id);
+			return cmp != 0 ? cmp : pack - o.pack;
+		}
+	}
+
+	private static class PackSource extends Source {
+		private final PackIndex idx;
+
+		private final Iterator<PackIndex.MutableEntry> entries;
+
+		PackSource(final int pack, final PackIndex idx) {
+			this.pack = pack;
+			this.idx = idx;
+			this.entries = idx.iterator();
+		}
+
+		int getObjectCount() {
+			return (int) idx.getObjectCount();
+		}
+
+		boolean next() {
+			if (!entries.hasNext())
+				return false;
+			final PackIndex.MutableEntry e = entries.next();
+			e.ensureId();
+			id.fromObjectId(e.idBuffer);
+			offset = e.offset;
+			return true;
+		}
+	}
+
+	private static class OldIndexSource extends Source {
+		private final MultiPackIndex idx;
+
+		private final int[] packMap;
+
+		private int pos = -1;
+
+		OldIndexSource(final MultiPackIndex idx, final int[] packMap) {
+			this.idx = idx;
+			this.packMap = packMap;
+		}
+
+		int getObjectCount() {
+			return idx.getObjectCount();
+		}
+
+		boolean next() {
+			if (++pos == idx.getObjectCount())
+				return false;
+			idx.getObjectId(pos, id);
+			pack = packMap[idx.getPack(pos)];
+			offset = idx.getOffset(pos);
+			return true;
+		}
+	}
+}
@@ -65,8 +65,10 @@
 import org.eclipse.jgit.errors.PackMismatchException;
 import org.eclipse.jgit.events.ConfigChangedEvent;
 import org.eclipse.jgit.events.ConfigChangedListener;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
@@ -74,6 +76,7 @@
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.revwalk.CommitGraph;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackWriter;
 import org.eclipse.jgit.util.FS;
@@ -98,7 +101,8 @@
  */
 public class ObjectDirectory extends FileObjectDatabase implements
 		ConfigChangedListener {
-	private static final PackList NO_PACKS = new PackList(-1, -1, new PackFile[0]);
+	private static final PackList NO_PACKS = new PackList(-1, -1,
+			new PackFile[0], null);
 
 	private final Config config;
 
@@ -110,14 +114,25 @@ public class ObjectDirectory extends FileObjectDatabase implements
 
 	private final File alternatesFile;
 
+	private final File commitGraphFile;
+
+	private final File multiPackIndexFile;
+
 	private final AtomicReference<PackList> packList;
 
 	private final FS fs;
 
 	private final AtomicReference<AlternateHandle[]> alternates;
 
+	private final AtomicReference<CommitGraphFile> commitGraph;
+
+	/** Modification time and length of a commit graph which is damaged. */
+	private volatile long[] damagedCommitGraph;
+
 	private int streamFileThreshold;
 
+	private volatile LooseObjectCache looseObjects;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -140,7 +155,10 @@ public ObjectDirectory(final Config cfg, final File dir,
 		infoDirectory = new File(objects, "info");
 		packDirectory = new File(objects, "pack");
 		alternatesFile = new File(infoDirectory, "alternates");
+		commitGraphFile = new File(infoDirectory, CommitGraphFile.FILE_NAME);
+		multiPackIndexFile = new File(packDirectory, MultiPackIndex.FILE_NAME);
 		packList = new AtomicReference<PackList>(NO_PACKS);
+		commitGraph = new AtomicReference<CommitGraphFile>();
 		this.fs = fs;
 
 		alternates = new AtomicReference<AlternateHandle[]>();
@@ -159,6 +177,10 @@ public ObjectDirectory(final Config cfg, final File dir,
 	public void onConfigChanged(ConfigChangedEvent event) {
 		CoreConfig core = config.get(CoreConfig.KEY);
 		streamFileThreshold = core.getStreamFileThreshold();
+		if (!core.isLooseObjectCache())
+			looseObjects = null;
+		else if (looseObjects == null)
+			looseObjects = new LooseObjectCache(objects);
 	}
 
 	/**
@@ -185,6 +207,19 @@ public ObjectInserter newInserter() {
 		return new ObjectDirectoryInserter(this, config);
 	}
 
+	/**
+	 * Create an inserter writing all of its objects into a single new pack.
+	 * <p>
+	 * This is preferred over {@link #newInserter()} when storing a large
+	 * number of objects at once, such as during an import.
+	 *
+	 * @return a new inserter; it must be flushed for its objects to become
+	 *         visible in this directory.
+	 */
+	public PackInserter newPackInserter() {
+		return new PackInserter(this, config);
+	}
+
 	@Override
 	public void close() {
 		final PackList packs = packList.get();
@@ -263,7 +298,13 @@ public String toString() {
 	}
 
 	boolean hasObject1(final AnyObjectId objectId) {
-		for (final PackFile p : packList.get().packs) {
+		final PackList pList = packList.get();
+		if (pList.midx != null) {
+			final int pos = pList.midx.findPosition(objectId);
+			if (0 <= pos && pList.indexed[pList.midx.getPack(pos)] != null)
+				return true;
+		}
+		for (final PackFile p : pList.candidates(objectId)) {
 			try {
 				if (p.hasObject(objectId)) {
 					return true;
@@ -280,11 +321,32 @@ boolean hasObject1(final AnyObjectId objectId) {
 		return false;
 	}
 
+	void resolve1(final Set<ObjectId> matches, final AbbreviatedObjectId id)
+			throws IOException {
+		final PackList pList = packList.get();
+		PackFile[] search = pList.packs;
+		if (pList.midx != null && !pList.isIndexedPackMissing()) {
+			pList.midx.resolve(matches, id, RESOLVE_ABBREV_LIMIT + 1);
+			search = pList.unindexed;
+		}
+		for (final PackFile p : search) {
+			if (RESOLVE_ABBREV_LIMIT < matches.size())
+				return;
+			try {
+				p.resolve(matches, id, RESOLVE_ABBREV_LIMIT + 1);
+			} catch (IOException e) {
+				// Assume the pack is corrupted.
+				//
+				removePack(p);
+			}
+		}
+	}
+
 	ObjectLoader openObject1(final WindowCursor curs,
 			final AnyObjectId objectId) throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			for (final PackFile p : pList.candidates(objectId)) {
 				try {
 					final ObjectLoader ldr = p.get(curs, objectId);
 					if (ldr != null)
@@ -308,7 +370,7 @@ long getObjectSize1(final WindowCursor curs, final AnyObjectId objectId)
 			throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			for (final PackFile p : pList.candidates(objectId)) {
 				try {
 					long sz = p.getObjectSize(curs, objectId);
 					if (0 <= sz)
@@ -372,10 +434,253 @@ void selectObjectRepresentation(PackWriter packer, ObjectToPack otp,
 			h.db.selectObjectRepresentation(packer, otp, curs);
 	}
 
+	@Override
+	PackBitmapIndex getBitmapIndex() throws IOException {
+		PackList pList = packList.get();
+		if (pList == NO_PACKS)
+			pList = scanPacks(pList);
+
+		PackBitmapIndex best = null;
+		for (final PackFile p : pList.packs) {
+			try {
+				final PackBitmapIndex b = p.getBitmapIndex();
+				if (b != null
+						&& (best == null || best.getObjectCount() < b
+								.getObjectCount()))
+					best = b;
+			} catch (IOException e) {
+				// Assume the pack is corrupted.
+				//
+				removePack(p);
+			}
+		}
+		return best;
+	}
+
+	@Override
+	CommitGraph getCommitGraph() {
+		CommitGraphFile g = commitGraph.get();
+		if (g != null && !g.isModified(commitGraphFile))
+			return g;
+		if (!commitGraphFile.isFile()) {
+			commitGraph.compareAndSet(g, null);
+			return null;
+		}
+
+		final long modified = commitGraphFile.lastModified();
+		final long length = commitGraphFile.length();
+		final long[] damaged = damagedCommitGraph;
+		if (damaged != null && damaged[0] == modified && damaged[1] == length)
+			return null;
+		try {
+			final CommitGraphFile n = CommitGraphFile.open(commitGraphFile);
+			commitGraph.compareAndSet(g, n);
+			return n;
+		} catch (IOException e) {
+			// A damaged graph is ignored; commits are parsed from their
+			// objects until the graph is written again. Remember the file,
+			// so it isn't read over and over again in the meantime.
+			//
+			damagedCommitGraph = new long[] { modified, length };
+			commitGraph.compareAndSet(g, null);
+			return null;
+		}
+	}
+
+	/** @return location of the commit graph of this directory. */
+	File getCommitGraphFile() {
+		return commitGraphFile;
+	}
+
+	/** Forget the commit graph, so it is read again on its next use. */
+	void resetCommitGraph() {
+		damagedCommitGraph = null;
+		commitGraph.set(null);
+	}
+
+	/** @return location of the multi-pack index of this directory. */
+	File getMultiPackIndexFile() {
+		return multiPackIndexFile;
+	}
+
+	/**
+	 * Get the packs of this directory, rereading the directory if it changed.
+	 *
+	 * @return all packs, most recent first.
+	 */
+	PackFile[] listPacks() {
+		final PackList o = packList.get();
+		if (o == NO_PACKS || o.tryAgain(packDirectory.lastModified()))
+			return scanPacks(o).packs;
+		return o.packs;
+	}
+
+	/**
+	 * Remove a pack from this directory and delete its files.
+	 *
+	 * @param pack
+	 *            the pack to delete.
+	 * @throws IOException
+	 *             the pack or its index could not be deleted.
+	 */
+	void deletePack(final PackFile pack) throws IOException {
+		removePack(pack);
+		deletePackFiles(pack);
+	}
+
+	/**
+	 * Replace packs by a new pack holding all of their objects.
+	 * <p>
+	 * The pack list is swapped in a single step, so a concurrent reader finds
+	 * every object either in the old packs or in the new pack. The files of
+	 * the old packs are deleted afterwards.
+	 *
+	 * @param pack
+	 *            the new pack, already moved into the pack directory.
+	 * @param old
+	 *            the packs whose objects are all in {@code pack}.
+	 * @throws IOException
+	 *             an old pack could not be deleted.
+	 */
+	void replacePacks(final PackFile pack, final Collection<PackFile> old)
+			throws IOException {
+		PackList o, n;
+		do {
+			o = packList.get();
+			final List<PackFile> list = new ArrayList<PackFile>(
+					o.packs.length + 1);
+			list.add(pack);
+			for (final PackFile p : o.packs) {
+				if (!old.contains(p)
+						&& !p.getPackFile().equals(pack.getPackFile()))
+					list.add(p);
+			}
+			final PackFile[] newList = list.toArray(new PackFile[list.size()]);
+			n = new PackList(o.lastRead, o.lastModified, newList, o.midx);
+		} while (!packList.compareAndSet(o, n));
+
+		for (final PackFile p : old) {
+			if (p == pack)
+				continue;
+			p.close();
+			// The new pack may have the name of an old one holding
+			// the same objects; its files are still in use.
+			if (!p.getPackFile().equals(pack.getPackFile()))
+				deletePackFiles(p);
+		}
+	}
+
+	private void deletePackFiles(final PackFile pack) throws IOException {
+		final File packFile = pack.getPackFile();
+		final String name = packFile.getName();
+		final String base = name.substring(0, name.length() - 5);
+		final File idxFile = new File(packDirectory, base + ".idx");
+		final File bitmapFile = pack.getBitmapIndexFile();
+		if (bitmapFile.exists() && !bitmapFile.delete())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().fileCannotBeDeleted, bitmapFile));
+		final File revFile = pack.getReverseIndexFile();
+		if (revFile.exists() && !revFile.delete())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().fileCannotBeDeleted, revFile));
+		if (!packFile.delete() && packFile.exists())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().fileCannotBeDeleted, packFile));
+		if (!idxFile.delete() && idxFile.exists())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().fileCannotBeDeleted, idxFile));
+	}
+
+	/** Forget the cached listings of loose objects, after some were deleted. */
+	void resetLooseObjectCache() {
+		if (looseObjects != null)
+			looseObjects = new LooseObjectCache(objects);
+	}
+
+	/** Read the multi-pack index again, after it was written. */
+	void resetMultiPackIndex() {
+		synchronized (packList) {
+			final PackList o = packList.get();
+			if (o == NO_PACKS)
+				return;
+			packList.set(new PackList(o.lastRead, o.lastModified, o.packs,
+					loadMultiPackIndex(null)));
+		}
+	}
+
+	private MultiPackIndex loadMultiPackIndex(final MultiPackIndex old) {
+		if (old != null && !old.isModified(multiPackIndexFile))
+			return old;
+		if (!multiPackIndexFile.isFile())
+			return null;
+		try {
+			return MultiPackIndex.open(multiPackIndexFile);
+		} catch (IOException e) {
+			// A damaged index is ignored; every pack is searched on its
+			// own until the index is written again.
+			//
+			return null;
+		}
+	}
+
 	boolean hasObject2(final String objectName) {
+		final LooseObjectCache c = looseObjects;
+		if (c != null)
+			return c.contains(objectName);
 		return fileFor(objectName).exists();
 	}
 
+	void resolve2(final Set<ObjectId> matches, final AbbreviatedObjectId id) {
+		// Only the directories the abbreviation can fall into are listed;
+		// that is a single one once it has two or more digits.
+		//
+		final int first = id.getFirstByte();
+		final int last = id.length() >= 2 ? first
+				: first | (0xff >>> (id.length() * 4));
+		final LooseObjectCache c = looseObjects;
+		for (int idx = first; idx <= last; idx++) {
+			final String d = Integer.toHexString(0x100 | idx).substring(1);
+			final Collection<String> entries;
+			if (c != null)
+				entries = c.list(idx, d);
+			else
+				entries = listLooseObjects(new File(objects, d));
+			for (final String e : entries) {
+				if (RESOLVE_ABBREV_LIMIT < matches.size())
+					return;
+				if (e.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
+					continue;
+				final ObjectId objectId;
+				try {
+					objectId = ObjectId.fromString(d + e);
+				} catch (IllegalArgumentException notAnObject) {
+					continue;
+				}
+				if (id.prefixCompare(objectId) == 0)
+					matches.add(objectId);
+			}
+		}
+	}
+
+	private static Collection<String> listLooseObjects(final File dir) {
+		final String[] entries = dir.list();
+		if (entries == null)
+			return Collections.emptyList();
+		return Arrays.asList(entries);
+	}
+
+	/**
+	 * Record a loose object written by an inserter.
+	 *
+	 * @param id
+	 *            the object now stored in its file.
+	 */
+	void addLooseObject(final AnyObjectId id) {
+		final LooseObjectCache c = looseObjects;
+		if (c != null)
+			c.add(id.name());
+	}
+
 	ObjectLoader openObject2(final WindowCursor curs,
 			final String objectName, final AnyObjectId objectId)
 			throws IOException {
@@ -420,7 +725,7 @@ private void insertPack(final PackFile pf) {
 			final PackFile[] newList = new PackFile[1 + oldList.length];
 			newList[0] = pf;
 			System.arraycopy(oldList, 0, newList, 1, oldList.length);
-			n = new PackList(o.lastRead, o.lastModified, newList);
+			n = new PackList(o.lastRead, o.lastModified, newList, o.midx);
 		} while (!packList.compareAndSet(o, n));
 	}
 
@@ -437,7 +742,7 @@ private void removePack(final PackFile deadPack) {
 			final PackFile[] newList = new PackFile[oldList.length - 1];
 			System.arraycopy(oldList, 0, newList, 0, j);
 			System.arraycopy(oldList, j + 1, newList, j, newList.length - j);
-			n = new PackList(o.lastRead, o.lastModified, newList);
+			n = new PackList(o.lastRead, o.lastModified, newList, o.midx);
 		} while (!packList.compareAndSet(o, n));
 		deadPack.close();
 	}
@@ -494,6 +799,8 @@ private PackList scanPacksImpl(final PackList old) {
 
 			final PackFile oldPack = forReuse.remove(packName);
 			if (oldPack != null) {
+				if (names.contains(base + ".bitmap"))
+					oldPack.resetBitmapIndex();
 				list.add(oldPack);
 				continue;
 			}
@@ -516,12 +823,13 @@ private PackList scanPacksImpl(final PackList old) {
 			p.close();
 		}
 
+		final MultiPackIndex midx = loadMultiPackIndex(old.midx);
 		if (list.isEmpty())
-			return new PackList(lastRead, lastModified, NO_PACKS.packs);
+			return new PackList(lastRead, lastModified, NO_PACKS.packs, midx);
 
 		final PackFile[] r = list.toArray(new PackFile[list.size()]);
 		Arrays.sort(r, PackFile.SORT);
-		return new PackList(lastRead, lastModified, r);
+		return new PackList(lastRead, lastModified, r, midx);
 	}
 
 	private static Map<String, PackFile> reuseMap(final PackList old) {
@@ -627,14 +935,92 @@ private static final class PackList {
 		/** All known packs, sorted by {@link PackFile#SORT}. */
 		final PackFile[] packs;
 
+		/** Index of the objects of many packs; null if there is none. */
+		final MultiPackIndex midx;
+
+		/** Packs of {@link #midx}, by their position; null if deleted. */
+		final PackFile[] indexed;
+
+		/** Packs not covered by {@link #midx}. */
+		private final PackFile[] unindexed;
+
+		/** For each pack of {@link #midx}, itself and {@link #unindexed}. */
+		private final PackFile[][] searchOrder;
+
 		private boolean cannotBeRacilyClean;
 
 		PackList(final long lastRead, final long lastModified,
-				final PackFile[] packs) {
+				final PackFile[] packs, final MultiPackIndex midx) {
 			this.lastRead = lastRead;
 			this.lastModified = lastModified;
 			this.packs = packs;
 			this.cannotBeRacilyClean = notRacyClean(lastRead);
+
+			if (midx == null || midx.getPackCount() == 0) {
+				this.midx = null;
+				this.indexed = null;
+				this.unindexed = null;
+				this.searchOrder = null;
+				return;
+			}
+
+			final Map<String, Integer> byName = new HashMap<String, Integer>();
+			for (int i = 0; i < midx.getPackCount(); i++)
+				byName.put(midx.getPackName(i), Integer.valueOf(i));
+			final PackFile[] in = new PackFile[midx.getPackCount()];
+			final List<PackFile> out = new ArrayList<PackFile>();
+			for (final PackFile p : packs) {
+				final Integer i = byName.get(p.getPackFile().getName());
+				if (i != null)
+					in[i.intValue()] = p;
+				else
+					out.add(p);
+			}
+
+			this.midx = midx;
+			this.indexed = in;
+			this.unindexed = out.toArray(new PackFile[out.size()]);
+			this.searchOrder = new PackFile[in.length][];
+			for (int i = 0; i < in.length; i++) {
+				if (in[i] != null) {
+					final PackFile[] r = new PackFile[1 + unindexed.length];
+					r[0] = in[i];
+					System.arraycopy(unindexed, 0, r, 1, unindexed.length);
+					searchOrder[i] = r;
+				}
+			}
+		}
+
+		/**
+		 * Select the packs which may hold an object.
+		 * <p>
+		 * Without a multi-pack index every pack has to be searched. With one,
+		 * only the pack it lists for the object and the packs it does not
+		 * cover need to be.
+		 *
+		 * @param id
+		 *            the object to look for.
+		 * @return the packs to search, in order.
+		 */
+		PackFile[] candidates(final AnyObjectId id) {
+			if (midx == null)
+				return packs;
+			final int pos = midx.findPosition(id);
+			if (pos < 0)
+				return unindexed;
+			final PackFile[] r = searchOrder[midx.getPack(pos)];
+			// If the listed pack was deleted, another pack may still hold
+			// a copy the index did not record.
+			return r != null ? r : packs;
+		}
+
+		/** @return true if a pack listed by {@link #midx} was deleted. */
+		boolean isIndexedPackMissing() {
+			for (final PackFile p : indexed) {
+				if (p == null)
+					return true;
+			}
+			return false;
 		}
 
 		private boolean notRacyClean(final long read) {
@@ -91,16 +91,20 @@ public ObjectId insert(final int type, long len, final InputStream is)
 		}
 
 		final File dst = db.fileFor(id);
-		if (tmp.renameTo(dst))
+		if (tmp.renameTo(dst)) {
+			db.addLooseObject(id);
 			return id;
+		}
 
 		// Maybe the directory doesn't exist yet as the object
 		// directories are always lazily created. Note that we
 		// try the rename first as the directory likely does exist.
 		//
 		dst.getParentFile().mkdir();
-		if (tmp.renameTo(dst))
+		if (tmp.renameTo(dst)) {
+			db.addLooseObject(id);
 			return id;
+		}
 
 		if (db.has(id)) {
 			tmp.delete();
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Reachability bitmaps for the commits of a single pack.
+ * <p>
+ * A pack bitmap index (the <code>.bitmap</code> file next to a pack's
+ * <code>.idx</code>) stores, for a selection of commits in the pack, the set
+ * of all objects reachable from that commit. Bit {@code n} of each bitmap
+ * stands for the n-th object of the pack's index, in SHA-1 sorted order, as
+ * returned by {@link PackIndex#getObjectId(long)}. A bitmap is only stored
+ * for a commit if every object reachable from it is in the same pack.
+ * <p>
+ * The file also holds one bitmap per object type, so the type of any object
+ * in the pack can be found without reading its header from the pack, and the
+ * hash of the path of every tree and blob, so the objects found through the
+ * bitmaps can be sorted for delta compression without walking their trees.
+ *
+ * @see PackBitmapIndexWriter
+ */
+class PackBitmapIndex {
+	/** Magic constant at the start of every bitmap index file. */
+	static final byte[] SIGNATURE = { 'B', 'I', 'T', 'M' };
+
+	/** Current (and only) version of the file format. */
+	static final int VERSION = 1;
+
+	/** Order of the type bitmaps within the file. */
+	static final int[] TYPES = { Constants.OBJ_COMMIT, Constants.OBJ_TREE,
+			Constants.OBJ_BLOB, Constants.OBJ_TAG };
+
+	/**
+	 * Read an existing bitmap index.
+	 *
+	 * @param bitmapFile
+	 *            existing pack .bitmap to read.
+	 * @param idx
+	 *            index of the pack the bitmaps were computed for.
+	 * @return the bitmap index.
+	 * @throws IOException
+	 *             the file cannot be read, is corrupt, or describes a different
+	 *             pack than {@code idx}.
+	 */
+	static PackBitmapIndex open(final File bitmapFile, final PackIndex idx)
+			throws IOException {
+		try {
+			return new PackBitmapIndex(IO.readFully(bitmapFile), idx);
+		} catch (IOException ioe) {
+			final String path = bitmapFile.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(
+					JGitText.get().unreadablePackBitmap, path));
+			err.initCause(ioe);
+			throw err;
+		}
+	}
+
+	private final PackIndex packIndex;
+
+	private final int objectCount;
+
+	private final long[][] types;
+
+	private final int[] pathHashes;
+
+	private final ObjectIdSubclassMap<StoredBitmap> bitmaps;
+
+	/**
+	 * Create an index without any commit bitmaps or path hashes.
+	 *
+	 * @param idx
+	 *            index of the pack.
+	 * @param types
+	 *            one uncompressed bitmap per entry of {@link #TYPES}, listing
+	 *            the objects of the pack having that type.
+	 */
+	PackBitmapIndex(final PackIndex idx, final long[][] types) {
+		this.packIndex = idx;
+		this.objectCount = (int) idx.getObjectCount();
+		this.types = types;
+		this.pathHashes = new int[objectCount];
+		this.bitmaps = new ObjectIdSubclassMap<StoredBitmap>();
+	}
+
+	private PackBitmapIndex(final byte[] buf, final PackIndex idx)
+			throws IOException {
+		final int trailer = buf.length - Constants.OBJECT_ID_LENGTH;
+		if (trailer < 36)
+			throw new IOException(JGitText.get().notAPackBitmap);
+		for (int i = 0; i < SIGNATURE.length; i++)
+			if (buf[i] != SIGNATURE[i])
+				throw new IOException(JGitText.get().notAPackBitmap);
+
+		final int version = NB.decodeInt32(buf, 4);
+		if (version != VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedPackBitmapVersion, version));
+
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(buf, 0, trailer);
+		final byte[] sum = md.digest();
+		for (int i = 0; i < sum.length; i++)
+			if (sum[i] != buf[trailer + i])
+				throw new IOException(JGitText.get().packBitmapChecksumMismatch);
+
+		objectCount = NB.decodeInt32(buf, 8);
+		final int entryCount = NB.decodeInt32(buf, 12);
+		final byte[] packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		System.arraycopy(buf, 16, packChecksum, 0, packChecksum.length);
+		if (objectCount != idx.getObjectCount()
+				|| !Arrays.equals(packChecksum, idx.packChecksum))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().packBitmapDoesNotMatchPack, ObjectId
+							.fromRaw(packChecksum).name()));
+
+		int ptr = 36;
+		types = new long[TYPES.length][];
+		for (int i = 0; i < TYPES.length; i++) {
+			final CompressedBitmap b = CompressedBitmap.read(buf, ptr);
+			ptr += b.getSerializedSize();
+			types[i] = b.toBitmap(objectCount);
+		}
+
+		if (trailer < ptr + 4L * objectCount)
+			throw new IOException(JGitText.get().notAPackBitmap);
+		pathHashes = new int[objectCount];
+		for (int i = 0; i < objectCount; i++, ptr += 4)
+			pathHashes[i] = NB.decodeInt32(buf, ptr);
+
+		bitmaps = new ObjectIdSubclassMap<StoredBitmap>();
+		for (int i = 0; i < entryCount; i++) {
+			final ObjectId id = ObjectId.fromRaw(buf, ptr);
+			ptr += Constants.OBJECT_ID_LENGTH;
+			final CompressedBitmap b = CompressedBitmap.read(buf, ptr);
+			ptr += b.getSerializedSize();
+			bitmaps.add(new StoredBitmap(id, b));
+		}
+		if (ptr != trailer)
+			throw new IOException(JGitText.get().notAPackBitmap);
+
+		packIndex = idx;
+	}
+
+	/** @return number of objects in the pack, and bits in each bitmap. */
+	int getObjectCount() {
+		return objectCount;
+	}
+
+	/** @return number of commits with a stored bitmap. */
+	int getBitmapCount() {
+		return bitmaps.size();
+	}
+
+	/**
+	 * Locate an object's bit.
+	 *
+	 * @param id
+	 *            the object to find.
+	 * @return position of the object's bit; -1 if the object is not in the
+	 *         pack.
+	 */
+	int findPosition(final AnyObjectId id) {
+		return (int) packIndex.findPosition(id);
+	}
+
+	/**
+	 * Get the object for a bit.
+	 *
+	 * @param position
+	 *            position of the object's bit.
+	 * @return name of the object.
+	 */
+	ObjectId getObject(final int position) {
+		return packIndex.getObjectId(position);
+	}
+
+	/**
+	 * Get the type of an object in the pack.
+	 *
+	 * @param position
+	 *            position of the object's bit.
+	 * @return type of the object, as one of the {@link Constants} OBJ_ values.
+	 */
+	int getObjectType(final int position) {
+		for (int i = 0; i < TYPES.length; i++)
+			if (CompressedBitmap.isSet(types[i], position))
+				return TYPES[i];
+		return Constants.OBJ_BAD;
+	}
+
+	/**
+	 * Get the hash of the path of a tree or blob in the pack.
+	 *
+	 * @param position
+	 *            position of the object's bit.
+	 * @return the hash, as computed by
+	 *         {@link org.eclipse.jgit.revwalk.ObjectWalk#getPathHashCode()};
+	 *         0 for commits and tags, and for objects not reachable from a
+	 *         commit with a bitmap.
+	 */
+	int getPathHashCode(final int position) {
+		return pathHashes[position];
+	}
+
+	/**
+	 * Get the reachability bitmap of a commit.
+	 *
+	 * @param commit
+	 *            the commit.
+	 * @return set of all objects reachable from the commit (including the
+	 *         commit itself); null if no bitmap was stored for the commit.
+	 */
+	CompressedBitmap getBitmap(final AnyObjectId commit) {
+		final StoredBitmap b = bitmaps.get(commit);
+		return b != null ? b.bitmap : null;
+	}
+
+	/**
+	 * Store the reachability bitmap of a commit.
+	 *
+	 * @param commit
+	 *            the commit.
+	 * @param bitmap
+	 *            all objects reachable from the commit.
+	 */
+	void addBitmap(final AnyObjectId commit, final CompressedBitmap bitmap) {
+		bitmaps.add(new StoredBitmap(commit, bitmap));
+	}
+
+	private static class StoredBitmap extends ObjectId {
+		private static final long serialVersionUID = 1L;
+
+		final CompressedBitmap bitmap;
+
+		StoredBitmap(final AnyObjectId id, final CompressedBitmap bitmap) {
+			super(id);
+			this.bitmap = bitmap;
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the reachability bitmap index of a {@link PackFile}.
+ * <p>
+ * A bitmap is computed for every branch tip given to {@link #write}, and for
+ * every n-th commit of their history (see {@link #setCommitSpacing(int)}).
+ * Commits whose history is not entirely contained in the pack are skipped.
+ * The path hash of every tree and blob reachable from these commits is stored
+ * along with the bitmaps.
+ * The result is stored in the <code>.bitmap</code> file next to the pack's
+ * <code>.idx</code>, where {@link PackFile} will find it.
+ */
+public class PackBitmapIndexWriter {
+	/** Default distance between two commits with a bitmap. */
+	public static final int DEFAULT_COMMIT_SPACING = 100;
+
+	private final FileRepository repo;
+
+	private final PackFile pack;
+
+	private int commitSpacing = DEFAULT_COMMIT_SPACING;
+
+	/**
+	 * Create a writer for the bitmaps of a pack.
+	 *
+	 * @param repo
+	 *            repository the pack belongs to.
+	 * @param pack
+	 *            the pack to compute the bitmaps of.
+	 */
+	public PackBitmapIndexWriter(final FileRepository repo, final PackFile pack) {
+		this.repo = repo;
+		this.pack = pack;
+	}
+
+	/**
+	 * Set the distance between two commits with a stored bitmap.
+	 * <p>
+	 * Smaller values make the bitmap index larger and slower to create, but
+	 * leave fewer commits to be walked by readers.
+	 *
+	 * @param spacing
+	 *            number of commits between two selected commits.
+	 */
+	public void setCommitSpacing(final int spacing) {
+		commitSpacing = Math.max(1, spacing);
+	}
+
+	/**
+	 * Compute and store the bitmaps next to the pack.
+	 *
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @param tips
+	 *            the commits (or tags) the bitmaps are most likely to be asked
+	 *            for, typically the repository's branches.
+	 * @throws IOException
+	 *             the pack cannot be read, or the bitmap index cannot be
+	 *             written.
+	 */
+	public void write(final ProgressMonitor pm,
+			final Collection<? extends ObjectId> tips) throws IOException {
+		final File file = pack.getBitmapIndexFile();
+		final LockFile lf = new LockFile(file, repo.getFS());
+		if (!lf.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			final OutputStream out = lf.getOutputStream();
+			try {
+				writeTo(out, pm, tips);
+			} finally {
+				out.close();
+			}
+			if (!lf.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, file));
+		} finally {
+			lf.unlock();
+		}
+		pack.resetBitmapIndex();
+	}
+
+	/**
+	 * Compute the bitmaps and write them to a stream.
+	 * <p>
+	 * After writing the stream is flushed but remains open. Callers are always
+	 * responsible for closing the output stream.
+	 *
+	 * @param dst
+	 *            stream the bitmap index data is written to.
+	 * @param pm
+	 *            progress monitor to report progress to.
+	 * @param tips
+	 *            the commits (or tags) the bitmaps are most likely to be asked
+	 *            for, typically the repository's branches.
+	 * @throws IOException
+	 *             the pack cannot be read, or the stream cannot be written to.
+	 */
+	public void writeTo(final OutputStream dst, final ProgressMonitor pm,
+			final Collection<? extends ObjectId> tips) throws IOException {
+		final PackIndex idx = pack.idx();
+		if (Integer.MAX_VALUE < idx.getObjectCount())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().packTooLargeForBitmaps, pack.getPackFile()
+							.getPath()));
+
+		final WindowCursor curs = new WindowCursor(repo.getObjectDatabase());
+		try {
+			final long[][] types = computeTypes(curs, idx);
+			final PackBitmapIndex bitmaps = new PackBitmapIndex(idx, types);
+			final List<RevCommit> built = buildBitmaps(curs, bitmaps, pm, tips);
+			final int[] pathHashes = computePathHashes(curs, bitmaps, pm,
+					built);
+
+			final DigestOutputStream out = new DigestOutputStream(
+					dst instanceof BufferedOutputStream ? dst
+							: new BufferedOutputStream(dst), Constants
+							.newMessageDigest());
+			final byte[] tmp = new byte[16];
+			out.write(PackBitmapIndex.SIGNATURE);
+			NB.encodeInt32(tmp, 0, PackBitmapIndex.VERSION);
+			NB.encodeInt32(tmp, 4, bitmaps.getObjectCount());
+			NB.encodeInt32(tmp, 8, built.size());
+			out.write(tmp, 0, 12);
+			out.write(idx.packChecksum);
+			for (final long[] t : types)
+				CompressedBitmap.compress(t).writeTo(out);
+			for (final int h : pathHashes) {
+				NB.encodeInt32(tmp, 0, h);
+				out.write(tmp, 0, 4);
+			}
+			for (final RevCommit c : built) {
+				c.copyRawTo(out);
+				bitmaps.getBitmap(c).writeTo(out);
+			}
+			out.on(false);
+			out.write(out.getMessageDigest().digest());
+			out.flush();
+		} finally {
+			curs.release();
+		}
+	}
+
+	private long[][] computeTypes(final WindowCursor curs, final PackIndex idx)
+			throws IOException {
+		final int cnt = (int) idx.getObjectCount();
+		final long[][] types = new long[PackBitmapIndex.TYPES.length][];
+		for (int i = 0; i < types.length; i++)
+			types[i] = CompressedBitmap.newBitmap(cnt);
+
+		int pos = 0;
+		for (final PackIndex.MutableEntry e : idx) {
+			final int type = pack.getObjectType(curs, e.getOffset());
+			for (int i = 0; i < types.length; i++) {
+				if (PackBitmapIndex.TYPES[i] == type) {
+					CompressedBitmap.set(types[i], pos);
+					break;
+				}
+			}
+			pos++;
+		}
+		return types;
+	}
+
+	private List<RevCommit> buildBitmaps(final WindowCursor curs,
+			final PackBitmapIndex bitmaps, final ProgressMonitor pm,
+			final Collection<? extends ObjectId> tips) throws IOException {
+		final RevWalk rw = new RevWalk(curs);
+		rw.setRetainBody(false);
+		rw.sort(RevSort.TOPO);
+		rw.sort(RevSort.REVERSE, true);
+
+		final RevFlag tip = rw.newFlag("TIP");
+		for (final ObjectId id : tips) {
+			final RevObject o;
+			try {
+				o = rw.peel(rw.parseAny(id));
+			} catch (MissingObjectException notFound) {
+				continue;
+			}
+			if (o instanceof RevCommit && 0 <= bitmaps.findPosition(o)) {
+				o.add(tip);
+				rw.markStart((RevCommit) o);
+			}
+		}
+
+		// The walk produces parents before their children, so by building
+		// the bitmaps in this order each one can reuse the bitmaps of the
+		// commits selected before it.
+		//
+		pm.beginTask(JGitText.get().selectingCommits, ProgressMonitor.UNKNOWN);
+		final List<RevCommit> selected = new ArrayList<RevCommit>();
+		int n = 0;
+		for (RevCommit c; (c = rw.next()) != null;) {
+			if (c.has(tip) || ++n % commitSpacing == 0)
+				selected.add(c);
+			pm.update(1);
+		}
+		pm.endTask();
+
+		pm.beginTask(JGitText.get().buildingBitmaps, selected.size());
+		final BitmapWalker walker = new BitmapWalker(rw, bitmaps);
+		final List<RevCommit> built = new ArrayList<RevCommit>();
+		for (final RevCommit c : selected) {
+			if (0 <= bitmaps.findPosition(c)) {
+				final long[] bits = walker.computeBitmap(c);
+				if (bits != null) {
+					bitmaps.addBitmap(c, CompressedBitmap.compress(bits));
+					built.add(c);
+				}
+			}
+			pm.update(1);
+		}
+		pm.endTask();
+		rw.disposeFlag(tip);
+		return built;
+	}
+
+	/**
+	 * Walk the trees reachable from the commits with a bitmap.
+	 * <p>
+	 * Each tree and blob gets the hash of the first path the walk finds it
+	 * at, as it would when a {@link org.eclipse.jgit.storage.pack.PackWriter}
+	 * walks the objects itself.
+	 *
+	 * @return hash of every object of the pack, by position; 0 for objects
+	 *         which are not reached.
+	 */
+	private static int[] computePathHashes(final WindowCursor curs,
+			final PackBitmapIndex bitmaps, final ProgressMonitor pm,
+			final List<RevCommit> built) throws IOException {
+		final int[] hashes = new int[bitmaps.getObjectCount()];
+		final ObjectWalk ow = new ObjectWalk(curs);
+		ow.setRetainBody(false);
+		for (final RevCommit c : built)
+			ow.markStart(ow.parseCommit(c));
+
+		pm.beginTask(JGitText.get().countingObjects, ProgressMonitor.UNKNOWN);
+		while (ow.next() != null)
+			pm.update(1);
+		for (RevObject o; (o = ow.nextObject()) != null;) {
+			final int pos = bitmaps.findPosition(o);
+			if (0 <= pos)
+				hashes[pos] = ow.getPathHashCode();
+			pm.update(1);
+		}
+		pm.endTask();
+		return hashes;
+	}
+}
@@ -50,12 +50,18 @@
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -66,13 +72,16 @@
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.PackMismatchException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.storage.pack.BinaryDelta;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackOutputStream;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.LongList;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.RawParseUtils;
@@ -90,15 +99,24 @@ public int compare(final PackFile a, final PackFile b) {
 		}
 	};
 
+	/** Length of the header before the first object of a pack. */
+	private static final int PACK_HEADER_LEN = 12;
+
 	private final File idxFile;
 
 	private final File packFile;
 
 	final int hash;
 
-	private RandomAccessFile fd;
+	/**
+	 * Channel used to read the pack.
+	 * <p>
+	 * Reads use absolute positions and never move the channel's position, so
+	 * any number of threads can read from the pack concurrently.
+	 */
+	private volatile FileChannel fd;
 
-	/** Serializes reads performed against {@link #fd}. */
+	/** Serializes opening and closing of {@link #fd}. */
 	private final Object readLock = new Object();
 
 	long length;
@@ -107,6 +125,9 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private int activeCopyRawData;
 
+	/** Whole pack mapping, if {@link PackMapping} allowed one. */
+	private volatile PackMapping mapping;
+
 	private int packLastModified;
 
 	private volatile boolean invalid;
@@ -117,6 +138,15 @@ public int compare(final PackFile a, final PackFile b) {
 
 	private PackReverseIndex reverseIdx;
 
+	private final File reverseIdxFile;
+
+	private final File bitmapIdxFile;
+
+	private PackBitmapIndex bitmapIdx;
+
+	/** True if we know there is no usable bitmap index for this pack. */
+	private boolean noBitmapIdx;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -126,6 +156,14 @@ public int compare(final PackFile a, final PackFile b) {
 	 */
 	private volatile LongList corruptObjects;
 
+	private final DeltaBaseCache deltaBaseCache = new DeltaBaseCache();
+
+	/** Number of windows of this pack found in the {@link WindowCache}. */
+	final AtomicLong windowHits = new AtomicLong();
+
+	/** Number of windows of this pack loaded by the {@link WindowCache}. */
+	final AtomicLong windowMisses = new AtomicLong();
+
 	/**
 	 * Construct a reader for an existing, pre-indexed packfile.
 	 *
@@ -139,6 +177,12 @@ public PackFile(final File idxFile, final File packFile) {
 		this.packFile = packFile;
 		this.packLastModified = (int) (packFile.lastModified() >> 10);
 
+		final String idxName = idxFile.getName();
+		final String base = idxName.endsWith(".idx") ? idxName.substring(0,
+				idxName.length() - 4) : idxName;
+		this.reverseIdxFile = new File(idxFile.getParentFile(), base + ".rev");
+		this.bitmapIdxFile = new File(idxFile.getParentFile(), base + ".bitmap");
+
 		// Multiply by 31 here so we can more directly combine with another
 		// value in WindowCache.hash(), without doing the multiply there.
 		//
@@ -146,7 +190,7 @@ public PackFile(final File idxFile, final File packFile) {
 		length = Long.MAX_VALUE;
 	}
 
-	private synchronized PackIndex idx() throws IOException {
+	synchronized PackIndex idx() throws IOException {
 		if (loadedIdx == null) {
 			if (invalid)
 				throw new PackInvalidException(packFile);
@@ -173,6 +217,48 @@ public File getPackFile() {
 		return packFile;
 	}
 
+	/** @return the location of this pack's reverse index. */
+	File getReverseIndexFile() {
+		return reverseIdxFile;
+	}
+
+	/** @return the location of this pack's reachability bitmap index. */
+	File getBitmapIndexFile() {
+		return bitmapIdxFile;
+	}
+
+	/**
+	 * Get the reachability bitmaps of this pack.
+	 * <p>
+	 * The bitmap index is optional. If it is missing, damaged or does not
+	 * match this pack it is ignored, and null is returned.
+	 *
+	 * @return the bitmap index of this pack; null if there is none.
+	 * @throws IOException
+	 *             the pack's own index file cannot be loaded into memory.
+	 */
+	synchronized PackBitmapIndex getBitmapIndex() throws IOException {
+		if (bitmapIdx == null && !noBitmapIdx) {
+			final PackIndex idx = idx();
+			if (bitmapIdxFile.isFile()
+					&& idx.getObjectCount() <= Integer.MAX_VALUE) {
+				try {
+					bitmapIdx = PackBitmapIndex.open(bitmapIdxFile, idx);
+				} catch (IOException damaged) {
+					noBitmapIdx = true;
+				}
+			} else
+				noBitmapIdx = true;
+		}
+		return bitmapIdx;
+	}
+
+	/** Look for the bitmap index again, it may have been created. */
+	synchronized void resetBitmapIndex() {
+		if (bitmapIdx == null)
+			noBitmapIdx = false;
+	}
+
 	/**
 	 * Determine if an object is contained within the pack file.
 	 * <p>
@@ -191,6 +277,23 @@ public boolean hasObject(final AnyObjectId id) throws IOException {
 		return 0 < offset && !isCorrupt(offset);
 	}
 
+	/**
+	 * Find the objects of this pack matching an abbreviation.
+	 *
+	 * @param matches
+	 *            set to add the located ObjectIds to.
+	 * @param id
+	 *            prefix to search for.
+	 * @param matchLimit
+	 *            stop adding once the set holds this many ObjectIds.
+	 * @throws IOException
+	 *             the index file cannot be loaded into memory.
+	 */
+	void resolve(final Set<ObjectId> matches, final AbbreviatedObjectId id,
+			final int matchLimit) throws IOException {
+		idx().resolve(matches, id, matchLimit);
+	}
+
 	/**
 	 * Get an object from this pack.
 	 *
@@ -213,11 +316,17 @@ ObjectLoader get(final WindowCursor curs, final AnyObjectId id)
 	 * Close the resources utilized by this repository
 	 */
 	public void close() {
-		UnpackedObjectCache.purge(this);
+		deltaBaseCache.clear();
 		WindowCache.purge(this);
 		synchronized (this) {
+			if (mapping != null) {
+				mapping.close();
+				mapping = null;
+			}
 			loadedIdx = null;
 			reverseIdx = null;
+			bitmapIdx = null;
+			noBitmapIdx = false;
 		}
 	}
 
@@ -267,12 +376,21 @@ ObjectId findObjectForOffset(final long offset) throws IOException {
 		return getReverseIdx().findObject(offset);
 	}
 
-	private final UnpackedObjectCache.Entry readCache(final long position) {
-		return UnpackedObjectCache.get(this, position);
+	/**
+	 * Obtain the current usage of this pack's cache of delta bases.
+	 *
+	 * @return snapshot of the cache's statistics.
+	 */
+	public DeltaBaseCacheStats getDeltaBaseCacheStats() {
+		return deltaBaseCache.getStats();
+	}
+
+	private final DeltaBaseCache.Entry readCache(final long position) {
+		return deltaBaseCache.get(position);
 	}
 
 	private final void saveCache(final long position, final byte[] data, final int type) {
-		UnpackedObjectCache.store(this, position, data, type);
+		deltaBaseCache.store(position, data, type);
 	}
 
 	private final byte[] decompress(final long position, final long totalSize,
@@ -457,6 +575,126 @@ private void copyAsIs2(PackOutputStream out, LocalObjectToPack src,
 		}
 	}
 
+	/**
+	 * List the objects stored at the start of this pack that were selected
+	 * for reuse from exactly that position.
+	 *
+	 * @param reused
+	 *            objects selected for reuse as-is.
+	 * @return the leading objects of this pack, in the order they are
+	 *         stored; empty if the index lacks the CRC32 codes needed to
+	 *         verify them while copying.
+	 * @throws IOException
+	 *             the index files cannot be loaded into memory.
+	 */
+	List<ObjectToPack> findStoredPrefix(
+			final ObjectIdSubclassMap<ObjectToPack> reused) throws IOException {
+		final List<ObjectToPack> r = new ArrayList<ObjectToPack>();
+		if (!idx().hasCRC32Support())
+			return r;
+
+		final PackReverseIndex rev = getReverseIdx();
+		final long maxOffset = length - 20;
+		long offset = PACK_HEADER_LEN;
+		while (offset < maxOffset) {
+			final ObjectToPack otp = reused.get(rev.findObject(offset));
+			if (!(otp instanceof LocalObjectToPack))
+				break;
+			final LocalObjectToPack src = (LocalObjectToPack) otp;
+			if (src.pack != this || src.offset != offset)
+				break;
+			r.add(otp);
+			offset = rev.findNextOffset(offset, maxOffset);
+		}
+		return r;
+	}
+
+	/**
+	 * Copy objects stored at the start of this pack verbatim.
+	 *
+	 * @param out
+	 *            stream to write the objects to, positioned right after the
+	 *            pack header.
+	 * @param objects
+	 *            objects returned by {@link #findStoredPrefix}, or the start
+	 *            of that list.
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @throws IOException
+	 *             the pack cannot be read, an object does not match its
+	 *             CRC32 code, or the stream cannot be written to.
+	 */
+	final void copyPrefixAsIs(PackOutputStream out, List<ObjectToPack> objects,
+			WindowCursor curs) throws IOException {
+		try {
+			beginCopyAsIs(objects.get(0));
+		} catch (StoredObjectRepresentationNotAvailableException gone) {
+			final IOException err = new IOException(gone.getMessage());
+			err.initCause(gone.getCause());
+			throw err;
+		}
+		try {
+			copyPrefixAsIs2(out, objects, curs);
+		} finally {
+			endCopyAsIs();
+		}
+	}
+
+	private void copyPrefixAsIs2(PackOutputStream out,
+			List<ObjectToPack> objects, WindowCursor curs) throws IOException {
+		final PackIndex idx = idx();
+		final CRC32 crc = new CRC32();
+		final byte[] buf = out.getCopyBuffer();
+		final int cnt = objects.size();
+		final long end = getReverseIdx().findNextOffset(
+				((LocalObjectToPack) objects.get(cnt - 1)).offset, length - 20);
+
+		// The objects are contiguous, so the region is copied in large
+		// blocks, with the CRC32 of each object updated from the slices
+		// of the blocks it spans.
+		//
+		int k = 0;
+		LocalObjectToPack cur = (LocalObjectToPack) objects.get(0);
+		long curEnd = nextStart(objects, 1, end);
+		long pos = cur.offset;
+		while (pos < end) {
+			final int n = (int) Math.min(end - pos, buf.length);
+			readFully(pos, buf, 0, n, curs);
+			out.write(buf, 0, n);
+
+			int p = 0;
+			while (p < n) {
+				final int len = (int) Math.min(n - p, curEnd - (pos + p));
+				crc.update(buf, p, len);
+				p += len;
+				if (pos + p < curEnd)
+					break;
+
+				if (crc.getValue() != idx.findCRC32(cur)) {
+					setCorrupt(cur.offset);
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().objectAtHasBadZlibStream,
+							cur.offset, getPackFile()));
+				}
+				cur.setOffset(cur.offset);
+				cur.setCRC((int) crc.getValue());
+				crc.reset();
+
+				if (++k == cnt)
+					break;
+				cur = (LocalObjectToPack) objects.get(k);
+				curEnd = nextStart(objects, k + 1, end);
+			}
+			pos += n;
+		}
+	}
+
+	private static long nextStart(List<ObjectToPack> objects, int k, long end) {
+		if (k < objects.size())
+			return ((LocalObjectToPack) objects.get(k)).offset;
+		return end;
+	}
+
 	boolean invalid() {
 		return invalid;
 	}
@@ -509,8 +747,8 @@ private void doOpen() throws IOException {
 			if (invalid)
 				throw new PackInvalidException(packFile);
 			synchronized (readLock) {
-				fd = new RandomAccessFile(packFile, "r");
-				length = fd.length();
+				fd = new RandomAccessFile(packFile, "r").getChannel();
+				length = fd.size();
 				onOpenPack();
 			}
 		} catch (IOException ioe) {
@@ -547,38 +785,153 @@ private void doClose() {
 		}
 	}
 
+	/**
+	 * Obtain a window from the mapping of the whole pack.
+	 *
+	 * @param pos
+	 *            position the window must contain.
+	 * @return the window, which must be released by the caller; null if the
+	 *         pack is not mapped and cannot be mapped within the budget of
+	 *         {@link PackMapping}.
+	 * @throws IOException
+	 *             the pack had to be opened to be mapped, and is not valid.
+	 */
+	PackMapping.Slice mappedWindow(final long pos) throws IOException {
+		for (;;) {
+			PackMapping m = mapping;
+			if (m == null) {
+				// Until the pack was opened once its length is unknown.
+				final long len = length;
+				if (!PackMapping.mayMap(len == Long.MAX_VALUE ? 0 : len))
+					return null;
+				m = mapWholePack(null);
+				if (m == null)
+					return null;
+			}
+			final PackMapping.Slice w = m.acquire(pos);
+			if (w != null)
+				return w;
+
+			// The mapping was closed by a reconfiguration of the cache.
+			// Map the pack again, verifying it was not replaced.
+			//
+			if (mapWholePack(m) == null)
+				return null;
+		}
+	}
+
+	private synchronized PackMapping mapWholePack(final PackMapping closed)
+			throws IOException {
+		if (mapping == closed)
+			mapping = null;
+		if (mapping == null && !invalid) {
+			final boolean open = activeWindows == 0 && activeCopyRawData == 0;
+			if (open)
+				doOpen();
+			try {
+				mapping = PackMapping.map(this, fd, length);
+			} finally {
+				if (open)
+					doClose();
+			}
+		}
+		return mapping;
+	}
+
 	ByteArrayWindow read(final long pos, int size) throws IOException {
-		synchronized (readLock) {
-			if (length < pos + size)
-				size = (int) (length - pos);
-			final byte[] buf = new byte[size];
-			fd.seek(pos);
-			fd.readFully(buf, 0, size);
-			return new ByteArrayWindow(this, pos, buf);
+		if (length < pos + size)
+			size = (int) (length - pos);
+		final byte[] buf = new byte[size];
+		pread(pos, buf, 0, size);
+		return new ByteArrayWindow(this, pos, buf);
+	}
+
+	private void pread(final long pos, final byte[] dst, final int off,
+			final int len) throws IOException {
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				final FileChannel ch = fd;
+				try {
+					IO.readFully(ch, pos, dst, off, len);
+					return;
+				} catch (ClosedChannelException e) {
+					interrupted |= Thread.interrupted();
+					reopen(ch, e);
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 
 	ByteWindow mmap(final long pos, int size) throws IOException {
-		synchronized (readLock) {
-			if (length < pos + size)
-				size = (int) (length - pos);
+		if (length < pos + size)
+			size = (int) (length - pos);
 
-			MappedByteBuffer map;
-			try {
-				map = fd.getChannel().map(MapMode.READ_ONLY, pos, size);
-			} catch (IOException ioe1) {
-				// The most likely reason this failed is the JVM has run out
-				// of virtual memory. We need to discard quickly, and try to
-				// force the GC to finalize and release any existing mappings.
-				//
-				System.gc();
-				System.runFinalization();
-				map = fd.getChannel().map(MapMode.READ_ONLY, pos, size);
+		MappedByteBuffer map;
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				final FileChannel ch = fd;
+				try {
+					map = map(ch, pos, size);
+					break;
+				} catch (ClosedChannelException e) {
+					interrupted |= Thread.interrupted();
+					reopen(ch, e);
+				}
 			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		if (map.hasArray())
+			return new ByteArrayWindow(this, pos, map.array());
+		return new ByteBufferWindow(this, pos, map);
+	}
+
+	private static MappedByteBuffer map(final FileChannel ch, final long pos,
+			final int size) throws IOException {
+		try {
+			return ch.map(MapMode.READ_ONLY, pos, size);
+		} catch (ClosedChannelException e) {
+			throw e;
+		} catch (IOException ioe1) {
+			// The most likely reason this failed is the JVM has run out
+			// of virtual memory. We need to discard quickly, and try to
+			// force the GC to finalize and release any existing mappings.
+			//
+			System.gc();
+			System.runFinalization();
+			return ch.map(MapMode.READ_ONLY, pos, size);
+		}
+	}
 
-			if (map.hasArray())
-				return new ByteArrayWindow(this, pos, map.array());
-			return new ByteBufferWindow(this, pos, map);
+	/**
+	 * Replace a channel closed by the interruption of a reading thread.
+	 * <p>
+	 * Interrupting a thread blocked in a channel read closes the channel for
+	 * every thread, unlike the RandomAccessFile reads this class used to do.
+	 * To keep reads uninterruptible, the channel is opened again and the read
+	 * retried; the caller restores the thread's interrupt status afterwards.
+	 *
+	 * @param closed
+	 *            the channel the failed read used.
+	 * @param err
+	 *            the failure of the read.
+	 * @throws IOException
+	 *             the pack was closed on purpose, or it cannot be opened again.
+	 */
+	private void reopen(final FileChannel closed,
+			final ClosedChannelException err) throws IOException {
+		synchronized (readLock) {
+			if (fd == null)
+				throw err;
+			if (fd == closed && !closed.isOpen())
+				fd = new RandomAccessFile(packFile, "r").getChannel();
 		}
 	}
 
@@ -586,8 +939,7 @@ private void onOpenPack() throws IOException {
 		final PackIndex idx = idx();
 		final byte[] buf = new byte[20];
 
-		fd.seek(0);
-		fd.readFully(buf, 0, 12);
+		pread(0, buf, 0, 12);
 		if (RawParseUtils.match(buf, 0, Constants.PACK_SIGNATURE) != 4)
 			throw new IOException(JGitText.get().notAPACKFile);
 		final long vers = NB.decodeUInt32(buf, 4);
@@ -599,8 +951,7 @@ private void onOpenPack() throws IOException {
 			throw new PackMismatchException(MessageFormat.format(
 					JGitText.get().packObjectCountMismatch, packCnt, idx.getObjectCount(), getPackFile()));
 
-		fd.seek(length - 20);
-		fd.read(buf, 0, 20);
+		pread(length - 20, buf, 0, 20);
 		if (!Arrays.equals(buf, packChecksum))
 			throw new PackMismatchException(MessageFormat.format(
 					JGitText.get().packObjectCountMismatch
@@ -693,7 +1044,7 @@ private ObjectLoader loadDelta(long posSelf, int hdrLen, long sz,
 		byte[] data;
 		int type;
 
-		UnpackedObjectCache.Entry e = readCache(posBase);
+		DeltaBaseCache.Entry e = readCache(posBase);
 		if (e != null) {
 			data = e.data;
 			type = e.type;
@@ -888,8 +1239,19 @@ private long findEndOffset(final long startOffset)
 	}
 
 	private synchronized PackReverseIndex getReverseIdx() throws IOException {
-		if (reverseIdx == null)
-			reverseIdx = new PackReverseIndex(idx());
+		if (reverseIdx == null) {
+			final PackIndex idx = idx();
+			if (reverseIdxFile.isFile()) {
+				try {
+					reverseIdx = PackReverseIndex.open(reverseIdxFile, idx);
+				} catch (IOException notUsable) {
+					// A damaged or stale file is only an optimization;
+					// compute the reverse index instead.
+				}
+			}
+			if (reverseIdx == null)
+				reverseIdx = PackReverseIndex.computeFromIndex(idx);
+		}
 		return reverseIdx;
 	}
 
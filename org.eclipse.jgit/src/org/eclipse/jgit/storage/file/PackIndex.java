@@ -48,11 +48,15 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.text.MessageFormat;
 import java.util.Iterator;
+import java.util.Set;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -75,6 +79,9 @@ public abstract class PackIndex implements Iterable<PackIndex.MutableEntry> {
 	 * The format of the file will be automatically detected and a proper access
 	 * implementation for that format will be constructed and returned to the
 	 * caller. The file may or may not be held open by the returned instance.
+	 * Version 2 indexes of at least
+	 * {@link WindowCacheConfig#getPackedIndexMmapThreshold()} bytes are memory
+	 * mapped rather than read onto the heap.
 	 * </p>
 	 *
 	 * @param idxFile
@@ -87,6 +94,24 @@ public abstract class PackIndex implements Iterable<PackIndex.MutableEntry> {
 	 *             unrecognized data version, or unexpected data corruption.
 	 */
 	public static PackIndex open(final File idxFile) throws IOException {
+		return open(idxFile, mmapThreshold);
+	}
+
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mapAbove
+	 *            version 2 index files at least this large are memory mapped
+	 *            and searched in place, instead of being read onto the heap.
+	 *            0 never maps the file.
+	 * @return access implementation for the requested file.
+	 * @throws IOException
+	 *             the file does not exist, or could not be read.
+	 */
+	static PackIndex open(final File idxFile, final long mapAbove)
+			throws IOException {
 		final FileInputStream fd = new FileInputStream(idxFile);
 		try {
 			final byte[] hdr = new byte[8];
@@ -94,8 +119,15 @@ public static PackIndex open(final File idxFile) throws IOException {
 			if (isTOC(hdr)) {
 				final int v = NB.decodeInt32(hdr, 4);
 				switch (v) {
-				case 2:
+				case 2: {
+					final FileChannel ch = fd.getChannel();
+					final long size = ch.size();
+					if (0 < mapAbove && mapAbove <= size
+							&& size <= Integer.MAX_VALUE)
+						return new MappedPackIndexV2(ch.map(MapMode.READ_ONLY,
+								0, size));
 					return new PackIndexV2(fd);
+				}
 				default:
 					throw new IOException(MessageFormat.format(JGitText.get().unsupportedPackIndexVersion, v));
 				}
@@ -116,6 +148,20 @@ public static PackIndex open(final File idxFile) throws IOException {
 		}
 	}
 
+	/** Size from which {@link #open(File)} maps index files. */
+	private static volatile long mmapThreshold = new WindowCacheConfig()
+			.getPackedIndexMmapThreshold();
+
+	/**
+	 * Apply a new configuration to indexes opened from now on.
+	 *
+	 * @param cfg
+	 *            the new configuration.
+	 */
+	static void reconfigure(final WindowCacheConfig cfg) {
+		mmapThreshold = cfg.getPackedIndexMmapThreshold();
+	}
+
 	private static boolean isTOC(final byte[] h) {
 		final byte[] toc = PackIndexWriter.TOC;
 		for (int i = 0; i < toc.length; i++)
@@ -167,6 +213,16 @@ public boolean hasObject(final AnyObjectId id) {
 	 */
 	abstract long getOffset64Count();
 
+	/**
+	 * Obtain the number of objects up to a fan-out bucket.
+	 *
+	 * @param levelOne
+	 *            first byte of the object names, 0..255.
+	 * @return number of objects whose first byte is at most
+	 *         <code>levelOne</code>.
+	 */
+	abstract long getFanout(int levelOne);
+
 	/**
 	 * Get ObjectId for the n-th object entry returned by {@link #iterator()}.
 	 * <p>
@@ -216,6 +272,17 @@ final ObjectId getObjectId(final int nthPosition) {
 		return getObjectId(((long) u31) << 1 | one);
 	}
 
+	/**
+	 * Get the offset of the n-th object entry returned by {@link #iterator()}.
+	 *
+	 * @param nthPosition
+	 *            position within the traversal of {@link #iterator()} that the
+	 *            caller needs the offset for. The first returned
+	 *            {@link MutableEntry} is 0, the second is 1, etc.
+	 * @return offset of the object's header and compressed content.
+	 */
+	abstract long getOffset(long nthPosition);
+
 	/**
 	 * Locate the file offset position for the requested object.
 	 *
@@ -227,6 +294,59 @@ final ObjectId getObjectId(final int nthPosition) {
 	 */
 	abstract long findOffset(AnyObjectId objId);
 
+	/**
+	 * Locate the position of an object within {@link #iterator()}.
+	 * <p>
+	 * This is the inverse of {@link #getObjectId(long)}.
+	 *
+	 * @param objId
+	 *            name of the object to locate within the index.
+	 * @return position of the object's entry within the SHA-1 sorted order of
+	 *         this index; -1 if the object does not exist in this index.
+	 */
+	abstract long findPosition(AnyObjectId objId);
+
+	/**
+	 * Find objects matching the prefix abbreviation.
+	 * <p>
+	 * The fan-out table narrows the search to the buckets the abbreviation
+	 * can fall into; a binary search then finds the first matching entry, and
+	 * the matches are read from there in sorted order.
+	 *
+	 * @param matches
+	 *            set to add any located ObjectIds to. This is an output
+	 *            parameter.
+	 * @param id
+	 *            prefix to search for.
+	 * @param matchLimit
+	 *            maximum number of results to return. At most this many
+	 *            ObjectIds should be added to matches before returning.
+	 */
+	void resolve(final Set<ObjectId> matches, final AbbreviatedObjectId id,
+			final int matchLimit) {
+		final int first = id.getFirstByte();
+		final int last = id.length() >= 2 ? first
+				: first | (0xff >>> (id.length() * 4));
+		long low = first > 0 ? getFanout(first - 1) : 0;
+		final long high = getFanout(last);
+
+		long end = high;
+		while (low < end) {
+			final long mid = (low + end) >>> 1;
+			if (id.prefixCompare(getObjectId(mid)) > 0)
+				low = mid + 1;
+			else
+				end = mid;
+		}
+
+		for (long p = low; p < high && matches.size() < matchLimit; p++) {
+			final ObjectId candidate = getObjectId(p);
+			if (id.prefixCompare(candidate) != 0)
+				break;
+			matches.add(candidate);
+		}
+	}
+
 	/**
 	 * Retrieve stored CRC32 checksum of the requested object raw-data
 	 * (including header).
@@ -100,6 +100,11 @@ long getObjectCount() {
 		return objectCnt;
 	}
 
+	@Override
+	long getFanout(final int levelOne) {
+		return idxHeader[levelOne];
+	}
+
 	@Override
 	long getOffset64Count() {
 		long n64 = 0;
@@ -112,13 +117,29 @@ long getOffset64Count() {
 
 	@Override
 	ObjectId getObjectId(final long nthPosition) {
+		final int levelOne = levelOne(nthPosition);
+		final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+		final int p = (int) (nthPosition - base);
+		final int dataIdx = ((4 + Constants.OBJECT_ID_LENGTH) * p) + 4;
+		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final int levelOne = levelOne(nthPosition);
+		final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+		final int p = (int) (nthPosition - base);
+		return NB.decodeUInt32(idxdata[levelOne],
+				(4 + Constants.OBJECT_ID_LENGTH) * p);
+	}
+
+	private int levelOne(final long nthPosition) {
 		int levelOne = Arrays.binarySearch(idxHeader, nthPosition + 1);
-		long base;
 		if (levelOne >= 0) {
 			// If we hit the bucket exactly the item is in the bucket, or
 			// any bucket before it which has the same object count.
 			//
-			base = idxHeader[levelOne];
+			final long base = idxHeader[levelOne];
 			while (levelOne > 0 && base == idxHeader[levelOne - 1])
 				levelOne--;
 		} else {
@@ -126,11 +147,7 @@ ObjectId getObjectId(final long nthPosition) {
 			//
 			levelOne = -(levelOne + 1);
 		}
-
-		base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
-		final int p = (int) (nthPosition - base);
-		final int dataIdx = ((4 + Constants.OBJECT_ID_LENGTH) * p) + 4;
-		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+		return levelOne;
 	}
 
 	long findOffset(final AnyObjectId objId) {
@@ -158,6 +175,29 @@ else if (cmp == 0) {
 		return -1;
 	}
 
+	@Override
+	long findPosition(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		byte[] data = idxdata[levelOne];
+		if (data == null)
+			return -1;
+		int high = data.length / (4 + Constants.OBJECT_ID_LENGTH);
+		int low = 0;
+		do {
+			final int mid = (low + high) >>> 1;
+			final int pos = ((4 + Constants.OBJECT_ID_LENGTH) * mid) + 4;
+			final int cmp = objId.compareTo(data, pos);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0) {
+				final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+				return base + mid;
+			} else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+
 	@Override
 	long findCRC32(AnyObjectId objId) {
 		throw new UnsupportedOperationException();
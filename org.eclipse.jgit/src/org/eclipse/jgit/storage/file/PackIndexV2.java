@@ -163,6 +163,11 @@ long getObjectCount() {
 		return objectCnt;
 	}
 
+	@Override
+	long getFanout(final int levelOne) {
+		return fanoutTable[levelOne];
+	}
+
 	@Override
 	long getOffset64Count() {
 		return offset64.length / 8;
@@ -170,13 +175,28 @@ long getOffset64Count() {
 
 	@Override
 	ObjectId getObjectId(final long nthPosition) {
+		final int levelOne = levelOne(nthPosition);
+		final long base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		final int p = (int) (nthPosition - base);
+		final int p4 = p << 2;
+		return ObjectId.fromRaw(names[levelOne], p4 + p); // p * 5
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final int levelOne = levelOne(nthPosition);
+		final long base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		final int p = (int) (nthPosition - base);
+		return offset(levelOne, p);
+	}
+
+	private int levelOne(final long nthPosition) {
 		int levelOne = Arrays.binarySearch(fanoutTable, nthPosition + 1);
-		long base;
 		if (levelOne >= 0) {
 			// If we hit the bucket exactly the item is in the bucket, or
 			// any bucket before it which has the same object count.
 			//
-			base = fanoutTable[levelOne];
+			final long base = fanoutTable[levelOne];
 			while (levelOne > 0 && base == fanoutTable[levelOne - 1])
 				levelOne--;
 		} else {
@@ -184,11 +204,14 @@ ObjectId getObjectId(final long nthPosition) {
 			//
 			levelOne = -(levelOne + 1);
 		}
+		return levelOne;
+	}
 
-		base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
-		final int p = (int) (nthPosition - base);
-		final int p4 = p << 2;
-		return ObjectId.fromRaw(names[levelOne], p4 + p); // p * 5
+	private long offset(final int levelOne, final int levelTwo) {
+		final long p = NB.decodeUInt32(offset32[levelOne], levelTwo << 2);
+		if ((p & IS_O64) != 0)
+			return NB.decodeUInt64(offset64, (8 * (int) (p & ~IS_O64)));
+		return p;
 	}
 
 	@Override
@@ -197,10 +220,17 @@ long findOffset(final AnyObjectId objId) {
 		final int levelTwo = binarySearchLevelTwo(objId, levelOne);
 		if (levelTwo == -1)
 			return -1;
-		final long p = NB.decodeUInt32(offset32[levelOne], levelTwo << 2);
-		if ((p & IS_O64) != 0)
-			return NB.decodeUInt64(offset64, (8 * (int) (p & ~IS_O64)));
-		return p;
+		return offset(levelOne, levelTwo);
+	}
+
+	@Override
+	long findPosition(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		final int levelTwo = binarySearchLevelTwo(objId, levelOne);
+		if (levelTwo == -1)
+			return -1;
+		final long base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		return base + levelTwo;
 	}
 
 	@Override
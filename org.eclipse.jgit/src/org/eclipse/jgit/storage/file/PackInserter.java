@@ -0,0 +1,629 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.InflaterCache;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Inserts objects into a new pack of an {@link ObjectDirectory}.
+ * <p>
+ * Unlike the default inserter, which stores every object as its own loose
+ * file, this inserter appends the objects to a single temporary pack. On
+ * {@link #flush()} the pack is completed, its index written, and both are
+ * moved into <code>objects/pack</code>. This avoids creating thousands of
+ * small files when importing many objects at once.
+ * <p>
+ * Until the inserter is flushed its objects are only visible through the
+ * readers created by {@link #newReader()}. Objects already present in the
+ * repository, or inserted twice, are stored only once. If the inserter is
+ * released without being flushed the temporary pack is deleted.
+ */
+public class PackInserter extends ObjectInserter {
+	/** Objects larger than this are streamed into the pack. */
+	private static final int MAX_BUFFERED = 64 * 1024;
+
+	private final ObjectDirectory db;
+
+	private final int compression;
+
+	private final int indexVersion;
+
+	private final boolean writeReverseIndex;
+
+	private final int streamFileThreshold;
+
+	private final List<PackedObjectInfo> objectList;
+
+	private ObjectIdSubclassMap<PackedObjectInfo> objectMap;
+
+	private File tmpPack;
+
+	private RandomAccessFile file;
+
+	private PackStream packOut;
+
+	private Deflater deflate;
+
+	private final byte[] hdrBuf = new byte[32];
+
+	PackInserter(final ObjectDirectory db, final Config cfg) {
+		final CoreConfig core = cfg.get(CoreConfig.KEY);
+		this.db = db;
+		this.compression = core.getCompression();
+		this.indexVersion = core.getPackIndexVersion();
+		this.writeReverseIndex = core.isWriteReverseIndex();
+		this.streamFileThreshold = core.getStreamFileThreshold();
+		this.objectList = new ArrayList<PackedObjectInfo>();
+		this.objectMap = new ObjectIdSubclassMap<PackedObjectInfo>();
+	}
+
+	/**
+	 * Create a reader which also sees the objects not yet flushed.
+	 * <p>
+	 * The reader remains usable after {@link #flush()}, when the objects it
+	 * returned from the temporary pack are found in the repository instead.
+	 * It must be released before the inserter is.
+	 *
+	 * @return a new reader.
+	 */
+	public ObjectReader newReader() {
+		return new Reader();
+	}
+
+	@Override
+	public ObjectId insert(final int type, final byte[] data, final int off,
+			final int len) throws IOException {
+		final ObjectId id = idFor(type, data, off, len);
+		if (objectMap.contains(id) || db.has(id))
+			return id;
+
+		final long offset = beginObject(type, len);
+		final DeflaterOutputStream out = compress();
+		out.write(data, off, len);
+		out.finish();
+		endObject(id, offset);
+		return id;
+	}
+
+	@Override
+	public ObjectId insert(final int type, long len, final InputStream in)
+			throws IOException {
+		if (len <= MAX_BUFFERED) {
+			final byte[] buf = new byte[(int) len];
+			IO.readFully(in, buf, 0, buf.length);
+			return insert(type, buf, 0, buf.length);
+		}
+
+		final MessageDigest md = digest();
+		md.update(Constants.encodedTypeString(type));
+		md.update((byte) ' ');
+		md.update(Constants.encodeASCII(len));
+		md.update((byte) 0);
+
+		final long offset = beginObject(type, len);
+		final DeflaterOutputStream out = compress();
+		final byte[] buf = buffer();
+		while (0 < len) {
+			final int n = in.read(buf, 0, (int) Math.min(len, buf.length));
+			if (n <= 0)
+				throw new EOFException(MessageFormat.format(
+						JGitText.get().inputDidNotMatchLength, len));
+			md.update(buf, 0, n);
+			out.write(buf, 0, n);
+			len -= n;
+		}
+		out.finish();
+
+		final ObjectId id = ObjectId.fromRaw(md.digest());
+		if (objectMap.contains(id) || db.has(id)) {
+			// The object was only known once it was written. Drop the
+			// copy, so the pack does not store the object twice.
+			//
+			packOut.truncate(offset);
+			return id;
+		}
+		endObject(id, offset);
+		return id;
+	}
+
+	private long beginObject(final int type, long len) throws IOException {
+		if (file == null)
+			beginPack();
+
+		final long offset = packOut.position;
+		packOut.crc.reset();
+		long nextLength = len >>> 4;
+		int n = 0;
+		hdrBuf[n++] = (byte) ((nextLength > 0 ? 0x80 : 0x00) | (type << 4) | (len & 0x0F));
+		len = nextLength;
+		while (len > 0) {
+			nextLength >>>= 7;
+			hdrBuf[n++] = (byte) ((nextLength > 0 ? 0x80 : 0x00) | (len & 0x7F));
+			len = nextLength;
+		}
+		packOut.write(hdrBuf, 0, n);
+		return offset;
+	}
+
+	private void endObject(final ObjectId id, final long offset) {
+		final PackedObjectInfo oe = new PackedObjectInfo(id);
+		oe.setOffset(offset);
+		oe.setCRC((int) packOut.crc.getValue());
+		objectList.add(oe);
+		objectMap.add(oe);
+	}
+
+	private void beginPack() throws IOException {
+		final File packDir = new File(db.getDirectory(), "pack");
+		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCreateDirectory, packDir
+							.getAbsolutePath()));
+
+		tmpPack = File.createTempFile("insert_", ".pack", packDir);
+		file = new RandomAccessFile(tmpPack, "rw");
+		packOut = new PackStream();
+
+		System.arraycopy(Constants.PACK_SIGNATURE, 0, hdrBuf, 0, 4);
+		NB.encodeInt32(hdrBuf, 4, 2); // Always use pack version 2.
+		NB.encodeInt32(hdrBuf, 8, 0); // Object count, set by flush.
+		packOut.write(hdrBuf, 0, 12);
+	}
+
+	private DeflaterOutputStream compress() {
+		if (deflate == null)
+			deflate = new Deflater(compression);
+		else
+			deflate.reset();
+		return new DeflaterOutputStream(packOut, deflate, 8192);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void flush() throws IOException {
+		if (file == null)
+			return;
+
+		final byte[] packHash;
+		try {
+			packOut.flushBuffer();
+			NB.encodeInt32(hdrBuf, 0, objectList.size());
+			file.seek(8);
+			file.write(hdrBuf, 0, 4);
+
+			// The object count at the start of the pack was only known
+			// now, so the checksum has to be computed over the file again.
+			//
+			final MessageDigest md = Constants.newMessageDigest();
+			final byte[] buf = buffer();
+			final long end = packOut.position;
+			file.seek(0);
+			for (long pos = 0; pos < end;) {
+				final int n = (int) Math.min(end - pos, buf.length);
+				file.readFully(buf, 0, n);
+				md.update(buf, 0, n);
+				pos += n;
+			}
+			packHash = md.digest();
+			file.write(packHash);
+			file.getChannel().force(true);
+		} finally {
+			file.close();
+			file = null;
+		}
+
+		Collections.sort(objectList);
+		final File tmpIdx = new File(tmpPack.getPath().replaceAll(
+				"\\.pack$", ".idx"));
+		final File tmpRev = new File(tmpPack.getPath().replaceAll(
+				"\\.pack$", ".rev"));
+		try {
+			writeIndex(tmpIdx, packHash);
+			if (writeReverseIndex)
+				writeReverseIndex(tmpRev, packHash);
+			movePack(tmpIdx, tmpRev);
+		} finally {
+			if (tmpPack.exists())
+				tmpPack.delete();
+			if (tmpIdx.exists())
+				tmpIdx.delete();
+			if (tmpRev.exists())
+				tmpRev.delete();
+			tmpPack = null;
+			packOut = null;
+			objectList.clear();
+			objectMap = new ObjectIdSubclassMap<PackedObjectInfo>();
+		}
+	}
+
+	private void writeIndex(final File idx, final byte[] packHash)
+			throws IOException {
+		final FileOutputStream os = new FileOutputStream(idx);
+		try {
+			final PackIndexWriter iw;
+			if (indexVersion <= 0)
+				iw = PackIndexWriter.createOldestPossible(os, objectList);
+			else
+				iw = PackIndexWriter.createVersion(os, indexVersion);
+			iw.write(objectList, packHash);
+			os.getChannel().force(true);
+		} finally {
+			os.close();
+		}
+	}
+
+	private void writeReverseIndex(final File rev, final byte[] packHash)
+			throws IOException {
+		final FileOutputStream os = new FileOutputStream(rev);
+		try {
+			new PackReverseIndexWriter(os).write(objectList, packHash);
+			os.getChannel().force(true);
+		} finally {
+			os.close();
+		}
+	}
+
+	private void movePack(final File tmpIdx, final File tmpRev)
+			throws IOException {
+		final MessageDigest md = digest();
+		final byte[] buf = new byte[Constants.OBJECT_ID_LENGTH];
+		for (final PackedObjectInfo oe : objectList) {
+			oe.copyRawTo(buf, 0);
+			md.update(buf);
+		}
+		final String name = ObjectId.fromRaw(md.digest()).name();
+		final File packDir = tmpPack.getParentFile();
+		final File finalPack = new File(packDir, "pack-" + name + ".pack");
+		final File finalIdx = new File(packDir, "pack-" + name + ".idx");
+		final File finalRev = new File(packDir, "pack-" + name + ".rev");
+
+		if (finalPack.exists()) {
+			// The same objects were packed before; keep the existing pack.
+			return;
+		}
+
+		tmpPack.setReadOnly();
+		tmpIdx.setReadOnly();
+		if (!tmpPack.renameTo(finalPack))
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMovePackTo, finalPack));
+		if (tmpRev.exists()) {
+			// The reverse index is optional; without it the pack sorts its
+			// offsets when first needed.
+			tmpRev.setReadOnly();
+			tmpRev.renameTo(finalRev);
+		}
+		if (!tmpIdx.renameTo(finalIdx)) {
+			if (!finalPack.delete())
+				finalPack.deleteOnExit();
+			finalRev.delete();
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotMoveIndexTo, finalIdx));
+		}
+		db.openPack(finalPack, finalIdx);
+	}
+
+	@Override
+	public void release() {
+		try {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException err) {
+					// Ignore; the file is deleted below.
+				}
+				file = null;
+			}
+			if (tmpPack != null) {
+				tmpPack.delete();
+				tmpPack = null;
+			}
+			packOut = null;
+			objectList.clear();
+			objectMap = new ObjectIdSubclassMap<PackedObjectInfo>();
+		} finally {
+			if (deflate != null) {
+				try {
+					deflate.end();
+				} finally {
+					deflate = null;
+				}
+			}
+		}
+	}
+
+	/** Buffered stream appending to the temporary pack. */
+	private class PackStream extends OutputStream {
+		final CRC32 crc = new CRC32();
+
+		private final byte[] buf = new byte[8192];
+
+		private int cnt;
+
+		/** Position in the pack of the next byte written. */
+		long position;
+
+		private final byte[] one = new byte[1];
+
+		@Override
+		public void write(final int b) throws IOException {
+			one[0] = (byte) b;
+			write(one, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			crc.update(b, off, len);
+			position += len;
+			if (buf.length <= cnt + len) {
+				flushBuffer();
+				if (buf.length <= len) {
+					file.write(b, off, len);
+					return;
+				}
+			}
+			System.arraycopy(b, off, buf, cnt, len);
+			cnt += len;
+		}
+
+		void flushBuffer() throws IOException {
+			if (0 < cnt) {
+				file.write(buf, 0, cnt);
+				cnt = 0;
+			}
+		}
+
+		void truncate(final long pos) throws IOException {
+			flushBuffer();
+			file.setLength(pos);
+			file.seek(pos);
+			position = pos;
+		}
+	}
+
+	/** Reader looking into the temporary pack before the repository. */
+	private class Reader extends ObjectReader {
+		private final ObjectReader ctx = db.newReader();
+
+		private final byte[] readBuf = new byte[8192];
+
+		@Override
+		public ObjectReader newReader() {
+			return new Reader();
+		}
+
+		@Override
+		public boolean has(final AnyObjectId objectId) throws IOException {
+			return objectMap.contains(objectId) || ctx.has(objectId);
+		}
+
+		@Override
+		public Collection<ObjectId> resolve(final AbbreviatedObjectId id)
+				throws IOException {
+			final Collection<ObjectId> found = ctx.resolve(id);
+			final HashSet<ObjectId> matches = new HashSet<ObjectId>(found);
+			for (final PackedObjectInfo oe : objectList) {
+				if (id.prefixCompare(oe) == 0)
+					matches.add(oe.copy());
+			}
+			return matches;
+		}
+
+		@Override
+		public ObjectLoader open(final AnyObjectId objectId, final int typeHint)
+				throws MissingObjectException, IncorrectObjectTypeException,
+				IOException {
+			final PackedObjectInfo oe = objectMap.get(objectId);
+			if (oe == null)
+				return ctx.open(objectId, typeHint);
+
+			packOut.flushBuffer();
+			final RandomAccessFile in = new RandomAccessFile(tmpPack, "r");
+			try {
+				in.seek(oe.getOffset());
+				int c = in.readUnsignedByte();
+				final int type = (c >> 4) & 7;
+				long size = c & 15;
+				int shift = 4;
+				while ((c & 0x80) != 0) {
+					c = in.readUnsignedByte();
+					size += ((long) (c & 0x7f)) << shift;
+					shift += 7;
+				}
+				if (typeHint != OBJ_ANY && type != typeHint)
+					throw new IncorrectObjectTypeException(objectId.copy(),
+							typeHint);
+
+				final long dataOffset = in.getFilePointer();
+				if (size < streamFileThreshold)
+					return new ObjectLoader.SmallObject(type, inflate(in,
+							objectId, (int) size));
+				return new LargeObject(objectId.copy(), type, size, tmpPack,
+						dataOffset);
+			} finally {
+				in.close();
+			}
+		}
+
+		private byte[] inflate(final RandomAccessFile in,
+				final AnyObjectId objectId, final int size) throws IOException {
+			final byte[] dst = new byte[size];
+			final Inflater inf = InflaterCache.get();
+			try {
+				int p = 0;
+				while (p < size && !inf.finished()) {
+					if (inf.needsInput()) {
+						final int n = in.read(readBuf);
+						if (n <= 0)
+							break;
+						inf.setInput(readBuf, 0, n);
+					}
+					p += inf.inflate(dst, p, size - p);
+				}
+				if (p != size)
+					throw new CorruptObjectException(objectId.copy(),
+							JGitText.get().packfileCorruptionDetected);
+				return dst;
+			} catch (DataFormatException e) {
+				final CorruptObjectException err = new CorruptObjectException(
+						objectId.copy(),
+						JGitText.get().packfileCorruptionDetected);
+				err.initCause(e);
+				throw err;
+			} finally {
+				InflaterCache.release(inf);
+			}
+		}
+
+		@Override
+		public void release() {
+			ctx.release();
+		}
+	}
+
+	private static class LargeObject extends ObjectLoader {
+		private final ObjectId id;
+
+		private final int type;
+
+		private final long size;
+
+		private final File pack;
+
+		private final long dataOffset;
+
+		LargeObject(final ObjectId id, final int type, final long size,
+				final File pack, final long dataOffset) {
+			this.id = id;
+			this.type = type;
+			this.size = size;
+			this.pack = pack;
+			this.dataOffset = dataOffset;
+		}
+
+		@Override
+		public int getType() {
+			return type;
+		}
+
+		@Override
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public boolean isLarge() {
+			return true;
+		}
+
+		@Override
+		public byte[] getCachedBytes() throws LargeObjectException {
+			throw new LargeObjectException(id);
+		}
+
+		@Override
+		public ObjectStream openStream() throws MissingObjectException,
+				IOException {
+			final FileInputStream fd;
+			try {
+				fd = new FileInputStream(pack);
+			} catch (IOException gone) {
+				// The inserter was flushed or released since.
+				throw new MissingObjectException(id, type);
+			}
+			try {
+				IO.skipFully(fd, dataOffset);
+			} catch (IOException err) {
+				fd.close();
+				throw err;
+			}
+			final InputStream in = new InflaterInputStream(
+					new BufferedInputStream(fd, 8192));
+			return new ObjectStream.Filter(type, size, in);
+		}
+	}
+}
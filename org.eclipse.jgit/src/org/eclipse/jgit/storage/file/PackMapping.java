@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PackFile} mapped into virtual memory in its entirety.
+ * <p>
+ * The pack is mapped once, in slices of at most 1 GiB, and readers receive
+ * {@link ByteBufferWindow}s directly over these slices instead of copies
+ * held by the {@link WindowCache}. Mapped bytes live outside of the Java heap,
+ * so they are accounted against their own budget,
+ * {@link WindowCacheConfig#getPackedGitMmapLimit()}, and not against the
+ * window cache's limit.
+ * <p>
+ * A Java mapping is normally only released when the garbage collector finds
+ * its buffer unreachable, which may take arbitrarily long for large, rarely
+ * collected buffers. To release the address space deterministically every
+ * window handed out is reference counted, and the slices are unmapped as soon
+ * as the pack was closed and the last window was released by its cursor.
+ * Reconfiguring the {@link WindowCache} in a way that drops its windows also
+ * closes every mapping, as packs are expected to be reopened afterwards.
+ */
+final class PackMapping {
+	private static final int SLICE_SHIFT = 30;
+
+	private static final long SLICE_SIZE = 1L << SLICE_SHIFT;
+
+	/** Bit of {@link #state} set once the mapping was closed. */
+	private static final int CLOSED = 1 << 30;
+
+	private static volatile long maxByteCount;
+
+	private static final AtomicLong mappedByteCount = new AtomicLong();
+
+	/** Mappings not yet closed, to unmap them on reconfiguration. */
+	private static final ConcurrentHashMap<PackMapping, Boolean> live;
+
+	static {
+		live = new ConcurrentHashMap<PackMapping, Boolean>();
+	}
+
+	/**
+	 * Apply a new configuration.
+	 *
+	 * @param cfg
+	 *            the new configuration.
+	 * @param keep
+	 *            true if the existing mappings may stay in place, as long as
+	 *            they fit in the new limit. If false, or if the limit is
+	 *            lowered, every mapping is closed, and packs map themselves
+	 *            again on their next use.
+	 */
+	static void reconfigure(final WindowCacheConfig cfg, final boolean keep) {
+		final long max = cfg.getPackedGitMmapLimit();
+		final boolean shrink = max < maxByteCount;
+		maxByteCount = max;
+		if (!keep || shrink) {
+			for (final PackMapping m : live.keySet())
+				m.close();
+		}
+	}
+
+	/** @return number of bytes currently mapped by all packs. */
+	static long getMappedByteCount() {
+		return mappedByteCount.get();
+	}
+
+	/**
+	 * Check if a pack may be mapped, without reserving the space yet.
+	 *
+	 * @param size
+	 *            size of the pack, or 0 if not yet known.
+	 * @return true if whole pack mapping is enabled and {@code size} bytes fit
+	 *         in the remaining budget.
+	 */
+	static boolean mayMap(final long size) {
+		final long max = maxByteCount;
+		return 0 < max && mappedByteCount.get() + size <= max;
+	}
+
+	/**
+	 * Map a pack file, if it fits within the budget.
+	 *
+	 * @param pack
+	 *            the pack being mapped.
+	 * @param fd
+	 *            open channel of the pack.
+	 * @param length
+	 *            length of the pack in bytes.
+	 * @return the mapping; null if the budget does not allow it, or the
+	 *         system refused to map the file.
+	 */
+	static PackMapping map(final PackFile pack, final FileChannel fd,
+			final long length) {
+		if (!reserve(length))
+			return null;
+
+		final int cnt = (int) ((length + SLICE_SIZE - 1) >>> SLICE_SHIFT);
+		final MappedByteBuffer[] buffers = new MappedByteBuffer[cnt];
+		try {
+			for (int i = 0; i < cnt; i++) {
+				final long pos = ((long) i) << SLICE_SHIFT;
+				final long size = Math.min(SLICE_SIZE, length - pos);
+				buffers[i] = fd.map(MapMode.READ_ONLY, pos, size);
+			}
+		} catch (IOException mapFailed) {
+			// Most likely the process ran out of address space. Fall back
+			// to the window cache instead of failing the read.
+			//
+			for (final MappedByteBuffer b : buffers) {
+				if (b != null)
+					unmap(b);
+			}
+			mappedByteCount.addAndGet(-length);
+			return null;
+		}
+		final PackMapping m = new PackMapping(pack, length, buffers);
+		live.put(m, Boolean.TRUE);
+		return m;
+	}
+
+	private static boolean reserve(final long size) {
+		for (;;) {
+			final long max = maxByteCount;
+			final long cur = mappedByteCount.get();
+			if (max <= 0 || max < cur + size)
+				return false;
+			if (mappedByteCount.compareAndSet(cur, cur + size))
+				return true;
+		}
+	}
+
+	private final long length;
+
+	private final MappedByteBuffer[] buffers;
+
+	private final Slice[] slices;
+
+	/** Windows held by cursors, plus {@link #CLOSED} once closed. */
+	private final AtomicInteger state;
+
+	private PackMapping(final PackFile pack, final long length,
+			final MappedByteBuffer[] buffers) {
+		this.length = length;
+		this.buffers = buffers;
+		this.slices = new Slice[buffers.length];
+		this.state = new AtomicInteger();
+		for (int i = 0; i < buffers.length; i++)
+			slices[i] = new Slice(pack, ((long) i) << SLICE_SHIFT, buffers[i]);
+	}
+
+	/**
+	 * Obtain the window covering a position of the pack.
+	 * <p>
+	 * The caller must call {@link Slice#release()} once it no longer reads
+	 * from the window.
+	 *
+	 * @param pos
+	 *            position within the pack.
+	 * @return the window; null if the mapping was closed, in which case the
+	 *         pack must be mapped again.
+	 */
+	Slice acquire(final long pos) {
+		for (;;) {
+			final int s = state.get();
+			if ((s & CLOSED) != 0)
+				return null;
+			if (state.compareAndSet(s, s + 1))
+				return slices[(int) (pos >>> SLICE_SHIFT)];
+		}
+	}
+
+	private void release() {
+		if (state.decrementAndGet() == CLOSED)
+			unmapAll();
+	}
+
+	/** Close the mapping, unmapping it once all windows are released. */
+	void close() {
+		for (;;) {
+			final int s = state.get();
+			if ((s & CLOSED) != 0)
+				return;
+			if (state.compareAndSet(s, s | CLOSED)) {
+				live.remove(this);
+				if (s == 0)
+					unmapAll();
+				return;
+			}
+		}
+	}
+
+	private void unmapAll() {
+		for (final MappedByteBuffer b : buffers)
+			unmap(b);
+		mappedByteCount.addAndGet(-length);
+	}
+
+	/**
+	 * Release the mapping of a buffer without waiting for the GC.
+	 * <p>
+	 * There is no public API for this, so the JVM's internal cleaner is used
+	 * if it can be found. Otherwise the mapping stays in place until the
+	 * buffer is garbage collected.
+	 *
+	 * @param buf
+	 *            the buffer to unmap. It must not be accessed afterwards.
+	 */
+	private static void unmap(final ByteBuffer buf) {
+		try {
+			// Java 9 and later.
+			final Class<?> c = Class.forName("sun.misc.Unsafe");
+			final Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			final Method clean = c.getMethod("invokeCleaner", ByteBuffer.class);
+			clean.invoke(f.get(null), buf);
+			return;
+		} catch (Exception notSupported) {
+			// Try the older internal API below.
+		}
+
+		try {
+			final Method m = buf.getClass().getMethod("cleaner");
+			m.setAccessible(true);
+			final Object cleaner = m.invoke(buf);
+			if (cleaner != null)
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch (Exception notSupported) {
+			// Leave the mapping to the garbage collector.
+		}
+	}
+
+	/** A window over one slice of the mapping, counted while in use. */
+	final class Slice extends ByteBufferWindow {
+		Slice(final PackFile pack, final long o, final ByteBuffer b) {
+			super(pack, o, b);
+		}
+
+		/** Release the window obtained from {@link PackMapping#acquire(long)}. */
+		void release() {
+			PackMapping.this.release();
+		}
+	}
+}
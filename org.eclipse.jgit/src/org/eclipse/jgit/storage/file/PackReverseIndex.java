@@ -43,13 +43,11 @@
 
 package org.eclipse.jgit.storage.file;
 
-import java.text.MessageFormat;
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
 
-import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.storage.file.PackIndex.MutableEntry;
 
 /**
  * <p>
@@ -57,74 +55,45 @@
  * instead of object id. Such offset-based reverse lookups are performed in
  * O(log n) time.
  * </p>
+ * <p>
+ * The reverse index is either read from the <code>.rev</code> file written
+ * next to the pack by {@link PackReverseIndexWriter}, or computed from the
+ * forward index when that file does not exist.
+ * </p>
  *
  * @see PackIndex
  * @see PackFile
  */
-class PackReverseIndex {
-	/** Index we were created from, and that has our ObjectId data. */
-	private final PackIndex index;
-
-	/**
-	 * (offset31, truly) Offsets accommodating in 31 bits.
-	 */
-	private final int offsets32[];
-
+abstract class PackReverseIndex {
 	/**
-	 * Offsets not accommodating in 31 bits.
+	 * Compute the reverse index of a pack in memory.
+	 *
+	 * @param packIndex
+	 *            forward index - entries to (reverse) index.
+	 * @return the reverse index.
 	 */
-	private final long offsets64[];
-
-	/** Position of the corresponding {@link #offsets32} in {@link #index}. */
-	private final int nth32[];
-
-	/** Position of the corresponding {@link #offsets64} in {@link #index}. */
-	private final int nth64[];
+	static PackReverseIndex computeFromIndex(final PackIndex packIndex) {
+		return new PackReverseIndexComputed(packIndex);
+	}
 
 	/**
-	 * Create reverse index from straight/forward pack index, by indexing all
-	 * its entries.
+	 * Open an existing pack <code>.rev</code> file.
+	 * <p>
+	 * The file is memory mapped, so opening it does not depend on the number
+	 * of objects in the pack.
 	 *
+	 * @param revFile
+	 *            the reverse index file.
 	 * @param packIndex
-	 *            forward index - entries to (reverse) index.
+	 *            forward index of the same pack.
+	 * @return the reverse index.
+	 * @throws IOException
+	 *             the file cannot be read, or does not belong to the pack of
+	 *             {@code packIndex}.
 	 */
-	PackReverseIndex(final PackIndex packIndex) {
-		index = packIndex;
-
-		final long cnt = index.getObjectCount();
-		final long n64 = index.getOffset64Count();
-		final long n32 = cnt - n64;
-		if (n32 > Integer.MAX_VALUE || n64 > Integer.MAX_VALUE
-				|| cnt > 0xffffffffL)
-			throw new IllegalArgumentException(
-					JGitText.get().hugeIndexesAreNotSupportedByJgitYet);
-
-		offsets32 = new int[(int) n32];
-		offsets64 = new long[(int) n64];
-		nth32 = new int[offsets32.length];
-		nth64 = new int[offsets64.length];
-
-		int i32 = 0;
-		int i64 = 0;
-		for (final MutableEntry me : index) {
-			final long o = me.getOffset();
-			if (o < Integer.MAX_VALUE)
-				offsets32[i32++] = (int) o;
-			else
-				offsets64[i64++] = o;
-		}
-
-		Arrays.sort(offsets32);
-		Arrays.sort(offsets64);
-
-		int nth = 0;
-		for (final MutableEntry me : index) {
-			final long o = me.getOffset();
-			if (o < Integer.MAX_VALUE)
-				nth32[Arrays.binarySearch(offsets32, (int) o)] = nth++;
-			else
-				nth64[Arrays.binarySearch(offsets64, o)] = nth++;
-		}
+	static PackReverseIndex open(final File revFile, final PackIndex packIndex)
+			throws IOException {
+		return PackReverseIndexV1.open(revFile, packIndex);
 	}
 
 	/**
@@ -135,19 +104,7 @@ class PackReverseIndex {
 	 *            start offset of object to find.
 	 * @return object id for this offset, or null if no object was found.
 	 */
-	ObjectId findObject(final long offset) {
-		if (offset <= Integer.MAX_VALUE) {
-			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
-			if (i32 < 0)
-				return null;
-			return index.getObjectId(nth32[i32]);
-		} else {
-			final int i64 = Arrays.binarySearch(offsets64, offset);
-			if (i64 < 0)
-				return null;
-			return index.getObjectId(nth64[i64]);
-		}
-	}
+	abstract ObjectId findObject(long offset);
 
 	/**
 	 * Search for the next offset to the specified offset in this pack (reverse)
@@ -164,31 +121,6 @@ ObjectId findObject(final long offset) {
 	 * @throws CorruptObjectException
 	 *             when there is no object with the provided offset.
 	 */
-	long findNextOffset(final long offset, final long maxOffset)
-			throws CorruptObjectException {
-		if (offset <= Integer.MAX_VALUE) {
-			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
-			if (i32 < 0)
-				throw new CorruptObjectException(MessageFormat.format(
-						JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset
-						, offset));
-
-			if (i32 + 1 == offsets32.length) {
-				if (offsets64.length > 0)
-					return offsets64[0];
-				return maxOffset;
-			}
-			return offsets32[i32 + 1];
-		} else {
-			final int i64 = Arrays.binarySearch(offsets64, offset);
-			if (i64 < 0)
-				throw new CorruptObjectException(MessageFormat.format(
-						JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset
-						, offset));
-
-			if (i64 + 1 == offsets64.length)
-				return maxOffset;
-			return offsets64[i64 + 1];
-		}
-	}
+	abstract long findNextOffset(long offset, long maxOffset)
+			throws CorruptObjectException;
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Reverse index read from a memory mapped <code>.rev</code> file.
+ * <p>
+ * The file holds the index positions of the objects sorted by their offset in
+ * the pack, so an offset is found by a binary search reading the offsets of
+ * the probed positions from the forward index. Nothing is sorted or copied
+ * onto the heap when the file is opened.
+ *
+ * @see PackReverseIndexWriter
+ */
+class PackReverseIndexV1 extends PackReverseIndex {
+	static PackReverseIndexV1 open(final File revFile,
+			final PackIndex packIndex) throws IOException {
+		final FileInputStream in = new FileInputStream(revFile);
+		try {
+			final long size = in.getChannel().size();
+			return new PackReverseIndexV1(in.getChannel().map(
+					MapMode.READ_ONLY, 0, size), packIndex);
+		} catch (IOException ioe) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().unreadablePackReverseIndex, revFile
+							.getAbsolutePath()));
+			err.initCause(ioe);
+			throw err;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Index we were created for, and that has our ObjectId data. */
+	private final PackIndex index;
+
+	private final ByteBuffer buf;
+
+	private final int objectCnt;
+
+	PackReverseIndexV1(final ByteBuffer buf, final PackIndex packIndex)
+			throws IOException {
+		final long cnt = packIndex.getObjectCount();
+		final long size = PackReverseIndexWriter.HEADER_SIZE + cnt * 4 + 2
+				* Constants.OBJECT_ID_LENGTH;
+		if (buf.limit() != size)
+			throw new IOException(JGitText.get().notAPackReverseIndex);
+		for (int i = 0; i < PackReverseIndexWriter.SIGNATURE.length; i++)
+			if (buf.get(i) != PackReverseIndexWriter.SIGNATURE[i])
+				throw new IOException(JGitText.get().notAPackReverseIndex);
+
+		final int version = buf.getInt(4);
+		if (version != PackReverseIndexWriter.VERSION
+				|| buf.getInt(8) != PackReverseIndexWriter.SHA1)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedPackReverseIndexVersion,
+					Integer.valueOf(version)));
+
+		final int sum = PackReverseIndexWriter.HEADER_SIZE + (int) cnt * 4;
+		for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++)
+			if (buf.get(sum + i) != packIndex.packChecksum[i])
+				throw new IOException(
+						JGitText.get().packReverseIndexDoesNotMatchPack);
+
+		this.index = packIndex;
+		this.buf = buf;
+		this.objectCnt = (int) cnt;
+	}
+
+	@Override
+	ObjectId findObject(final long offset) {
+		final int k = search(offset);
+		if (k < 0)
+			return null;
+		return index.getObjectId(positionAt(k));
+	}
+
+	@Override
+	long findNextOffset(final long offset, final long maxOffset)
+			throws CorruptObjectException {
+		final int k = search(offset);
+		if (k < 0)
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().cantFindObjectInReversePackIndexForTheSpecifiedOffset,
+					Long.valueOf(offset)));
+		if (k + 1 == objectCnt)
+			return maxOffset;
+		return index.getOffset(positionAt(k + 1));
+	}
+
+	/** @return index position of the k-th object in pack order. */
+	private long positionAt(final int k) {
+		final int p = PackReverseIndexWriter.HEADER_SIZE + k * 4;
+		return buf.getInt(p) & 0xffffffffL;
+	}
+
+	/** @return pack order of the object at offset; -1 if there is none. */
+	private int search(final long offset) {
+		int low = 0;
+		int high = objectCnt;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final long o = index.getOffset(positionAt(mid));
+			if (offset < o)
+				high = mid;
+			else if (offset == o)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Creates the <code>.rev</code> reverse index of a pack.
+ * <p>
+ * The file lists the position in the pack index of every object, in the order
+ * the objects appear in the pack. It starts with a 12 byte header holding the
+ * signature <code>RIDX</code>, the version and the hash function (1 for
+ * SHA-1), followed by one 4 byte index position per object, the checksum of
+ * the pack, and a SHA-1 of everything before it. This is the format C Git
+ * writes when <code>pack.writeReverseIndex</code> is enabled.
+ * <p>
+ * With the file in place a pack can find the object at a given offset, or the
+ * end of an object, without first sorting the offsets of all of its objects.
+ *
+ * @see PackReverseIndex
+ */
+public class PackReverseIndexWriter {
+	/** Magic constant at the start of every reverse index file. */
+	static final byte[] SIGNATURE = { 'R', 'I', 'D', 'X' };
+
+	/** Current (and only) version of the file format. */
+	static final int VERSION = 1;
+
+	/** Identifier of SHA-1 as the hash function of the pack. */
+	static final int SHA1 = 1;
+
+	/** Size of the header, before the index positions. */
+	static final int HEADER_SIZE = 12;
+
+	private final DigestOutputStream out;
+
+	private final byte[] tmp = new byte[4];
+
+	/**
+	 * Create a new writer instance.
+	 *
+	 * @param dst
+	 *            the stream this instance outputs to. If not already buffered
+	 *            it will be automatically wrapped in a buffered stream.
+	 */
+	public PackReverseIndexWriter(final OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst), Constants.newMessageDigest());
+	}
+
+	/**
+	 * Write the reverse index of the objects to the stream.
+	 * <p>
+	 * After writing the stream is flushed but remains open. Callers are
+	 * always responsible for closing the output stream.
+	 *
+	 * @param toStore
+	 *            the objects of the pack, sorted as they were for the
+	 *            {@link PackIndexWriter}.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content.
+	 * @throws IOException
+	 *             an error occurred while writing to the output stream.
+	 */
+	public void write(final List<? extends PackedObjectInfo> toStore,
+			final byte[] packDataChecksum) throws IOException {
+		final int cnt = toStore.size();
+		final long[] offsets = new long[cnt];
+		for (int i = 0; i < cnt; i++)
+			offsets[i] = toStore.get(i).getOffset();
+		Arrays.sort(offsets);
+
+		final int[] positions = new int[cnt];
+		for (int i = 0; i < cnt; i++) {
+			final long o = toStore.get(i).getOffset();
+			positions[Arrays.binarySearch(offsets, o)] = i;
+		}
+
+		out.write(SIGNATURE);
+		writeInt(VERSION);
+		writeInt(SHA1);
+		for (final int p : positions)
+			writeInt(p);
+		out.write(packDataChecksum);
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+
+	private void writeInt(final int v) throws IOException {
+		NB.encodeInt32(tmp, 0, v);
+		out.write(tmp, 0, 4);
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.CREATE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Type.DELETE;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.RefList;
+
+/**
+ * Applies a {@link BatchRefUpdate} to a {@link RefDirectory} with a single
+ * rewrite of the <code>packed-refs</code> file.
+ * <p>
+ * The updated references are stored packed. The packed-refs file and the loose
+ * file of every reference are locked for the whole batch, so a concurrent
+ * {@link RefUpdate} cannot change a reference the batch is changing. A loose
+ * file is only deleted if it exists; creating thousands of references
+ * therefore writes no loose files at all. Symbolic references, and names
+ * outside of <code>refs/</code>, are left to a {@link RefUpdate} after the
+ * batch.
+ * <p>
+ * Rewriting packed-refs costs time proportional to all references, and
+ * serializes every writer on its lock. A batch of fewer than
+ * {@link #MIN_BATCH_SIZE} commands, such as a push of a single branch, is
+ * therefore applied one {@link RefUpdate} at a time instead.
+ */
+class PackedBatchRefUpdate extends BatchRefUpdate {
+	/** Smallest number of commands stored with one packed-refs rewrite. */
+	static final int MIN_BATCH_SIZE = 100;
+
+	private final RefDirectory refdb;
+
+	PackedBatchRefUpdate(final RefDirectory refdb) {
+		super(refdb);
+		this.refdb = refdb;
+	}
+
+	@Override
+	public void execute(final RevWalk walk, final ProgressMonitor monitor)
+			throws IOException {
+		final List<ReceiveCommand> pending = new ArrayList<ReceiveCommand>();
+		for (final ReceiveCommand cmd : getCommands()) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+				pending.add(cmd);
+		}
+		if (pending.isEmpty())
+			return;
+		if (pending.size() < MIN_BATCH_SIZE) {
+			super.execute(walk, monitor);
+			return;
+		}
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		final Repository db = refdb.getRepository();
+		final LockFile lck = new LockFile(new File(db.getDirectory(),
+				Constants.PACKED_REFS), db.getFS());
+		if (!lck.lock()) {
+			for (final ReceiveCommand cmd : pending)
+				cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+			monitor.endTask();
+			return;
+		}
+
+		final Map<String, LockFile> looseLocks = new HashMap<String, LockFile>();
+		final List<ReceiveCommand> viaRefUpdate = new ArrayList<ReceiveCommand>();
+		final List<ReceiveCommand> applied = new ArrayList<ReceiveCommand>();
+		final List<RefUpdate.Result> results = new ArrayList<RefUpdate.Result>();
+		final List<ObjectId> oldIds = new ArrayList<ObjectId>();
+		final Set<String> loose = new HashSet<String>();
+		final List<String> looseDeleted = new ArrayList<String>();
+		try {
+			final RefList<Ref> packed = refdb.readPackedRefsLocked();
+
+			// The file is either peeled throughout or not at all. Keep it
+			// that way, without peeling the references the batch leaves.
+			final boolean peeled = packed.size() == 0
+					|| packed.get(0).isPeeled();
+			final Map<String, Ref> changes = new HashMap<String, Ref>();
+			final Set<String> names = new HashSet<String>();
+			final Set<String> conflicts = getConflictingCreates(pending);
+			for (final ReceiveCommand cmd : pending) {
+				final String name = cmd.getRefName();
+				if (!names.add(name)) {
+					cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+							MessageFormat.format(JGitText.get().duplicateRef,
+									name));
+					continue;
+				}
+				if (!name.startsWith(Constants.R_REFS)) {
+					viaRefUpdate.add(cmd);
+					continue;
+				}
+				if (cmd.getType() == CREATE
+						&& (conflicts.contains(name) || refdb
+								.isNameConflicting(name))) {
+					cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+					continue;
+				}
+
+				// Lock the loose file even if the reference is only packed,
+				// as a RefUpdate of it only locks that file.
+				final LockFile l = new LockFile(refdb.fileFor(name), db
+						.getFS());
+				if (!l.lock()) {
+					cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+					continue;
+				}
+				looseLocks.put(name, l);
+				Ref cur = refdb.readLooseRef(name);
+				if (cur != null)
+					loose.add(name);
+				else
+					cur = packed.get(name);
+				if (cur != null && cur.isSymbolic()) {
+					looseLocks.remove(name).unlock();
+					loose.remove(name);
+					viaRefUpdate.add(cmd);
+					continue;
+				}
+
+				final ObjectId curId = cur != null ? cur.getObjectId() : null;
+				final RefUpdate.Result r = check(walk, cmd, curId);
+				if (r == RefUpdate.Result.NO_CHANGE
+						|| (r == RefUpdate.Result.NEW && cmd.getType() == DELETE)) {
+					cmd.setResult(r);
+					continue;
+				} else if (r != RefUpdate.Result.NEW
+						&& r != RefUpdate.Result.FAST_FORWARD
+						&& r != RefUpdate.Result.FORCED) {
+					cmd.setResult(r);
+					continue;
+				}
+
+				if (cmd.getType() == DELETE)
+					changes.put(name, null);
+				else {
+					try {
+						changes.put(name, packedRef(walk, name, cmd
+								.getNewId(), peeled));
+					} catch (MissingObjectException e) {
+						cmd.setResult(
+								ReceiveCommand.Result.REJECTED_MISSING_OBJECT,
+								e.getMessage());
+						continue;
+					}
+				}
+				applied.add(cmd);
+				results.add(r);
+				oldIds.add(curId);
+			}
+
+			if (!applied.isEmpty()) {
+				refdb.commitPackedRefs(lck, merge(packed, changes));
+
+				// The packed value is current now, so a loose file would only
+				// hide it.
+				for (final ReceiveCommand cmd : applied) {
+					final String name = cmd.getRefName();
+					if (loose.contains(name)) {
+						RefDirectory.delete(refdb.fileFor(name), 0);
+						looseDeleted.add(name);
+					}
+				}
+				for (int i = 0; i < applied.size(); i++)
+					applied.get(i).setResult(results.get(i));
+				writeLogs(applied, results, oldIds);
+			}
+		} finally {
+			for (final Map.Entry<String, LockFile> e : looseLocks.entrySet()) {
+				e.getValue().unlock();
+				if (!loose.contains(e.getKey()))
+					deleteEmptyDirs(e.getKey());
+			}
+			lck.unlock();
+			if (!applied.isEmpty())
+				refdb.batchApplied(looseDeleted);
+		}
+		monitor.update(pending.size() - viaRefUpdate.size());
+
+		for (final ReceiveCommand cmd : viaRefUpdate) {
+			apply(walk, cmd);
+			monitor.update(1);
+		}
+		monitor.endTask();
+	}
+
+	private static RefList<Ref> merge(final RefList<Ref> packed,
+			final Map<String, Ref> changes) {
+		final RefList.Builder<Ref> b = new RefList.Builder<Ref>(packed.size()
+				+ changes.size());
+		for (int i = 0; i < packed.size(); i++) {
+			final Ref ref = packed.get(i);
+			if (!changes.containsKey(ref.getName()))
+				b.add(ref);
+		}
+		for (final Ref ref : changes.values()) {
+			if (ref != null)
+				b.add(ref);
+		}
+		b.sort();
+		return b.toRefList();
+	}
+
+	private static Ref packedRef(final RevWalk walk, final String name,
+			final ObjectId id, final boolean peeled)
+			throws MissingObjectException, IOException {
+		final RevObject obj = walk.parseAny(id);
+		if (!peeled)
+			return new ObjectIdRef.Unpeeled(PACKED, name, id.copy());
+		if (obj instanceof RevTag)
+			return new ObjectIdRef.PeeledTag(PACKED, name, id.copy(), walk
+					.peel(obj).copy());
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, id.copy());
+	}
+
+	/**
+	 * Remove the directories created to lock a reference, if still empty.
+	 *
+	 * @param name
+	 *            the reference whose loose file did not exist.
+	 */
+	private void deleteEmptyDirs(final String name) {
+		File dir = refdb.fileFor(name).getParentFile();
+		for (int i = RefDirectory.levelsIn(name) - 2; 0 < i; i--) {
+			if (!dir.delete())
+				break; // not empty, or someone else uses it
+			dir = dir.getParentFile();
+		}
+	}
+
+	private void writeLogs(final List<ReceiveCommand> applied,
+			final List<RefUpdate.Result> results, final List<ObjectId> oldIds)
+			throws IOException {
+		final PersonIdent ident = getRefLogIdent() != null ? new PersonIdent(
+				getRefLogIdent()) : new PersonIdent(refdb.getRepository());
+		for (int i = 0; i < applied.size(); i++) {
+			final ReceiveCommand cmd = applied.get(i);
+			final String name = cmd.getRefName();
+			if (cmd.getType() == DELETE) {
+				RefDirectory.delete(refdb.logFor(name),
+						RefDirectory.levelsIn(name) - 2);
+				continue;
+			}
+
+			final String msg = getRefLogMessage(results.get(i));
+			if (msg != null)
+				refdb.log(name, oldIds.get(i), cmd.getNewId(), ident, msg);
+		}
+	}
+}
@@ -69,6 +69,7 @@
 import java.io.InputStreamReader;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -123,6 +124,9 @@ public class RefDirectory extends RefDatabase {
 	/** If in the header, denotes the file has peeled data. */
 	public static final String PACKED_REFS_PEELED = " peeled"; //$NON-NLS-1$
 
+	/** If in the header, the records of the packed-refs file are sorted. */
+	public static final String PACKED_REFS_SORTED = " sorted"; //$NON-NLS-1$
+
 	private final FileRepository parent;
 
 	private final File gitDir;
@@ -203,7 +207,7 @@ void rescan() {
 
 	@Override
 	public boolean isNameConflicting(String name) throws IOException {
-		RefList<Ref> packed = getPackedRefs();
+		PackedRefList packed = getPackedRefs();
 		RefList<LooseRef> loose = getLooseRefs();
 
 		// Cannot be nested within an existing reference.
@@ -219,8 +223,9 @@ public boolean isNameConflicting(String name) throws IOException {
 		String prefix = name + '/';
 		int idx;
 
-		idx = -(packed.find(prefix) + 1);
-		if (idx < packed.size() && packed.get(idx).getName().startsWith(prefix))
+		RefList<Ref> under = packed.getPrefix(prefix);
+		idx = -(under.find(prefix) + 1);
+		if (idx < under.size() && under.get(idx).getName().startsWith(prefix))
 			return true;
 
 		idx = -(loose.find(prefix) + 1);
@@ -248,12 +253,12 @@ private RefList<LooseRef> getLooseRefs() {
 
 	@Override
 	public Ref getRef(final String needle) throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		Ref ref = null;
 		for (String prefix : SEARCH_PATH) {
 			ref = readRef(prefix + needle, packed);
 			if (ref != null) {
-				ref = resolve(ref, 0, null, null, packed);
+				ref = resolve(ref, 0, null, null, null, packed);
 				break;
 			}
 		}
@@ -263,7 +268,7 @@ public Ref getRef(final String needle) throws IOException {
 
 	@Override
 	public Map<String, Ref> getRefs(String prefix) throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		final RefList<LooseRef> oldLoose = looseRefs.get();
 
 		LooseScanner scan = new LooseScanner(oldLoose);
@@ -278,10 +283,11 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 			loose = oldLoose;
 		fireRefsChanged();
 
+		final RefList<Ref> packedUnder = packed.getPrefix(prefix);
 		RefList.Builder<Ref> symbolic = scan.symbolic;
 		for (int idx = 0; idx < symbolic.size();) {
 			Ref ref = symbolic.get(idx);
-			ref = resolve(ref, 0, prefix, loose, packed);
+			ref = resolve(ref, 0, prefix, loose, packedUnder, packed);
 			if (ref != null && ref.getObjectId() != null) {
 				symbolic.set(idx, ref);
 				idx++;
@@ -294,7 +300,8 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 			}
 		}
 
-		return new RefMap(prefix, packed, upcast(loose), symbolic.toRefList());
+		return new RefMap(prefix, packedUnder, upcast(loose), symbolic
+				.toRefList());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -468,10 +475,10 @@ void storedSymbolicRef(RefDirectoryUpdate u, long modified, String target) {
 
 	public RefDirectoryUpdate newUpdate(String name, boolean detach)
 			throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final PackedRefList packed = getPackedRefs();
 		Ref ref = readRef(name, packed);
 		if (ref != null)
-			ref = resolve(ref, 0, null, null, packed);
+			ref = resolve(ref, 0, null, null, null, packed);
 		if (ref == null)
 			ref = new ObjectIdRef.Unpeeled(NEW, name, null);
 		else if (detach && ref.isSymbolic())
@@ -479,6 +486,11 @@ else if (detach && ref.isSymbolic())
 		return new RefDirectoryUpdate(this, ref);
 	}
 
+	@Override
+	public PackedBatchRefUpdate newBatchUpdate() {
+		return new PackedBatchRefUpdate(this);
+	}
+
 	@Override
 	public RefDirectoryRename newRename(String fromName, String toName)
 			throws IOException {
@@ -518,7 +530,7 @@ void delete(RefDirectoryUpdate update) throws IOException {
 				throw new IOException(MessageFormat.format(
 					JGitText.get().cannotLockFile, packedRefsFile));
 			try {
-				PackedRefList cur = readPackedRefs(0, 0);
+				RefList<Ref> cur = readPackedRefs(0, 0).getAll();
 				int idx = cur.find(name);
 				if (0 <= idx)
 					commitPackedRefs(lck, cur.remove(idx), packed);
@@ -547,6 +559,107 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		fireRefsChanged();
 	}
 
+	/**
+	 * Move loose references into the packed-refs file.
+	 * <p>
+	 * Each named reference is written into packed-refs, and its loose file is
+	 * then deleted, unless the reference was modified or locked by another
+	 * writer in the meantime. Symbolic references are never packed. All
+	 * references in the rewritten file are stored with their peeled value.
+	 *
+	 * @param names
+	 *            names of the references to pack, e.g. {@code refs/heads/a}.
+	 * @throws IOException
+	 *             the packed-refs file cannot be locked or written, or a
+	 *             reference cannot be peeled.
+	 */
+	public void pack(final Collection<String> names) throws IOException {
+		if (names.isEmpty())
+			return;
+
+		final FS fs = parent.getFS();
+		final LockFile lck = new LockFile(packedRefsFile, fs);
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, packedRefsFile));
+		try {
+			final PackedRefList packed = getPackedRefs();
+			final PackedRefList onDisk = readPackedRefs(0, 0);
+			RefList<Ref> cur = onDisk.getAll();
+			for (final String name : names) {
+				if (!name.startsWith(R_REFS))
+					continue;
+				final Ref ref = readRef(name, onDisk);
+				if (ref == null || ref.isSymbolic()
+						|| ref.getObjectId() == null)
+					continue;
+				final int idx = cur.find(name);
+				if (0 <= idx)
+					cur = cur.set(idx, peeledPackedRef(ref));
+				else
+					cur = cur.add(idx, peeledPackedRef(ref));
+			}
+
+			// The file is declared as peeled, so every entry has to be.
+			for (int i = 0; i < cur.size(); i++) {
+				final Ref ref = cur.get(i);
+				if (!ref.isPeeled())
+					cur = cur.set(i, peeledPackedRef(ref));
+			}
+			commitPackedRefs(lck, cur, packed);
+
+			for (final String name : names) {
+				final File file = fileFor(name);
+				if (!file.isFile())
+					continue;
+
+				// Hold the reference's lock, so no update can slip in
+				// between comparing the loose value and deleting it.
+				//
+				final LockFile refLck = new LockFile(file, fs);
+				if (!refLck.lock())
+					continue;
+				try {
+					final LooseRef loose = scanRef(null, name);
+					final Ref p = cur.get(name);
+					if (loose == null || loose.isSymbolic() || p == null
+							|| !p.getObjectId().equals(loose.getObjectId()))
+						continue;
+
+					RefList<LooseRef> curLoose, newLoose;
+					do {
+						curLoose = looseRefs.get();
+						final int idx = curLoose.find(name);
+						if (idx < 0)
+							break;
+						newLoose = curLoose.remove(idx);
+					} while (!looseRefs.compareAndSet(curLoose, newLoose));
+					delete(file, levelsIn(name) - 2);
+				} finally {
+					refLck.unlock();
+				}
+			}
+		} finally {
+			lck.unlock();
+		}
+
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
+	Ref peeledPackedRef(Ref ref) throws MissingObjectException,
+			IOException {
+		if (ref.getStorage().isPacked() && ref.isPeeled())
+			return ref;
+		if (!ref.isPeeled())
+			ref = peel(ref);
+		if (ref.getPeeledObjectId() != null)
+			return new ObjectIdRef.PeeledTag(PACKED, ref.getName(), ref
+					.getObjectId(), ref.getPeeledObjectId());
+		return new ObjectIdRef.PeeledNonTag(PACKED, ref.getName(), ref
+				.getObjectId());
+	}
+
 	void log(final RefUpdate update, final String msg, final boolean deref)
 			throws IOException {
 		final ObjectId oldId = update.getOldObjectId();
@@ -559,6 +672,23 @@ void log(final RefUpdate update, final String msg, final boolean deref)
 		else
 			ident = new PersonIdent(ident);
 
+		final byte[] rec = encodeLogRecord(oldId, newId, ident, msg);
+		if (deref && ref.isSymbolic()) {
+			log(ref.getName(), rec);
+			log(ref.getLeaf().getName(), rec);
+		} else {
+			log(ref.getName(), rec);
+		}
+	}
+
+	void log(final String refName, final ObjectId oldId,
+			final ObjectId newId, final PersonIdent ident, final String msg)
+			throws IOException {
+		log(refName, encodeLogRecord(oldId, newId, ident, msg));
+	}
+
+	private static byte[] encodeLogRecord(final ObjectId oldId,
+			final ObjectId newId, final PersonIdent ident, final String msg) {
 		final StringBuilder r = new StringBuilder();
 		r.append(ObjectId.toString(oldId));
 		r.append(' ');
@@ -568,14 +698,7 @@ void log(final RefUpdate update, final String msg, final boolean deref)
 		r.append('\t');
 		r.append(msg);
 		r.append('\n');
-		final byte[] rec = encode(r.toString());
-
-		if (deref && ref.isSymbolic()) {
-			log(ref.getName(), rec);
-			log(ref.getLeaf().getName(), rec);
-		} else {
-			log(ref.getName(), rec);
-		}
+		return encode(r.toString());
 	}
 
 	private void log(final String refName, final byte[] rec) throws IOException {
@@ -619,7 +742,8 @@ private boolean shouldAutoCreateLog(final String refName) {
 	}
 
 	private Ref resolve(final Ref ref, int depth, String prefix,
-			RefList<LooseRef> loose, RefList<Ref> packed) throws IOException {
+			RefList<LooseRef> loose, RefList<Ref> packedUnder,
+			PackedRefList packed) throws IOException {
 		if (ref.isSymbolic()) {
 			Ref dst = ref.getTarget();
 
@@ -632,8 +756,8 @@ private Ref resolve(final Ref ref, int depth, String prefix,
 				int idx;
 				if (0 <= (idx = loose.find(dst.getName())))
 					dst = loose.get(idx);
-				else if (0 <= (idx = packed.find(dst.getName())))
-					dst = packed.get(idx);
+				else if (0 <= (idx = packedUnder.find(dst.getName())))
+					dst = packedUnder.get(idx);
 				else
 					return ref;
 			} else {
@@ -642,7 +766,7 @@ else if (0 <= (idx = packed.find(dst.getName())))
 					return ref;
 			}
 
-			dst = resolve(dst, depth + 1, prefix, loose, packed);
+			dst = resolve(dst, depth + 1, prefix, loose, packedUnder, packed);
 			if (dst == null)
 				return null;
 			return new SymbolicRef(ref.getName(), dst);
@@ -666,6 +790,15 @@ private PackedRefList getPackedRefs() throws IOException {
 
 	private PackedRefList readPackedRefs(long size, long mtime)
 			throws IOException {
+		if (parent.getConfig().get(CoreConfig.KEY).isMmapPackedRefs()) {
+			final MappedPackedRefs mapped = MappedPackedRefs.open(packedRefsFile);
+			if (mapped == null)
+				return PackedRefList.NO_PACKED_REFS;
+			if (mapped.isSorted())
+				return new PackedRefList(mapped, size, mtime);
+			return new PackedRefList(mapped.getAll(), size, mtime);
+		}
+
 		final BufferedReader br;
 		try {
 			br = new BufferedReader(new InputStreamReader(new FileInputStream(
@@ -734,6 +867,69 @@ private static String copy(final String src, final int off, final int end) {
 		return new StringBuilder(end - off).append(src, off, end).toString();
 	}
 
+	/**
+	 * Read the packed-refs file, bypassing the cache.
+	 * <p>
+	 * The caller must hold the lock of the file.
+	 *
+	 * @return all references in the file.
+	 * @throws IOException
+	 *             the file cannot be read.
+	 */
+	RefList<Ref> readPackedRefsLocked() throws IOException {
+		return readPackedRefs(0, 0).getAll();
+	}
+
+	/**
+	 * Replace the packed-refs file, held locked by the caller.
+	 *
+	 * @param lck
+	 *            the lock of the file; committed on success.
+	 * @param refs
+	 *            the new content of the file; every reference must be peeled.
+	 * @throws IOException
+	 *             the file cannot be written.
+	 */
+	void commitPackedRefs(final LockFile lck, final RefList<Ref> refs)
+			throws IOException {
+		commitPackedRefs(lck, refs, packedRefs.get());
+	}
+
+	/**
+	 * Read a loose reference from its file, bypassing the cache.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return the reference; null if there is no loose file.
+	 * @throws IOException
+	 *             the file cannot be read.
+	 */
+	Ref readLooseRef(final String name) throws IOException {
+		return scanRef(null, name);
+	}
+
+	/**
+	 * Forget loose references whose files were deleted by the caller, and
+	 * notify listeners of the changes made by a batch.
+	 *
+	 * @param names
+	 *            names of the references whose loose files are gone.
+	 */
+	void batchApplied(final Collection<String> names) {
+		for (final String name : names) {
+			RefList<LooseRef> curLoose, newLoose;
+			do {
+				curLoose = looseRefs.get();
+				final int idx = curLoose.find(name);
+				if (idx < 0)
+					break;
+				newLoose = curLoose.remove(idx);
+			} while (!looseRefs.compareAndSet(curLoose, newLoose));
+		}
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
 	private void commitPackedRefs(final LockFile lck, final RefList<Ref> refs,
 			final PackedRefList oldPackedList) throws IOException {
 		new RefWriter(refs) {
@@ -761,7 +957,7 @@ protected void writeFile(String name, byte[] content)
 		}.writePackedRefs();
 	}
 
-	private Ref readRef(String name, RefList<Ref> packed) throws IOException {
+	private Ref readRef(String name, PackedRefList packed) throws IOException {
 		final RefList<LooseRef> curList = looseRefs.get();
 		final int idx = curList.find(name);
 		if (0 <= idx) {
@@ -920,9 +1116,16 @@ static void delete(final File file, final int depth) throws IOException {
 		}
 	}
 
-	private static class PackedRefList extends RefList<Ref> {
+	/**
+	 * Snapshot of the packed-refs file.
+	 * <p>
+	 * The references are either parsed into a list up front, or looked up in
+	 * the mapped file as they are needed. In the latter case the full list is
+	 * only built once a caller asks for every reference.
+	 */
+	private static class PackedRefList {
 		static final PackedRefList NO_PACKED_REFS = new PackedRefList(RefList
-				.emptyList(), 0, 0);
+				.<Ref> emptyList(), 0, 0);
 
 		/** Last length of the packed-refs file when we read it. */
 		final long lastSize;
@@ -930,10 +1133,54 @@ private static class PackedRefList extends RefList<Ref> {
 		/** Last modified time of the packed-refs file when we read it. */
 		final long lastModified;
 
+		private final MappedPackedRefs mapped;
+
+		private volatile RefList<Ref> all;
+
 		PackedRefList(RefList<Ref> src, long size, long mtime) {
-			super(src);
 			lastSize = size;
 			lastModified = mtime;
+			mapped = null;
+			all = src;
+		}
+
+		PackedRefList(MappedPackedRefs src, long size, long mtime) {
+			lastSize = size;
+			lastModified = mtime;
+			mapped = src;
+		}
+
+		Ref get(String name) throws IOException {
+			final RefList<Ref> list = all;
+			if (list != null)
+				return list.get(name);
+			return mapped.get(name);
+		}
+
+		boolean contains(String name) throws IOException {
+			return get(name) != null;
+		}
+
+		/**
+		 * @return a sorted list holding at least every reference whose name
+		 *         starts with the prefix.
+		 */
+		RefList<Ref> getPrefix(String prefix) throws IOException {
+			final RefList<Ref> list = all;
+			if (list != null)
+				return list;
+			if (prefix.length() == 0)
+				return getAll();
+			return mapped.getPrefix(prefix);
+		}
+
+		RefList<Ref> getAll() throws IOException {
+			RefList<Ref> list = all;
+			if (list == null) {
+				list = mapped.getAll();
+				all = list;
+			}
+			return list;
 		}
 	}
 
@@ -48,7 +48,6 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.jgit.JGitText;
@@ -56,7 +55,6 @@
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
 
 /**
@@ -75,6 +73,13 @@ static public class Entry {
 
 		private String comment;
 
+		Entry(ObjectId oldId, ObjectId newId, PersonIdent who, String comment) {
+			this.oldId = oldId;
+			this.newId = newId;
+			this.who = who;
+			this.comment = comment;
+		}
+
 		Entry(byte[] raw, int pos) {
 			oldId = ObjectId.fromString(raw, pos);
 			pos += Constants.OBJECT_ID_STRING_LENGTH;
@@ -137,6 +142,34 @@ public String toString() {
 		}
 	}
 
+	/**
+	 * Iterates over the entries of a reflog, most recent entry first.
+	 * <p>
+	 * Entries are read lazily as {@link #next()} is called, so only the part
+	 * of the log that is actually consumed is read. An iterator must be
+	 * released when the caller is done with it.
+	 */
+	public static abstract class ReverseIterator {
+		/**
+		 * @return the next older entry; null if there are no more entries.
+		 * @throws IOException
+		 *             the log cannot be read.
+		 */
+		public abstract Entry next() throws IOException;
+
+		/** Release the resources held by this iterator. */
+		public void release() {
+			// Nothing to release by default.
+		}
+	}
+
+	private static final ReverseIterator EMPTY = new ReverseIterator() {
+		@Override
+		public Entry next() {
+			return null;
+		}
+	};
+
 	private File logName;
 
 	ReflogReader(Repository db, String refname) {
@@ -150,8 +183,27 @@ public String toString() {
 	 * @throws IOException
 	 */
 	public Entry getLastEntry() throws IOException {
-		List<Entry> entries = getReverseEntries(1);
-		return entries.size() > 0 ? entries.get(0) : null;
+		return getReverseEntry(0);
+	}
+
+	/**
+	 * Get a single entry, counting from the most recent one.
+	 *
+	 * @param number
+	 *            number of entries to skip; 0 returns the most recent entry.
+	 * @return the entry, or null if the log has fewer entries
+	 * @throws IOException
+	 */
+	public Entry getReverseEntry(int number) throws IOException {
+		final ReverseIterator itr = getReverseIterator();
+		try {
+			Entry e = itr.next();
+			while (e != null && number-- > 0)
+				e = itr.next();
+			return e;
+		} finally {
+			itr.release();
+		}
 	}
 
 	/**
@@ -169,20 +221,36 @@ public List<Entry> getReverseEntries() throws IOException {
 	 * @throws IOException
 	 */
 	public List<Entry> getReverseEntries(int max) throws IOException {
-		final byte[] log;
+		final List<Entry> ret = new ArrayList<Entry>();
+		final ReverseIterator itr = getReverseIterator();
 		try {
-			log = IO.readFully(logName);
-		} catch (FileNotFoundException e) {
-			return Collections.emptyList();
+			Entry e;
+			while (max-- > 0 && (e = itr.next()) != null)
+				ret.add(e);
+		} finally {
+			itr.release();
 		}
+		return ret;
+	}
 
-		int rs = RawParseUtils.prevLF(log, log.length);
-		List<Entry> ret = new ArrayList<Entry>();
-		while (rs >= 0 && max-- > 0) {
-			rs = RawParseUtils.prevLF(log, rs);
-			Entry entry = new Entry(log, rs < 0 ? 0 : rs + 2);
-			ret.add(entry);
+	/**
+	 * Open the log for reading from its end.
+	 * <p>
+	 * The log is read backwards in blocks as entries are requested, so a
+	 * caller that only needs the most recent entries does not read the whole
+	 * file.
+	 *
+	 * @return iterator over the entries, most recent first.
+	 * @throws IOException
+	 *             the log exists but cannot be opened.
+	 */
+	public ReverseIterator getReverseIterator() throws IOException {
+		if (!logName.isFile())
+			return EMPTY;
+		try {
+			return new ReflogReverseIterator(logName);
+		} catch (FileNotFoundException e) {
+			return EMPTY;
 		}
-		return ret;
 	}
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a reflog file backwards, one entry at a time.
+ * <p>
+ * The file is read from its end in fixed size blocks, so obtaining the most
+ * recent entries of a very long log only costs a few kilobytes of I/O. The
+ * file is kept open until the iterator is released.
+ */
+class ReflogReverseIterator extends ReflogReader.ReverseIterator {
+	private static final int BLOCK_SIZE = 8192;
+
+	private final RandomAccessFile file;
+
+	/** Bytes read from the file, the first {@link #len} not yet returned. */
+	private byte[] buf;
+
+	/** Number of bytes in {@link #buf} not yet returned. */
+	private int len;
+
+	/** Position in the file of the first byte of {@link #buf}. */
+	private long bufStart;
+
+	/** True once an incomplete record at the end of the file was dropped. */
+	private boolean trimmed;
+
+	ReflogReverseIterator(final File log) throws IOException {
+		file = new RandomAccessFile(log, "r");
+		try {
+			bufStart = file.length();
+		} catch (IOException err) {
+			file.close();
+			throw err;
+		}
+		buf = new byte[(int) Math.min(BLOCK_SIZE, bufStart)];
+	}
+
+	@Override
+	public ReflogReader.Entry next() throws IOException {
+		for (;;) {
+			if (!trimmed) {
+				// A writer may be appending a record right now. Only
+				// records terminated by a line feed are complete.
+				int p = len - 1;
+				while (0 <= p && buf[p] != '\n')
+					p--;
+				if (p < 0 && 0 < bufStart) {
+					fill();
+					continue;
+				}
+				len = p + 1;
+				trimmed = true;
+			}
+
+			if (len == 0) {
+				if (bufStart == 0)
+					return null;
+				fill();
+				continue;
+			}
+
+			// buf[len - 1] is the line feed ending the record we want.
+			int p = len - 2;
+			while (0 <= p && buf[p] != '\n')
+				p--;
+			if (p < 0 && 0 < bufStart) {
+				fill();
+				continue;
+			}
+
+			final int start = p + 1;
+			final int eol = len;
+			len = start;
+			if (eol - start > 1)
+				return new ReflogReader.Entry(buf, start);
+		}
+	}
+
+	/** Prepend the block of the file preceding the buffer. */
+	private void fill() throws IOException {
+		final int n = (int) Math.min(BLOCK_SIZE, bufStart);
+		if (buf.length < len + n) {
+			final byte[] b = new byte[Math.max(buf.length * 2, len + n)];
+			System.arraycopy(buf, 0, b, n, len);
+			buf = b;
+		} else
+			System.arraycopy(buf, 0, buf, n, len);
+		bufStart -= n;
+		file.seek(bufStart);
+		file.readFully(buf, 0, n);
+		len += n;
+	}
+
+	@Override
+	public void release() {
+		try {
+			file.close();
+		} catch (IOException err) {
+			// Ignore close failures, we only read the file.
+		}
+	}
+}
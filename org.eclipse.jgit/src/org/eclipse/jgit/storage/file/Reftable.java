@@ -0,0 +1,686 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * A single table of a {@link ReftableDatabase}.
+ * <p>
+ * A table is an immutable file holding references and reflog entries, each
+ * sorted by key. The file starts with a header holding the signature, the
+ * version, the block size and the range of update indexes whose changes the
+ * table records. The references follow in blocks of about the block size,
+ * then the reflog entries, then one index block for each of the two
+ * sections, and finally a footer repeating the header, pointing at the index
+ * blocks, and ending in a CRC-32.
+ * <p>
+ * Each block starts with its type and a 24 bit length. A record stores the
+ * length of the prefix its key shares with the key of the previous record,
+ * only the remaining suffix, and the type of its value. Every 16th record is
+ * a restart point storing its complete key; the offsets of the restart points
+ * end the block, so a block is searched by a binary search over its restart
+ * points and a short scan. The index blocks hold the last key of every block
+ * together with its position, so finding a key reads just the one block which
+ * can hold it.
+ * <p>
+ * A reference record either holds the value of the reference, or marks the
+ * reference as deleted, hiding it in older tables. The key of a reflog entry
+ * is the name of the reference followed by its update index in reverse order,
+ * so the newest entries of a reference come first. A deletion entry hides all
+ * older entries of the reference.
+ * <p>
+ * The file is mapped into memory and only read through absolute positions,
+ * so an instance may be shared by concurrent readers.
+ *
+ * @see ReftableWriter
+ */
+class Reftable {
+	/** Magic constant at the start of every table. */
+	static final byte[] SIGNATURE = { 'J', 'R', 'F', 'T' };
+
+	/** Current (and only) version of the file format. */
+	static final int VERSION = 1;
+
+	/** Size of the header. */
+	static final int HEADER_SIZE = 24;
+
+	/** Size of the footer. */
+	static final int FOOTER_SIZE = HEADER_SIZE + 8 + 8 + 4;
+
+	/** Type of a block holding references. */
+	static final byte REF_BLOCK = 'r';
+
+	/** Type of a block holding reflog entries. */
+	static final byte LOG_BLOCK = 'g';
+
+	/** Type of a block indexing the blocks of a section. */
+	static final byte INDEX_BLOCK = 'i';
+
+	/** Size of the type and length starting each block. */
+	static final int BLOCK_HEADER_SIZE = 4;
+
+	/** Number of records between two restart points. */
+	static final int RESTART_INTERVAL = 16;
+
+	/** Value type of a deleted reference, or of a deleted reflog. */
+	static final int VALUE_DELETION = 0;
+
+	/** Value type of a reference whose object was not peeled. */
+	static final int VALUE_UNPEELED = 1;
+
+	/** Value type of a reference to an annotated tag, and its peeled object. */
+	static final int VALUE_PEELED_TAG = 2;
+
+	/** Value type of a reference to an object which is not a tag. */
+	static final int VALUE_PEELED = 3;
+
+	/** Value type of a symbolic reference. */
+	static final int VALUE_SYMREF = 4;
+
+	/** Value type of a reflog entry. */
+	static final int VALUE_LOG = 1;
+
+	/** A reference, or its deletion, as stored by a table. */
+	static class RefRecord {
+		final String name;
+
+		final long updateIndex;
+
+		/** Value of the reference; null if it was deleted. */
+		final Ref ref;
+
+		RefRecord(String name, long updateIndex, Ref ref) {
+			this.name = name;
+			this.updateIndex = updateIndex;
+			this.ref = ref;
+		}
+	}
+
+	/** A reflog entry, or the deletion of a reflog, as stored by a table. */
+	static class LogRecord {
+		final String name;
+
+		final long updateIndex;
+
+		final ObjectId oldId;
+
+		final ObjectId newId;
+
+		/** Who made the change; null if the reflog was deleted. */
+		final PersonIdent who;
+
+		final String message;
+
+		LogRecord(String name, long updateIndex, ObjectId oldId,
+				ObjectId newId, PersonIdent who, String message) {
+			this.name = name;
+			this.updateIndex = updateIndex;
+			this.oldId = oldId;
+			this.newId = newId;
+			this.who = who;
+			this.message = message;
+		}
+
+		boolean isDeletion() {
+			return who == null;
+		}
+	}
+
+	/**
+	 * Open an existing table.
+	 *
+	 * @param file
+	 *            the table file.
+	 * @return the table.
+	 * @throws IOException
+	 *             the file cannot be read or is corrupt.
+	 */
+	static Reftable open(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final long size = in.getChannel().size();
+			return new Reftable(file, in.getChannel().map(MapMode.READ_ONLY,
+					0, size));
+		} catch (IOException ioe) {
+			final IOException err = new IOException(MessageFormat.format(
+					JGitText.get().unreadableReftable, file));
+			err.initCause(ioe);
+			throw err;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Encode the key of a reflog entry.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @param updateIndex
+	 *            update index of the entry.
+	 * @return the key.
+	 */
+	static byte[] logKey(final String name, final long updateIndex) {
+		final byte[] n = Constants.encode(name);
+		final byte[] key = new byte[n.length + 9];
+		System.arraycopy(n, 0, key, 0, n.length);
+		NB.encodeInt64(key, n.length + 1, ~updateIndex);
+		return key;
+	}
+
+	/** Compare two keys as unsigned bytes. */
+	static int compare(final byte[] a, final int aLen, final byte[] b,
+			final int bLen) {
+		final int n = Math.min(aLen, bLen);
+		for (int i = 0; i < n; i++) {
+			final int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return aLen - bLen;
+	}
+
+	private final File file;
+
+	private final ByteBuffer buf;
+
+	private final long minUpdateIndex;
+
+	private final long maxUpdateIndex;
+
+	private final Index refIndex;
+
+	private final Index logIndex;
+
+	private Reftable(final File file, final ByteBuffer buf) throws IOException {
+		this.file = file;
+		this.buf = buf;
+
+		final int size = buf.limit();
+		if (size < HEADER_SIZE + FOOTER_SIZE)
+			throw corrupt();
+		final byte[] footer = read(size - FOOTER_SIZE, FOOTER_SIZE);
+		final CRC32 crc = new CRC32();
+		crc.update(footer, 0, FOOTER_SIZE - 4);
+		if ((int) crc.getValue() != NB.decodeInt32(footer, FOOTER_SIZE - 4))
+			throw corrupt();
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (footer[i] != SIGNATURE[i])
+				throw corrupt();
+		}
+		if (footer[4] != VERSION)
+			throw corrupt();
+
+		minUpdateIndex = NB.decodeUInt64(footer, 8);
+		maxUpdateIndex = NB.decodeUInt64(footer, 16);
+		refIndex = new Index(block((int) NB.decodeUInt64(footer, 24)));
+		logIndex = new Index(block((int) NB.decodeUInt64(footer, 32)));
+	}
+
+	/** @return the table file. */
+	File getFile() {
+		return file;
+	}
+
+	/** @return size of the table file. */
+	long getSize() {
+		return buf.limit();
+	}
+
+	/** @return smallest update index of the changes in the table. */
+	long getMinUpdateIndex() {
+		return minUpdateIndex;
+	}
+
+	/** @return largest update index of the changes in the table. */
+	long getMaxUpdateIndex() {
+		return maxUpdateIndex;
+	}
+
+	/**
+	 * Find a single reference.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return the record of the reference; null if the table does not record
+	 *         it.
+	 * @throws IOException
+	 *             the table is corrupt.
+	 */
+	RefRecord seekRef(final String name) throws IOException {
+		final byte[] key = Constants.encode(name);
+		final int b = refIndex.find(key, key.length);
+		if (b < 0)
+			return null;
+		final Cursor c = new Cursor(block(refIndex.offsets[b]));
+		c.seek(key, key.length);
+		if (c.valid() && compare(c.key, c.keyLen, key, key.length) == 0)
+			return c.ref();
+		return null;
+	}
+
+	/**
+	 * Read all references whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *            the prefix; the empty string reads all references.
+	 * @param out
+	 *            receives the records of the references, including deletions,
+	 *            sorted by name.
+	 * @throws IOException
+	 *             the table is corrupt.
+	 */
+	void scanRefs(final String prefix, final List<RefRecord> out)
+			throws IOException {
+		final byte[] key = Constants.encode(prefix);
+		final int first = refIndex.find(key, key.length);
+		for (int b = first; 0 <= b && b < refIndex.size; b++) {
+			final Cursor c = new Cursor(block(refIndex.offsets[b]));
+			c.seek(key, key.length);
+			for (; c.valid(); c.next()) {
+				if (!c.startsWith(key))
+					return;
+				out.add(c.ref());
+			}
+		}
+	}
+
+	/**
+	 * Read the reflog entries of a reference.
+	 *
+	 * @param name
+	 *            name of the reference; null reads the entries of all
+	 *            references.
+	 * @param out
+	 *            receives the entries, newest first for each reference.
+	 * @throws IOException
+	 *             the table is corrupt.
+	 */
+	void scanLogs(final String name, final List<LogRecord> out)
+			throws IOException {
+		final byte[] key;
+		if (name != null) {
+			final byte[] n = Constants.encode(name);
+			key = new byte[n.length + 1];
+			System.arraycopy(n, 0, key, 0, n.length);
+		} else
+			key = new byte[0];
+
+		final int first = logIndex.find(key, key.length);
+		for (int b = first; 0 <= b && b < logIndex.size; b++) {
+			final Cursor c = new Cursor(block(logIndex.offsets[b]));
+			c.seek(key, key.length);
+			for (; c.valid(); c.next()) {
+				if (!c.startsWith(key))
+					return;
+				out.add(c.log());
+			}
+		}
+	}
+
+	private byte[] block(final int pos) throws IOException {
+		if (pos < HEADER_SIZE || buf.limit() - FOOTER_SIZE <= pos)
+			throw corrupt();
+		final byte[] hdr = read(pos, BLOCK_HEADER_SIZE);
+		final int len = int24(hdr, 1);
+		if (len < BLOCK_HEADER_SIZE + 2 || buf.limit() - pos < len)
+			throw corrupt();
+		return read(pos, len);
+	}
+
+	private byte[] read(final int pos, final int len) {
+		final byte[] b = new byte[len];
+		final ByteBuffer s = buf.duplicate();
+		s.position(pos);
+		s.get(b, 0, len);
+		return b;
+	}
+
+	private IOException corrupt() {
+		return new IOException(MessageFormat.format(
+				JGitText.get().unreadableReftable, file));
+	}
+
+	static int int24(final byte[] b, final int p) {
+		return ((b[p] & 0xff) << 16) | ((b[p + 1] & 0xff) << 8)
+				| (b[p + 2] & 0xff);
+	}
+
+	/** Last keys and positions of the blocks of one section. */
+	private class Index {
+		final int size;
+
+		final byte[][] keys;
+
+		final int[] offsets;
+
+		Index(final byte[] block) throws IOException {
+			if (block[0] != INDEX_BLOCK)
+				throw corrupt();
+			final Cursor c = new Cursor(block);
+			int n = 0;
+			for (; c.valid(); c.next())
+				n++;
+
+			size = n;
+			keys = new byte[n][];
+			offsets = new int[n];
+			final Cursor d = new Cursor(block);
+			for (int i = 0; i < n; i++, d.next()) {
+				keys[i] = new byte[d.keyLen];
+				System.arraycopy(d.key, 0, keys[i], 0, d.keyLen);
+				offsets[i] = (int) d.varint(d.valuePtr);
+			}
+		}
+
+		/** @return first block whose last key is not less than key; -1. */
+		int find(final byte[] key, final int len) {
+			int lo = 0;
+			int hi = size;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if (compare(keys[mid], keys[mid].length, key, len) < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo < size ? lo : -1;
+		}
+	}
+
+	/** Position within the records of a block. */
+	private class Cursor {
+		private final byte[] block;
+
+		private final byte type;
+
+		/** End of the records, where the restart offsets start. */
+		private final int end;
+
+		private final int restartCnt;
+
+		private int ptr;
+
+		private byte[] key = new byte[64];
+
+		private int keyLen;
+
+		private int valueType;
+
+		private int valuePtr;
+
+		/** Offset of the record after the current one. */
+		private int nextPtr;
+
+		/** Used by {@link #varint(int)} to return the end of the value. */
+		private int varintEnd;
+
+		Cursor(final byte[] block) throws IOException {
+			this.block = block;
+			this.type = block[0];
+			final int len = block.length;
+			restartCnt = NB.decodeUInt16(block, len - 2);
+			end = len - 2 - 3 * restartCnt;
+			if (end < BLOCK_HEADER_SIZE)
+				throw corrupt();
+			ptr = BLOCK_HEADER_SIZE;
+			keyLen = 0;
+			parse();
+		}
+
+		boolean valid() {
+			return ptr < end;
+		}
+
+		void next() throws IOException {
+			ptr = nextPtr;
+			parse();
+		}
+
+		boolean startsWith(final byte[] prefix) {
+			if (keyLen < prefix.length)
+				return false;
+			for (int i = 0; i < prefix.length; i++) {
+				if (key[i] != prefix[i])
+					return false;
+			}
+			return true;
+		}
+
+		/** Move to the first record whose key is not less than the one given. */
+		void seek(final byte[] k, final int kLen) throws IOException {
+			int lo = 0;
+			int hi = restartCnt;
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				moveTo(restart(mid));
+				if (compare(key, keyLen, k, kLen) < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			// Restart lo - 1 is the last one before the key, if any.
+			moveTo(0 < lo ? restart(lo - 1) : BLOCK_HEADER_SIZE);
+			while (valid() && compare(key, keyLen, k, kLen) < 0)
+				next();
+		}
+
+		private int restart(final int i) {
+			return int24(block, end + 3 * i);
+		}
+
+		private void moveTo(final int p) throws IOException {
+			ptr = p;
+			keyLen = 0;
+			parse();
+		}
+
+		private void parse() throws IOException {
+			if (!valid())
+				return;
+			final int prefixLen = (int) varint(ptr);
+			final int x = (int) varint(varintEnd);
+			int p = varintEnd;
+			final int suffixLen = x >>> 3;
+			if (keyLen < prefixLen || end < p + suffixLen)
+				throw corrupt();
+			valueType = x & 7;
+			if (key.length < prefixLen + suffixLen) {
+				final byte[] n = new byte[Math.max(2 * key.length, prefixLen
+						+ suffixLen)];
+				System.arraycopy(key, 0, n, 0, prefixLen);
+				key = n;
+			}
+			System.arraycopy(block, p, key, prefixLen, suffixLen);
+			keyLen = prefixLen + suffixLen;
+			p += suffixLen;
+			valuePtr = p;
+			nextPtr = skipValue(p);
+			if (end < nextPtr)
+				throw corrupt();
+		}
+
+		private int skipValue(int p) throws IOException {
+			switch (type) {
+			case INDEX_BLOCK:
+				varint(p);
+				return varintEnd;
+
+			case REF_BLOCK:
+				varint(p);
+				p = varintEnd;
+				switch (valueType) {
+				case VALUE_DELETION:
+					return p;
+				case VALUE_UNPEELED:
+				case VALUE_PEELED:
+					return p + OBJECT_ID_LENGTH;
+				case VALUE_PEELED_TAG:
+					return p + 2 * OBJECT_ID_LENGTH;
+				case VALUE_SYMREF:
+					final int n = (int) varint(p);
+					return varintEnd + n;
+				default:
+					throw corrupt();
+				}
+
+			case LOG_BLOCK:
+				if (valueType == VALUE_DELETION)
+					return p;
+				p += 2 * OBJECT_ID_LENGTH;
+				p = skipString(p); // name
+				p = skipString(p); // email
+				varint(p); // time
+				p = varintEnd + 2; // time zone
+				return skipString(p); // message
+
+			default:
+				throw corrupt();
+			}
+		}
+
+		private int skipString(final int p) {
+			final int n = (int) varint(p);
+			return varintEnd + n;
+		}
+
+		private String string(final int p) {
+			final int n = (int) varint(p);
+			return RawParseUtils.decode(Constants.CHARSET, block, varintEnd,
+					varintEnd + n);
+		}
+
+		long varint(int p) {
+			int c = block[p++] & 0xff;
+			long v = c & 0x7f;
+			while ((c & 0x80) != 0) {
+				c = block[p++] & 0xff;
+				v = ((v + 1) << 7) | (c & 0x7f);
+			}
+			varintEnd = p;
+			return v;
+		}
+
+		RefRecord ref() throws IOException {
+			final String name = RawParseUtils.decode(Constants.CHARSET, key,
+					0, keyLen);
+			final long updateIndex = minUpdateIndex + varint(valuePtr);
+			final int p = varintEnd;
+			switch (valueType) {
+			case VALUE_DELETION:
+				return new RefRecord(name, updateIndex, null);
+			case VALUE_UNPEELED:
+				return new RefRecord(name, updateIndex,
+						new ObjectIdRef.Unpeeled(PACKED, name, ObjectId
+								.fromRaw(block, p)));
+			case VALUE_PEELED:
+				return new RefRecord(name, updateIndex,
+						new ObjectIdRef.PeeledNonTag(PACKED, name, ObjectId
+								.fromRaw(block, p)));
+			case VALUE_PEELED_TAG:
+				return new RefRecord(name, updateIndex,
+						new ObjectIdRef.PeeledTag(PACKED, name, ObjectId
+								.fromRaw(block, p), ObjectId.fromRaw(block, p
+								+ OBJECT_ID_LENGTH)));
+			case VALUE_SYMREF:
+				final String target = string(p);
+				return new RefRecord(name, updateIndex, new SymbolicRef(name,
+						new ObjectIdRef.Unpeeled(NEW, target, null)));
+			default:
+				throw corrupt();
+			}
+		}
+
+		LogRecord log() throws IOException {
+			final int nameLen = keyLen - 9;
+			if (nameLen < 0)
+				throw corrupt();
+			final String name = RawParseUtils.decode(Constants.CHARSET, key,
+					0, nameLen);
+			final long updateIndex = ~NB.decodeUInt64(key, nameLen + 1);
+			if (valueType == VALUE_DELETION)
+				return new LogRecord(name, updateIndex, null, null, null, null);
+
+			int p = valuePtr;
+			final ObjectId oldId = ObjectId.fromRaw(block, p);
+			p += OBJECT_ID_LENGTH;
+			final ObjectId newId = ObjectId.fromRaw(block, p);
+			p += OBJECT_ID_LENGTH;
+			final String who = string(p);
+			p = skipString(p);
+			final String email = string(p);
+			p = skipString(p);
+			final long when = varint(p) * 1000L;
+			p = varintEnd;
+			final int tz = (short) NB.decodeUInt16(block, p);
+			p += 2;
+			final String msg = string(p);
+			return new LogRecord(name, updateIndex, oldId, newId,
+					new PersonIdent(who, email, when, tz), msg);
+		}
+	}
+}
@@ -0,0 +1,1181 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REFS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+import static org.eclipse.jgit.lib.Constants.encode;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefRename;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.lib.RefUpdate.Result;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.Reftable.LogRecord;
+import org.eclipse.jgit.storage.file.Reftable.RefRecord;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RefList;
+import org.eclipse.jgit.util.RefMap;
+
+/**
+ * {@link RefDatabase} storing references and their logs in a stack of
+ * reftables.
+ * <p>
+ * The tables are stored in the {@code jgit-reftable/} directory, and the file
+ * {@code jgit-reftable/tables.list} names them, oldest first. Each table is
+ * sorted by reference name, and its blocks are indexed by their last name, so a
+ * single reference is found by a binary search of each table, newest first, and
+ * the references below a prefix are read as one contiguous range.
+ * <p>
+ * Every change, or group of changes committed by a {@link Transaction},
+ * writes a new table holding only the changed references and their log
+ * entries, and appends it to the list while holding the list's lock. Readers
+ * never lock, they only observe complete tables. To keep the stack short the
+ * newest tables are merged whenever a table is not at least twice as large as
+ * all newer tables together; {@link #compact()} merges the whole stack.
+ * <p>
+ * A repository uses this database if {@code core.repositoryFormatVersion} is 1
+ * and {@code extensions.jgitRefStorage} is set to {@value #REFTABLE}. The
+ * tables are in a format of their own, stored apart from the reftables of
+ * other Git implementations. As those implementations refuse to open a
+ * repository using an extension they don't know, they cannot mistake the
+ * repository for one without any references.
+ */
+public class ReftableDatabase extends RefDatabase {
+	/** Value of {@code extensions.jgitRefStorage} selecting this database. */
+	public static final String REFTABLE = "reftable"; //$NON-NLS-1$
+
+	/** Name of the directory holding the tables. */
+	static final String TABLES_DIR = "jgit-reftable"; //$NON-NLS-1$
+
+	/** Name of the file listing the tables of the stack. */
+	static final String TABLES_LIST = "tables.list"; //$NON-NLS-1$
+
+	private final FileRepository parent;
+
+	private final File gitDir;
+
+	private final File tablesDir;
+
+	private final File tablesList;
+
+	private final Random rng = new Random();
+
+	private final AtomicReference<Stack> stack = new AtomicReference<Stack>(
+			Stack.EMPTY);
+
+	/**
+	 * Number of modifications made to this database.
+	 * <p>
+	 * This counter is incremented when a change is made, or detected from the
+	 * filesystem during a read operation.
+	 */
+	private final AtomicInteger modCnt = new AtomicInteger();
+
+	/**
+	 * Last {@link #modCnt} that we sent to listeners.
+	 * <p>
+	 * This value is compared to {@link #modCnt}, and a notification is sent to
+	 * the listeners only when it differs.
+	 */
+	private final AtomicInteger lastNotifiedModCnt = new AtomicInteger();
+
+	ReftableDatabase(final FileRepository db) {
+		parent = db;
+		gitDir = db.getDirectory();
+		tablesDir = db.getFS().resolve(gitDir, TABLES_DIR);
+		tablesList = new File(tablesDir, TABLES_LIST);
+	}
+
+	FileRepository getRepository() {
+		return parent;
+	}
+
+	@Override
+	public void create() throws IOException {
+		// Other tools only recognize a repository by its HEAD and refs/.
+		new File(gitDir, R_REFS).mkdir();
+		final File head = new File(gitDir, HEAD);
+		if (!head.exists())
+			write(head, encode(RefDirectory.SYMREF + R_HEADS + ".invalid\n"));
+
+		tablesDir.mkdir();
+		if (!tablesList.exists())
+			write(tablesList, new byte[0]);
+	}
+
+	private void write(final File file, final byte[] content)
+			throws IOException {
+		final LockFile lck = new LockFile(file, parent.getFS());
+		if (!lck.lock())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, file));
+		try {
+			lck.write(content);
+			if (!lck.commit())
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, file));
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		stack.set(Stack.EMPTY);
+	}
+
+	@Override
+	public boolean isNameConflicting(String name) throws IOException {
+		return isNameConflicting(readStack(), name, null);
+	}
+
+	private static boolean isNameConflicting(final Stack s, final String name,
+			final String ignore) throws IOException {
+		// Cannot be nested within an existing reference.
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			final String needle = name.substring(0, lastSlash);
+			if (!needle.equals(ignore) && exactRef(s, needle) != null)
+				return true;
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+
+		// Cannot be the container of an existing reference.
+		for (final Ref ref : scan(s, name + '/')) {
+			if (!ref.getName().equals(ignore))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public RefUpdate newUpdate(String name, boolean detach) throws IOException {
+		final Stack s = readStack();
+		Ref ref = exactRef(s, name);
+		if (ref != null)
+			ref = resolve(s, ref, 0);
+		if (ref == null)
+			ref = new ObjectIdRef.Unpeeled(NEW, name, null);
+		else if (detach && ref.isSymbolic())
+			ref = new ObjectIdRef.Unpeeled(PACKED, name, ref.getObjectId());
+		return new ReftableUpdate(this, ref);
+	}
+
+	@Override
+	public RefRename newRename(String fromName, String toName)
+			throws IOException {
+		final RefUpdate from = newUpdate(fromName, false);
+		final RefUpdate to = newUpdate(toName, false);
+		return new ReftableRename(this, from, to);
+	}
+
+	@Override
+	public Ref getRef(final String needle) throws IOException {
+		final Stack s = readStack();
+		Ref ref = null;
+		for (final String prefix : SEARCH_PATH) {
+			ref = exactRef(s, prefix + needle);
+			if (ref != null) {
+				ref = resolve(s, ref, 0);
+				break;
+			}
+		}
+		fireRefsChanged();
+		return ref;
+	}
+
+	@Override
+	public Map<String, Ref> getRefs(String prefix) throws IOException {
+		final Stack s = readStack();
+		final RefList<Ref> all = scan(s, prefix);
+		final RefList.Builder<Ref> refs = new RefList.Builder<Ref>(all.size());
+		for (Ref ref : all) {
+			if (ref.isSymbolic()) {
+				ref = resolve(s, ref, 0);
+				if (ref == null || ref.getObjectId() == null)
+					continue; // A broken symbolic reference.
+			}
+			refs.add(ref);
+		}
+		fireRefsChanged();
+		return new RefMap(prefix, refs.toRefList(), RefList.<Ref> emptyList(),
+				RefList.<Ref> emptyList());
+	}
+
+	@Override
+	public Ref peel(final Ref ref) throws IOException {
+		final Ref leaf = ref.getLeaf();
+		if (leaf.isPeeled() || leaf.getObjectId() == null)
+			return ref;
+
+		final RevWalk rw = new RevWalk(parent);
+		try {
+			return recreate(ref, peel(rw, leaf));
+		} finally {
+			rw.release();
+		}
+	}
+
+	private static ObjectIdRef peel(final RevWalk rw, final Ref leaf)
+			throws MissingObjectException, IOException {
+		final RevObject obj = rw.parseAny(leaf.getObjectId());
+		if (obj instanceof RevTag) {
+			return new ObjectIdRef.PeeledTag(leaf.getStorage(), leaf
+					.getName(), leaf.getObjectId(), rw.peel(obj).copy());
+		} else {
+			return new ObjectIdRef.PeeledNonTag(leaf.getStorage(), leaf
+					.getName(), leaf.getObjectId());
+		}
+	}
+
+	private static Ref recreate(final Ref old, final ObjectIdRef leaf) {
+		if (old.isSymbolic()) {
+			Ref dst = recreate(old.getTarget(), leaf);
+			return new SymbolicRef(old.getName(), dst);
+		}
+		return leaf;
+	}
+
+	/**
+	 * Read the log of a reference.
+	 *
+	 * @param name
+	 *            name of the reference.
+	 * @return reader for the log of the reference.
+	 */
+	public ReflogReader getReflogReader(final String name) {
+		return new ReftableReflogReader(name);
+	}
+
+	@Override
+	public BatchRefUpdate newBatchUpdate() {
+		return new ReftableBatchRefUpdate();
+	}
+
+	/**
+	 * Create a transaction to change several references at once.
+	 *
+	 * @return a new, empty transaction.
+	 */
+	public Transaction newTransaction() {
+		return new Transaction();
+	}
+
+	/**
+	 * Merge all tables of the stack into one.
+	 * <p>
+	 * The merged table only holds the current value of each reference; the
+	 * records of deleted references and their logs are dropped.
+	 *
+	 * @throws IOException
+	 *             the stack is locked, or the tables cannot be written.
+	 */
+	public void compact() throws IOException {
+		final LockFile lck = lockStack();
+		if (lck == null)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotLockFile, tablesList));
+		try {
+			final Stack s = readStack();
+			if (1 < s.tables.length)
+				compact(lck, s, 0, s.tables.length);
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/** @return number of tables in the stack. */
+	int getTableCount() throws IOException {
+		return readStack().tables.length;
+	}
+
+	/**
+	 * Lock the list of tables against concurrent writers.
+	 *
+	 * @return the lock; null if another writer holds it.
+	 * @throws IOException
+	 *             the lock file cannot be created.
+	 */
+	LockFile lockStack() throws IOException {
+		final LockFile lck = new LockFile(tablesList, parent.getFS());
+		return lck.lock() ? lck : null;
+	}
+
+	/**
+	 * Read the current value of a reference.
+	 *
+	 * @param name
+	 *            complete name of the reference.
+	 * @return the reference, resolved if it is symbolic; null if it does not
+	 *         exist.
+	 * @throws IOException
+	 *             the tables cannot be read.
+	 */
+	Ref readRef(final String name) throws IOException {
+		final Stack s = readStack();
+		final Ref ref = exactRef(s, name);
+		return ref != null ? resolve(s, ref, 0) : null;
+	}
+
+	/**
+	 * Append a table holding a set of changes to the stack.
+	 * <p>
+	 * The caller must hold the lock of the stack and must have verified the
+	 * changes may be applied. The lock is committed, but not released.
+	 *
+	 * @param lck
+	 *            lock of the stack.
+	 * @param changes
+	 *            the changes to apply.
+	 * @return true if the table was added; false if the lock was lost.
+	 * @throws IOException
+	 *             the table cannot be written.
+	 */
+	boolean commit(final LockFile lck, final List<Change> changes)
+			throws IOException {
+		final Stack s = readStack();
+		final long idx = s.nextUpdateIndex();
+		final List<RefRecord> refs = new ArrayList<RefRecord>();
+		final List<LogRecord> logs = new ArrayList<LogRecord>();
+
+		final RevWalk rw = new RevWalk(parent);
+		try {
+			for (final Change c : changes) {
+				if (c.ref == null) {
+					refs.add(new RefRecord(c.name, idx, null));
+					logs.add(new LogRecord(c.name, idx, null, null, null, null));
+					continue;
+				}
+
+				refs.add(new RefRecord(c.name, idx, peelForStorage(rw, c.ref)));
+				if (c.message != null) {
+					log(s, logs, c.name, idx, c);
+					if (c.logAlso != null)
+						log(s, logs, c.logAlso, idx, c);
+				}
+			}
+		} finally {
+			rw.release();
+		}
+		return append(lck, s, idx, idx, refs, logs);
+	}
+
+	private void log(final Stack s, final List<LogRecord> logs,
+			final String name, final long idx, final Change c)
+			throws IOException {
+		if (shouldLog(s, name))
+			logs.add(new LogRecord(name, idx, c.oldId, c.newId, c.who,
+					c.message));
+	}
+
+	private boolean shouldLog(final Stack s, final String name)
+			throws IOException {
+		if (parent.getConfig().get(CoreConfig.KEY).isLogAllRefUpdates()
+				&& (name.equals(HEAD) || name.startsWith(R_HEADS) || name
+						.startsWith(R_REMOTES)))
+			return true;
+		return !readLog(s, name, 1).isEmpty();
+	}
+
+	private static Ref peelForStorage(final RevWalk rw, final Ref ref)
+			throws IOException {
+		if (ref.isSymbolic() || ref.isPeeled() || ref.getObjectId() == null)
+			return ref;
+		try {
+			return peel(rw, ref);
+		} catch (MissingObjectException notYetAvailable) {
+			return ref;
+		}
+	}
+
+	/**
+	 * Rename a reference, with its log, in a single table.
+	 *
+	 * @param src
+	 *            update of the reference to rename.
+	 * @param dst
+	 *            update of the new name.
+	 * @return {@link Result#RENAMED}, or {@link Result#LOCK_FAILURE} if the
+	 *         stack is locked, the source changed or the new name is taken.
+	 * @throws IOException
+	 *             the tables cannot be read or written.
+	 */
+	Result rename(final RefUpdate src, final RefUpdate dst)
+			throws IOException {
+		final LockFile lck = lockStack();
+		if (lck == null)
+			return Result.LOCK_FAILURE;
+		try {
+			final Stack s = readStack();
+			final String srcName = src.getName();
+			final String dstName = dst.getName();
+			final ObjectId id = src.getOldObjectId();
+			final Ref cur = exactRef(s, srcName);
+			if (cur == null || cur.isSymbolic() || id == null
+					|| !AnyObjectId.equals(id, cur.getObjectId()))
+				return Result.LOCK_FAILURE;
+			if (exactRef(s, dstName) != null
+					|| isNameConflicting(s, dstName, srcName))
+				return Result.LOCK_FAILURE;
+
+			final Ref head = exactRef(s, HEAD);
+			final boolean updateHead = head != null && head.isSymbolic()
+					&& head.getTarget().getName().equals(srcName);
+
+			// Entries keep their order, but move above the new name's
+			// past, so they need a fresh update index each.
+			final List<LogRecord> oldLog = readLog(s, srcName,
+					Integer.MAX_VALUE);
+			final long min = s.nextUpdateIndex();
+			final long max = min + oldLog.size();
+
+			final List<RefRecord> refs = new ArrayList<RefRecord>();
+			final List<LogRecord> logs = new ArrayList<LogRecord>();
+			refs.add(new RefRecord(srcName, max, null));
+			refs.add(new RefRecord(dstName, max, new ObjectIdRef.Unpeeled(
+					PACKED, dstName, id)));
+			if (updateHead)
+				refs.add(new RefRecord(HEAD, max, new SymbolicRef(HEAD,
+						new ObjectIdRef.Unpeeled(NEW, dstName, null))));
+
+			logs.add(new LogRecord(srcName, max, null, null, null, null));
+			long idx = min;
+			for (int i = oldLog.size() - 1; 0 <= i; i--) {
+				final LogRecord r = oldLog.get(i);
+				logs.add(new LogRecord(dstName, idx++, r.oldId, r.newId,
+						r.who, r.message));
+			}
+			final String msg = dst.getRefLogMessage();
+			if (msg != null) {
+				final PersonIdent who = identOf(dst);
+				logs.add(new LogRecord(dstName, max, id, id, who, msg));
+				if (updateHead && shouldLog(s, HEAD))
+					logs.add(new LogRecord(HEAD, max, id, id, who, msg));
+			}
+
+			if (!append(lck, s, min, max, refs, logs))
+				return Result.LOCK_FAILURE;
+		} finally {
+			lck.unlock();
+		}
+		autoCompact();
+		return Result.RENAMED;
+	}
+
+	PersonIdent identOf(final RefUpdate update) {
+		final PersonIdent ident = update.getRefLogIdent();
+		if (ident == null)
+			return new PersonIdent(parent);
+		return new PersonIdent(ident);
+	}
+
+	/**
+	 * Merge the newest tables while the stack is not geometric.
+	 * <p>
+	 * Failures are ignored, a later change tries again.
+	 */
+	void autoCompact() {
+		try {
+			final LockFile lck = lockStack();
+			if (lck == null)
+				return;
+			try {
+				final Stack s = readStack();
+				final int n = s.tables.length;
+				if (n < 2)
+					return;
+				int from = n - 1;
+				long newer = s.tables[from].getSize();
+				while (0 < from && s.tables[from - 1].getSize() < 2 * newer) {
+					from--;
+					newer += s.tables[from].getSize();
+				}
+				if (from < n - 1)
+					compact(lck, s, from, n);
+			} finally {
+				lck.unlock();
+			}
+		} catch (IOException notCompacted) {
+			// The stack stays as it is, it is still valid.
+		}
+	}
+
+	private void compact(final LockFile lck, final Stack s, final int from,
+			final int to) throws IOException {
+		// Deletions must shadow older tables, unless there are none.
+		final boolean keepDeletions = 0 < from;
+
+		final Map<String, RefRecord> newest = new HashMap<String, RefRecord>();
+		final List<RefRecord> scanned = new ArrayList<RefRecord>();
+		for (int i = to - 1; from <= i; i--) {
+			scanned.clear();
+			s.tables[i].scanRefs("", scanned);
+			for (final RefRecord r : scanned) {
+				if (!newest.containsKey(r.name))
+					newest.put(r.name, r);
+			}
+		}
+		final List<RefRecord> refs = new ArrayList<RefRecord>(newest.size());
+		for (final RefRecord r : newest.values()) {
+			if (r.ref != null || keepDeletions)
+				refs.add(r);
+		}
+
+		final List<LogRecord> all = new ArrayList<LogRecord>();
+		for (int i = from; i < to; i++)
+			s.tables[i].scanLogs(null, all);
+		final Map<String, Long> deleted = new HashMap<String, Long>();
+		for (final LogRecord r : all) {
+			final Long d = deleted.get(r.name);
+			if (r.isDeletion() && (d == null || d.longValue() < r.updateIndex))
+				deleted.put(r.name, Long.valueOf(r.updateIndex));
+		}
+		final List<LogRecord> logs = new ArrayList<LogRecord>(all.size());
+		for (final LogRecord r : all) {
+			final Long d = deleted.get(r.name);
+			if (r.isDeletion()) {
+				if (keepDeletions && d.longValue() == r.updateIndex)
+					logs.add(r);
+			} else if (d == null || d.longValue() < r.updateIndex)
+				logs.add(r);
+		}
+
+		final File dst = writeTable(s.tables[from].getMinUpdateIndex(),
+				s.tables[to - 1].getMaxUpdateIndex(), refs, logs);
+		final StringBuilder list = new StringBuilder();
+		for (int i = 0; i < from; i++)
+			list.append(s.names[i]).append('\n');
+		list.append(dst.getName()).append('\n');
+		for (int i = to; i < s.names.length; i++)
+			list.append(s.names[i]).append('\n');
+
+		lck.write(encode(list.toString()));
+		if (!lck.commit()) {
+			dst.delete();
+			throw new IOException(MessageFormat.format(
+					JGitText.get().cannotCommitWriteTo, tablesList));
+		}
+		readStack();
+
+		// Readers that still hold the old stack will retry with the new one.
+		for (int i = from; i < to; i++)
+			s.tables[i].getFile().delete();
+	}
+
+	private boolean append(final LockFile lck, final Stack s, final long min,
+			final long max, final List<RefRecord> refs,
+			final List<LogRecord> logs) throws IOException {
+		final File dst = writeTable(min, max, refs, logs);
+		final byte[] list = new byte[s.content.length + dst.getName().length()
+				+ 1];
+		System.arraycopy(s.content, 0, list, 0, s.content.length);
+		final byte[] name = encode(dst.getName() + '\n');
+		System.arraycopy(name, 0, list, s.content.length, name.length);
+
+		lck.write(list);
+		if (!lck.commit()) {
+			dst.delete();
+			return false;
+		}
+		readStack();
+		fireRefsChanged();
+		return true;
+	}
+
+	private File writeTable(final long min, final long max,
+			final List<RefRecord> refs, final List<LogRecord> logs)
+			throws IOException {
+		final File tmp = File.createTempFile("table_", ".tmp", tablesDir);
+		boolean done = false;
+		try {
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmp));
+			try {
+				new ReftableWriter(ReftableWriter.DEFAULT_BLOCK_SIZE, min, max)
+						.write(out, refs, logs);
+			} finally {
+				out.close();
+			}
+
+			final String name;
+			synchronized (rng) {
+				name = String.format("%016x-%016x-%08x.ref", Long.valueOf(min),
+						Long.valueOf(max), Integer.valueOf(rng.nextInt()));
+			}
+			final File dst = new File(tablesDir, name);
+			if (!tmp.renameTo(dst))
+				throw new IOException(MessageFormat.format(
+						JGitText.get().cannotCommitWriteTo, dst));
+			done = true;
+			return dst;
+		} finally {
+			if (!done)
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * Get the current stack, reloading it if the list of tables changed.
+	 *
+	 * @return the current stack.
+	 * @throws IOException
+	 *             the list or a table cannot be read.
+	 */
+	private Stack readStack() throws IOException {
+		for (int attempt = 0;; attempt++) {
+			byte[] content;
+			try {
+				content = IO.readFully(tablesList);
+			} catch (FileNotFoundException noTables) {
+				content = new byte[0];
+			}
+
+			final Stack cur = stack.get();
+			if (Arrays.equals(cur.content, content))
+				return cur;
+			try {
+				final Stack s = Stack.load(tablesDir, content, cur);
+				if (stack.compareAndSet(cur, s))
+					modCnt.incrementAndGet();
+				return s;
+			} catch (FileNotFoundException compacted) {
+				// A table was merged away after we read the list.
+				if (5 <= attempt)
+					throw compacted;
+			}
+		}
+	}
+
+	private void fireRefsChanged() {
+		final int last = lastNotifiedModCnt.get();
+		final int curr = modCnt.get();
+		if (last != curr && lastNotifiedModCnt.compareAndSet(last, curr))
+			parent.fireEvent(new RefsChangedEvent());
+	}
+
+	private static Ref exactRef(final Stack s, final String name)
+			throws IOException {
+		for (int i = s.tables.length - 1; 0 <= i; i--) {
+			final RefRecord r = s.tables[i].seekRef(name);
+			if (r != null)
+				return r.ref;
+		}
+		return null;
+	}
+
+	private static Ref resolve(final Stack s, final Ref ref, final int depth)
+			throws IOException {
+		if (!ref.isSymbolic())
+			return ref;
+		if (MAX_SYMBOLIC_REF_DEPTH <= depth)
+			return null; // claim it doesn't exist
+
+		Ref dst = exactRef(s, ref.getTarget().getName());
+		if (dst == null)
+			return ref;
+		dst = resolve(s, dst, depth + 1);
+		if (dst == null)
+			return null;
+		return new SymbolicRef(ref.getName(), dst);
+	}
+
+	/** @return the live references below the prefix, sorted by name. */
+	private static RefList<Ref> scan(final Stack s, final String prefix)
+			throws IOException {
+		final Map<String, Ref> seen = new HashMap<String, Ref>();
+		final List<RefRecord> scanned = new ArrayList<RefRecord>();
+		for (int i = s.tables.length - 1; 0 <= i; i--) {
+			scanned.clear();
+			s.tables[i].scanRefs(prefix, scanned);
+			for (final RefRecord r : scanned) {
+				if (!seen.containsKey(r.name))
+					seen.put(r.name, r.ref);
+			}
+		}
+
+		final RefList.Builder<Ref> refs = new RefList.Builder<Ref>(seen.size());
+		for (final Ref ref : seen.values()) {
+			if (ref != null)
+				refs.add(ref);
+		}
+		refs.sort();
+		return refs.toRefList();
+	}
+
+	/**
+	 * Read the log of a reference, newest entry first.
+	 *
+	 * @return up to {@code max} entries, stopping at the newest deletion of
+	 *         the log.
+	 */
+	private static List<LogRecord> readLog(final Stack s, final String name,
+			final int max) throws IOException {
+		final List<LogRecord> all = new ArrayList<LogRecord>();
+		for (int i = s.tables.length - 1; 0 <= i; i--)
+			s.tables[i].scanLogs(name, all);
+		Collections.sort(all, new Comparator<LogRecord>() {
+			public int compare(LogRecord a, LogRecord b) {
+				if (a.updateIndex == b.updateIndex)
+					return 0;
+				return a.updateIndex < b.updateIndex ? 1 : -1;
+			}
+		});
+
+		final List<LogRecord> log = new ArrayList<LogRecord>();
+		for (final LogRecord r : all) {
+			if (r.isDeletion() || max <= log.size())
+				break;
+			log.add(r);
+		}
+		return log;
+	}
+
+	/** The tables of the stack, as named by one version of the list. */
+	private static class Stack {
+		static final Stack EMPTY = new Stack(new byte[0], new String[0],
+				new Reftable[0]);
+
+		static Stack load(final File dir, final byte[] content, final Stack old)
+				throws IOException {
+			final List<String> names = new ArrayList<String>();
+			for (final String line : new String(content, "UTF-8").split("\n")) {
+				if (line.length() > 0)
+					names.add(line);
+			}
+
+			final Reftable[] tables = new Reftable[names.size()];
+			for (int i = 0; i < tables.length; i++) {
+				final String name = names.get(i);
+				final int p = Arrays.asList(old.names).indexOf(name);
+				if (0 <= p)
+					tables[i] = old.tables[p];
+				else
+					tables[i] = Reftable.open(new File(dir, name));
+			}
+			return new Stack(content, names.toArray(new String[names.size()]),
+					tables);
+		}
+
+		final byte[] content;
+
+		final String[] names;
+
+		final Reftable[] tables;
+
+		Stack(final byte[] content, final String[] names, final Reftable[] tables) {
+			this.content = content;
+			this.names = names;
+			this.tables = tables;
+		}
+
+		long nextUpdateIndex() {
+			final int n = tables.length;
+			return n == 0 ? 1 : tables[n - 1].getMaxUpdateIndex() + 1;
+		}
+	}
+
+	/** A change of one reference, applied by {@link #commit}. */
+	static class Change {
+		final String name;
+
+		/** New value of the reference; null to delete it. */
+		final Ref ref;
+
+		ObjectId oldId;
+
+		ObjectId newId;
+
+		PersonIdent who;
+
+		/** Message of the log entry; null to not log the change. */
+		String message;
+
+		/** Another reference whose log records the change, e.g. HEAD. */
+		String logAlso;
+
+		ObjectId expectedOldId;
+
+		Change(final String name, final Ref ref) {
+			this.name = name;
+			this.ref = ref;
+		}
+	}
+
+	/**
+	 * A group of reference changes applied atomically.
+	 * <p>
+	 * The changes are stored in a single table, so concurrent readers observe
+	 * either none or all of them.
+	 */
+	public class Transaction {
+		private final List<Change> changes = new ArrayList<Change>();
+
+		private PersonIdent ident;
+
+		private String message;
+
+		Transaction() {
+			// Created by newTransaction().
+		}
+
+		/**
+		 * Set the identity recorded in the logs of the changed references.
+		 *
+		 * @param pi
+		 *            the identity; null to use the repository's default.
+		 * @return {@code this}
+		 */
+		public Transaction setRefLogIdent(final PersonIdent pi) {
+			ident = pi;
+			return this;
+		}
+
+		/**
+		 * Set the message recorded in the logs of the changed references.
+		 *
+		 * @param msg
+		 *            the message; null to not log the changes.
+		 * @return {@code this}
+		 */
+		public Transaction setRefLogMessage(final String msg) {
+			message = msg;
+			return this;
+		}
+
+		/**
+		 * Set a reference to an object.
+		 *
+		 * @param name
+		 *            name of the reference.
+		 * @param expectedOldId
+		 *            value the reference must have for the transaction to
+		 *            apply; {@link ObjectId#zeroId()} if it must not exist;
+		 *            null to not check it.
+		 * @param newId
+		 *            the new value.
+		 * @return {@code this}
+		 */
+		public Transaction update(final String name,
+				final ObjectId expectedOldId, final ObjectId newId) {
+			final Change c = new Change(name, new ObjectIdRef.Unpeeled(
+					PACKED, name, newId.copy()));
+			c.newId = newId.copy();
+			c.expectedOldId = expectedOldId != null ? expectedOldId.copy()
+					: null;
+			changes.add(c);
+			return this;
+		}
+
+		/**
+		 * Make a reference symbolic.
+		 *
+		 * @param name
+		 *            name of the reference.
+		 * @param target
+		 *            name of the reference it points to.
+		 * @return {@code this}
+		 */
+		public Transaction link(final String name, final String target) {
+			final Change c = new Change(name, new SymbolicRef(name,
+					new ObjectIdRef.Unpeeled(NEW, target, null)));
+			changes.add(c);
+			return this;
+		}
+
+		/**
+		 * Delete a reference and its log.
+		 *
+		 * @param name
+		 *            name of the reference.
+		 * @param expectedOldId
+		 *            value the reference must have for the transaction to
+		 *            apply; null to not check it.
+		 * @return {@code this}
+		 */
+		public Transaction delete(final String name,
+				final ObjectId expectedOldId) {
+			final Change c = new Change(name, null);
+			c.expectedOldId = expectedOldId != null ? expectedOldId.copy()
+					: null;
+			changes.add(c);
+			return this;
+		}
+
+		/**
+		 * Apply all changes.
+		 *
+		 * @return true if the changes were applied; false if the stack was
+		 *         locked by another writer or a reference did not have its
+		 *         expected value, in which case nothing was changed.
+		 * @throws IOException
+		 *             the tables cannot be read or written.
+		 */
+		public boolean commit() throws IOException {
+			final Set<String> names = new HashSet<String>();
+			for (final Change c : changes) {
+				if (!names.add(c.name))
+					throw new IllegalArgumentException(MessageFormat.format(
+							JGitText.get().duplicateRef, c.name));
+			}
+
+			final LockFile lck = lockStack();
+			if (lck == null)
+				return false;
+			try {
+				final Stack s = readStack();
+				final PersonIdent who = ident != null ? new PersonIdent(ident)
+						: new PersonIdent(parent);
+				for (final Change c : changes) {
+					Ref cur = exactRef(s, c.name);
+					if (cur != null)
+						cur = resolve(s, cur, 0);
+					final ObjectId curId = cur != null ? cur.getObjectId()
+							: null;
+					final ObjectId exp = c.expectedOldId;
+					if (exp != null && !exp.equals(ObjectId.zeroId())
+							&& !exp.equals(curId))
+						return false;
+					if (exp != null && exp.equals(ObjectId.zeroId())
+							&& curId != null)
+						return false;
+
+					c.oldId = curId != null ? curId : ObjectId.zeroId();
+					if (c.newId == null)
+						c.newId = c.oldId;
+					c.who = who;
+					c.message = message;
+				}
+				if (!ReftableDatabase.this.commit(lck, changes))
+					return false;
+			} finally {
+				lck.unlock();
+			}
+			autoCompact();
+			return true;
+		}
+	}
+
+	/** Stores all commands of a batch in a single table. */
+	private class ReftableBatchRefUpdate extends BatchRefUpdate {
+		ReftableBatchRefUpdate() {
+			super(ReftableDatabase.this);
+		}
+
+		@Override
+		public void execute(final RevWalk walk, final ProgressMonitor monitor)
+				throws IOException {
+			final List<ReceiveCommand> pending = new ArrayList<ReceiveCommand>();
+			for (final ReceiveCommand cmd : getCommands()) {
+				if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+					pending.add(cmd);
+			}
+			if (pending.isEmpty())
+				return;
+
+			monitor.beginTask(JGitText.get().updatingReferences, pending
+					.size());
+			final LockFile lck = lockStack();
+			if (lck == null) {
+				for (final ReceiveCommand cmd : pending)
+					cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+				monitor.endTask();
+				return;
+			}
+
+			final List<ReceiveCommand> viaRefUpdate = new ArrayList<ReceiveCommand>();
+			final List<ReceiveCommand> applied = new ArrayList<ReceiveCommand>();
+			final List<RefUpdate.Result> results = new ArrayList<RefUpdate.Result>();
+			try {
+				final Stack s = readStack();
+				final PersonIdent who = getRefLogIdent() != null ? new PersonIdent(
+						getRefLogIdent())
+						: new PersonIdent(parent);
+				final Set<String> names = new HashSet<String>();
+				final Set<String> conflicts = getConflictingCreates(pending);
+				final List<Change> changes = new ArrayList<Change>();
+				for (final ReceiveCommand cmd : pending) {
+					final String name = cmd.getRefName();
+					if (!names.add(name)) {
+						cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+								MessageFormat.format(JGitText.get().duplicateRef,
+										name));
+						continue;
+					}
+					if (cmd.getType() == ReceiveCommand.Type.CREATE
+							&& (conflicts.contains(name) || isNameConflicting(
+									s, name, null))) {
+						cmd.setResult(RefUpdate.Result.LOCK_FAILURE);
+						continue;
+					}
+
+					final Ref cur = exactRef(s, name);
+					if (cur != null && cur.isSymbolic()) {
+						viaRefUpdate.add(cmd);
+						continue;
+					}
+					final ObjectId curId = cur != null ? cur.getObjectId() : null;
+					final RefUpdate.Result r = check(walk, cmd, curId);
+					if (r == RefUpdate.Result.NO_CHANGE
+							|| (r == RefUpdate.Result.NEW && cmd.getType() == ReceiveCommand.Type.DELETE)) {
+						cmd.setResult(r);
+						continue;
+					} else if (r != RefUpdate.Result.NEW
+							&& r != RefUpdate.Result.FAST_FORWARD
+							&& r != RefUpdate.Result.FORCED) {
+						cmd.setResult(r);
+						continue;
+					}
+
+					final Change c;
+					if (cmd.getType() == ReceiveCommand.Type.DELETE)
+						c = new Change(name, null);
+					else
+						c = new Change(name, new ObjectIdRef.Unpeeled(PACKED,
+								name, cmd.getNewId().copy()));
+					c.oldId = curId != null ? curId : ObjectId.zeroId();
+					c.newId = cmd.getNewId();
+					c.who = who;
+					c.message = getRefLogMessage(r);
+					changes.add(c);
+					applied.add(cmd);
+					results.add(r);
+				}
+
+				if (!changes.isEmpty()) {
+					final boolean ok = commit(lck, changes);
+					for (int i = 0; i < applied.size(); i++)
+						applied.get(i).setResult(
+								ok ? results.get(i)
+										: RefUpdate.Result.LOCK_FAILURE);
+				}
+			} finally {
+				lck.unlock();
+			}
+			if (!applied.isEmpty())
+				autoCompact();
+			monitor.update(pending.size() - viaRefUpdate.size());
+
+			for (final ReceiveCommand cmd : viaRefUpdate) {
+				apply(walk, cmd);
+				monitor.update(1);
+			}
+			monitor.endTask();
+		}
+	}
+
+	private class ReftableReflogReader extends ReflogReader {
+		private final String name;
+
+		ReftableReflogReader(final String name) {
+			super(parent, name);
+			this.name = name;
+		}
+
+		@Override
+		public List<Entry> getReverseEntries(int max) throws IOException {
+			final List<Entry> entries = new ArrayList<Entry>();
+			for (final LogRecord r : readLog(readStack(), name, max))
+				entries.add(new Entry(r.oldId, r.newId, r.who, r.message));
+			return entries;
+		}
+
+		@Override
+		public Entry getReverseEntry(int number) throws IOException {
+			final List<Entry> entries = getReverseEntries(number + 1);
+			return number < entries.size() ? entries.get(number) : null;
+		}
+
+		@Override
+		public ReverseIterator getReverseIterator() throws IOException {
+			final Iterator<Entry> itr = getReverseEntries().iterator();
+			return new ReverseIterator() {
+				@Override
+				public Entry next() {
+					return itr.hasNext() ? itr.next() : null;
+				}
+			};
+		}
+	}
+}
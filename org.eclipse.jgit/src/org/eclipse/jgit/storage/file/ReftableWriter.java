@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.storage.file.Reftable.BLOCK_HEADER_SIZE;
+import static org.eclipse.jgit.storage.file.Reftable.FOOTER_SIZE;
+import static org.eclipse.jgit.storage.file.Reftable.HEADER_SIZE;
+import static org.eclipse.jgit.storage.file.Reftable.INDEX_BLOCK;
+import static org.eclipse.jgit.storage.file.Reftable.LOG_BLOCK;
+import static org.eclipse.jgit.storage.file.Reftable.REF_BLOCK;
+import static org.eclipse.jgit.storage.file.Reftable.RESTART_INTERVAL;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_DELETION;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_LOG;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_PEELED;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_PEELED_TAG;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_SYMREF;
+import static org.eclipse.jgit.storage.file.Reftable.VALUE_UNPEELED;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.eclipse.jgit.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.storage.file.Reftable.LogRecord;
+import org.eclipse.jgit.storage.file.Reftable.RefRecord;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Writes a {@link Reftable}.
+ * <p>
+ * The records are sorted by the writer, so they may be given in any order,
+ * but no two of them may have the same key.
+ */
+class ReftableWriter {
+	/** Default size of the blocks of a table. */
+	static final int DEFAULT_BLOCK_SIZE = 4096;
+
+	private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			return Reftable.compare(a, a.length, b, b.length);
+		}
+	};
+
+	private final int blockSize;
+
+	private final long minUpdateIndex;
+
+	private final long maxUpdateIndex;
+
+	/** Number of bytes written so far. */
+	private int pos;
+
+	/**
+	 * Create a writer.
+	 *
+	 * @param blockSize
+	 *            size of the blocks of the table.
+	 * @param minUpdateIndex
+	 *            smallest update index of the records.
+	 * @param maxUpdateIndex
+	 *            largest update index of the records.
+	 */
+	ReftableWriter(int blockSize, long minUpdateIndex, long maxUpdateIndex) {
+		this.blockSize = blockSize;
+		this.minUpdateIndex = minUpdateIndex;
+		this.maxUpdateIndex = maxUpdateIndex;
+	}
+
+	/**
+	 * Write a table.
+	 *
+	 * @param out
+	 *            stream to write the table to.
+	 * @param refs
+	 *            the references, and deletions of references.
+	 * @param logs
+	 *            the reflog entries, and deletions of reflogs.
+	 * @throws IOException
+	 *             the stream cannot be written.
+	 */
+	void write(final OutputStream out, final List<RefRecord> refs,
+			final List<LogRecord> logs) throws IOException {
+		final byte[] header = header();
+		out.write(header);
+		pos = header.length;
+
+		final List<Entry> refEntries = new ArrayList<Entry>(refs.size());
+		for (final RefRecord r : refs)
+			refEntries.add(encode(r));
+		final List<Entry> refIndex = writeSection(out, REF_BLOCK, refEntries);
+
+		final List<Entry> logEntries = new ArrayList<Entry>(logs.size());
+		for (final LogRecord r : logs)
+			logEntries.add(encode(r));
+		final List<Entry> logIndex = writeSection(out, LOG_BLOCK, logEntries);
+
+		final long refIndexPos = pos;
+		writeBlock(out, INDEX_BLOCK, refIndex);
+		final long logIndexPos = pos;
+		writeBlock(out, INDEX_BLOCK, logIndex);
+
+		final byte[] footer = new byte[FOOTER_SIZE];
+		System.arraycopy(header, 0, footer, 0, HEADER_SIZE);
+		NB.encodeInt64(footer, HEADER_SIZE, refIndexPos);
+		NB.encodeInt64(footer, HEADER_SIZE + 8, logIndexPos);
+		final CRC32 crc = new CRC32();
+		crc.update(footer, 0, FOOTER_SIZE - 4);
+		NB.encodeInt32(footer, FOOTER_SIZE - 4, (int) crc.getValue());
+		out.write(footer);
+	}
+
+	private byte[] header() {
+		final byte[] h = new byte[HEADER_SIZE];
+		System.arraycopy(Reftable.SIGNATURE, 0, h, 0, 4);
+		h[4] = Reftable.VERSION;
+		int24(h, 5, blockSize);
+		NB.encodeInt64(h, 8, minUpdateIndex);
+		NB.encodeInt64(h, 16, maxUpdateIndex);
+		return h;
+	}
+
+	/** @return index entries of the blocks written. */
+	private List<Entry> writeSection(final OutputStream out, final byte type,
+			final List<Entry> entries) throws IOException {
+		Collections.sort(entries);
+		for (int i = 1; i < entries.size(); i++) {
+			if (entries.get(i - 1).compareTo(entries.get(i)) == 0)
+				throw new IllegalArgumentException(MessageFormat.format(
+						JGitText.get().duplicateRef, RawParseUtils
+								.decode(entries.get(i).key)));
+		}
+
+		final List<Entry> index = new ArrayList<Entry>();
+		final List<Entry> block = new ArrayList<Entry>();
+		int size = BLOCK_HEADER_SIZE + 2;
+		for (final Entry e : entries) {
+			final int n = e.key.length + e.value.length + 16;
+			if (!block.isEmpty() && blockSize < size + n) {
+				index.add(indexEntry(block, writeBlock(out, type, block)));
+				block.clear();
+				size = BLOCK_HEADER_SIZE + 2;
+			}
+			block.add(e);
+			size += n;
+		}
+		if (!block.isEmpty())
+			index.add(indexEntry(block, writeBlock(out, type, block)));
+		return index;
+	}
+
+	private static Entry indexEntry(final List<Entry> block, final int blockPos) {
+		final Buffer b = new Buffer();
+		b.varint(blockPos);
+		return new Entry(block.get(block.size() - 1).key, 0, b.toByteArray());
+	}
+
+	/** @return position of the block. */
+	private int writeBlock(final OutputStream out, final byte type,
+			final List<Entry> entries) throws IOException {
+		final Buffer b = new Buffer();
+		b.write(type);
+		b.write(0);
+		b.write(0);
+		b.write(0);
+
+		final List<Integer> restarts = new ArrayList<Integer>();
+		byte[] last = null;
+		for (int i = 0; i < entries.size(); i++) {
+			final Entry e = entries.get(i);
+			int prefix = 0;
+			if (i % RESTART_INTERVAL == 0)
+				restarts.add(Integer.valueOf(b.size()));
+			else
+				prefix = commonPrefix(last, e.key);
+			b.varint(prefix);
+			b.varint(((e.key.length - prefix) << 3) | e.valueType);
+			b.write(e.key, prefix, e.key.length - prefix);
+			b.write(e.value, 0, e.value.length);
+			last = e.key;
+		}
+		for (final Integer r : restarts)
+			b.int24(r.intValue());
+		b.write(restarts.size() >>> 8);
+		b.write(restarts.size());
+
+		final byte[] raw = b.toByteArray();
+		if (0xffffff < raw.length)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().reftableBlockTooLarge, Integer
+							.valueOf(raw.length)));
+		int24(raw, 1, raw.length);
+		out.write(raw);
+
+		final int blockPos = pos;
+		pos += raw.length;
+		return blockPos;
+	}
+
+	private static int commonPrefix(final byte[] a, final byte[] b) {
+		final int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i])
+			i++;
+		return i;
+	}
+
+	private Entry encode(final RefRecord r) {
+		final Buffer b = new Buffer();
+		b.varint(r.updateIndex - minUpdateIndex);
+		final Ref ref = r.ref;
+		final int type;
+		if (ref == null)
+			type = VALUE_DELETION;
+		else if (ref.isSymbolic()) {
+			type = VALUE_SYMREF;
+			b.string(ref.getTarget().getName());
+		} else if (ref.getPeeledObjectId() != null) {
+			type = VALUE_PEELED_TAG;
+			b.id(ref.getObjectId());
+			b.id(ref.getPeeledObjectId());
+		} else {
+			type = ref.isPeeled() ? VALUE_PEELED : VALUE_UNPEELED;
+			b.id(ref.getObjectId());
+		}
+		return new Entry(Constants.encode(r.name), type, b.toByteArray());
+	}
+
+	private static Entry encode(final LogRecord r) {
+		final byte[] key = Reftable.logKey(r.name, r.updateIndex);
+		if (r.isDeletion())
+			return new Entry(key, VALUE_DELETION, new byte[0]);
+
+		final Buffer b = new Buffer();
+		final PersonIdent who = r.who;
+		b.id(r.oldId != null ? r.oldId : ObjectId.zeroId());
+		b.id(r.newId != null ? r.newId : ObjectId.zeroId());
+		b.string(who.getName());
+		b.string(who.getEmailAddress());
+		b.varint(who.getWhen().getTime() / 1000);
+		final int tz = who.getTimeZoneOffset();
+		b.write(tz >>> 8);
+		b.write(tz);
+		b.string(r.message != null ? r.message : "");
+		return new Entry(key, VALUE_LOG, b.toByteArray());
+	}
+
+	private static void int24(final byte[] b, final int p, final int v) {
+		b[p] = (byte) (v >>> 16);
+		b[p + 1] = (byte) (v >>> 8);
+		b[p + 2] = (byte) v;
+	}
+
+	/** A record, encoded but for its key prefix compression. */
+	private static class Entry implements Comparable<Entry> {
+		final byte[] key;
+
+		final int valueType;
+
+		final byte[] value;
+
+		Entry(byte[] key, int valueType, byte[] value) {
+			this.key = key;
+			this.valueType = valueType;
+			this.value = value;
+		}
+
+		public int compareTo(Entry o) {
+			return KEY_ORDER.compare(key, o.key);
+		}
+	}
+
+	/** Growable byte array. */
+	private static class Buffer {
+		private byte[] buf = new byte[256];
+
+		private int cnt;
+
+		int size() {
+			return cnt;
+		}
+
+		void write(final int b) {
+			ensure(1);
+			buf[cnt++] = (byte) b;
+		}
+
+		void write(final byte[] b, final int off, final int len) {
+			ensure(len);
+			System.arraycopy(b, off, buf, cnt, len);
+			cnt += len;
+		}
+
+		void int24(final int v) {
+			write(v >>> 16);
+			write(v >>> 8);
+			write(v);
+		}
+
+		void varint(long v) {
+			final byte[] tmp = new byte[10];
+			int p = tmp.length - 1;
+			tmp[p] = (byte) (v & 0x7f);
+			while ((v >>>= 7) != 0)
+				tmp[--p] = (byte) (0x80 | (--v & 0x7f));
+			write(tmp, p, tmp.length - p);
+		}
+
+		void id(final ObjectId id) {
+			ensure(OBJECT_ID_LENGTH);
+			id.copyRawTo(buf, cnt);
+			cnt += OBJECT_ID_LENGTH;
+		}
+
+		void string(final String s) {
+			final byte[] b = Constants.encode(s);
+			varint(b.length);
+			write(b, 0, b.length);
+		}
+
+		byte[] toByteArray() {
+			final byte[] r = new byte[cnt];
+			System.arraycopy(buf, 0, r, 0, cnt);
+			return r;
+		}
+
+		private void ensure(final int n) {
+			if (buf.length < cnt + n) {
+				final byte[] b = new byte[Math.max(2 * buf.length, cnt + n)];
+				System.arraycopy(buf, 0, b, 0, cnt);
+				buf = b;
+			}
+		}
+	}
+}
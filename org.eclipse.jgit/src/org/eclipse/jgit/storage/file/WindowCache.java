@@ -47,6 +47,10 @@
 import java.io.IOException;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -76,9 +80,10 @@
  * overhead that typically doesn't yield a corresponding benefit to the
  * application.
  * <p>
- * This cache implements a loose LRU policy by randomly picking a window
- * comprised of roughly 10% of the cache, and evicting the oldest accessed entry
- * within that window.
+ * The entry evicted is chosen by the {@link WindowCacheConfig.EvictionPolicy}
+ * of the configuration. The default policy is a loose LRU, randomly picking a
+ * window comprised of roughly 10% of the cache, and evicting the oldest
+ * accessed entry within that window.
  * <p>
  * Entities created by the cache are held under SoftReferences, permitting the
  * Java runtime's garbage collector to evict entries when heap memory gets low.
@@ -86,7 +91,10 @@
  * <p>
  * The internal hash table does not expand at runtime, instead it is fixed in
  * size at cache creation time. The internal lock table used to gate load
- * invocations is also fixed in size.
+ * invocations is also fixed in size. When the cache is reconfigured a new
+ * table is sized for the new limits. If the limits only grew and windows keep
+ * their size, the windows held by the old table are moved into the new one;
+ * otherwise they are all released, closing every pack.
  * <p>
  * The key tuple is passed through to methods as a pair of parameters rather
  * than as a single Object, thus reducing the transient memory allocations of
@@ -131,6 +139,8 @@ private static final int bits(int newSize) {
 
 	private static final Random rng = new Random();
 
+	private static final Ref[] NO_REFS = {};
+
 	private static volatile WindowCache cache;
 
 	static {
@@ -171,6 +181,10 @@ public static void reconfigure(final int packedGitLimit,
 	 * The new configuration is applied immediately. If the new limits are
 	 * smaller than what what is currently cached, older entries will be purged
 	 * as soon as possible to allow the cache to meet the new limit.
+	 * <p>
+	 * When the limits only grow, and the window size and use of mmap are
+	 * unchanged, the windows already cached are kept. Otherwise every window
+	 * is dropped and every pack is closed.
 	 *
 	 * @param cfg
 	 *            the new window cache configuration.
@@ -181,10 +195,28 @@ public static void reconfigure(final int packedGitLimit,
 	public static void reconfigure(final WindowCacheConfig cfg) {
 		final WindowCache nc = new WindowCache(cfg);
 		final WindowCache oc = cache;
-		if (oc != null)
+		boolean keepWindows = false;
+		if (oc != null) {
+			keepWindows = nc.canCopyFrom(oc);
+			if (keepWindows)
+				nc.copyFrom(oc);
 			oc.removeAll();
+		}
 		cache = nc;
-		UnpackedObjectCache.reconfigure(cfg);
+		DeltaBaseCache.reconfigure(cfg);
+		PackMapping.reconfigure(cfg, keepWindows);
+		PackIndex.reconfigure(cfg);
+	}
+
+	/**
+	 * Obtain the current usage of the window cache.
+	 * <p>
+	 * Counters start from zero each time the cache is reconfigured.
+	 *
+	 * @return snapshot of the cache's statistics.
+	 */
+	public static WindowCacheStats getStats() {
+		return cache.stats();
 	}
 
 	static WindowCache getInstance() {
@@ -193,6 +225,10 @@ static WindowCache getInstance() {
 
 	static final ByteWindow get(final PackFile pack, final long offset)
 			throws IOException {
+		final ByteWindow m = pack.mappedWindow(offset);
+		if (m != null)
+			return m;
+
 		final WindowCache c = cache;
 		final ByteWindow r = c.getOrLoad(pack, c.toStart(offset));
 		if (c != cache) {
@@ -216,9 +252,6 @@ static final void purge(final PackFile pack) {
 	/** Number of entries in {@link #table}. */
 	private final int tableSize;
 
-	/** Access clock for loose LRU. */
-	private final AtomicLong clock;
-
 	/** Hash bucket directory; entries are chained below. */
 	private final AtomicReferenceArray<Entry> table;
 
@@ -228,8 +261,8 @@ static final void purge(final PackFile pack) {
 	/** Lock to elect the eviction thread after a load occurs. */
 	private final ReentrantLock evictLock;
 
-	/** Number of {@link #table} buckets to scan for an eviction window. */
-	private final int evictBatch;
+	/** Chooses the entries evicted when the cache is full. */
+	private final Policy policy;
 
 	private final int maxFiles;
 
@@ -245,6 +278,14 @@ static final void purge(final PackFile pack) {
 
 	private final AtomicLong openBytes;
 
+	private final AtomicLong hitCount;
+
+	private final AtomicLong missCount;
+
+	private final AtomicLong totalLoadTime;
+
+	private final AtomicLong evictionCount;
+
 	private WindowCache(final WindowCacheConfig cfg) {
 		tableSize = tableSize(cfg);
 		final int lockCount = lockCount(cfg);
@@ -254,21 +295,16 @@ private WindowCache(final WindowCacheConfig cfg) {
 			throw new IllegalArgumentException(JGitText.get().lockCountMustBeGreaterOrEqual1);
 
 		queue = new ReferenceQueue<ByteWindow>();
-		clock = new AtomicLong(1);
 		table = new AtomicReferenceArray<Entry>(tableSize);
 		locks = new Lock[lockCount];
 		for (int i = 0; i < locks.length; i++)
 			locks[i] = new Lock();
 		evictLock = new ReentrantLock();
 
-		int eb = (int) (tableSize * .1);
-		if (64 < eb)
-			eb = 64;
-		else if (eb < 4)
-			eb = 4;
-		if (tableSize < eb)
-			eb = tableSize;
-		evictBatch = eb;
+		if (cfg.getPackedGitEvictionPolicy() == WindowCacheConfig.EvictionPolicy.CLOCK)
+			policy = new ClockPolicy();
+		else
+			policy = new LruPolicy();
 
 		maxFiles = cfg.getPackedGitOpenFiles();
 		maxBytes = cfg.getPackedGitLimit();
@@ -278,6 +314,10 @@ else if (eb < 4)
 
 		openFiles = new AtomicInteger();
 		openBytes = new AtomicLong();
+		hitCount = new AtomicLong();
+		missCount = new AtomicLong();
+		totalLoadTime = new AtomicLong();
+		evictionCount = new AtomicLong();
 
 		if (maxFiles < 1)
 			throw new IllegalArgumentException(JGitText.get().openFilesMustBeAtLeast1);
@@ -299,6 +339,9 @@ private int hash(final int packHash, final long off) {
 
 	private ByteWindow load(final PackFile pack, final long offset)
 			throws IOException {
+		final long start = System.nanoTime();
+		missCount.incrementAndGet();
+		pack.windowMisses.incrementAndGet();
 		if (pack.beginWindowCache())
 			openFiles.incrementAndGet();
 		try {
@@ -314,6 +357,8 @@ private ByteWindow load(final PackFile pack, final long offset)
 		} catch (Error e) {
 			close(pack);
 			throw e;
+		} finally {
+			totalLoadTime.addAndGet(System.nanoTime() - start);
 		}
 	}
 
@@ -385,13 +430,8 @@ private ByteWindow getOrLoad(final PackFile pack, final long position)
 
 			v = load(pack, position);
 			final Ref ref = createRef(pack, position, v);
-			hit(ref);
-			for (;;) {
-				final Entry n = new Entry(clean(e2), ref);
-				if (table.compareAndSet(slot, e2, n))
-					break;
-				e2 = table.get(slot);
-			}
+			policy.hit(ref);
+			insert(slot, e2, ref);
 		}
 
 		if (evictLock.tryLock()) {
@@ -412,7 +452,9 @@ private ByteWindow scan(Entry n, final PackFile pack, final long position) {
 			if (r.pack == pack && r.position == position) {
 				final ByteWindow v = r.get();
 				if (v != null) {
-					hit(r);
+					hitCount.incrementAndGet();
+					pack.windowHits.incrementAndGet();
+					policy.hit(r);
 					return v;
 				}
 				n.kill();
@@ -422,43 +464,100 @@ private ByteWindow scan(Entry n, final PackFile pack, final long position) {
 		return null;
 	}
 
-	private void hit(final Ref r) {
-		// We don't need to be 100% accurate here. Its sufficient that at least
-		// one thread performs the increment. Any other concurrent access at
-		// exactly the same time can simply use the same clock value.
-		//
-		// Consequently we attempt the set, but we don't try to recover should
-		// it fail. This is why we don't use getAndIncrement() here.
-		//
-		final long c = clock.get();
-		clock.compareAndSet(c, c + 1);
-		r.lastAccess = c;
+	private void insert(final int slot, Entry e1, final Ref ref) {
+		for (;;) {
+			final Entry n = new Entry(clean(e1), ref);
+			if (table.compareAndSet(slot, e1, n))
+				break;
+			e1 = table.get(slot);
+		}
 	}
 
 	private void evict() {
-		while (isFull()) {
-			int ptr = rng.nextInt(tableSize);
-			Entry old = null;
-			int slot = 0;
-			for (int b = evictBatch - 1; b >= 0; b--, ptr++) {
-				if (tableSize <= ptr)
-					ptr = 0;
-				for (Entry e = table.get(ptr); e != null; e = e.next) {
-					if (e.dead)
-						continue;
-					if (old == null || e.ref.lastAccess < old.ref.lastAccess) {
-						old = e;
-						slot = ptr;
-					}
-				}
+		while (isFull() && policy.evict()) {
+			// Keep going until the cache fits again.
+		}
+	}
+
+	private void evict(final int slot, final Entry old) {
+		old.kill();
+		evictionCount.incrementAndGet();
+		gc();
+		final Entry e1 = table.get(slot);
+		table.compareAndSet(slot, e1, clean(e1));
+	}
+
+	private boolean canCopyFrom(final WindowCache oc) {
+		return oc.windowSize == windowSize && oc.mmap == mmap
+				&& oc.maxFiles <= maxFiles && oc.maxBytes <= maxBytes;
+	}
+
+	/**
+	 * Move the windows of another cache into this one.
+	 * <p>
+	 * Windows are copied until this cache is full. They are then held by both
+	 * caches, until the other cache is cleared.
+	 *
+	 * @param oc
+	 *            the cache being replaced; {@link #canCopyFrom(WindowCache)}
+	 *            must be true.
+	 */
+	private void copyFrom(final WindowCache oc) {
+		for (final Ref r : oc.liveRefs()) {
+			final ByteWindow v = r.get();
+			if (v == null)
+				continue;
+			try {
+				if (r.pack.beginWindowCache())
+					openFiles.incrementAndGet();
+			} catch (IOException e) {
+				continue;
 			}
-			if (old != null) {
-				old.kill();
-				gc();
-				final Entry e1 = table.get(slot);
-				table.compareAndSet(slot, e1, clean(e1));
+			final Ref ref = createRef(r.pack, r.position, v);
+			policy.hit(ref);
+			final int slot = slot(r.pack, r.position);
+			insert(slot, table.get(slot), ref);
+			if (isFull())
+				break;
+		}
+		evict();
+	}
+
+	/** @return references of every entry not yet known to be dead. */
+	private Ref[] liveRefs() {
+		final List<Ref> refs = new ArrayList<Ref>();
+		for (int s = 0; s < tableSize; s++) {
+			for (Entry e = table.get(s); e != null; e = e.next) {
+				if (!e.dead)
+					refs.add(e.ref);
 			}
 		}
+		return refs.toArray(NO_REFS);
+	}
+
+	private WindowCacheStats stats() {
+		final Map<PackFile, long[]> packs = new LinkedHashMap<PackFile, long[]>();
+		for (final Ref r : liveRefs()) {
+			long[] n = packs.get(r.pack);
+			if (n == null) {
+				n = new long[2];
+				packs.put(r.pack, n);
+			}
+			n[0]++;
+			n[1] += r.size;
+		}
+
+		final List<WindowCacheStats.PackStats> packStats;
+		packStats = new ArrayList<WindowCacheStats.PackStats>(packs.size());
+		for (final Map.Entry<PackFile, long[]> e : packs.entrySet()) {
+			final PackFile p = e.getKey();
+			packStats.add(new WindowCacheStats.PackStats(p.getPackFile(),
+					p.windowHits.get(), p.windowMisses.get(), e.getValue()[0],
+					e.getValue()[1]));
+		}
+		return new WindowCacheStats(hitCount.get(), missCount.get(),
+				totalLoadTime.get(), evictionCount.get(), openFiles.get(),
+				openBytes.get(), PackMapping.getMappedByteCount(), packStats);
 	}
 
 	/**
@@ -598,8 +697,12 @@ private static class Ref extends SoftReference<ByteWindow> {
 
 		final int size;
 
+		/** Access time, for {@link LruPolicy}. */
 		long lastAccess;
 
+		/** Set when accessed, for {@link ClockPolicy}. */
+		volatile boolean referenced;
+
 		private boolean cleared;
 
 		protected Ref(final PackFile pack, final long position,
@@ -621,4 +724,121 @@ final synchronized boolean canClear() {
 	private static final class Lock {
 		// Used only for its implicit monitor.
 	}
+
+	/**
+	 * Selects the entries to evict when the cache is full.
+	 * <p>
+	 * {@link #hit(Ref)} may be called concurrently by any number of threads.
+	 * {@link #evict()} is only called by the thread holding the eviction lock.
+	 */
+	private abstract class Policy {
+		/**
+		 * Record an access to an entry, including its creation.
+		 *
+		 * @param r
+		 *            the entry accessed.
+		 */
+		abstract void hit(Ref r);
+
+		/**
+		 * Evict one entry.
+		 *
+		 * @return true if an entry was evicted; false if there was no entry
+		 *         that could be evicted.
+		 */
+		abstract boolean evict();
+	}
+
+	/** Loose LRU, evicting the oldest entry of a random range of buckets. */
+	private class LruPolicy extends Policy {
+		/** Access clock for loose LRU. */
+		private final AtomicLong clock = new AtomicLong(1);
+
+		/** Number of {@link #table} buckets to scan for an eviction window. */
+		private final int evictBatch;
+
+		LruPolicy() {
+			int eb = (int) (tableSize * .1);
+			if (64 < eb)
+				eb = 64;
+			else if (eb < 4)
+				eb = 4;
+			if (tableSize < eb)
+				eb = tableSize;
+			evictBatch = eb;
+		}
+
+		void hit(final Ref r) {
+			// We don't need to be 100% accurate here. Its sufficient that at
+			// least one thread performs the increment. Any other concurrent
+			// access at exactly the same time can simply use the same clock
+			// value.
+			//
+			// Consequently we attempt the set, but we don't try to recover
+			// should it fail. This is why we don't use getAndIncrement() here.
+			//
+			final long c = clock.get();
+			clock.compareAndSet(c, c + 1);
+			r.lastAccess = c;
+		}
+
+		boolean evict() {
+			int ptr = rng.nextInt(tableSize);
+			for (int scanned = 0; scanned < tableSize;) {
+				Entry old = null;
+				int slot = 0;
+				for (int b = evictBatch - 1; b >= 0; b--, ptr++, scanned++) {
+					if (tableSize <= ptr)
+						ptr = 0;
+					for (Entry e = table.get(ptr); e != null; e = e.next) {
+						if (e.dead)
+							continue;
+						if (old == null || e.ref.lastAccess < old.ref.lastAccess) {
+							old = e;
+							slot = ptr;
+						}
+					}
+				}
+				if (old != null) {
+					WindowCache.this.evict(slot, old);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/** Second chance, evicting the first entry not referenced recently. */
+	private class ClockPolicy extends Policy {
+		/** Next bucket the clock hand looks at. */
+		private int hand;
+
+		void hit(final Ref r) {
+			if (!r.referenced)
+				r.referenced = true;
+		}
+
+		boolean evict() {
+			// Two full turns are enough: the first turn clears the reference
+			// bit of every live entry, so the second must find one to evict.
+			//
+			for (int n = 2 * tableSize; n > 0; n--) {
+				final int slot = hand;
+				if (++hand == tableSize)
+					hand = 0;
+
+				for (Entry e = table.get(slot); e != null; e = e.next) {
+					if (e.dead)
+						continue;
+					if (e.ref.referenced)
+						e.ref.referenced = false;
+					else {
+						WindowCache.this.evict(slot, e);
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
 }
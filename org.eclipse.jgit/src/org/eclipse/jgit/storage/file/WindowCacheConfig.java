@@ -61,15 +61,24 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private long packedGitMmapLimit;
+
+	private long packedIndexMmapThreshold;
+
 	private int deltaBaseCacheLimit;
 
+	private EvictionPolicy packedGitEvictionPolicy;
+
 	/** Create a default configuration. */
 	public WindowCacheConfig() {
 		packedGitOpenFiles = 128;
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedGitMmapLimit = 0;
+		packedIndexMmapThreshold = 16 * MB;
 		deltaBaseCacheLimit = 10 * MB;
+		packedGitEvictionPolicy = EvictionPolicy.LRU;
 	}
 
 	/**
@@ -142,9 +151,49 @@ public void setPackedGitMMAP(final boolean usemmap) {
 	}
 
 	/**
-	 * @return maximum number of bytes to cache in {@link UnpackedObjectCache}
-	 *         for inflated, recently accessed objects, without delta chains.
-	 *         <b>Default 10 MB.</b>
+	 * @return maximum number of bytes of whole packs to keep mapped into
+	 *         virtual memory, outside of the Java heap and of
+	 *         {@link #getPackedGitLimit()}. A pack fitting in the remaining
+	 *         budget is mapped once in its entirety, and read without going
+	 *         through the window cache. 0 disables whole pack mappings.
+	 *         <b>Default 0.</b>
+	 */
+	public long getPackedGitMmapLimit() {
+		return packedGitMmapLimit;
+	}
+
+	/**
+	 * @param newLimit
+	 *            maximum number of bytes of whole packs to keep mapped into
+	 *            virtual memory. 0 disables whole pack mappings.
+	 */
+	public void setPackedGitMmapLimit(final long newLimit) {
+		packedGitMmapLimit = newLimit;
+	}
+
+	/**
+	 * @return size in bytes from which a pack index is memory mapped and
+	 *         searched in place, instead of being copied onto the Java heap
+	 *         when the pack is opened. 0 always reads indexes onto the heap.
+	 *         <b>Default 16 MB.</b>
+	 */
+	public long getPackedIndexMmapThreshold() {
+		return packedIndexMmapThreshold;
+	}
+
+	/**
+	 * @param threshold
+	 *            size in bytes from which a pack index is memory mapped. 0
+	 *            always reads indexes onto the heap.
+	 */
+	public void setPackedIndexMmapThreshold(final long threshold) {
+		packedIndexMmapThreshold = threshold;
+	}
+
+	/**
+	 * @return maximum number of bytes all packs together cache in their
+	 *         {@link DeltaBaseCache} for inflated, recently accessed objects,
+	 *         without delta chains. <b>Default 10 MB.</b>
 	 */
 	public int getDeltaBaseCacheLimit() {
 		return deltaBaseCacheLimit;
@@ -152,14 +201,31 @@ public int getDeltaBaseCacheLimit() {
 
 	/**
 	 * @param newLimit
-	 *            maximum number of bytes to cache in
-	 *            {@link UnpackedObjectCache} for inflated, recently accessed
+	 *            maximum number of bytes all packs together cache in their
+	 *            {@link DeltaBaseCache} for inflated, recently accessed
 	 *            objects, without delta chains.
 	 */
 	public void setDeltaBaseCacheLimit(final int newLimit) {
 		deltaBaseCacheLimit = newLimit;
 	}
 
+	/**
+	 * @return policy used to select the window dropped when the cache is
+	 *         full. <b>Default {@link EvictionPolicy#LRU}.</b>
+	 */
+	public EvictionPolicy getPackedGitEvictionPolicy() {
+		return packedGitEvictionPolicy;
+	}
+
+	/**
+	 * @param policy
+	 *            policy used to select the window dropped when the cache is
+	 *            full.
+	 */
+	public void setPackedGitEvictionPolicy(final EvictionPolicy policy) {
+		packedGitEvictionPolicy = policy;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 * <p>
@@ -173,6 +239,38 @@ public void fromConfig(final Config rc) {
 		setPackedGitLimit(rc.getLong("core", null, "packedgitlimit", getPackedGitLimit()));
 		setPackedGitWindowSize(rc.getInt("core", null, "packedgitwindowsize", getPackedGitWindowSize()));
 		setPackedGitMMAP(rc.getBoolean("core", null, "packedgitmmap", isPackedGitMMAP()));
+		setPackedGitMmapLimit(rc.getLong("core", null, "packedgitmmaplimit", getPackedGitMmapLimit()));
+		setPackedIndexMmapThreshold(rc.getLong("core", null, "packedindexmmapthreshold", getPackedIndexMmapThreshold()));
 		setDeltaBaseCacheLimit(rc.getInt("core", null, "deltabasecachelimit", getDeltaBaseCacheLimit()));
+
+		final String policy = rc.getString("core", null, "packedgitevictionpolicy");
+		if (policy != null) {
+			for (EvictionPolicy p : EvictionPolicy.values()) {
+				if (p.name().equalsIgnoreCase(policy))
+					setPackedGitEvictionPolicy(p);
+			}
+		}
+	}
+
+	/** Algorithms {@link WindowCache} can use to choose windows to drop. */
+	public static enum EvictionPolicy {
+		/**
+		 * Approximate least recently used.
+		 * <p>
+		 * Every access stamps the window with a global clock. When the cache
+		 * is full the oldest window of a small random range of the cache is
+		 * dropped. Cheap to evict, but every hit updates a shared counter.
+		 */
+		LRU,
+
+		/**
+		 * Second chance (CLOCK).
+		 * <p>
+		 * An access only marks the window as referenced. A hand sweeps over
+		 * the cache, clearing the mark of referenced windows and dropping the
+		 * first window that was not referenced since the hand last passed it.
+		 * Hits never write shared state, which suits many concurrent readers.
+		 */
+		CLOCK;
 	}
 }
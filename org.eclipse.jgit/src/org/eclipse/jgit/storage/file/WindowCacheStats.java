@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.file;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Snapshot of the usage of the {@link WindowCache}.
+ *
+ * @see WindowCache#getStats()
+ */
+public class WindowCacheStats {
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long totalLoadTime;
+
+	private final long evictionCount;
+
+	private final int openFileCount;
+
+	private final long openByteCount;
+
+	private final long mappedByteCount;
+
+	private final Collection<PackStats> packStats;
+
+	WindowCacheStats(final long hits, final long misses, final long loadTime,
+			final long evictions, final int openFiles, final long openBytes,
+			final long mappedBytes, final Collection<PackStats> packs) {
+		hitCount = hits;
+		missCount = misses;
+		totalLoadTime = loadTime;
+		evictionCount = evictions;
+		openFileCount = openFiles;
+		openByteCount = openBytes;
+		mappedByteCount = mappedBytes;
+		packStats = Collections.unmodifiableCollection(packs);
+	}
+
+	/** @return number of windows found in the cache. */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return number of windows that had to be loaded from their pack. */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return ratio of lookups found in the cache, between 0 and 1; 0 if the
+	 *         cache was never used.
+	 */
+	public double getHitRatio() {
+		final long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/** @return total time spent loading windows, in nanoseconds. */
+	public long getTotalLoadTime() {
+		return totalLoadTime;
+	}
+
+	/** @return average time spent loading a window, in nanoseconds. */
+	public double getAverageLoadTime() {
+		return missCount == 0 ? 0 : (double) totalLoadTime / missCount;
+	}
+
+	/** @return number of windows dropped to make room for other windows. */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** @return number of pack files held open by the cache. */
+	public int getOpenFileCount() {
+		return openFileCount;
+	}
+
+	/** @return number of bytes held by the cache. */
+	public long getOpenByteCount() {
+		return openByteCount;
+	}
+
+	/**
+	 * @return number of bytes of whole packs mapped into virtual memory,
+	 *         outside of the cache.
+	 * @see WindowCacheConfig#getPackedGitMmapLimit()
+	 */
+	public long getMappedByteCount() {
+		return mappedByteCount;
+	}
+
+	/** @return usage of every pack having at least one window in the cache. */
+	public Collection<PackStats> getPackStats() {
+		return packStats;
+	}
+
+	@Override
+	public String toString() {
+		return "WindowCacheStats[hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + ", files=" + openFileCount
+				+ ", bytes=" + openByteCount + ", mapped=" + mappedByteCount
+				+ "]";
+	}
+
+	/** Usage of the window cache by a single pack. */
+	public static class PackStats {
+		private final File packFile;
+
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final long windowCount;
+
+		private final long openByteCount;
+
+		PackStats(final File pack, final long hits, final long misses,
+				final long windows, final long openBytes) {
+			packFile = pack;
+			hitCount = hits;
+			missCount = misses;
+			windowCount = windows;
+			openByteCount = openBytes;
+		}
+
+		/** @return the pack file the windows belong to. */
+		public File getPackFile() {
+			return packFile;
+		}
+
+		/**
+		 * @return number of windows of this pack found in the cache, since
+		 *         the pack was opened.
+		 */
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/**
+		 * @return number of windows of this pack loaded into the cache, since
+		 *         the pack was opened.
+		 */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/** @return number of windows of this pack currently cached. */
+		public long getWindowCount() {
+			return windowCount;
+		}
+
+		/** @return number of bytes of this pack currently cached. */
+		public long getOpenByteCount() {
+			return openByteCount;
+		}
+	}
+}
@@ -45,25 +45,40 @@
 package org.eclipse.jgit.storage.file;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.InflaterCache;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.CommitGraph;
+import org.eclipse.jgit.revwalk.CommitGraphSource;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.ObjectReachability;
 import org.eclipse.jgit.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.storage.pack.ObjectToPack;
 import org.eclipse.jgit.storage.pack.PackOutputStream;
 import org.eclipse.jgit.storage.pack.PackWriter;
 
 /** Active handle to a ByteWindow. */
-final class WindowCursor extends ObjectReader implements ObjectReuseAsIs {
+final class WindowCursor extends ObjectReader implements ObjectReuseAsIs,
+		ObjectReachability, CommitGraphSource {
 	/** Temporary buffer large enough for at least one raw object id. */
 	final byte[] tempId = new byte[Constants.OBJECT_ID_LENGTH];
 
@@ -82,6 +97,16 @@ public ObjectReader newReader() {
 		return new WindowCursor(db);
 	}
 
+	@Override
+	public Collection<ObjectId> resolve(AbbreviatedObjectId id)
+			throws IOException {
+		if (id.isComplete())
+			return super.resolve(id);
+		final HashSet<ObjectId> matches = new HashSet<ObjectId>(4);
+		db.resolve(matches, id);
+		return matches;
+	}
+
 	public boolean has(AnyObjectId objectId) throws IOException {
 		return db.has(objectId);
 	}
@@ -127,6 +152,58 @@ public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp)
 		src.pack.copyAsIs(out, src, this);
 	}
 
+	public List<ObjectToPack> findStoredPackPrefix(
+			ObjectIdSubclassMap<ObjectToPack> reused) throws IOException {
+		final Map<PackFile, int[]> counts = new HashMap<PackFile, int[]>();
+		PackFile best = null;
+		int bestCount = 0;
+		for (ObjectToPack otp : reused) {
+			final PackFile pack = ((LocalObjectToPack) otp).pack;
+			int[] cnt = counts.get(pack);
+			if (cnt == null) {
+				cnt = new int[1];
+				counts.put(pack, cnt);
+			}
+			if (bestCount < ++cnt[0]) {
+				best = pack;
+				bestCount = cnt[0];
+			}
+		}
+		if (best == null)
+			return Collections.emptyList();
+		return best.findStoredPrefix(reused);
+	}
+
+	public void copyStoredPackPrefix(PackOutputStream out,
+			List<ObjectToPack> objects) throws IOException {
+		if (objects.isEmpty())
+			return;
+		LocalObjectToPack first = (LocalObjectToPack) objects.get(0);
+		first.pack.copyPrefixAsIs(out, objects, this);
+	}
+
+	public List<RevObject> findReachableObjects(RevWalk walk,
+			Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have, ProgressMonitor pm)
+			throws MissingObjectException, IOException {
+		final PackBitmapIndex bitmaps = db.getBitmapIndex();
+		if (bitmaps == null)
+			return null;
+		return new BitmapWalker(walk, bitmaps).findObjects(want, have, pm);
+	}
+
+	public int getPathHashCode(AnyObjectId id) throws IOException {
+		final PackBitmapIndex bitmaps = db.getBitmapIndex();
+		if (bitmaps == null)
+			return 0;
+		final int pos = bitmaps.findPosition(id);
+		return 0 <= pos ? bitmaps.getPathHashCode(pos) : 0;
+	}
+
+	public CommitGraph getCommitGraph() {
+		return db.getCommitGraph();
+	}
+
 	/**
 	 * Copy bytes from the window to a caller supplied buffer.
 	 *
@@ -236,6 +313,8 @@ void pin(final PackFile pack, final long position)
 			// it again.
 			//
 			window = null;
+			if (w instanceof PackMapping.Slice)
+				((PackMapping.Slice) w).release();
 			window = WindowCache.get(pack, position);
 		}
 	}
@@ -248,7 +327,10 @@ int getStreamFileThreshold() {
 
 	/** Release the current window cursor. */
 	public void release() {
+		final ByteWindow w = window;
 		window = null;
+		if (w instanceof PackMapping.Slice)
+			((PackMapping.Slice) w).release();
 		try {
 			InflaterCache.release(inf);
 		} finally {
@@ -43,46 +43,143 @@
 
 package org.eclipse.jgit.storage.pack;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 
 final class DeltaTask implements Callable<Object> {
-	private final PackConfig config;
+	/** State shared by all tasks searching the same object list. */
+	static final class Block {
+		final List<DeltaTask> tasks;
 
-	private final ObjectReader templateReader;
+		final PackConfig config;
 
-	private final DeltaCache dc;
+		final ObjectReader templateReader;
 
-	private final ProgressMonitor pm;
+		final DeltaCache dc;
 
-	private final int batchSize;
+		final ProgressMonitor pm;
 
-	private final int start;
+		final ObjectToPack[] list;
 
-	private final ObjectToPack[] list;
+		Block(int threads, PackConfig config, ObjectReader reader,
+				DeltaCache dc, ProgressMonitor pm, ObjectToPack[] list) {
+			this.tasks = new ArrayList<DeltaTask>(threads);
+			this.config = config;
+			this.templateReader = reader;
+			this.dc = dc;
+			this.pm = pm;
+			this.list = list;
+		}
+
+		/**
+		 * Take work away from the task with the most left to do.
+		 *
+		 * @param forThief
+		 *            the task asking for more work.
+		 * @return range the thief should search next; null if no task has
+		 *         enough remaining work to be worth splitting.
+		 */
+		synchronized Slice stealWork(DeltaTask forThief) {
+			for (;;) {
+				DeltaTask maxTask = null;
+				Slice maxSlice = null;
+				int maxWork = 0;
+
+				for (DeltaTask task : tasks) {
+					if (task == forThief)
+						continue;
+					Slice s = task.remaining();
+					if (s != null && maxWork < s.size()) {
+						maxTask = task;
+						maxSlice = s;
+						maxWork = s.size();
+					}
+				}
+				if (maxTask == null)
+					return null;
+				if (maxTask.tryStealWork(maxSlice))
+					return maxSlice;
+			}
+		}
+	}
+
+	/** A contiguous range of {@link Block#list}. */
+	static final class Slice {
+		final int beginIndex;
+
+		final int endIndex;
+
+		Slice(int beginIndex, int endIndex) {
+			this.beginIndex = beginIndex;
+			this.endIndex = endIndex;
+		}
+
+		final int size() {
+			return endIndex - beginIndex;
+		}
+	}
 
-	DeltaTask(PackConfig config, ObjectReader reader, DeltaCache dc,
-			ProgressMonitor pm, int batchSize, int start, ObjectToPack[] list) {
-		this.config = config;
-		this.templateReader = reader;
-		this.dc = dc;
-		this.pm = pm;
-		this.batchSize = batchSize;
-		this.start = start;
-		this.list = list;
+	private final Block block;
+
+	private final LinkedList<Slice> slices;
+
+	private DeltaWindow dw;
+
+	DeltaTask(Block block, int beginIndex, int endIndex) {
+		this.block = block;
+		this.slices = new LinkedList<Slice>();
+		this.slices.add(new Slice(beginIndex, endIndex));
 	}
 
 	public Object call() throws Exception {
-		final ObjectReader or = templateReader.newReader();
+		final ObjectReader or = block.templateReader.newReader();
 		try {
-			DeltaWindow dw;
-			dw = new DeltaWindow(config, dc, or);
-			dw.search(pm, list, start, batchSize);
+			for (;;) {
+				final Slice s;
+				synchronized (this) {
+					if (slices.isEmpty())
+						break;
+					s = slices.removeFirst();
+				}
+				search(or, s);
+			}
+
+			Slice s;
+			while ((s = block.stealWork(this)) != null)
+				search(or, s);
 		} finally {
+			synchronized (this) {
+				dw = null;
+			}
 			or.release();
 		}
 		return null;
 	}
+
+	private void search(ObjectReader or, Slice s) throws Exception {
+		final DeltaWindow w = new DeltaWindow(block.config, block.dc, or);
+		synchronized (this) {
+			dw = w;
+		}
+		w.search(block.pm, block.list, s.beginIndex, s.size());
+	}
+
+	synchronized Slice remaining() {
+		if (!slices.isEmpty())
+			return slices.getLast();
+		return dw != null ? dw.remaining() : null;
+	}
+
+	synchronized boolean tryStealWork(Slice s) {
+		if (!slices.isEmpty() && slices.getLast() == s) {
+			slices.removeLast();
+			return true;
+		}
+		return dw != null ? dw.tryStealWork(s) : false;
+	}
 }
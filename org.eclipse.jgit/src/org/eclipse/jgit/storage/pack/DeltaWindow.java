@@ -101,6 +101,15 @@ class DeltaWindow {
 	/** Used to compress cached deltas. */
 	private Deflater deflater;
 
+	/** Objects being searched, set while {@link #search} is running. */
+	private ObjectToPack[] toSearch;
+
+	/** Position of the next object in {@link #toSearch} to consider. */
+	private int cur;
+
+	/** One past the last position this window will consider. */
+	private int end;
+
 	DeltaWindow(PackConfig pc, DeltaCache dc, ObjectReader or) {
 		config = pc;
 		deltaCache = dc;
@@ -125,23 +134,35 @@ class DeltaWindow {
 		maxDepth = config.getMaxDeltaDepth();
 	}
 
-	void search(ProgressMonitor monitor, ObjectToPack[] toSearch, int off,
+	void search(ProgressMonitor monitor, ObjectToPack[] list, int off,
 			int cnt) throws IOException {
+		synchronized (this) {
+			toSearch = list;
+			cur = off;
+			end = off + cnt;
+		}
+
 		try {
-			for (int end = off + cnt; off < end; off++) {
+			for (;;) {
+				final ObjectToPack next;
+				synchronized (this) {
+					if (end <= cur)
+						break;
+					next = toSearch[cur++];
+				}
 				monitor.update(1);
 
 				res = window[resSlot];
 				if (0 < maxMemory) {
 					clear(res);
 					int tail = next(resSlot);
-					final long need = estimateSize(toSearch[off]);
+					final long need = estimateSize(next);
 					while (maxMemory < loaded + need && tail != resSlot) {
 						clear(window[tail]);
 						tail = next(tail);
 					}
 				}
-				res.set(toSearch[off]);
+				res.set(next);
 
 				if (res.object.isDoNotDelta()) {
 					// PackWriter marked edge objects with the
@@ -164,6 +185,54 @@ void search(ProgressMonitor monitor, ObjectToPack[] toSearch, int off,
 		}
 	}
 
+	/**
+	 * Propose the tail of the remaining range for another thread to take.
+	 * <p>
+	 * The range is split near its middle, on a path boundary, so that
+	 * objects sharing a path hash stay together in one window.
+	 *
+	 * @return the proposed range; null if too little is left to split.
+	 */
+	synchronized DeltaTask.Slice remaining() {
+		if (toSearch == null)
+			return null;
+
+		final int e = end;
+		final int halfRemaining = (e - cur) >>> 1;
+		if (halfRemaining == 0)
+			return null;
+
+		final int split = e - halfRemaining;
+		final int h = toSearch[split].getPathHash();
+
+		// Prefer the first path change after the middle, and only
+		// look before it if the whole tail is a single path.
+		//
+		for (int n = split + 1; n < e; n++) {
+			if (h != toSearch[n].getPathHash())
+				return new DeltaTask.Slice(n, e);
+		}
+		for (int p = split - 1; cur < p; p--) {
+			if (h != toSearch[p].getPathHash())
+				return new DeltaTask.Slice(p + 1, e);
+		}
+		return null;
+	}
+
+	/**
+	 * Give up the tail of the range, if it is still unclaimed.
+	 *
+	 * @param s
+	 *            range previously returned by {@link #remaining()}.
+	 * @return true if this window will no longer consider {@code s}.
+	 */
+	synchronized boolean tryStealWork(DeltaTask.Slice s) {
+		if (s.beginIndex <= cur || end != s.endIndex)
+			return false;
+		end = s.beginIndex;
+		return true;
+	}
+
 	private static long estimateSize(ObjectToPack ent) {
 		return DeltaIndex.estimateIndexSize(ent.getWeight());
 	}
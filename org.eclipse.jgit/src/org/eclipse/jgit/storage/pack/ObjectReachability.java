@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.storage.pack;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Extension of {@link ObjectReader} that can enumerate reachable objects.
+ * <p>
+ * {@code ObjectReader} implementations may also optionally implement this
+ * interface if they have precomputed reachability information available, such
+ * as the bitmaps of a pack. {@link PackWriter} and the connectivity check of
+ * {@link org.eclipse.jgit.transport.ReceivePack} use it to count objects
+ * without parsing every commit and tree of the history.
+ */
+public interface ObjectReachability {
+	/**
+	 * Find all objects reachable from one set of objects, but not another.
+	 * <p>
+	 * Every object reachable from {@code want} is verified to exist in the
+	 * repository. If the reader cannot answer the question more efficiently
+	 * than a {@link org.eclipse.jgit.revwalk.ObjectWalk} would, it must return
+	 * null, and the caller will use an {@code ObjectWalk} instead.
+	 *
+	 * @param walk
+	 *            the walker used to create the returned objects. It must have
+	 *            been created with this reader. The flags of the walker are
+	 *            left unchanged.
+	 * @param want
+	 *            objects to start the traversal from.
+	 * @param have
+	 *            objects whose history is not returned. Objects which do not
+	 *            exist in the repository are silently ignored.
+	 * @param pm
+	 *            progress monitor, updated once per object found.
+	 * @return objects reachable from {@code want} and not from {@code have},
+	 *         in no particular order; null if the reader has no precomputed
+	 *         reachability information to answer the question with.
+	 * @throws MissingObjectException
+	 *             an object reachable from {@code want} does not exist.
+	 * @throws IOException
+	 *             the repository cannot be accessed.
+	 */
+	public List<RevObject> findReachableObjects(RevWalk walk,
+			Collection<? extends ObjectId> want,
+			Collection<? extends ObjectId> have, ProgressMonitor pm)
+			throws MissingObjectException, IOException;
+
+	/**
+	 * Get the hash of the path a tree or blob is found at.
+	 * <p>
+	 * {@link PackWriter} sorts the objects returned by
+	 * {@link #findReachableObjects(RevWalk, Collection, Collection, ProgressMonitor)}
+	 * by this hash for delta compression, as it does with
+	 * {@link org.eclipse.jgit.revwalk.ObjectWalk#getPathHashCode()} for the
+	 * objects it walks itself.
+	 *
+	 * @param id
+	 *            the object.
+	 * @return hash of a path the object is reachable at; 0 if not known.
+	 * @throws IOException
+	 *             the repository cannot be accessed.
+	 */
+	public int getPathHashCode(AnyObjectId id) throws IOException;
+}
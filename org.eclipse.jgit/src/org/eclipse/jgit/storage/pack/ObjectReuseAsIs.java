@@ -44,9 +44,11 @@
 package org.eclipse.jgit.storage.pack;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevObject;
 
@@ -133,4 +135,52 @@ public void selectObjectRepresentation(PackWriter packer, ObjectToPack otp)
 	 */
 	public void copyObjectAsIs(PackOutputStream out, ObjectToPack otp)
 			throws IOException, StoredObjectRepresentationNotAvailableException;
+
+	/**
+	 * Find objects that can be copied verbatim from the start of a stored pack.
+	 * <p>
+	 * {@link PackWriter} invokes this method after representations were
+	 * selected, with the objects it chose to reuse as-is. The reader picks the
+	 * stored pack most of them come from, and lists that pack's objects in the
+	 * order they are stored, beginning with the first object after the pack
+	 * header. The list ends before the first stored object that is not in
+	 * {@code reused}, or whose selected representation is not the one stored
+	 * at that position.
+	 * <p>
+	 * The header of the output has the same size as the stored one, so these
+	 * objects keep their offsets when copied, and offset encoded delta bases
+	 * between them remain valid.
+	 *
+	 * @param reused
+	 *            objects selected for reuse as-is, whose delta base (if any)
+	 *            is also written to the output.
+	 * @return the leading objects of one stored pack, in the order they are
+	 *         stored; empty if no pack starts with a reused object.
+	 * @throws IOException
+	 *             the repository cannot be accessed.
+	 */
+	public List<ObjectToPack> findStoredPackPrefix(
+			ObjectIdSubclassMap<ObjectToPack> reused) throws IOException;
+
+	/**
+	 * Copy the leading objects of a stored pack verbatim.
+	 * <p>
+	 * {@code PackWriter} invokes this method right after writing the pack
+	 * header, with a list returned by {@code findStoredPackPrefix}, or the
+	 * start of one. The stored bytes from the first object through the end of
+	 * the last one are written as they are, and the offset and CRC32 of each
+	 * object are set to the stored ones. Each object is verified against the
+	 * CRC32 of the pack's index as it is copied.
+	 *
+	 * @param out
+	 *            stream the objects should be written to.
+	 * @param objects
+	 *            the objects to copy, in the order they are stored.
+	 * @throws IOException
+	 *             the pack cannot be read, an object is corrupt, or the
+	 *             stream's write method threw an exception. Packing will
+	 *             abort.
+	 */
+	public void copyStoredPackPrefix(PackOutputStream out,
+			List<ObjectToPack> objects) throws IOException;
 }
@@ -130,6 +130,13 @@ public class PackConfig {
 	 */
 	public static final int DEFAULT_INDEX_VERSION = 2;
 
+	/**
+	 * Default value of the use bitmaps option: {@value}
+	 *
+	 * @see #setUseBitmaps(boolean)
+	 */
+	public static final boolean DEFAULT_USE_BITMAPS = true;
+
 
 	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
 
@@ -159,6 +166,8 @@ public class PackConfig {
 
 	private int indexVersion = DEFAULT_INDEX_VERSION;
 
+	private boolean useBitmaps = DEFAULT_USE_BITMAPS;
+
 
 	/** Create a default configuration. */
 	public PackConfig() {
@@ -591,6 +600,35 @@ public void setIndexVersion(final int version) {
 		indexVersion = version;
 	}
 
+	/**
+	 * True if the writer may count objects using reachability bitmaps.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @return true if the writer should use the reachability bitmaps of the
+	 *         repository, if it has any, to find the objects to pack.
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+
+	/**
+	 * Set whether the writer may count objects using reachability bitmaps.
+	 *
+	 * When enabled, and the repository has a pack with a bitmap index, the
+	 * writer merges the precomputed bitmaps instead of walking the history
+	 * of every commit. Objects found this way carry no path information, so
+	 * delta compression of new objects may find slightly worse bases.
+	 *
+	 * Default setting: {@value #DEFAULT_USE_BITMAPS}
+	 *
+	 * @param useBitmaps
+	 *            true to use reachability bitmaps when available.
+	 */
+	public void setUseBitmaps(boolean useBitmaps) {
+		this.useBitmaps = useBitmaps;
+	}
+
 	/**
 	 * Update properties by setting fields from the configuration.
 	 *
@@ -617,5 +655,6 @@ public void fromConfig(final Config rc) {
 		setReuseDeltas(rc.getBoolean("pack", "reusedeltas", isReuseDeltas()));
 		setReuseObjects(rc.getBoolean("pack", "reuseobjects", isReuseObjects()));
 		setDeltaCompress(rc.getBoolean("pack", "deltacompression", isDeltaCompress()));
+		setUseBitmaps(rc.getBoolean("pack", "usebitmaps", isUseBitmaps()));
 	}
 }
@@ -85,10 +85,13 @@
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
+import org.eclipse.jgit.storage.file.PackReverseIndexWriter;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
@@ -154,6 +157,9 @@ public class PackWriter {
 
 	private List<ObjectToPack> sortedByName;
 
+	/** Objects copied verbatim from the start of a stored pack. */
+	private List<ObjectToPack> storedPackPrefix = Collections.emptyList();
+
 	private byte packcsum[];
 
 	private boolean deltaBaseAsOffset;
@@ -305,6 +311,17 @@ public int getObjectsNumber() {
 		return objectsMap.size();
 	}
 
+	/**
+	 * Returns the number of objects the pack written by this writer copied
+	 * verbatim from the start of a pack stored by the repository.
+	 *
+	 * @return number of objects copied without being handled one at a time;
+	 *         0 before {@link #writePack} was invoked.
+	 */
+	public int getObjectsCopiedVerbatim() {
+		return storedPackPrefix.size();
+	}
+
 	/**
 	 * Prepare the list of objects to be written to the pack stream.
 	 * <p>
@@ -357,6 +374,14 @@ public void preparePack(final Iterator<RevObject> objectsSource)
 	 * Order is consistent with general git in-pack rules: sort by object type,
 	 * recency, path and delta-base first.
 	 * </p>
+	 * <p>
+	 * If the reader implements {@link ObjectReachability} and
+	 * {@link PackConfig#isUseBitmaps()} is set, the reader is asked for the
+	 * objects first, and for the path hashes of the trees and blobs found. A
+	 * thin pack with uninteresting objects then walks from the commits found
+	 * down to their parents the other side already has, for the delta bases
+	 * it may use, but not through the history of these parents.
+	 * </p>
 	 *
 	 * @param countingMonitor
 	 *            progress during object enumeration.
@@ -375,9 +400,18 @@ public void preparePack(ProgressMonitor countingMonitor,
 			throws IOException {
 		if (countingMonitor == null)
 			countingMonitor = NullProgressMonitor.INSTANCE;
+		countingMonitor.beginTask(JGitText.get().countingObjects,
+				ProgressMonitor.UNKNOWN);
+		if (config.isUseBitmaps() && reader instanceof ObjectReachability
+				&& findObjectsByBitmap(countingMonitor, interestingObjects,
+						uninterestingObjects)) {
+			countingMonitor.endTask();
+			return;
+		}
 		ObjectWalk walker = setUpWalker(interestingObjects,
 				uninterestingObjects);
 		findObjectsToPack(countingMonitor, walker);
+		countingMonitor.endTask();
 	}
 
 	/**
@@ -432,6 +466,24 @@ public void writeIndex(final OutputStream indexStream) throws IOException {
 		iw.write(list, packcsum);
 	}
 
+	/**
+	 * Create a reverse index file to match the pack file just written.
+	 * <p>
+	 * Like {@link #writeIndex(OutputStream)} this method can only be invoked
+	 * after the pack was written.
+	 *
+	 * @param revStream
+	 *            output for the reverse index data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws IOException
+	 *             the reverse index could not be written to the stream.
+	 * @see PackReverseIndexWriter
+	 */
+	public void writeReverseIndex(final OutputStream revStream)
+			throws IOException {
+		new PackReverseIndexWriter(revStream).write(sortByName(), packcsum);
+	}
+
 	private List<ObjectToPack> sortByName() {
 		if (sortedByName == null) {
 			sortedByName = new ArrayList<ObjectToPack>(objectsMap.size());
@@ -476,8 +528,10 @@ public void writePack(ProgressMonitor compressMonitor,
 		if (writeMonitor == null)
 			writeMonitor = NullProgressMonitor.INSTANCE;
 
-		if ((reuseDeltas || config.isReuseObjects()) && reuseSupport != null)
+		if ((reuseDeltas || config.isReuseObjects()) && reuseSupport != null) {
 			searchForReuse();
+			findStoredPackPrefix();
+		}
 		if (config.isDeltaCompress())
 			searchForDeltas(compressMonitor);
 
@@ -487,6 +541,10 @@ public void writePack(ProgressMonitor compressMonitor,
 		int objCnt = getObjectsNumber();
 		writeMonitor.beginTask(JGitText.get().writingObjects, objCnt);
 		out.writeFileHeader(PACK_VERSION_GENERATED, objCnt);
+		if (!storedPackPrefix.isEmpty()) {
+			reuseSupport.copyStoredPackPrefix(out, storedPackPrefix);
+			writeMonitor.update(storedPackPrefix.size());
+		}
 		writeObjects(writeMonitor, out);
 		writeChecksum(out);
 
@@ -510,6 +568,49 @@ private void searchForReuse() throws IOException {
 		}
 	}
 
+	private void findStoredPackPrefix() throws IOException {
+		// Stored deltas may encode their base as an offset, which a client
+		// that did not ask for offset deltas cannot read.
+		//
+		if (!deltaBaseAsOffset)
+			return;
+
+		final ObjectIdSubclassMap<ObjectToPack> reused;
+		reused = new ObjectIdSubclassMap<ObjectToPack>();
+		for (List<ObjectToPack> list : objectsLists) {
+			for (ObjectToPack otp : list) {
+				if (!otp.isReuseAsIs())
+					continue;
+				if (otp.isDeltaRepresentation() && otp.getDeltaBase() == null)
+					continue; // base is not in this pack
+				reused.add(otp);
+			}
+		}
+		if (reused.isEmpty())
+			return;
+
+		// A base has to be written before its delta. The stored pack
+		// guarantees this for offset deltas, but not for reference ones.
+		//
+		final List<ObjectToPack> found = reuseSupport
+				.findStoredPackPrefix(reused);
+		final ObjectIdSubclassMap<ObjectToPack> copied;
+		copied = new ObjectIdSubclassMap<ObjectToPack>();
+		for (ObjectToPack otp : found) {
+			if (otp.isDeltaRepresentation()
+					&& copied.get(otp.getDeltaBase()) == null)
+				break;
+			copied.add(otp);
+		}
+		storedPackPrefix = found.subList(0, copied.size());
+
+		// These objects are copied as they are stored, so there is no
+		// point in searching a better delta for them.
+		//
+		for (ObjectToPack otp : storedPackPrefix)
+			otp.setDoNotDelta(true);
+	}
+
 	private void searchForDeltas(ProgressMonitor monitor)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
@@ -618,29 +719,30 @@ private void searchForDeltas(final ProgressMonitor monitor,
 		final DeltaCache dc = new ThreadSafeDeltaCache(config);
 		final ProgressMonitor pm = new ThreadSafeProgressMonitor(monitor);
 
-		// Guess at the size of batch we want. Because we don't really
-		// have a way for a thread to steal work from another thread if
-		// it ends early, we over partition slightly so the work units
-		// are a bit smaller.
+		// Give each thread an equal share up front. A thread that runs
+		// out of work early steals the tail of whichever share has the
+		// most objects left, so uneven blocks no longer leave a single
+		// thread running long after the others have finished.
 		//
-		int estSize = cnt / (threads * 2);
+		int estSize = cnt / threads;
 		if (estSize < 2 * config.getDeltaSearchWindowSize())
 			estSize = 2 * config.getDeltaSearchWindowSize();
 
-		final List<DeltaTask> myTasks = new ArrayList<DeltaTask>(threads * 2);
+		final DeltaTask.Block taskBlock = new DeltaTask.Block(threads, config,
+				reader, dc, pm, list);
 		for (int i = 0; i < cnt;) {
 			final int start = i;
-			final int batchSize;
+			int end;
 
 			if (cnt - i < estSize) {
 				// If we don't have enough to fill the remaining block,
 				// schedule what is left over as a single block.
 				//
-				batchSize = cnt - i;
+				end = cnt;
 			} else {
 				// Try to split the block at the end of a path.
 				//
-				int end = start + estSize;
+				end = start + estSize;
 				while (end < cnt) {
 					ObjectToPack a = list[end - 1];
 					ObjectToPack b = list[end];
@@ -649,11 +751,11 @@ private void searchForDeltas(final ProgressMonitor monitor,
 					else
 						break;
 				}
-				batchSize = end - start;
 			}
-			i += batchSize;
-			myTasks.add(new DeltaTask(config, reader, dc, pm, batchSize, start, list));
+			i = end;
+			taskBlock.tasks.add(new DeltaTask(taskBlock, start, end));
 		}
+		final List<DeltaTask> myTasks = taskBlock.tasks;
 
 		final Executor executor = config.getExecutor();
 		final List<Throwable> errors = Collections
@@ -979,8 +1081,6 @@ private ObjectWalk setUpWalker(
 	private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			final ObjectWalk walker) throws MissingObjectException,
 			IncorrectObjectTypeException,			IOException {
-		countingMonitor.beginTask(JGitText.get().countingObjects,
-				ProgressMonitor.UNKNOWN);
 		RevObject o;
 
 		while ((o = walker.next()) != null) {
@@ -991,7 +1091,97 @@ private void findObjectsToPack(final ProgressMonitor countingMonitor,
 			addObject(o, walker.getPathHashCode());
 			countingMonitor.update(1);
 		}
-		countingMonitor.endTask();
+	}
+
+	private boolean findObjectsByBitmap(final ProgressMonitor countingMonitor,
+			final Collection<? extends ObjectId> interestingObjects,
+			Collection<? extends ObjectId> uninterestingObjects)
+			throws MissingObjectException, IOException,
+			IncorrectObjectTypeException {
+		if (uninterestingObjects == null)
+			uninterestingObjects = Collections.<ObjectId> emptyList();
+		if (!ignoreMissingUninteresting) {
+			for (ObjectId id : uninterestingObjects) {
+				if (!reader.has(id))
+					throw new MissingObjectException(id.copy(), "unknown");
+			}
+		}
+
+		final ObjectReachability reachability = (ObjectReachability) reader;
+		final RevWalk walker = new RevWalk(reader);
+		walker.setRetainBody(false);
+		final List<RevObject> found = reachability.findReachableObjects(
+				walker, interestingObjects, uninterestingObjects,
+				countingMonitor);
+		if (found == null)
+			return false;
+		for (RevObject o : found) {
+			switch (o.getType()) {
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+				addObject(o, reachability.getPathHashCode(o));
+				break;
+			default:
+				addObject(o, 0);
+			}
+		}
+		if (thin && !uninterestingObjects.isEmpty())
+			findEdgeObjects(found);
+		return true;
+	}
+
+	/**
+	 * Walk from the commits found by bitmaps down to the boundary commits.
+	 * <p>
+	 * The boundary commits are the parents of the commits found which are not
+	 * found themselves, so the other side has them. The objects of their
+	 * trees become edge objects. The new objects get the paths they are found
+	 * at, which the bitmaps may not know, e.g. if they are not in the pack
+	 * with the bitmaps yet. The history the other side has is not walked.
+	 */
+	private void findEdgeObjects(final List<RevObject> found)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final ObjectWalk walker = new ObjectWalk(reader);
+		walker.setRetainBody(false);
+		walker.sort(RevSort.COMMIT_TIME_DESC);
+		walker.sort(RevSort.BOUNDARY, true);
+
+		final List<RevCommit> commits = new ArrayList<RevCommit>();
+		for (RevObject o : found) {
+			if (o.getType() == Constants.OBJ_COMMIT) {
+				final RevCommit c = walker.parseCommit(o);
+				walker.markStart(c);
+				commits.add(c);
+			}
+		}
+		for (RevCommit c : commits) {
+			for (RevCommit p : c.getParents()) {
+				if (objectsMap.get(p) != null)
+					continue;
+				try {
+					walker.markUninteresting(p);
+				} catch (MissingObjectException x) {
+					if (!ignoreMissingUninteresting)
+						throw x;
+				}
+			}
+		}
+
+		for (;;) {
+			if (walker.next() == null)
+				break;
+		}
+		RevObject o;
+		while ((o = walker.nextObject()) != null) {
+			if (o.has(RevFlag.UNINTERESTING)) {
+				addObject(o, walker.getPathHashCode());
+				continue;
+			}
+			final ObjectToPack otp = objectsMap.get(o);
+			if (otp != null)
+				otp.setPathHash(walker.getPathHashCode());
+		}
 	}
 
 	/**
@@ -55,6 +55,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -62,10 +63,12 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.ObjectWalk;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -175,24 +178,48 @@ else if (tagopt == TagOpt.FETCH_TAGS)
 			closeConnection(result);
 		}
 
+		final BatchRefUpdate batch = transport.local.getRefDatabase()
+				.newBatchUpdate()
+				.setAllowNonFastForwards(true)
+				.setRefLogMessage("fetch", true);
+		final List<TrackingRefUpdate> stale = new ArrayList<TrackingRefUpdate>();
 		final RevWalk walk = new RevWalk(transport.local);
 		try {
 			if (transport.isRemoveDeletedRefs())
-				deleteStaleTrackingRefs(result, walk);
+				deleteStaleTrackingRefs(result, batch, stale);
 			for (TrackingRefUpdate u : localUpdates) {
-				try {
-					u.update(walk);
-					result.add(u);
-				} catch (IOException err) {
-					throw new TransportException(MessageFormat.format(JGitText
-							.get().failureUpdatingTrackingRef,
-							u.getLocalName(), err.getMessage()), err);
-				}
+				result.add(u);
+				batch.addCommand(u.asReceiveCommand());
 			}
+			for (ReceiveCommand cmd : batch.getCommands()) {
+				cmd.updateType(walk);
+				if (cmd.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD
+						&& !((TrackingRefUpdate.Command) cmd)
+								.getTrackingRefUpdate().isForceUpdate())
+					cmd.setResult(RefUpdate.Result.REJECTED);
+			}
+			batch.execute(walk, monitor);
+		} catch (IOException err) {
+			throw new TransportException(MessageFormat.format(JGitText
+					.get().failureUpdatingTrackingRef,
+					firstNotAttempted(batch), err.getMessage()), err);
 		} finally {
 			walk.release();
 		}
 
+		for (final TrackingRefUpdate u : stale) {
+			switch (u.getResult()) {
+			case NEW:
+			case NO_CHANGE:
+			case FAST_FORWARD:
+			case FORCED:
+				break;
+			default:
+				throw new TransportException(transport.getURI(), MessageFormat.format(
+						JGitText.get().cannotDeleteStaleTrackingRef2, u.getLocalName(), u.getResult().name()));
+			}
+		}
+
 		if (!fetchHeadUpdates.isEmpty()) {
 			try {
 				updateFETCH_HEAD(result);
@@ -409,8 +436,17 @@ private TrackingRefUpdate createUpdate(final RefSpec spec,
 		return new TrackingRefUpdate(transport.local, spec, newId, "fetch");
 	}
 
+	private static String firstNotAttempted(final BatchRefUpdate batch) {
+		for (final ReceiveCommand cmd : batch.getCommands()) {
+			if (cmd.getResult() == ReceiveCommand.Result.NOT_ATTEMPTED)
+				return cmd.getRefName();
+		}
+		return "";
+	}
+
 	private void deleteStaleTrackingRefs(final FetchResult result,
-			final RevWalk walk) throws TransportException {
+			final BatchRefUpdate batch, final List<TrackingRefUpdate> stale)
+			throws TransportException {
 		final Repository db = transport.local;
 		for (final Ref ref : db.getAllRefs().values()) {
 			final String refname = ref.getName();
@@ -418,7 +454,7 @@ private void deleteStaleTrackingRefs(final FetchResult result,
 				if (spec.matchDestination(refname)) {
 					final RefSpec s = spec.expandFromDestination(refname);
 					if (result.getAdvertisedRef(s.getSource()) == null) {
-						deleteTrackingRef(result, db, walk, s, ref);
+						deleteTrackingRef(result, batch, stale, db, s, ref);
 					}
 				}
 			}
@@ -426,8 +462,9 @@ private void deleteStaleTrackingRefs(final FetchResult result,
 	}
 
 	private void deleteTrackingRef(final FetchResult result,
-			final Repository db, final RevWalk walk, final RefSpec spec,
-			final Ref localRef) throws TransportException {
+			final BatchRefUpdate batch, final List<TrackingRefUpdate> stale,
+			final Repository db, final RefSpec spec, final Ref localRef)
+			throws TransportException {
 		final String name = localRef.getName();
 		try {
 			final TrackingRefUpdate u = new TrackingRefUpdate(db, name, spec
@@ -436,17 +473,8 @@ private void deleteTrackingRef(final FetchResult result,
 			if (transport.isDryRun()){
 				return;
 			}
-			u.delete(walk);
-			switch (u.getResult()) {
-			case NEW:
-			case NO_CHANGE:
-			case FAST_FORWARD:
-			case FORCED:
-				break;
-			default:
-				throw new TransportException(transport.getURI(), MessageFormat.format(
-						JGitText.get().cannotDeleteStaleTrackingRef2, name, u.getResult().name()));
-			}
+			batch.addCommand(u.asReceiveCommand());
+			stale.add(u);
 		} catch (IOException e) {
 			throw new TransportException(transport.getURI(), MessageFormat.format(
 					JGitText.get().cannotDeleteStaleTrackingRef, name), e);
@@ -45,21 +45,36 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -75,11 +90,16 @@
 import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ProgressMonitor;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.storage.file.PackIndexWriter;
 import org.eclipse.jgit.storage.file.PackLock;
+import org.eclipse.jgit.storage.file.PackReverseIndexWriter;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.eclipse.jgit.storage.pack.BinaryDelta;
+import org.eclipse.jgit.storage.pack.DeltaStream;
+import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.NB;
 
 /** Indexes Git pack files for local use. */
@@ -128,24 +148,18 @@ public static IndexPack create(final Repository db, final InputStream is)
 
 		base = new File(objdir, n.substring(0, n.length() - suffix.length()));
 		final IndexPack ip = new IndexPack(db, is, base);
-		ip.setIndexVersion(db.getConfig().get(CoreConfig.KEY)
-				.getPackIndexVersion());
+		final CoreConfig core = db.getConfig().get(CoreConfig.KEY);
+		ip.setIndexVersion(core.getPackIndexVersion());
+		ip.setWriteReverseIndex(core.isWriteReverseIndex());
+		ip.setThreads(core.getPackIndexThreads());
+		ip.setStreamFileThreshold(core.getStreamFileThreshold());
+
+		final WindowCacheConfig wc = new WindowCacheConfig();
+		wc.fromConfig(db.getConfig());
+		ip.setDeltaBaseCacheLimit(wc.getDeltaBaseCacheLimit());
 		return ip;
 	}
 
-	private static enum Source {
-		/** Data is read from the incoming stream. */
-		INPUT,
-
-		/**
-		 * Data is read from the spooled pack file.
-		 * <p>
-		 * During streaming, some (or all) data might be saved into the spooled
-		 * pack file so it can be randomly accessed later.
-		 */
-		FILE;
-	}
-
 	private final Repository repo;
 
 	/**
@@ -179,10 +193,27 @@ private static enum Source {
 
 	private int outputVersion;
 
+	private boolean writeReverseIndex;
+
+	private int threads = 1;
+
+	private int streamFileThreshold = ObjectLoader.STREAM_THRESHOLD;
+
+	private int deltaBaseCacheLimit = new WindowCacheConfig()
+			.getDeltaBaseCacheLimit();
+
+	/** Streamed delta bases recently inflated from the spooled pack. */
+	private BaseCache baseCache;
+
+	/** Bytes inflated from the spooled pack while resolving deltas. */
+	private final AtomicLong inflatedByteCount = new AtomicLong();
+
 	private final File dstPack;
 
 	private final File dstIdx;
 
+	private final File dstRev;
+
 	private long objectCount;
 
 	private PackedObjectInfo[] entries;
@@ -217,6 +248,14 @@ private static enum Source {
 
 	private byte[] skipBuffer;
 
+	/**
+	 * Large whole objects that also exist in the repository.
+	 * <p>
+	 * These were hashed as they streamed in, so they can only be compared to
+	 * the existing copy once the pack has been spooled to disk.
+	 */
+	private List<PackedObjectInfo> existingLargeObjects;
+
 	private MessageDigest packDigest;
 
 	private RandomAccessFile packOut;
@@ -257,11 +296,13 @@ public IndexPack(final Repository db, final InputStream src,
 			final String nam = dstBase.getName();
 			dstPack = new File(dir, nam + ".pack");
 			dstIdx = new File(dir, nam + ".idx");
+			dstRev = new File(dir, nam + ".rev");
 			packOut = new RandomAccessFile(dstPack, "rw");
 			packOut.setLength(0);
 		} else {
 			dstPack = null;
 			dstIdx = null;
+			dstRev = null;
 		}
 	}
 
@@ -277,6 +318,83 @@ public void setIndexVersion(final int version) {
 		outputVersion = version;
 	}
 
+	/**
+	 * Configure this index pack instance to write a reverse index.
+	 * <p>
+	 * The <code>.rev</code> file is written next to the <code>.idx</code>,
+	 * and lets the pack find its objects by offset without sorting the offsets
+	 * of all of its objects first.
+	 *
+	 * @param write
+	 *            true to write the reverse index.
+	 * @see PackReverseIndexWriter
+	 */
+	public void setWriteReverseIndex(final boolean write) {
+		writeReverseIndex = write;
+	}
+
+	/**
+	 * Set the number of threads used to resolve deltas.
+	 * <p>
+	 * Deltas are resolved by walking the tree of deltas hanging off each
+	 * whole object. With more than one thread, independent trees are
+	 * resolved concurrently. The index written is the same either way.
+	 *
+	 * @param threads
+	 *            number of threads to use; 0 to use one thread per
+	 *            available processor. The default is 1.
+	 */
+	public void setThreads(final int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Set the size beyond which objects are streamed instead of being held
+	 * in memory.
+	 * <p>
+	 * Large blobs, and large objects of any type if no object checker is
+	 * set, are hashed and compared to existing objects in chunks. Large
+	 * delta results are rebuilt from their base as a stream, so memory use
+	 * does not grow with the size of the objects received.
+	 *
+	 * @param threshold
+	 *            size in bytes. The default is
+	 *            {@link ObjectLoader#STREAM_THRESHOLD}.
+	 */
+	public void setStreamFileThreshold(final int threshold) {
+		streamFileThreshold = threshold;
+	}
+
+	/**
+	 * Set the memory available to cache streamed delta bases.
+	 * <p>
+	 * Deltas of objects too large to keep in memory are rebuilt as a stream
+	 * over their base, which is itself inflated again from the spooled pack
+	 * each time it is opened. Bases no larger than this limit are kept after
+	 * their first use, so sibling deltas and deeper deltas in the same chain
+	 * do not inflate them again.
+	 *
+	 * @param limit
+	 *            maximum number of bytes to cache; 0 disables the cache.
+	 */
+	public void setDeltaBaseCacheLimit(final int limit) {
+		deltaBaseCacheLimit = limit;
+	}
+
+	/**
+	 * @return statistics on the delta resolution of the last call to
+	 *         {@link #index(ProgressMonitor)}.
+	 */
+	public IndexPackStats getStats() {
+		final BaseCache c = baseCache;
+		if (c == null)
+			return new IndexPackStats(0, 0, 0, inflatedByteCount.get());
+		synchronized (c) {
+			return new IndexPackStats(c.hitCount, c.missCount,
+					c.evictionCount, inflatedByteCount.get());
+		}
+	}
+
 	/**
 	 * Configure this index pack instance to make a thin pack complete.
 	 * <p>
@@ -413,10 +531,14 @@ public void index(final ProgressMonitor progress) throws IOException {
 				}
 				readPackFooter();
 				endInput();
+				if (existingLargeObjects != null)
+					verifyExistingLargeObjects();
 				progress.endTask();
 				if (deltaCount > 0) {
 					if (packOut == null)
 						throw new IOException(JGitText.get().needPackOut);
+					progress.beginTask(PROGRESS_RESOLVE_DELTA, deltaCount);
+					baseCache = new BaseCache(deltaBaseCacheLimit);
 					resolveDeltas(progress);
 					if (entryCount < objectCount) {
 						if (!fixThin) {
@@ -425,6 +547,7 @@ public void index(final ProgressMonitor progress) throws IOException {
 						}
 						fixThinPack(progress);
 					}
+					progress.endTask();
 				}
 				if (packOut != null && (keepEmpty || entryCount > 0))
 					packOut.getChannel().force(true);
@@ -432,6 +555,8 @@ public void index(final ProgressMonitor progress) throws IOException {
 				packDigest = null;
 				baseById = null;
 				baseByPos = null;
+				if (baseCache != null)
+					baseCache.clear();
 
 				if (dstIdx != null && (keepEmpty || entryCount > 0))
 					writeIdx();
@@ -461,99 +586,143 @@ public void index(final ProgressMonitor progress) throws IOException {
 					dstPack.setReadOnly();
 				if (dstIdx != null)
 					dstIdx.setReadOnly();
+				if (dstRev != null && dstRev.exists())
+					dstRev.setReadOnly();
 			}
 		} catch (IOException err) {
 			if (dstPack != null)
 				dstPack.delete();
 			if (dstIdx != null)
 				dstIdx.delete();
+			if (dstRev != null)
+				dstRev.delete();
 			throw err;
 		}
 	}
 
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
-		progress.beginTask(PROGRESS_RESOLVE_DELTA, deltaCount);
-		final int last = entryCount;
-		for (int i = 0; i < last; i++) {
-			final int before = entryCount;
-			resolveDeltas(entries[i]);
-			progress.update(entryCount - before);
-			if (progress.isCancelled())
-				throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+		final List<PackedObjectInfo> roots = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < entryCount; i++) {
+			if (hasDeltas(entries[i]))
+				roots.add(entries[i]);
 		}
-		progress.endTask();
+		resolveDeltas(progress, roots);
 	}
 
-	private void resolveDeltas(final PackedObjectInfo oe) throws IOException {
-		final int oldCRC = oe.getCRC();
-		if (baseById.get(oe) != null || baseByPos.containsKey(oe.getOffset()))
-			resolveDeltas(oe.getOffset(), oldCRC, Constants.OBJ_BAD, null, oe);
-	}
+	private void resolveDeltas(final ProgressMonitor progress,
+			final List<PackedObjectInfo> roots) throws IOException {
+		int n = threads;
+		if (n == 0)
+			n = Runtime.getRuntime().availableProcessors();
+		n = Math.min(n, roots.size());
 
-	private void resolveDeltas(final long pos, final int oldCRC, int type,
-			byte[] data, PackedObjectInfo oe) throws IOException {
-		crc.reset();
-		position(pos);
-		int c = readFrom(Source.FILE);
-		final int typeCode = (c >> 4) & 7;
-		long sz = c & 15;
-		int shift = 4;
-		while ((c & 0x80) != 0) {
-			c = readFrom(Source.FILE);
-			sz += (c & 0x7f) << shift;
-			shift += 7;
+		if (n <= 1) {
+			final DeltaResolver r = new DeltaResolver();
+			try {
+				for (final PackedObjectInfo oe : roots) {
+					final int before = r.resolved;
+					r.resolve(oe);
+					progress.update(r.resolved - before);
+					if (progress.isCancelled())
+						throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+				}
+			} finally {
+				r.release();
+			}
+		} else {
+			resolveDeltasInParallel(progress, roots, n);
 		}
+	}
 
-		switch (typeCode) {
-		case Constants.OBJ_COMMIT:
-		case Constants.OBJ_TREE:
-		case Constants.OBJ_BLOB:
-		case Constants.OBJ_TAG:
-			type = typeCode;
-			data = inflateAndReturn(Source.FILE, sz);
-			break;
-		case Constants.OBJ_OFS_DELTA: {
-			c = readFrom(Source.FILE) & 0xff;
-			while ((c & 128) != 0)
-				c = readFrom(Source.FILE) & 0xff;
-			data = BinaryDelta.apply(data, inflateAndReturn(Source.FILE, sz));
-			break;
-		}
-		case Constants.OBJ_REF_DELTA: {
-			crc.update(buf, fill(Source.FILE, 20), 20);
-			use(20);
-			data = BinaryDelta.apply(data, inflateAndReturn(Source.FILE, sz));
-			break;
-		}
-		default:
-			throw new IOException(MessageFormat.format(JGitText.get().unknownObjectType, typeCode));
-		}
+	private void resolveDeltasInParallel(final ProgressMonitor progress,
+			final List<PackedObjectInfo> roots, final int n)
+			throws IOException {
+		final ProgressMonitor pm = new ThreadSafeProgressMonitor(progress);
+		final AtomicInteger nextRoot = new AtomicInteger();
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>(n);
+		final ExecutorService pool = Executors.newFixedThreadPool(n);
+		try {
+			for (int t = 0; t < n; t++) {
+				futures.add(pool.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						final DeltaResolver r = new DeltaResolver();
+						try {
+							int i;
+							while ((i = nextRoot.getAndIncrement()) < roots.size()) {
+								final int before = r.resolved;
+								r.resolve(roots.get(i));
+								pm.update(r.resolved - before);
+								if (pm.isCancelled())
+									throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+							}
+						} catch (IOException err) {
+							nextRoot.set(roots.size());
+							throw err;
+						} catch (RuntimeException err) {
+							nextRoot.set(roots.size());
+							throw err;
+						} finally {
+							r.release();
+						}
+						return null;
+					}
+				}));
+			}
 
-		final int crc32 = (int) crc.getValue();
-		if (oldCRC != crc32)
-			throw new IOException(MessageFormat.format(JGitText.get().corruptionDetectedReReadingAt, pos));
-		if (oe == null) {
-			objectDigest.update(Constants.encodedTypeString(type));
-			objectDigest.update((byte) ' ');
-			objectDigest.update(Constants.encodeASCII(data.length));
-			objectDigest.update((byte) 0);
-			objectDigest.update(data);
-			tempObjectId.fromRaw(objectDigest.digest(), 0);
+			Throwable err = null;
+			for (final Future<Object> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException failed) {
+					if (err == null)
+						err = failed.getCause();
+				}
+			}
 
-			verifySafeObject(tempObjectId, type, data);
-			oe = new PackedObjectInfo(pos, crc32, tempObjectId);
-			addObjectAndTrack(oe);
+			// If any thread failed, report it back as though the
+			// deltas had been resolved on the calling thread.
+			//
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+			if (err != null) {
+				IOException fail = new IOException(err.getMessage());
+				fail.initCause(err);
+				throw fail;
+			}
+		} catch (InterruptedException ie) {
+			nextRoot.set(roots.size());
+			throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+		} finally {
+			pool.shutdown();
+			for (;;) {
+				try {
+					if (pool.awaitTermination(60, TimeUnit.SECONDS))
+						break;
+				} catch (InterruptedException e) {
+					throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
+				}
+			}
 		}
+	}
 
-		resolveChildDeltas(pos, type, data, oe);
+	private synchronized boolean hasDeltas(final PackedObjectInfo oe) {
+		return baseById.get(oe) != null || baseByPos.containsKey(oe.getOffset());
 	}
 
-	private UnresolvedDelta removeBaseById(final AnyObjectId id){
+	private synchronized UnresolvedDelta removeBaseById(final AnyObjectId id){
 		final DeltaChain d = baseById.get(id);
 		return d != null ? d.remove() : null;
 	}
 
+	private synchronized UnresolvedDelta removeBaseByPos(final long pos) {
+		return baseByPos.remove(pos);
+	}
+
 	private static UnresolvedDelta reverse(UnresolvedDelta c) {
 		UnresolvedDelta tail = null;
 		while (c != null) {
@@ -565,31 +734,6 @@ private static UnresolvedDelta reverse(UnresolvedDelta c) {
 		return tail;
 	}
 
-	private void resolveChildDeltas(final long pos, int type, byte[] data,
-			PackedObjectInfo oe) throws IOException {
-		UnresolvedDelta a = reverse(removeBaseById(oe));
-		UnresolvedDelta b = reverse(baseByPos.remove(pos));
-		while (a != null && b != null) {
-			if (a.position < b.position) {
-				resolveDeltas(a.position, a.crc, type, data, null);
-				a = a.next;
-			} else {
-				resolveDeltas(b.position, b.crc, type, data, null);
-				b = b.next;
-			}
-		}
-		resolveChildDeltaChain(type, data, a);
-		resolveChildDeltaChain(type, data, b);
-	}
-
-	private void resolveChildDeltaChain(final int type, final byte[] data,
-			UnresolvedDelta a) throws IOException {
-		while (a != null) {
-			resolveDeltas(a.position, a.crc, type, data, null);
-			a = a.next;
-		}
-	}
-
 	private void fixThinPack(final ProgressMonitor progress) throws IOException {
 		growEntries();
 
@@ -600,19 +744,24 @@ private void fixThinPack(final ProgressMonitor progress) throws IOException {
 		originalEOF = packOut.length() - 20;
 		final Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
 		final List<DeltaChain> missing = new ArrayList<DeltaChain>(64);
+		final List<PackedObjectInfo> roots = new ArrayList<PackedObjectInfo>();
 		long end = originalEOF;
 		for (final DeltaChain baseId : baseById) {
 			if (baseId.head == null)
 				continue;
-			if (needBaseObjectIds)
-				baseObjectIds.add(baseId);
 			final ObjectLoader ldr;
 			try {
 				ldr = readCurs.open(baseId);
 			} catch (MissingObjectException notFound) {
+				// The base may still be a received delta, which has not
+				// been resolved yet. Only bases copied from the repository
+				// are reported by getBaseObjectIds().
+				//
 				missing.add(baseId);
 				continue;
 			}
+			if (needBaseObjectIds)
+				baseObjectIds.add(baseId);
 			final byte[] data = ldr.getCachedBytes();
 			final int typeCode = ldr.getType();
 			final PackedObjectInfo oe;
@@ -623,13 +772,18 @@ private void fixThinPack(final ProgressMonitor progress) throws IOException {
 			oe = new PackedObjectInfo(end, (int) crc.getValue(), baseId);
 			entries[entryCount++] = oe;
 			end = packOut.getFilePointer();
+			roots.add(oe);
 
-			resolveChildDeltas(oe.getOffset(), typeCode, data, oe);
 			if (progress.isCancelled())
 				throw new IOException(JGitText.get().downloadCancelledDuringIndexing);
 		}
 		def.end();
 
+		// The appended bases are whole objects now, so their deltas
+		// can be resolved just like those of the received objects.
+		//
+		resolveDeltas(progress, roots);
+
 		for (final DeltaChain base : missing) {
 			if (base.head != null)
 				throw new MissingObjectException(base, "delta base");
@@ -680,7 +834,12 @@ private void fixHeaderFooter(final byte[] origcsum, final byte[] tailcsum)
 		packOut.seek(0);
 		bAvail = 0;
 		bOffset = 0;
-		fill(Source.FILE, 12);
+		while (bAvail < 12) {
+			final int n = packOut.read(buf, bAvail, buf.length - bAvail);
+			if (n <= 0)
+				throw new EOFException(JGitText.get().packfileIsTruncated);
+			bAvail += n;
+		}
 
 		{
 			final int origCnt = (int) Math.min(bAvail, origRemaining);
@@ -747,11 +906,21 @@ private void writeIdx() throws IOException {
 		} finally {
 			os.close();
 		}
+
+		if (writeReverseIndex) {
+			final FileOutputStream rev = new FileOutputStream(dstRev);
+			try {
+				new PackReverseIndexWriter(rev).write(list, packcsum);
+				rev.getChannel().force(true);
+			} finally {
+				rev.close();
+			}
+		}
 	}
 
 	private void readPackHeader() throws IOException {
 		final int hdrln = Constants.PACK_SIGNATURE.length + 4 + 4;
-		final int p = fill(Source.INPUT, hdrln);
+		final int p = fill(hdrln);
 		for (int k = 0; k < Constants.PACK_SIGNATURE.length; k++)
 			if (buf[p + k] != Constants.PACK_SIGNATURE[k])
 				throw new IOException(JGitText.get().notAPACKFile);
@@ -766,7 +935,7 @@ private void readPackHeader() throws IOException {
 	private void readPackFooter() throws IOException {
 		sync();
 		final byte[] cmpcsum = packDigest.digest();
-		final int c = fill(Source.INPUT, 20);
+		final int c = fill(20);
 		packcsum = new byte[20];
 		System.arraycopy(buf, c, packcsum, 0, 20);
 		use(20);
@@ -788,12 +957,12 @@ private void indexOneObject() throws IOException {
 		final long pos = position();
 
 		crc.reset();
-		int c = readFrom(Source.INPUT);
+		int c = readFrom();
 		final int typeCode = (c >> 4) & 7;
 		long sz = c & 15;
 		int shift = 4;
 		while ((c & 0x80) != 0) {
-			c = readFrom(Source.INPUT);
+			c = readFrom();
 			sz += (c & 0x7f) << shift;
 			shift += 7;
 		}
@@ -806,24 +975,24 @@ private void indexOneObject() throws IOException {
 			whole(typeCode, pos, sz);
 			break;
 		case Constants.OBJ_OFS_DELTA: {
-			c = readFrom(Source.INPUT);
+			c = readFrom();
 			long ofs = c & 127;
 			while ((c & 128) != 0) {
 				ofs += 1;
-				c = readFrom(Source.INPUT);
+				c = readFrom();
 				ofs <<= 7;
 				ofs += (c & 127);
 			}
 			final long base = pos - ofs;
 			final UnresolvedDelta n;
-			inflateAndSkip(Source.INPUT, sz);
+			inflateAndSkip(sz);
 			n = new UnresolvedDelta(pos, (int) crc.getValue());
 			n.next = baseByPos.put(base, n);
 			deltaCount++;
 			break;
 		}
 		case Constants.OBJ_REF_DELTA: {
-			c = fill(Source.INPUT, 20);
+			c = fill(20);
 			crc.update(buf, c, 20);
 			final ObjectId base = ObjectId.fromRaw(buf, c);
 			use(20);
@@ -832,7 +1001,7 @@ private void indexOneObject() throws IOException {
 				r = new DeltaChain(base);
 				baseById.add(r);
 			}
-			inflateAndSkip(Source.INPUT, sz);
+			inflateAndSkip(sz);
 			r.add(new UnresolvedDelta(pos, (int) crc.getValue()));
 			deltaCount++;
 			break;
@@ -844,24 +1013,59 @@ private void indexOneObject() throws IOException {
 
 	private void whole(final int type, final long pos, final long sz)
 			throws IOException {
-		final byte[] data = inflateAndReturn(Source.INPUT, sz);
 		objectDigest.update(Constants.encodedTypeString(type));
 		objectDigest.update((byte) ' ');
 		objectDigest.update(Constants.encodeASCII(sz));
 		objectDigest.update((byte) 0);
-		objectDigest.update(data);
-		tempObjectId.fromRaw(objectDigest.digest(), 0);
 
-		verifySafeObject(tempObjectId, type, data);
-		final int crc32 = (int) crc.getValue();
-		addObjectAndTrack(new PackedObjectInfo(pos, crc32, tempObjectId));
+		if (isLarge(type, sz)) {
+			inflateAndDigest(sz);
+			tempObjectId.fromRaw(objectDigest.digest(), 0);
+
+			final int crc32 = (int) crc.getValue();
+			final PackedObjectInfo oe = new PackedObjectInfo(pos, crc32,
+					tempObjectId);
+			addObjectAndTrack(oe);
+			if (readCurs.has(oe, type)) {
+				if (existingLargeObjects == null)
+					existingLargeObjects = new ArrayList<PackedObjectInfo>();
+				existingLargeObjects.add(oe);
+			}
+		} else {
+			final byte[] data = inflateAndReturn(sz);
+			objectDigest.update(data);
+			tempObjectId.fromRaw(objectDigest.digest(), 0);
+
+			verifySafeObject(readCurs, tempObjectId, type, data);
+			final int crc32 = (int) crc.getValue();
+			addObjectAndTrack(new PackedObjectInfo(pos, crc32, tempObjectId));
+		}
 	}
 
-	private void verifySafeObject(final AnyObjectId id, final int type,
-			final byte[] data) throws IOException {
+	private boolean isLarge(final int type, final long sz) {
+		return packOut != null && streamFileThreshold <= sz
+				&& (type == Constants.OBJ_BLOB || objCheck == null);
+	}
+
+	private void verifyExistingLargeObjects() throws IOException {
+		final DeltaResolver r = new DeltaResolver();
+		try {
+			for (final PackedObjectInfo oe : existingLargeObjects)
+				r.verifyLargeWhole(oe);
+		} finally {
+			r.release();
+		}
+		existingLargeObjects = null;
+	}
+
+	private void verifySafeObject(final ObjectReader curs,
+			final AnyObjectId id, final int type, final byte[] data)
+			throws IOException {
 		if (objCheck != null) {
 			try {
-				objCheck.check(type, data);
+				synchronized (objCheck) {
+					objCheck.check(type, data);
+				}
 			} catch (CorruptObjectException e) {
 				throw new IOException(MessageFormat.format(JGitText.get().invalidObject
 						, Constants.typeString(type) , id.name() , e.getMessage()));
@@ -869,7 +1073,7 @@ private void verifySafeObject(final AnyObjectId id, final int type,
 		}
 
 		try {
-			final ObjectLoader ldr = readCurs.open(id, type);
+			final ObjectLoader ldr = curs.open(id, type);
 			final byte[] existingData = ldr.getCachedBytes();
 			if (!Arrays.equals(data, existingData)) {
 				throw new IOException(MessageFormat.format(JGitText.get().collisionOn, id.name()));
@@ -881,22 +1085,54 @@ private void verifySafeObject(final AnyObjectId id, final int type,
 		}
 	}
 
+	private void verifyLargeObject(final ObjectReader curs,
+			final AnyObjectId id, final int type, final InputStream data)
+			throws IOException {
+		try {
+			final ObjectLoader ldr = curs.open(id, type);
+			final InputStream existing = ldr.openStream();
+			try {
+				if (!sameContent(data, existing))
+					throw new IOException(MessageFormat.format(JGitText.get().collisionOn, id.name()));
+			} finally {
+				existing.close();
+			}
+		} catch (MissingObjectException notLocal) {
+			// This is OK, we don't have a copy of the object locally.
+		}
+	}
+
+	private static boolean sameContent(final InputStream a,
+			final InputStream b) throws IOException {
+		final byte[] abuf = new byte[BUFFER_SIZE];
+		final byte[] bbuf = new byte[BUFFER_SIZE];
+		for (;;) {
+			final int n = a.read(abuf);
+			if (n < 0)
+				return b.read() < 0;
+			int bcnt = 0;
+			while (bcnt < n) {
+				final int r = b.read(bbuf, bcnt, n - bcnt);
+				if (r < 0)
+					return false;
+				bcnt += r;
+			}
+			for (int i = 0; i < n; i++) {
+				if (abuf[i] != bbuf[i])
+					return false;
+			}
+		}
+	}
+
 	// Current position of {@link #bOffset} within the entire file.
 	private long position() {
 		return bBase + bOffset;
 	}
 
-	private void position(final long pos) throws IOException {
-		packOut.seek(pos);
-		bBase = pos;
-		bOffset = 0;
-		bAvail = 0;
-	}
-
 	// Consume exactly one byte from the buffer and return it.
-	private int readFrom(final Source src) throws IOException {
+	private int readFrom() throws IOException {
 		if (bAvail == 0)
-			fill(src, 1);
+			fill(1);
 		bAvail--;
 		final int b = buf[bOffset++] & 0xff;
 		crc.update(b);
@@ -910,32 +1146,16 @@ private void use(final int cnt) {
 	}
 
 	// Ensure at least need bytes are available in in {@link #buf}.
-	private int fill(final Source src, final int need) throws IOException {
+	private int fill(final int need) throws IOException {
 		while (bAvail < need) {
 			int next = bOffset + bAvail;
 			int free = buf.length - next;
 			if (free + bAvail < need) {
-				switch(src){
-				case INPUT:
-					sync();
-					break;
-				case FILE:
-					if (bAvail > 0)
-						System.arraycopy(buf, bOffset, buf, 0, bAvail);
-					bOffset = 0;
-					break;
-				}
+				sync();
 				next = bAvail;
 				free = buf.length - next;
 			}
-			switch(src){
-			case INPUT:
-				next = in.read(buf, next, free);
-				break;
-			case FILE:
-				next = packOut.read(buf, next, free);
-				break;
-			}
+			next = in.read(buf, next, free);
 			if (next <= 0)
 				throw new EOFException(JGitText.get().packfileIsTruncated);
 			bAvail += next;
@@ -954,25 +1174,28 @@ private void sync() throws IOException {
 		bOffset = 0;
 	}
 
-	private void inflateAndSkip(final Source src, final long inflatedSize)
-			throws IOException {
-		inflate(src, inflatedSize, skipBuffer, false /* do not keep result */);
+	private void inflateAndSkip(final long inflatedSize) throws IOException {
+		inflate(inflatedSize, skipBuffer, false /* do not keep result */, null);
+	}
+
+	private void inflateAndDigest(final long inflatedSize) throws IOException {
+		inflate(inflatedSize, new byte[BUFFER_SIZE], false, objectDigest);
 	}
 
-	private byte[] inflateAndReturn(final Source src, final long inflatedSize)
+	private byte[] inflateAndReturn(final long inflatedSize)
 			throws IOException {
 		final byte[] dst = new byte[(int) inflatedSize];
-		inflate(src, inflatedSize, dst, true /* keep result in dst */);
+		inflate(inflatedSize, dst, true /* keep result in dst */, null);
 		return dst;
 	}
 
-	private void inflate(final Source src, final long inflatedSize,
-			final byte[] dst, final boolean keep) throws IOException {
+	private void inflate(final long inflatedSize, final byte[] dst,
+			final boolean keep, final MessageDigest md) throws IOException {
 		final Inflater inf = inflater;
 		try {
 			int off = 0;
 			long cnt = 0;
-			int p = fill(src, 24);
+			int p = fill(24);
 			inf.setInput(buf, p, bAvail);
 
 			for (;;) {
@@ -985,7 +1208,7 @@ private void inflate(final Source src, final long inflatedSize,
 							crc.update(buf, p, bAvail);
 							use(bAvail);
 						}
-						p = fill(src, 24);
+						p = fill(24);
 						inf.setInput(buf, p, bAvail);
 					} else {
 						throw new CorruptObjectException(MessageFormat.format(
@@ -993,6 +1216,8 @@ private void inflate(final Source src, final long inflatedSize,
 								JGitText.get().unknownZlibError));
 					}
 				}
+				if (md != null)
+					md.update(dst, off, r);
 				cnt += r;
 				if (keep)
 					off += r;
@@ -1017,6 +1242,596 @@ private void inflate(final Source src, final long inflatedSize,
 		}
 	}
 
+	/**
+	 * Resolves the deltas hanging off whole objects of the spooled pack.
+	 * <p>
+	 * Every resolver has its own buffer, inflater and object reader, and
+	 * reads the pack with positional reads that do not move the file
+	 * pointer of {@link #packOut}. Several resolvers can therefore work on
+	 * independent delta trees at the same time.
+	 */
+	private class DeltaResolver {
+		private final FileChannel ch;
+
+		private final ObjectReader curs;
+
+		private final Inflater inf;
+
+		private final MessageDigest objectDigest;
+
+		private final MutableObjectId tempObjectId;
+
+		private final CRC32 crc;
+
+		private final byte[] buf;
+
+		/** Position of {@code buf[0]} within the pack file. */
+		private long bBase;
+
+		private int bOffset;
+
+		private int bAvail;
+
+		private byte[] skipBuffer;
+
+		/** Number of deltas this resolver turned into objects. */
+		int resolved;
+
+		DeltaResolver() {
+			ch = packOut.getChannel();
+			curs = objectDatabase.newReader();
+			inf = InflaterCache.get();
+			objectDigest = Constants.newMessageDigest();
+			tempObjectId = new MutableObjectId();
+			crc = new CRC32();
+			buf = new byte[BUFFER_SIZE];
+		}
+
+		void release() {
+			try {
+				InflaterCache.release(inf);
+			} finally {
+				curs.release();
+			}
+		}
+
+		void resolve(final PackedObjectInfo oe) throws IOException {
+			if (hasDeltas(oe))
+				resolveDeltas(oe.getOffset(), oe.getCRC(), Constants.OBJ_BAD,
+						null, null, oe);
+		}
+
+		void verifyLargeWhole(final PackedObjectInfo oe) throws IOException {
+			position(oe.getOffset());
+			int c = readFrom();
+			final int type = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readFrom();
+				sz += (c & 0x7f) << shift;
+				shift += 7;
+			}
+
+			final InputStream in = new SpooledObject(type, sz, position())
+					.open();
+			try {
+				verifyLargeObject(curs, oe, type, in);
+			} finally {
+				in.close();
+			}
+		}
+
+		/**
+		 * Resolve the object at {@code pos}, and then the deltas based on it.
+		 * <p>
+		 * The base content is in {@code data} if it is small enough to be held
+		 * in memory, otherwise {@code base} can open it as a stream.
+		 */
+		private void resolveDeltas(final long pos, final int oldCRC,
+				int type, byte[] data, SpooledObject base, PackedObjectInfo oe)
+				throws IOException {
+			crc.reset();
+			position(pos);
+			int c = readFrom();
+			final int typeCode = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readFrom();
+				sz += (c & 0x7f) << shift;
+				shift += 7;
+			}
+
+			SpooledObject obj = null;
+			switch (typeCode) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				type = typeCode;
+				if (isLarge(type, sz)) {
+					obj = new SpooledObject(type, sz, position());
+					inflateAndSkip(sz);
+					data = null;
+				} else
+					data = inflateAndReturn(sz);
+				break;
+			case Constants.OBJ_OFS_DELTA: {
+				c = readFrom() & 0xff;
+				while ((c & 128) != 0)
+					c = readFrom() & 0xff;
+				obj = applyDelta(type, data, base, sz);
+				data = obj.data;
+				break;
+			}
+			case Constants.OBJ_REF_DELTA: {
+				crc.update(buf, fill(20), 20);
+				use(20);
+				obj = applyDelta(type, data, base, sz);
+				data = obj.data;
+				break;
+			}
+			default:
+				throw new IOException(MessageFormat.format(JGitText.get().unknownObjectType, typeCode));
+			}
+
+			final int crc32 = (int) crc.getValue();
+			if (oldCRC != crc32)
+				throw new IOException(MessageFormat.format(JGitText.get().corruptionDetectedReReadingAt, pos));
+			if (oe == null) {
+				objectDigest.update(Constants.encodedTypeString(type));
+				objectDigest.update((byte) ' ');
+				objectDigest.update(Constants.encodeASCII(data != null ? data.length : obj.size));
+				objectDigest.update((byte) 0);
+				if (data != null) {
+					objectDigest.update(data);
+					tempObjectId.fromRaw(objectDigest.digest(), 0);
+					verifySafeObject(curs, tempObjectId, type, data);
+				} else {
+					digest(obj);
+					tempObjectId.fromRaw(objectDigest.digest(), 0);
+					if (curs.has(tempObjectId, type)) {
+						final InputStream in = obj.open();
+						try {
+							verifyLargeObject(curs, tempObjectId, type, in);
+						} finally {
+							in.close();
+						}
+					}
+				}
+				oe = new PackedObjectInfo(pos, crc32, tempObjectId);
+				addObjectAndTrack(oe);
+				resolved++;
+			}
+
+			if (data != null)
+				obj = null;
+			resolveChildDeltas(pos, type, data, obj, oe);
+		}
+
+		/**
+		 * Apply the delta at the current position to its base.
+		 *
+		 * @return the result. If it is small enough to be held in memory its
+		 *         content is in {@link SpooledObject#data}.
+		 */
+		private SpooledObject applyDelta(final int type, final byte[] data,
+				final SpooledObject base, final long sz) throws IOException {
+			final long deltaPos = position();
+			final byte[] delta;
+			if (sz < streamFileThreshold)
+				delta = inflateAndReturn(sz);
+			else {
+				delta = null;
+				inflateAndSkip(sz);
+			}
+
+			if (data != null && delta != null
+					&& !isLarge(type, BinaryDelta.getResultSize(delta)))
+				return new SpooledObject(type, BinaryDelta.apply(data, delta));
+
+			final SpooledObject obj = new SpooledObject(type, delta, deltaPos,
+					data, base);
+			if (isLarge(type, obj.size))
+				return obj;
+
+			// The base is streamed, but the result is small enough to
+			// be kept in memory for the deltas based on it.
+			//
+			final byte[] r = new byte[(int) obj.size];
+			final InputStream in = obj.open();
+			try {
+				IO.readFully(in, r, 0, r.length);
+			} finally {
+				in.close();
+			}
+			return new SpooledObject(type, r);
+		}
+
+		private void digest(final SpooledObject obj) throws IOException {
+			if (skipBuffer == null)
+				skipBuffer = new byte[BUFFER_SIZE];
+			final InputStream in = obj.open();
+			try {
+				long cnt = 0;
+				int n;
+				while ((n = in.read(skipBuffer)) > 0) {
+					objectDigest.update(skipBuffer, 0, n);
+					cnt += n;
+				}
+				if (cnt != obj.size) {
+					throw new CorruptObjectException(MessageFormat.format(
+							JGitText.get().packfileCorruptionDetected,
+							JGitText.get().wrongDecompressedLength));
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		private void resolveChildDeltas(final long pos, int type,
+				byte[] data, SpooledObject obj, PackedObjectInfo oe)
+				throws IOException {
+			UnresolvedDelta a = reverse(removeBaseById(oe));
+			UnresolvedDelta b = reverse(removeBaseByPos(pos));
+			while (a != null && b != null) {
+				if (a.position < b.position) {
+					resolveDeltas(a.position, a.crc, type, data, obj, null);
+					a = a.next;
+				} else {
+					resolveDeltas(b.position, b.crc, type, data, obj, null);
+					b = b.next;
+				}
+			}
+			resolveChildDeltaChain(type, data, obj, a);
+			resolveChildDeltaChain(type, data, obj, b);
+		}
+
+		private void resolveChildDeltaChain(final int type,
+				final byte[] data, final SpooledObject obj, UnresolvedDelta a)
+				throws IOException {
+			while (a != null) {
+				resolveDeltas(a.position, a.crc, type, data, obj, null);
+				a = a.next;
+			}
+		}
+
+		// Current position of {@link #bOffset} within the pack file.
+		private long position() {
+			return bBase + bOffset;
+		}
+
+		private void position(final long pos) {
+			bBase = pos;
+			bOffset = 0;
+			bAvail = 0;
+		}
+
+		// Consume exactly one byte from the buffer and return it.
+		private int readFrom() throws IOException {
+			if (bAvail == 0)
+				fill(1);
+			bAvail--;
+			final int b = buf[bOffset++] & 0xff;
+			crc.update(b);
+			return b;
+		}
+
+		// Consume cnt bytes from the buffer.
+		private void use(final int cnt) {
+			bOffset += cnt;
+			bAvail -= cnt;
+		}
+
+		// Ensure at least need bytes are available in in {@link #buf}.
+		private int fill(final int need) throws IOException {
+			while (bAvail < need) {
+				if (buf.length - bOffset < need) {
+					if (bAvail > 0)
+						System.arraycopy(buf, bOffset, buf, 0, bAvail);
+					bBase += bOffset;
+					bOffset = 0;
+				}
+				final int next = bOffset + bAvail;
+				final ByteBuffer dst = ByteBuffer.wrap(buf, next, buf.length
+						- next);
+				final int n = ch.read(dst, bBase + next);
+				if (n <= 0)
+					throw new EOFException(JGitText.get().packfileIsTruncated);
+				bAvail += n;
+			}
+			return bOffset;
+		}
+
+		private void inflateAndSkip(final long inflatedSize)
+				throws IOException {
+			if (skipBuffer == null)
+				skipBuffer = new byte[BUFFER_SIZE];
+			inflate(inflatedSize, skipBuffer, false /* do not keep result */);
+		}
+
+		private byte[] inflateAndReturn(final long inflatedSize)
+				throws IOException {
+			final byte[] dst = new byte[(int) inflatedSize];
+			inflate(inflatedSize, dst, true /* keep result in dst */);
+			return dst;
+		}
+
+		private void inflate(final long inflatedSize, final byte[] dst,
+				final boolean keep) throws IOException {
+			try {
+				int off = 0;
+				long cnt = 0;
+				int p = fill(1);
+				inf.setInput(buf, p, bAvail);
+
+				for (;;) {
+					int r = inf.inflate(dst, off, dst.length - off);
+					if (r == 0) {
+						if (inf.finished())
+							break;
+						if (inf.needsInput()) {
+							crc.update(buf, p, bAvail);
+							use(bAvail);
+							p = fill(1);
+							inf.setInput(buf, p, bAvail);
+						} else {
+							throw new CorruptObjectException(MessageFormat.format(
+									JGitText.get().packfileCorruptionDetected,
+									JGitText.get().unknownZlibError));
+						}
+					}
+					cnt += r;
+					if (keep)
+						off += r;
+				}
+				inflatedByteCount.addAndGet(cnt);
+
+				if (cnt != inflatedSize) {
+					throw new CorruptObjectException(MessageFormat.format(JGitText
+							.get().packfileCorruptionDetected,
+							JGitText.get().wrongDecompressedLength));
+				}
+
+				int left = bAvail - inf.getRemaining();
+				if (left > 0) {
+					crc.update(buf, p, left);
+					use(left);
+				}
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(JGitText
+						.get().packfileCorruptionDetected, dfe.getMessage()));
+			} finally {
+				inf.reset();
+			}
+		}
+	}
+
+	/**
+	 * An object resolved from the spooled pack.
+	 * <p>
+	 * Small delta results carry their content in {@link #data}. Objects too
+	 * large to be held in memory are read back from the pack whenever they
+	 * are needed instead. A delta is then rebuilt as a stream over its base,
+	 * which is either another spooled object or, if small, the base's
+	 * content in memory.
+	 */
+	private class SpooledObject {
+		final int type;
+
+		final long size;
+
+		/** Position of the compressed data of the object, or of its delta. */
+		private final long dataPos;
+
+		/** The inflated delta, if it was small enough to be kept. */
+		private final byte[] delta;
+
+		private final byte[] baseData;
+
+		private final SpooledObject base;
+
+		/** Content of a delta result small enough to be kept in memory. */
+		final byte[] data;
+
+		SpooledObject(final int type, final byte[] data) {
+			this.type = type;
+			this.size = data.length;
+			this.dataPos = 0;
+			this.delta = null;
+			this.baseData = null;
+			this.base = null;
+			this.data = data;
+		}
+
+		SpooledObject(final int type, final long size, final long dataPos) {
+			this.type = type;
+			this.size = size;
+			this.dataPos = dataPos;
+			this.delta = null;
+			this.baseData = null;
+			this.base = null;
+			this.data = null;
+		}
+
+		SpooledObject(final int type, final byte[] delta, final long dataPos,
+				final byte[] baseData, final SpooledObject base)
+				throws IOException {
+			this.type = type;
+			this.dataPos = dataPos;
+			this.delta = delta;
+			this.baseData = baseData;
+			this.base = base;
+			this.data = null;
+
+			if (delta != null)
+				this.size = BinaryDelta.getResultSize(delta);
+			else {
+				final DeltaStream ds = openDelta();
+				try {
+					this.size = ds.getSize();
+				} finally {
+					ds.close();
+				}
+			}
+		}
+
+		InputStream open() throws IOException {
+			if (base == null && baseData == null)
+				return inflate();
+			return openDelta();
+		}
+
+		/** Open this object to read it as the base of a delta. */
+		InputStream openBase() throws IOException {
+			if (deltaBaseCacheLimit < size) {
+				baseCache.miss();
+				return open();
+			}
+
+			byte[] cached = baseCache.get(dataPos);
+			if (cached == null) {
+				cached = new byte[(int) size];
+				final InputStream in = open();
+				try {
+					IO.readFully(in, cached, 0, cached.length);
+				} finally {
+					in.close();
+				}
+				baseCache.store(dataPos, cached);
+			}
+			return new ByteArrayInputStream(cached);
+		}
+
+		private DeltaStream openDelta() throws IOException {
+			final InputStream d;
+			if (delta != null)
+				d = new ByteArrayInputStream(delta);
+			else
+				d = inflate();
+			return new DeltaStream(d) {
+				@Override
+				protected InputStream openBase() throws IOException {
+					if (base != null)
+						return base.openBase();
+					return new ByteArrayInputStream(baseData);
+				}
+
+				@Override
+				protected long getBaseSize() throws IOException {
+					if (base != null)
+						return base.size;
+					return baseData.length;
+				}
+			};
+		}
+
+		private InputStream inflate() {
+			return new InflaterInputStream(new BufferedInputStream(
+					new SpooledInputStream(dataPos), BUFFER_SIZE)) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					final int n = super.read(b, off, len);
+					if (0 < n)
+						inflatedByteCount.addAndGet(n);
+					return n;
+				}
+			};
+		}
+	}
+
+	/** Reads the spooled pack from a position, without moving its pointer. */
+	private class SpooledInputStream extends InputStream {
+		private final FileChannel ch;
+
+		private long pos;
+
+		SpooledInputStream(final long pos) {
+			this.ch = packOut.getChannel();
+			this.pos = pos;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			final int n = ch.read(ByteBuffer.wrap(b, off, len), pos);
+			if (n <= 0)
+				return -1;
+			pos += n;
+			return n;
+		}
+	}
+
+	/**
+	 * Least recently used cache of streamed delta bases, by pack position.
+	 * <p>
+	 * The cache is shared by all threads resolving deltas, and drops the
+	 * oldest bases once it holds more than its limit.
+	 */
+	private static class BaseCache {
+		private final int limit;
+
+		private final LinkedHashMap<Long, byte[]> entries;
+
+		private long openByteCount;
+
+		long hitCount;
+
+		long missCount;
+
+		long evictionCount;
+
+		BaseCache(final int limit) {
+			this.limit = limit;
+			this.entries = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+		}
+
+		synchronized byte[] get(final long position) {
+			final byte[] data = entries.get(Long.valueOf(position));
+			if (data != null)
+				hitCount++;
+			else
+				missCount++;
+			return data;
+		}
+
+		synchronized void miss() {
+			missCount++;
+		}
+
+		synchronized void store(final long position, final byte[] data) {
+			if (limit < data.length)
+				return;
+
+			final byte[] old = entries.put(Long.valueOf(position), data);
+			if (old != null)
+				openByteCount -= old.length;
+			openByteCount += data.length;
+
+			final Iterator<byte[]> i = entries.values().iterator();
+			while (limit < openByteCount && i.hasNext()) {
+				final byte[] e = i.next();
+				if (e == data)
+					continue;
+				openByteCount -= e.length;
+				i.remove();
+				evictionCount++;
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			openByteCount = 0;
+		}
+	}
+
 	private static class DeltaChain extends ObjectId {
 		UnresolvedDelta head;
 
@@ -1101,6 +1916,7 @@ public PackLock renameAndOpenPack(final String lockMessage)
 		final File packDir = new File(repo.getObjectsDirectory(), "pack");
 		final File finalPack = new File(packDir, "pack-" + name + ".pack");
 		final File finalIdx = new File(packDir, "pack-" + name + ".idx");
+		final File finalRev = new File(packDir, "pack-" + name + ".rev");
 		final PackLock keep = new PackLock(finalPack, repo.getFS());
 
 		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists()) {
@@ -1137,11 +1953,18 @@ public PackLock renameAndOpenPack(final String lockMessage)
 			throw new IOException(MessageFormat.format(JGitText.get().cannotMovePackTo, finalPack));
 		}
 
+		if (dstRev.exists() && !dstRev.renameTo(finalRev)) {
+			// The reverse index is optional; without it the pack sorts its
+			// offsets when first needed.
+			dstRev.delete();
+		}
+
 		if (!dstIdx.renameTo(finalIdx)) {
 			cleanupTemporaryFiles();
 			keep.unlock();
 			if (!finalPack.delete())
 				finalPack.deleteOnExit();
+			finalRev.delete();
 			throw new IOException(MessageFormat.format(JGitText.get().cannotMoveIndexTo, finalIdx));
 		}
 
@@ -1151,6 +1974,7 @@ public PackLock renameAndOpenPack(final String lockMessage)
 			keep.unlock();
 			finalPack.delete();
 			finalIdx.delete();
+			finalRev.delete();
 			throw err;
 		}
 
@@ -1160,11 +1984,13 @@ public PackLock renameAndOpenPack(final String lockMessage)
 	private void cleanupTemporaryFiles() {
 		if (!dstIdx.delete())
 			dstIdx.deleteOnExit();
+		if (!dstRev.delete() && dstRev.exists())
+			dstRev.deleteOnExit();
 		if (!dstPack.delete())
 			dstPack.deleteOnExit();
 	}
 
-	private void addObjectAndTrack(PackedObjectInfo oe) {
+	private synchronized void addObjectAndTrack(PackedObjectInfo oe) {
 		entries[entryCount++] = oe;
 		if (needNewObjectIds())
 			newObjectIds.add(oe);
@@ -53,6 +53,8 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
@@ -226,6 +228,10 @@ private void modifyUpdatesForDryRun() {
 	}
 
 	private void updateTrackingRefs() {
+		final BatchRefUpdate batch = transport.local.getRefDatabase()
+				.newBatchUpdate()
+				.setAllowNonFastForwards(true)
+				.setRefLogMessage("push", true);
 		for (final RemoteRefUpdate rru : toPush.values()) {
 			final Status status = rru.getStatus();
 			if (rru.hasTrackingRefUpdate()
@@ -234,12 +240,15 @@ private void updateTrackingRefs() {
 				// it has changed; this is possible for:
 				// -updated (OK) status,
 				// -up to date (UP_TO_DATE) status
-				try {
-					rru.updateTrackingRef(walker);
-				} catch (IOException e) {
-					// ignore as RefUpdate has stored I/O error status
-				}
+				batch.addCommand(rru.getTrackingRefUpdate().asReceiveCommand());
 			}
 		}
+		if (batch.getCommands().isEmpty())
+			return;
+		try {
+			batch.execute(walker, NullProgressMonitor.INSTANCE);
+		} catch (IOException e) {
+			// ignore as the tracking updates not stored keep their status
+		}
 	}
 }
@@ -43,8 +43,15 @@
 
 package org.eclipse.jgit.transport;
 
+import java.io.IOException;
+
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
 
 /**
  * A command being processed by {@link ReceivePack}.
@@ -213,6 +220,69 @@ public void setResult(final Result s, final String m) {
 		message = m;
 	}
 
+	/**
+	 * Set the status of this command from the result of a reference update.
+	 *
+	 * @param r
+	 *            the result of applying this command to its reference.
+	 */
+	public void setResult(final RefUpdate.Result r) {
+		switch (r) {
+		case NOT_ATTEMPTED:
+			setResult(Result.NOT_ATTEMPTED);
+			break;
+
+		case LOCK_FAILURE:
+		case IO_FAILURE:
+			setResult(Result.LOCK_FAILURE);
+			break;
+
+		case NO_CHANGE:
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+			setResult(Result.OK);
+			break;
+
+		case REJECTED:
+			setResult(Result.REJECTED_NONFASTFORWARD);
+			break;
+
+		case REJECTED_CURRENT_BRANCH:
+			setResult(Result.REJECTED_CURRENT_BRANCH);
+			break;
+
+		default:
+			setResult(Result.REJECTED_OTHER_REASON, r.name());
+			break;
+		}
+	}
+
+	/**
+	 * Mark an {@link Type#UPDATE} as {@link Type#UPDATE_NONFASTFORWARD} if the
+	 * new value does not contain the old one.
+	 *
+	 * @param walk
+	 *            a walk to parse the objects.
+	 * @throws IOException
+	 *             the objects cannot be read.
+	 */
+	public void updateType(final RevWalk walk) throws IOException {
+		if (type != Type.UPDATE)
+			return;
+		try {
+			final RevObject oldObj = walk.parseAny(oldId);
+			final RevObject newObj = walk.parseAny(newId);
+			if (!(oldObj instanceof RevCommit)
+					|| !(newObj instanceof RevCommit)
+					|| !walk.isMergedInto((RevCommit) oldObj,
+							(RevCommit) newObj))
+				type = Type.UPDATE_NONFASTFORWARD;
+		} catch (MissingObjectException e) {
+			type = Type.UPDATE_NONFASTFORWARD;
+		}
+	}
+
 	void setRef(final Ref r) {
 		ref = r;
 	}
@@ -68,14 +68,17 @@
 import org.eclipse.jgit.JGitText;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.Config.SectionParser;
 import org.eclipse.jgit.revwalk.ObjectWalk;
@@ -83,11 +86,14 @@
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.PackLock;
+import org.eclipse.jgit.storage.pack.ObjectReachability;
 import org.eclipse.jgit.transport.ReceiveCommand.Result;
 import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.util.io.InterruptTimer;
 import org.eclipse.jgit.util.io.TimeoutInputStream;
 import org.eclipse.jgit.util.io.TimeoutOutputStream;
@@ -187,6 +193,8 @@ public class ReceivePack {
 
 	private boolean checkReferencedIsReachable;
 
+	private boolean checkConnectivityByNewObjects;
+
 	/**
 	 * Create a new pack receive for an open repository.
 	 *
@@ -203,6 +211,7 @@ public ReceivePack(final Repository into) {
 		allowDeletes = cfg.allowDeletes;
 		allowNonFastForwards = cfg.allowNonFastForwards;
 		allowOfsDelta = cfg.allowOfsDelta;
+		checkConnectivityByNewObjects = cfg.checkConnectivityByNewObjects;
 		refFilter = RefFilter.DEFAULT;
 		preReceive = PreReceiveHook.NULL;
 		postReceive = PostReceiveHook.NULL;
@@ -225,6 +234,8 @@ public ReceiveConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final boolean checkConnectivityByNewObjects;
+
 		ReceiveConfig(final Config config) {
 			checkReceivedObjects = config.getBoolean("receive", "fsckobjects",
 					false);
@@ -234,6 +245,8 @@ public ReceiveConfig parse(final Config cfg) {
 					"denynonfastforwards", false);
 			allowOfsDelta = config.getBoolean("repack", "usedeltabaseoffset",
 					true);
+			checkConnectivityByNewObjects = config.getBoolean("receive",
+					"connectivitybynewobjects", false);
 		}
 	}
 
@@ -285,6 +298,37 @@ public void setCheckReferencedObjectsAreReachable(boolean b) {
 		this.checkReferencedIsReachable = b;
 	}
 
+	/**
+	 * @return true if connectivity is checked by parsing only the objects
+	 *         contained in the received pack.
+	 */
+	public boolean isCheckConnectivityByNewObjects() {
+		return checkConnectivityByNewObjects;
+	}
+
+	/**
+	 * Check connectivity by parsing only the received objects.
+	 * <p>
+	 * If enabled, the connectivity check parses only the objects the client
+	 * sent in its pack, and verifies every object they refer to is either also
+	 * in the pack or already present in the repository. Objects already in the
+	 * repository are trusted to be complete, so the cost of the check is
+	 * proportional to the size of the push rather than to the size of the
+	 * history reachable from the advertised refs.
+	 * <p>
+	 * This mode cannot prove an existing object is reachable from one of the
+	 * advertised refs. If {@link #setCheckReferencedObjectsAreReachable(boolean)}
+	 * is also enabled, the full object walk is still used.
+	 * <p>
+	 * The default is taken from {@code receive.connectivityByNewObjects}.
+	 *
+	 * @param b
+	 *            {@code true} to check only the received objects.
+	 */
+	public void setCheckConnectivityByNewObjects(boolean b) {
+		checkConnectivityByNewObjects = b;
+	}
+
 	/**
 	 * @return true if this class expects a bi-directional pipe opened between
 	 *         the client and itself. The default is true.
@@ -776,8 +820,10 @@ private void receivePack() throws IOException {
 
 		ip = IndexPack.create(db, rawIn);
 		ip.setFixThin(true);
-		ip.setNeedNewObjectIds(checkReferencedIsReachable);
-		ip.setNeedBaseObjectIds(checkReferencedIsReachable);
+		ip.setNeedNewObjectIds(checkReferencedIsReachable
+				|| useNewObjectConnectivity());
+		ip.setNeedBaseObjectIds(checkReferencedIsReachable
+				|| useNewObjectConnectivity());
 		ip.setObjectChecking(isCheckReceivedObjects());
 		ip.index(NullProgressMonitor.INSTANCE);
 
@@ -795,16 +841,33 @@ private boolean needCheckConnectivity() {
 				|| isCheckReferencedObjectsAreReachable();
 	}
 
+	private boolean useNewObjectConnectivity() {
+		return checkConnectivityByNewObjects && !checkReferencedIsReachable
+				&& isCheckReceivedObjects();
+	}
+
 	private void checkConnectivity() throws IOException {
 		ObjectIdSubclassMap<ObjectId> baseObjects = null;
 		ObjectIdSubclassMap<ObjectId> providedObjects = null;
 
-		if (checkReferencedIsReachable) {
+		if (checkReferencedIsReachable || useNewObjectConnectivity()) {
 			baseObjects = ip.getBaseObjectIds();
 			providedObjects = ip.getNewObjectIds();
 		}
 		ip = null;
 
+		if (useNewObjectConnectivity()) {
+			checkConnectivityByNewObjects(providedObjects, baseObjects);
+			return;
+		}
+
+		// Bitmaps cannot tell which of the base objects are reachable from
+		// the advertised refs, so only use them if there are none.
+		//
+		if ((!checkReferencedIsReachable || baseObjects.isEmpty())
+				&& checkConnectivityByBitmap(providedObjects))
+			return;
+
 		final ObjectWalk ow = new ObjectWalk(db);
 		for (final ReceiveCommand cmd : commands) {
 			if (cmd.getResult() != Result.NOT_ATTEMPTED)
@@ -854,6 +917,158 @@ private void checkConnectivity() throws IOException {
 		}
 	}
 
+	private boolean checkConnectivityByBitmap(
+			final ObjectIdSubclassMap<ObjectId> providedObjects)
+			throws IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			if (!(reader instanceof ObjectReachability))
+				return false;
+
+			final List<ObjectId> want = new ArrayList<ObjectId>();
+			for (final ReceiveCommand cmd : commands) {
+				if (cmd.getResult() != Result.NOT_ATTEMPTED)
+					continue;
+				if (cmd.getType() == ReceiveCommand.Type.DELETE)
+					continue;
+				want.add(cmd.getNewId());
+			}
+			final List<ObjectId> have = new ArrayList<ObjectId>();
+			for (final Ref ref : refs.values())
+				have.add(ref.getObjectId());
+
+			final RevWalk rw = new RevWalk(reader);
+			rw.setRetainBody(false);
+			final List<RevObject> found = ((ObjectReachability) reader)
+					.findReachableObjects(rw, want, have,
+							NullProgressMonitor.INSTANCE);
+			if (found == null)
+				return false;
+
+			if (checkReferencedIsReachable) {
+				for (final RevObject o : found) {
+					if (!providedObjects.contains(o))
+						throw new MissingObjectException(o, o.getType());
+				}
+			}
+			return true;
+		} finally {
+			reader.release();
+		}
+	}
+
+	private void checkConnectivityByNewObjects(
+			final ObjectIdSubclassMap<ObjectId> providedObjects,
+			final ObjectIdSubclassMap<ObjectId> baseObjects) throws IOException {
+		final ObjectReader reader = db.newObjectReader();
+		try {
+			final NewObjectChecker checker = new NewObjectChecker(reader,
+					providedObjects, baseObjects);
+			for (final ReceiveCommand cmd : commands) {
+				if (cmd.getResult() != Result.NOT_ATTEMPTED)
+					continue;
+				if (cmd.getType() == ReceiveCommand.Type.DELETE)
+					continue;
+				checker.include(cmd.getNewId(), Constants.OBJ_COMMIT);
+			}
+			checker.run();
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Walks the objects of a received pack, but nothing beyond it.
+	 * <p>
+	 * Objects the pack refers to without carrying them must already exist in
+	 * the repository. Existing objects are not parsed, as the repository is
+	 * assumed to hold their complete history.
+	 */
+	private static class NewObjectChecker {
+		private final ObjectReader reader;
+
+		private final ObjectIdSubclassMap<ObjectId> providedObjects;
+
+		/** Objects already handled, either queued or known to exist. */
+		private final ObjectIdSubclassMap<ObjectId> seen;
+
+		private final List<ObjectId> pending;
+
+		private final RevWalk rw;
+
+		private final CanonicalTreeParser tree;
+
+		NewObjectChecker(final ObjectReader reader,
+				final ObjectIdSubclassMap<ObjectId> providedObjects,
+				final ObjectIdSubclassMap<ObjectId> baseObjects) {
+			this.reader = reader;
+			this.providedObjects = providedObjects;
+			this.seen = new ObjectIdSubclassMap<ObjectId>();
+			this.pending = new ArrayList<ObjectId>();
+			this.rw = new RevWalk(reader);
+			this.tree = new CanonicalTreeParser();
+
+			rw.setRetainBody(false);
+
+			// Thin pack bases were copied out of the repository, so
+			// they are known to exist and need not be looked up again.
+			// A base the client also sent must still be parsed.
+			//
+			for (final ObjectId id : baseObjects) {
+				if (!providedObjects.contains(id))
+					seen.add(id);
+			}
+		}
+
+		void include(final AnyObjectId id, final int type)
+				throws IOException {
+			if (seen.contains(id))
+				return;
+			final ObjectId copy = id.copy();
+			seen.add(copy);
+
+			if (providedObjects.contains(id)) {
+				if (type != Constants.OBJ_BLOB)
+					pending.add(copy);
+			} else if (!reader.has(id))
+				throw new MissingObjectException(copy, type);
+		}
+
+		void run() throws IOException {
+			while (!pending.isEmpty()) {
+				final ObjectId id = pending.remove(pending.size() - 1);
+				final RevObject o = rw.parseAny(id);
+
+				switch (o.getType()) {
+				case Constants.OBJ_COMMIT: {
+					final RevCommit c = (RevCommit) o;
+					include(c.getTree(), Constants.OBJ_TREE);
+					for (final RevCommit p : c.getParents())
+						include(p, Constants.OBJ_COMMIT);
+					break;
+				}
+
+				case Constants.OBJ_TREE:
+					tree.reset(reader, o);
+					while (!tree.eof()) {
+						final FileMode mode = tree.getEntryFileMode();
+						if (mode != FileMode.GITLINK)
+							include(tree.getEntryObjectId(), mode
+									.getObjectType());
+						tree.next(1);
+					}
+					break;
+
+				case Constants.OBJ_TAG: {
+					final RevObject target = ((RevTag) o).getObject();
+					include(target, target.getType());
+					break;
+				}
+				}
+			}
+		}
+	}
+
 	private void validateCommands() {
 		for (final ReceiveCommand cmd : commands) {
 			final Ref ref = cmd.getRef();
@@ -966,72 +1181,18 @@ private void validateCommands() {
 
 	private void executeCommands() {
 		preReceive.onPreReceive(this, filterCommands(Result.NOT_ATTEMPTED));
-		for (final ReceiveCommand cmd : filterCommands(Result.NOT_ATTEMPTED))
-			execute(cmd);
-	}
 
-	private void execute(final ReceiveCommand cmd) {
+		final BatchRefUpdate batch = db.getRefDatabase().newBatchUpdate();
+		batch.setAllowNonFastForwards(isAllowNonFastForwards());
+		batch.setRefLogIdent(getRefLogIdent());
+		batch.setRefLogMessage("push", true);
+		batch.addCommand(filterCommands(Result.NOT_ATTEMPTED));
 		try {
-			final RefUpdate ru = db.updateRef(cmd.getRefName());
-			ru.setRefLogIdent(getRefLogIdent());
-			switch (cmd.getType()) {
-			case DELETE:
-				if (!ObjectId.zeroId().equals(cmd.getOldId())) {
-					// We can only do a CAS style delete if the client
-					// didn't bork its delete request by sending the
-					// wrong zero id rather than the advertised one.
-					//
-					ru.setExpectedOldObjectId(cmd.getOldId());
-				}
-				ru.setForceUpdate(true);
-				status(cmd, ru.delete(walk));
-				break;
-
-			case CREATE:
-			case UPDATE:
-			case UPDATE_NONFASTFORWARD:
-				ru.setForceUpdate(isAllowNonFastForwards());
-				ru.setExpectedOldObjectId(cmd.getOldId());
-				ru.setNewObjectId(cmd.getNewId());
-				ru.setRefLogMessage("push", true);
-				status(cmd, ru.update(walk));
-				break;
-			}
+			batch.execute(walk, NullProgressMonitor.INSTANCE);
 		} catch (IOException err) {
-			cmd.setResult(Result.REJECTED_OTHER_REASON, MessageFormat.format(
-					JGitText.get().lockError, err.getMessage()));
-		}
-	}
-
-	private void status(final ReceiveCommand cmd, final RefUpdate.Result result) {
-		switch (result) {
-		case NOT_ATTEMPTED:
-			cmd.setResult(Result.NOT_ATTEMPTED);
-			break;
-
-		case LOCK_FAILURE:
-		case IO_FAILURE:
-			cmd.setResult(Result.LOCK_FAILURE);
-			break;
-
-		case NO_CHANGE:
-		case NEW:
-		case FORCED:
-		case FAST_FORWARD:
-			cmd.setResult(Result.OK);
-			break;
-
-		case REJECTED:
-			cmd.setResult(Result.REJECTED_NONFASTFORWARD);
-			break;
-
-		case REJECTED_CURRENT_BRANCH:
-			cmd.setResult(Result.REJECTED_CURRENT_BRANCH);
-			break;
-
-		default:
-			cmd.setResult(Result.REJECTED_OTHER_REASON, result.name());
-			break;
+			for (final ReceiveCommand cmd : filterCommands(Result.NOT_ATTEMPTED))
+				cmd.setResult(Result.REJECTED_OTHER_REASON, MessageFormat
+						.format(JGitText.get().lockError, err.getMessage()));
 		}
 	}
 
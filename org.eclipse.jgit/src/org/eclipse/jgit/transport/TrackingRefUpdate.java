@@ -60,6 +60,8 @@ public class TrackingRefUpdate {
 
 	private final RefUpdate update;
 
+	private Result batchResult;
+
 	TrackingRefUpdate(final Repository db, final RefSpec spec,
 			final AnyObjectId nv, final String msg) throws IOException {
 		this(db, spec.getDestination(), spec.getSource(), spec.isForceUpdate(),
@@ -128,7 +130,16 @@ public ObjectId getOldObjectId() {
 	 * @return the status of the update.
 	 */
 	public Result getResult() {
-		return update.getResult();
+		return batchResult != null ? batchResult : update.getResult();
+	}
+
+	boolean isForceUpdate() {
+		return update.isForceUpdate();
+	}
+
+	/** @return a command applying this update as part of a batch. */
+	ReceiveCommand asReceiveCommand() {
+		return new Command();
 	}
 
 	void update(final RevWalk walk) throws IOException {
@@ -138,4 +149,24 @@ void update(final RevWalk walk) throws IOException {
 	void delete(final RevWalk walk) throws IOException {
 		update.delete(walk);
 	}
+
+	/** Command that records the result of a batch in this update. */
+	final class Command extends ReceiveCommand {
+		Command() {
+			super(update.getOldObjectId() != null ? update.getOldObjectId()
+					: ObjectId.zeroId(), update.getNewObjectId(), update
+					.getName());
+		}
+
+		/** @return the update this command applies. */
+		TrackingRefUpdate getTrackingRefUpdate() {
+			return TrackingRefUpdate.this;
+		}
+
+		@Override
+		public void setResult(final RefUpdate.Result status) {
+			batchResult = status;
+			super.setResult(status);
+		}
+	}
 }
@@ -106,6 +106,9 @@ public class UploadPack {
 	/** Configuration to pass into the PackWriter. */
 	private PackConfig packConfig;
 
+	/** Cache of previously generated packs; null if not caching. */
+	private UploadPackCache packCache;
+
 	/** Timeout in seconds to wait for client interaction. */
 	private int timeout;
 
@@ -273,6 +276,25 @@ public void setPackConfig(PackConfig pc) {
 		this.packConfig = pc;
 	}
 
+	/** @return the cache packs are replayed from; null if not caching. */
+	public UploadPackCache getPackCache() {
+		return packCache;
+	}
+
+	/**
+	 * Set the cache used to replay packs to identical requests.
+	 * <p>
+	 * If set, a pack generated for a request is saved into the cache, and
+	 * sent from there to later clients making exactly the same request
+	 * against the same state of the repository.
+	 *
+	 * @param cache
+	 *            the cache; null to always generate a new pack.
+	 */
+	public void setPackCache(UploadPackCache cache) {
+		this.packCache = cache;
+	}
+
 	/**
 	 * Execute the upload task on the socket.
 	 *
@@ -581,6 +603,20 @@ private void sendPack() throws IOException {
 						SideBandOutputStream.CH_PROGRESS, bufsz, rawOut));
 		}
 
+		UploadPackCache.Writer cacheOut = null;
+		if (packCache != null) {
+			final ObjectId key = packCache.key(db, refs.values(), wantAll,
+					commonBase, packOptions());
+			if (packCache.copyTo(key, packOut)) {
+				packOut.flush();
+				if (sideband)
+					pckOut.end();
+				return;
+			}
+			cacheOut = packCache.newWriter(key, packOut);
+			packOut = cacheOut;
+		}
+
 		PackConfig cfg = packConfig;
 		if (cfg == null)
 			cfg = new PackConfig(db);
@@ -605,12 +641,27 @@ private void sendPack() throws IOException {
 				}
 			}
 			pw.writePack(pm, NullProgressMonitor.INSTANCE, packOut);
+			if (cacheOut != null)
+				cacheOut.commit();
 		} finally {
 			pw.release();
+			if (cacheOut != null)
+				cacheOut.discard();
 		}
 		packOut.flush();
 
 		if (sideband)
 			pckOut.end();
 	}
+
+	private List<String> packOptions() {
+		final List<String> r = new ArrayList<String>(3);
+		if (options.contains(OPTION_OFS_DELTA))
+			r.add(OPTION_OFS_DELTA);
+		if (options.contains(OPTION_THIN_PACK))
+			r.add(OPTION_THIN_PACK);
+		if (options.contains(OPTION_INCLUDE_TAG))
+			r.add(OPTION_INCLUDE_TAG);
+		return r;
+	}
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2010, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.ObjectDirectory;
+import org.eclipse.jgit.storage.file.PackFile;
+
+/**
+ * Keeps packs generated by {@link UploadPack} on local disk for reuse.
+ * <p>
+ * Clients such as build servers often fetch exactly the same objects over and
+ * over again. Without a cache every one of those requests repeats the object
+ * counting, delta search and compression. With a cache the first request
+ * stores the pack stream it generated, and later identical requests replay
+ * the stored stream directly to the client.
+ * <p>
+ * Requests are identical if they name the same repository, the same wants,
+ * the same common bases, and the same options affecting the pack content. The
+ * current refs and pack files of the repository are also part of the key, so
+ * an entry is never replayed once either has changed. Such stale entries are
+ * not deleted right away; they age out like any other unused entry.
+ * <p>
+ * The cache is bounded by the total size of its entries. When a new entry is
+ * added the least recently used entries are removed until the cache fits
+ * within its limit again. A single cache may be shared by any number of
+ * UploadPack instances and repositories. The pack configuration used by
+ * those instances is not part of the key, so a directory should only be
+ * shared by servers using the same packing configuration.
+ */
+public class UploadPackCache {
+	private static final String PACK_SUFFIX = ".pack";
+
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File directory;
+
+	private final long limit;
+
+	/**
+	 * Create a new cache.
+	 *
+	 * @param directory
+	 *            directory to store the cached packs in. It is created on
+	 *            demand if it does not exist yet.
+	 * @param limit
+	 *            maximum number of bytes the cached packs may use. A pack
+	 *            larger than this limit is never cached.
+	 */
+	public UploadPackCache(final File directory, final long limit) {
+		this.directory = directory;
+		this.limit = limit;
+	}
+
+	/** @return directory the cached packs are stored in. */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** @return maximum number of bytes the cached packs may use. */
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Compute the key identifying a pack request.
+	 *
+	 * @param db
+	 *            the repository the pack is generated from.
+	 * @param refs
+	 *            refs advertised to the client.
+	 * @param want
+	 *            objects the client asked for.
+	 * @param have
+	 *            objects the client and server have in common.
+	 * @param options
+	 *            options affecting the content of the pack, such as
+	 *            {@code ofs-delta} or {@code thin-pack}.
+	 * @return the key of the request.
+	 */
+	ObjectId key(final Repository db, final Collection<Ref> refs,
+			final Collection<? extends AnyObjectId> want,
+			final Collection<? extends AnyObjectId> have,
+			final Collection<String> options) {
+		final MessageDigest md = Constants.newMessageDigest();
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+
+		if (db.getDirectory() != null)
+			line(md, "repository " + db.getDirectory().getAbsolutePath());
+
+		final ObjectDatabase odb = db.getObjectDatabase();
+		if (odb instanceof ObjectDirectory) {
+			final List<String> packs = new ArrayList<String>();
+			for (final PackFile p : ((ObjectDirectory) odb).getPacks())
+				packs.add(p.getPackFile().getName());
+			Collections.sort(packs);
+			for (final String name : packs)
+				line(md, "pack " + name);
+		}
+
+		final List<Ref> sortedRefs = new ArrayList<Ref>(refs);
+		Collections.sort(sortedRefs, new Comparator<Ref>() {
+			public int compare(final Ref a, final Ref b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		for (final Ref r : sortedRefs) {
+			line(md, "ref " + r.getName());
+			if (r.getObjectId() != null) {
+				r.getObjectId().copyRawTo(raw, 0);
+				md.update(raw);
+			}
+		}
+
+		ids(md, "want", want, raw);
+		ids(md, "have", have, raw);
+
+		final List<String> sortedOptions = new ArrayList<String>(options);
+		Collections.sort(sortedOptions);
+		for (final String o : sortedOptions)
+			line(md, "option " + o);
+
+		return ObjectId.fromRaw(md.digest());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void ids(final MessageDigest md, final String type,
+			final Collection<? extends AnyObjectId> objects, final byte[] raw) {
+		final List<ObjectId> sorted = new ArrayList<ObjectId>(objects.size());
+		for (final AnyObjectId id : objects)
+			sorted.add(id.copy());
+		Collections.sort(sorted);
+
+		line(md, type + " " + sorted.size());
+		for (final ObjectId id : sorted) {
+			id.copyRawTo(raw, 0);
+			md.update(raw);
+		}
+	}
+
+	private static void line(final MessageDigest md, final String str) {
+		md.update(Constants.encode(str));
+		md.update((byte) '\n');
+	}
+
+	/**
+	 * Copy a cached pack to the client.
+	 *
+	 * @param key
+	 *            key of the request, from {@link #key}.
+	 * @param out
+	 *            stream to copy the pack onto.
+	 * @return true if the pack was cached and has been copied; false if the
+	 *         pack is not in the cache and nothing was written.
+	 * @throws IOException
+	 *             the cached pack could not be read, or the client stream
+	 *             could not be written to.
+	 */
+	boolean copyTo(final ObjectId key, final OutputStream out)
+			throws IOException {
+		final File path = packFor(key);
+		final InputStream in;
+		try {
+			in = new FileInputStream(path);
+		} catch (FileNotFoundException notCached) {
+			return false;
+		}
+		try {
+			path.setLastModified(System.currentTimeMillis());
+
+			final byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Create a stream that saves a pack while it is sent to the client.
+	 *
+	 * @param key
+	 *            key of the request, from {@link #key}.
+	 * @param out
+	 *            stream the pack is sent to the client through.
+	 * @return stream to write the pack onto.
+	 */
+	Writer newWriter(final ObjectId key, final OutputStream out) {
+		return new Writer(key, out);
+	}
+
+	private File packFor(final AnyObjectId key) {
+		return new File(directory, key.name() + PACK_SUFFIX);
+	}
+
+	private synchronized void trim() {
+		final File[] list = directory.listFiles();
+		if (list == null)
+			return;
+
+		final List<Entry> packs = new ArrayList<Entry>(list.length);
+		for (final File f : list) {
+			if (f.getName().endsWith(PACK_SUFFIX))
+				packs.add(new Entry(f));
+		}
+
+		// Keep the most recently used packs, as long as they fit.
+		//
+		Collections.sort(packs, new Comparator<Entry>() {
+			public int compare(final Entry a, final Entry b) {
+				if (a.lastUsed < b.lastUsed)
+					return 1;
+				if (a.lastUsed == b.lastUsed)
+					return 0;
+				return -1;
+			}
+		});
+
+		long total = 0;
+		for (final Entry e : packs) {
+			total += e.length;
+			if (limit < total)
+				e.file.delete();
+		}
+	}
+
+	private static class Entry {
+		final File file;
+
+		final long lastUsed;
+
+		final long length;
+
+		Entry(final File file) {
+			this.file = file;
+			this.lastUsed = file.lastModified();
+			this.length = file.length();
+		}
+	}
+
+	/**
+	 * Sends a pack to the client, while saving a copy into the cache.
+	 * <p>
+	 * Failures to save the copy are not reported; the pack is sent to the
+	 * client as usual, and is simply not cached.
+	 */
+	class Writer extends OutputStream {
+		private final ObjectId key;
+
+		private final OutputStream out;
+
+		private File tmp;
+
+		private OutputStream file;
+
+		private long length;
+
+		Writer(final ObjectId key, final OutputStream out) {
+			this.key = key;
+			this.out = out;
+
+			try {
+				directory.mkdirs();
+				tmp = File.createTempFile("pack_", TMP_SUFFIX, directory);
+				file = new FileOutputStream(tmp);
+			} catch (IOException err) {
+				discard();
+			}
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+				throws IOException {
+			out.write(b, off, len);
+
+			if (file != null) {
+				length += len;
+				if (limit < length) {
+					discard();
+					return;
+				}
+
+				try {
+					file.write(b, off, len);
+				} catch (IOException err) {
+					discard();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		/** Store the pack into the cache, now that it is complete. */
+		void commit() {
+			if (file == null)
+				return;
+
+			try {
+				file.close();
+			} catch (IOException err) {
+				discard();
+				return;
+			}
+			file = null;
+
+			final boolean stored = tmp.renameTo(packFor(key));
+			if (!stored) {
+				// Another request may have stored the same pack first.
+				//
+				tmp.delete();
+			}
+			tmp = null;
+			if (stored)
+				trim();
+		}
+
+		/** Discard the copy, if the pack was not committed. */
+		void discard() {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException err) {
+					// Ignore it, the file is deleted anyway.
+				}
+				file = null;
+			}
+			if (tmp != null) {
+				tmp.delete();
+				tmp = null;
+			}
+		}
+	}
+}
@@ -51,6 +51,8 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.JGitText;
@@ -136,6 +138,38 @@ public static void readFully(final InputStream fd, final byte[] dst,
 		}
 	}
 
+	/**
+	 * Read the entire byte array into memory, or throw an exception.
+	 * <p>
+	 * The channel's own position is not used or modified, so multiple threads
+	 * can read different regions of the same channel at the same time.
+	 *
+	 * @param fd
+	 *            file channel to read the data from.
+	 * @param pos
+	 *            position within the file to start reading from.
+	 * @param dst
+	 *            buffer that must be fully populated, [off, off+len).
+	 * @param off
+	 *            position within the buffer to start writing to.
+	 * @param len
+	 *            number of bytes that must be read.
+	 * @throws EOFException
+	 *             the file ended before dst was fully populated.
+	 * @throws IOException
+	 *             there was an error reading from the file.
+	 */
+	public static void readFully(final FileChannel fd, long pos,
+			final byte[] dst, final int off, final int len) throws IOException {
+		final ByteBuffer bb = ByteBuffer.wrap(dst, off, len);
+		while (bb.hasRemaining()) {
+			final int r = fd.read(bb, pos);
+			if (r < 0)
+				throw new EOFException(JGitText.get().shortReadOfBlock);
+			pos += r;
+		}
+	}
+
 	/**
 	 * Skip an entire region of an input stream.
 	 * <p>